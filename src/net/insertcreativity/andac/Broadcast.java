@@ -0,0 +1,97 @@
+package net.insertcreativity.andac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**Lightweight handle to a large dataset that many tasks share, which is passed to tasks in their arguments in place of
+ * the dataset itself. The dataset is published once under the SHA-256 hash of it's contents, and each client fetches it
+ * the first time a task asks for it and keeps it mapped in it's broadcast cache, so thousands of tasks sharing it only
+ * cost one download per client. Handles are bound to the client's cache by the task executor before their task runs*/
+public final class Broadcast implements java.io.Serializable
+{
+	/**Serial ID for serializing this handle across networks*/
+	private static final long serialVersionUID = 4129406530615203721L;
+	/**The hexadecimal SHA-256 hash of the dataset's contents, which is also it's name in the master database*/
+	public final String hash;
+	/**The size of the dataset in bytes*/
+	public final long size;
+	/**Reference to the cache this handle fetches it's dataset through, null until it's bound on a client*/
+	private transient volatile BroadcastCache cache = null;
+	/**How many times this handle pinned it's dataset by handing out it's file, guarded by this*/
+	private transient int pins = 0;
+
+	/**Creates a new handle to a published dataset
+	 * @param contentHash The hexadecimal SHA-256 hash of the dataset's contents
+	 * @param length The size of the dataset in bytes*/
+	Broadcast(String contentHash, long length)
+	{
+		hash = contentHash;//set the dataset's hash
+		size = length;//set the dataset's size
+	}
+
+	/**Returns the dataset's contents, fetching it into the client's cache first if this is the first task to use it. The
+	 * buffer is read-only and memory-mapped, so it costs nothing to call this from every task, and each call returns a
+	 * buffer with it's own position
+	 * @return Read-only buffer holding the dataset
+	 * @throws IOException If the dataset couldn't be fetched, is too large to map into a single buffer, or this handle
+	 * isn't bound to a cache*/
+	public ByteBuffer data() throws IOException
+	{
+		return boundCache().map(this);//return the mapped dataset
+	}
+
+	/**Returns the dataset's local file, fetching it into the client's cache first if this is the first task to use it;
+	 * this is for datasets too large to map into a single buffer, or libraries that read files. The file must not be
+	 * modified, and it's kept in the cache until the task returns
+	 * @return Reference to the dataset's file
+	 * @throws IOException If the dataset couldn't be fetched, or this handle isn't bound to a cache*/
+	public File file() throws IOException
+	{
+		File file = boundCache().fetch(this);//fetch and pin the dataset's file
+		synchronized(this){//lock pins
+			pins++;//remember to unpin it once the task returns
+		}//release pins
+		return file;//return the dataset's file
+	}
+
+	/**Binds this handle to the cache it should fetch it's dataset through
+	 * @param broadcastCache The client's broadcast cache*/
+	void bind(BroadcastCache broadcastCache)
+	{
+		cache = broadcastCache;//set the handle's cache
+	}
+
+	/**Unpins every file this handle handed out, called by the task executor once the task using it returns*/
+	void release()
+	{
+		int count;//how many pins to remove
+		synchronized(this){//lock pins
+			count = pins;//store how many pins were taken
+			pins = 0;//they're all being removed
+		}//release pins
+		BroadcastCache broadcastCache = cache;//store the handle's cache
+		for(int counter = 0; (counter < count) && (broadcastCache != null); counter++){//iterate through the pins
+			broadcastCache.release(this);//unpin the dataset
+		}
+	}
+
+	/**Returns the cache this handle is bound to
+	 * @return The client's broadcast cache
+	 * @throws IOException If this handle isn't bound to a cache*/
+	private BroadcastCache boundCache() throws IOException
+	{
+		BroadcastCache broadcastCache = cache;//store the handle's cache
+		if(broadcastCache == null){//if the handle was never bound
+			throw new IOException("Broadcast " + hash + " isn't bound to a broadcast cache");//except that the dataset can't be fetched
+		}
+		return broadcastCache;//return the cache
+	}
+
+	/**Returns a string describing this handle
+	 * @return The dataset's hash and size*/
+	public String toString()
+	{
+		return "Broadcast[" + hash + ", " + size + " bytes]";//return the handle's description
+	}
+}
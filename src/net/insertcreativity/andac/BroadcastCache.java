@@ -0,0 +1,304 @@
+package net.insertcreativity.andac;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class that keeps a client's copies of broadcast datasets, so each dataset is downloaded once no matter how many tasks
+ * share it. Datasets are stored on disk under their content hash, checked against it when they're fetched, and
+ * memory-mapped on first use so every task reads the same pages without copying them onto the heap. When the cache
+ * grows past it's size limit the least recently used datasets are evicted, skipping any that are pinned because they're
+ * being mapped or a running task holds their file; a dataset that's still mapped can't always be deleted right away, so
+ * those are retried on later evictions*/
+public class BroadcastCache
+{
+	/**Extension given to cached datasets*/
+	private static final String EXTENSION = ".bin";
+	/**Reference to the log printer that the cache should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the directory that datasets are stored in*/
+	private final File directory;
+	/**Reference to the io manager datasets are fetched through*/
+	private final IOManager ioManager;
+	/**The most bytes of datasets to keep on disk*/
+	private final long maxBytes;
+	/**Map of the cached datasets in access order, keyed by their hashes, also it's own lock*/
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	/**Map of the locks for datasets being fetched, so concurrent tasks wait for one download instead of starting their
+	 * own, guarded by entries*/
+	private final HashMap<String, Object> fetching = new HashMap<String, Object>();
+	/**List of evicted datasets that couldn't be deleted yet because they were still mapped, guarded by entries*/
+	private final ArrayList<File> undeleted = new ArrayList<File>();
+	/**How many bytes of datasets are on disk, including ones waiting to be deleted, guarded by entries*/
+	private long diskSize = 0;
+
+	/**Creates a new broadcast cache, picking up any datasets left on disk from previous runs
+	 * @param logPrinter The log printer that the cache should log it's activity to
+	 * @param cacheDirectory The directory to store datasets in
+	 * @param manager The io manager to fetch datasets through
+	 * @param maxCacheBytes The most bytes of datasets to keep on disk
+	 * @throws IOException If the cache directory couldn't be created*/
+	public BroadcastCache(LogPrinter logPrinter, File cacheDirectory, IOManager manager, long maxCacheBytes) throws IOException
+	{
+		log = logPrinter;//set the cache's log
+		directory = cacheDirectory;//set the cache's directory
+		ioManager = manager;//set the cache's io manager
+		maxBytes = maxCacheBytes;//set the cache's size limit
+		if(!directory.isDirectory() && !directory.mkdirs()){//if the cache directory doesn't exist and couldn't be created
+			throw new IOException("Failed to create broadcast cache directory: " + directory.getAbsolutePath());//except that the directory couldn't be created
+		}
+		File[] files = directory.listFiles();//list the datasets left on disk
+		if(files != null){//if the directory could be listed
+			Arrays.sort(files, new Comparator<File>(){//sort the datasets from least to most recently used
+				public int compare(File file1, File file2)
+				{
+					return Long.compare(file1.lastModified(), file2.lastModified());//compare when the files were last used
+				}
+			});
+			for(File file : files){//iterate through the files
+				String fileName = file.getName();//get the file's name
+				if(fileName.endsWith(EXTENSION)){//if the file is a dataset
+					entries.put(fileName.substring(0, fileName.length() - EXTENSION.length()), new Entry(file));//keep the dataset
+					diskSize += file.length();//count it's size
+				} else if(fileName.endsWith(".tmp")){//if the file is an unfinished download
+					file.delete();//delete it
+				}
+			}
+		}
+		synchronized(entries){//lock entries
+			evict();//shrink the cache in case it's limit was lowered
+		}//release entries
+		log.log("Opened broadcast cache with " + entries.size() + " datasets, " + diskSize + " bytes at " + directory.getAbsolutePath());//log that the cache was opened
+	}
+
+	/**Returns a dataset's contents mapped into memory, fetching it first if it isn't cached
+	 * @param broadcast The handle of the dataset
+	 * @return Read-only buffer holding the dataset, with it's own position
+	 * @throws IOException If the dataset couldn't be fetched or is too large to map into a single buffer*/
+	ByteBuffer map(Broadcast broadcast) throws IOException
+	{
+		if(broadcast.size > Integer.MAX_VALUE){//if the dataset won't fit in a single buffer
+			throw new IOException(broadcast + " is too large to map, use it's file instead");//except that the dataset can't be mapped
+		}
+		Entry entry = acquire(broadcast);//make sure the dataset is cached, pinning it so it isn't deleted before it's mapped
+		try{//try to map the dataset
+			synchronized(entries){//lock entries
+				if(entry.buffer != null){//if the dataset is already mapped
+					return entry.buffer.asReadOnlyBuffer();//return a view of the mapping
+				}
+			}//release entries
+			MappedByteBuffer buffer;//reference for the new mapping
+			try(FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)){//open the dataset
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());//map the dataset, which stays valid after the channel closes
+			}
+			synchronized(entries){//lock entries
+				if(entry.buffer == null){//if no other task mapped it first
+					entry.buffer = buffer;//keep the mapping for the next task
+				}
+				return entry.buffer.asReadOnlyBuffer();//return a view of the mapping
+			}//release entries
+		} finally{//ensure the dataset gets unpinned
+			unpin(entry);//the mapping doesn't need the file kept around
+		}
+	}
+
+	/**Makes sure a dataset is cached and pins it so it can't be evicted until {@link #release(Broadcast)} is called for
+	 * it, which the task executor does once the task holding the file returns
+	 * @param broadcast The handle of the dataset
+	 * @return Reference to the dataset's file
+	 * @throws IOException If the dataset couldn't be downloaded or didn't match it's hash*/
+	File fetch(Broadcast broadcast) throws IOException
+	{
+		return acquire(broadcast).file;//fetch and pin the dataset
+	}
+
+	/**Unpins a dataset that was pinned by {@link #fetch(Broadcast)}, letting it be evicted again
+	 * @param broadcast The handle of the dataset*/
+	void release(Broadcast broadcast)
+	{
+		Entry entry;//reference for the dataset's entry
+		synchronized(entries){//lock entries
+			entry = entries.get(broadcast.hash);//get the dataset's entry, which can't have been evicted while pinned
+		}//release entries
+		if(entry != null){//if the dataset is cached
+			unpin(entry);//unpin it
+		}
+	}
+
+	/**Unpins a dataset, and evicts datasets that were skipped while it was pinned if the cache is over it's limit
+	 * @param entry The dataset's entry*/
+	private void unpin(Entry entry)
+	{
+		synchronized(entries){//lock entries
+			entry.pins--;//remove the pin
+			if((entry.pins == 0) && (diskSize > maxBytes)){//if the cache is over it's limit
+				evict();//shrink it now that the dataset can be evicted
+			}
+		}//release entries
+	}
+
+	/**Makes sure a dataset is cached, downloading it and checking it against it's hash if it isn't, and pins it so it
+	 * can't be evicted until it's unpinned; concurrent requests for the same dataset share a single download
+	 * @param broadcast The handle of the dataset
+	 * @return The dataset's pinned entry
+	 * @throws IOException If the dataset couldn't be downloaded or didn't match it's hash*/
+	private Entry acquire(Broadcast broadcast) throws IOException
+	{
+		if(!broadcast.hash.matches("[0-9a-f]{64}")){//if the hash isn't a SHA-256 hash, which would let it name any file
+			throw new IOException("Invalid broadcast hash: " + broadcast.hash);//except that the handle is corrupt
+		}
+		Object lock;//reference for the dataset's fetching lock
+		synchronized(entries){//lock entries
+			Entry entry = entries.get(broadcast.hash);//look up the dataset, marking it as recently used
+			if(entry != null){//if the dataset is already cached
+				entry.pins++;//pin the dataset
+				return entry;//return it's entry
+			}
+			lock = fetching.get(broadcast.hash);//get the dataset's fetching lock
+			if(lock == null){//if nothing is fetching the dataset
+				lock = new Object();//create a lock for fetching it
+				fetching.put(broadcast.hash, lock);
+			}
+		}//release entries
+		synchronized(lock){//lock the dataset's fetch
+			synchronized(entries){//lock entries
+				Entry entry = entries.get(broadcast.hash);//check whether another task fetched the dataset while this one waited
+				if(entry != null){//if the dataset was fetched
+					entry.pins++;//pin the dataset
+					return entry;//return it's entry
+				}
+			}//release entries
+			File file = new File(directory, broadcast.hash + EXTENSION);//create a reference to the dataset's file
+			File temp = new File(directory, broadcast.hash + ".tmp");//create a reference to a temporary file to download into first
+			Entry entry = new Entry(file);//create the dataset's entry
+			entry.pins = 1;//pin the dataset for the caller
+			try{//try to fetch the dataset
+				long start = System.currentTimeMillis();//store when the download started
+				ioManager.downloadBroadcast(broadcast.hash, temp);//download the dataset
+				String actual = hash(temp);//hash what was downloaded
+				if(!actual.equals(broadcast.hash)){//if the dataset is corrupt
+					throw new IOException("Broadcast " + broadcast.hash + " downloaded with hash " + actual);//except that the dataset can't be trusted
+				}
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);//move the dataset into place in one step, replacing any stale copy
+				synchronized(entries){//lock entries
+					entries.put(broadcast.hash, entry);//cache the dataset before it stops being marked as fetching
+					diskSize += file.length();//count it's size
+					evict();//make room for it, which skips it since it's pinned
+				}//release entries
+				log.log("Fetched " + broadcast + " in " + (System.currentTimeMillis() - start) + "ms");//log that the dataset was fetched
+			} catch(IOException ioException){//if the dataset couldn't be fetched
+				temp.delete();//delete any partial download
+				throw ioException;//propagate the exception
+			} catch(Exception exception){//if the master database couldn't be reached
+				temp.delete();//delete any partial download
+				throw new IOException("Failed to fetch " + broadcast, exception);//except that the dataset couldn't be fetched
+			} finally{//ensure the fetch lock gets released
+				synchronized(entries){//lock entries
+					fetching.remove(broadcast.hash);//the dataset isn't being fetched anymore
+				}//release entries
+			}
+			return entry;//return the dataset's entry
+		}
+	}
+
+	/**Lists the hashes of every dataset in the cache, for summarizing what this client has cached to it's server
+	 * @return List of the cached datasets' hashes*/
+	List<String> cachedHashes()
+	{
+		synchronized(entries){//lock entries
+			return new ArrayList<String>(entries.keySet());//copy the hashes, which doesn't change the datasets' access order
+		}//release entries
+	}
+
+	/**Evicts the least recently used datasets that aren't pinned until the cache is under it's size limit, and retries
+	 * deleting datasets that were still mapped when they were evicted; must be called while holding entries*/
+	private void evict()
+	{
+		Iterator<File> retries = undeleted.iterator();//iterate through the datasets waiting to be deleted
+		while(retries.hasNext()){
+			File file = retries.next();//get the dataset
+			long length = file.length();//store it's size
+			if(file.delete() || !file.exists()){//if the dataset was deleted
+				diskSize -= length;//uncount it's size
+				retries.remove();
+			}
+		}
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();//iterate from the least recently used dataset
+		while((diskSize > maxBytes) && iterator.hasNext()){//while the cache is over it's limit
+			Map.Entry<String, Entry> entry = iterator.next();//get the dataset
+			if(entry.getValue().pins > 0){//if the dataset is being mapped or a task holds it's file
+				continue;
+			}
+			File file = entry.getValue().file;//get the dataset's file
+			iterator.remove();//forget the dataset, tasks still using it's mapping keep it
+			long length = file.length();//store it's size
+			if(file.delete()){//if the dataset was deleted
+				diskSize -= length;//uncount it's size
+			} else{//if the dataset is still mapped somewhere
+				undeleted.add(file);//try again on the next eviction
+			}
+			log.log("Evicted broadcast " + entry.getKey() + " from cache");//log that the dataset was evicted
+		}
+	}
+
+	/**Hashes the contents of a file, which is how datasets are named
+	 * @param file The file to hash
+	 * @return The hexadecimal SHA-256 hash of the file's contents
+	 * @throws IOException If the file couldn't be read*/
+	static String hash(File file) throws IOException
+	{
+		MessageDigest digest;//reference for the hashing algorithm
+		try{//try to retrieve the hashing algorithm
+			digest = MessageDigest.getInstance("SHA-256");//retrieve the SHA-256 algorithm
+		} catch(NoSuchAlgorithmException noSuchAlgorithmException){//if SHA-256 isn't available
+			throw new IOException("SHA-256 is unavailable", noSuchAlgorithmException);//except that the file can't be hashed
+		}
+		byte[] buffer = new byte[64 * 1024];//allocate a buffer to read the file through
+		try(FileInputStream fileInputStream = new FileInputStream(file)){//create a stream for reading the file
+			int read;//how many bytes were read
+			while((read = fileInputStream.read(buffer)) != -1){//while the file hasn't been fully read
+				digest.update(buffer, 0, read);//hash the bytes
+			}
+		}
+		StringBuilder hash = new StringBuilder(64);//create a builder for the hexadecimal hash
+		for(byte b : digest.digest()){//iterate through the bytes of the hash
+			hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));//append the byte in hexadecimal
+		}
+		return hash.toString();//return the hash
+	}
+
+	/**Class holding a single cached dataset*/
+	private static class Entry
+	{
+		/**The dataset's file*/
+		final File file;
+		/**The dataset's mapping, null until a task first maps it, guarded by entries*/
+		MappedByteBuffer buffer = null;
+		/**How many callers have the dataset pinned, it isn't evicted while this is above 0, guarded by entries*/
+		int pins = 0;
+
+		/**Creates a new entry
+		 * @param datasetFile The dataset's file*/
+		Entry(File datasetFile)
+		{
+			file = datasetFile;//set the dataset's file
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class responsible for persisting the checkpoints of long running tasks, so that a task which is re-dispatched after
+ * it's client fails can resume from it's last checkpoint instead of starting over. Checkpoints are serialized on the
+ * task's thread, but are written to disk and replicated to the server's ANDAC entry on a background thread; if a task
+ * checkpoints faster than they can be written, only it's most recent checkpoint is kept*/
+class CheckpointStore implements Closeable
+{
+	/**Extension given to checkpoint files*/
+	private static final String EXTENSION = ".ckpt";
+	/**Extension given to checkpoints while they're being written, before they're moved into place*/
+	private static final String TEMP_EXTENSION = ".tmp";
+	/**Reference to the log printer that the store should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the directory that checkpoints are stored in locally*/
+	private final File directory;
+	/**Reference to the io manager checkpoints are replicated through, null if they're only kept locally*/
+	private final IOManager ioManager;
+	/**The largest a serialized checkpoint can be in bytes before it's rejected*/
+	private final int maxBytes;
+	/**Map of checkpoints waiting to be written keyed by task ID, also it's own lock*/
+	private final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+	/**The ID of the task whose checkpoint the writer is writing right now, null if it's idle, guarded by pending*/
+	private String writing = null;
+	/**Set of the IDs of tasks that were discarded while their checkpoint was being written, so the writer deletes what
+	 * it wrote once it's done, guarded by pending*/
+	private final HashSet<String> discarded = new HashSet<String>();
+	/**Reference to the thread that writes out pending checkpoints*/
+	private final Thread writer;
+	/**Flag for whether or not the store should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new checkpoint store and starts it's writer thread
+	 * @param logPrinter The log printer that the store should log it's activity to
+	 * @param checkpointDirectory The directory to store checkpoints in locally
+	 * @param manager The io manager to replicate checkpoints through, null if they should only be kept locally
+	 * @param maxCheckpointBytes The largest a serialized checkpoint can be in bytes
+	 * @throws IOException If the checkpoint directory couldn't be created*/
+	CheckpointStore(LogPrinter logPrinter, File checkpointDirectory, IOManager manager, int maxCheckpointBytes) throws IOException
+	{
+		log = logPrinter;//set the store's log
+		directory = checkpointDirectory;//set the store's directory
+		ioManager = manager;//set the store's io manager
+		maxBytes = maxCheckpointBytes;//set the checkpoint size limit
+		if(!directory.isDirectory() && !directory.mkdirs()){//if the checkpoint directory doesn't exist and couldn't be created
+			throw new IOException("Failed to create checkpoint directory: " + directory.getAbsolutePath());//except that the directory couldn't be created
+		}
+		File[] files = directory.listFiles();//list the store's files
+		if(files != null){//if the directory could be listed
+			for(File file : files){//iterate through the files
+				if(file.getName().endsWith(TEMP_EXTENSION)){//if the file is a checkpoint that was never finished being written
+					file.delete();//delete the partial checkpoint, the task's last complete one is still in place
+				}
+			}
+		}
+		writer = new Thread(new Runnable(){//create the writer thread
+			public void run()
+			{
+				writeLoop();//run the writer loop
+			}
+		}, "CheckpointStore-Writer");
+		writer.setDaemon(true);//don't let the writer keep the JVM alive
+		writer.start();//start the writer thread
+	}
+
+	/**Queues a checkpoint to be saved for a task, replacing any of the task's checkpoints that haven't been written yet
+	 * @param taskID The ID of the task the checkpoint belongs to
+	 * @param state The task's progress to be saved
+	 * @return True if the checkpoint was queued, false if it was too large or couldn't be serialized*/
+	boolean save(String taskID, Serializable state)
+	{
+		byte[] data;//reference for the serialized checkpoint
+		try{//try to serialize the checkpoint
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the checkpoint into
+			try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)){//create an object output stream for writing the checkpoint to
+				objectOutputStream.writeObject(state);//write the checkpoint
+			}
+			data = byteArrayOutputStream.toByteArray();//store the serialized checkpoint
+		} catch(IOException ioException){//if the checkpoint couldn't be serialized
+			log.log("Failed to serialize checkpoint for task: " + taskID);//log that the checkpoint couldn't be serialized
+			ioException.printStackTrace(log);//log the exception
+			return false;//return that the checkpoint wasn't saved
+		}
+		if(data.length > maxBytes){//if the checkpoint is too large
+			log.log("Rejected " + data.length + " byte checkpoint for task: " + taskID);//log that the checkpoint was too large
+			return false;//return that the checkpoint wasn't saved
+		}
+		synchronized(pending){//lock pending
+			pending.remove(taskID);//remove any unwritten checkpoint so the new one goes to the back of the queue
+			pending.put(taskID, data);//queue the checkpoint
+			pending.notify();//wake up the writer thread
+		}//release pending
+		return true;//return that the checkpoint was queued
+	}
+
+	/**Loads the last saved checkpoint of a task, checking for a local copy before the server's replicated copy
+	 * @param taskID The ID of the task to load the checkpoint of
+	 * @return The task's last saved progress, or null if it has no checkpoint*/
+	Serializable load(String taskID)
+	{
+		byte[] data;//reference for the serialized checkpoint
+		synchronized(pending){//lock pending
+			data = pending.get(taskID);//retrieve any unwritten checkpoint
+		}//release pending
+		try{//try to retrieve the checkpoint
+			File file = new File(directory, taskID + EXTENSION);//create a reference to the checkpoint's file
+			synchronized(directory){//lock directory
+				if((data == null) && file.isFile()){//if the checkpoint is stored locally
+					data = new byte[(int)file.length()];//allocate space for the checkpoint
+					try(FileInputStream fileInputStream = new FileInputStream(file)){//create a stream for reading the checkpoint
+						int offset = 0;//index of where the next bytes should be read into
+						while(offset < data.length){//while the checkpoint hasn't been fully read
+							int read = fileInputStream.read(data, offset, data.length - offset);//read in the next section of the checkpoint
+							if(read == -1){//if the file ended early
+								throw new IOException("Truncated checkpoint file: " + file.getAbsolutePath());//except that the checkpoint was truncated
+							}
+							offset += read;//move the offset forward by how many bytes were read
+						}
+					}
+				}
+			}//release directory
+			if((data == null) && (ioManager != null)){//if the checkpoint isn't stored locally
+				data = ioManager.downloadCheckpoint(taskID);//retrieve the server's copy of the checkpoint
+			}
+			if(data == null){//if the task has no checkpoint
+				return null;//return that there's nothing to resume from
+			}
+			try(ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(data))){//create an object input stream for reading the checkpoint from
+				Serializable state = (Serializable)objectInputStream.readObject();//read in the checkpoint
+				log.log("Resuming task from checkpoint: " + taskID);//log that the task is being resumed
+				return state;//return the checkpoint
+			}
+		} catch(Exception exception){//if the checkpoint couldn't be retrieved
+			log.log("Failed to load checkpoint for task: " + taskID);//log that the checkpoint couldn't be loaded
+			exception.printStackTrace(log);//log the exception
+			return null;//start the task over from scratch
+		}
+	}
+
+	/**Discards all the checkpoints of a task, this should be called once the task has completed
+	 * @param taskID The ID of the task to discard the checkpoints of*/
+	void discard(String taskID)
+	{
+		synchronized(pending){//lock pending
+			pending.remove(taskID);//remove any unwritten checkpoint
+			if(taskID.equals(writing)){//if the task's checkpoint is being written right now
+				discarded.add(taskID);//have the writer delete it again once it's written
+			}
+		}//release pending
+		delete(taskID);//delete the task's stored checkpoints
+	}
+
+	/**Deletes a task's checkpoint locally and from the server
+	 * @param taskID The ID of the task to delete the checkpoint of*/
+	private void delete(String taskID)
+	{
+		synchronized(directory){//lock directory
+			new File(directory, taskID + EXTENSION).delete();//delete the local checkpoint
+		}//release directory
+		if(ioManager != null){//if checkpoints are being replicated
+			try{//try to delete the server's copy
+				ioManager.deleteCheckpoint(taskID);//delete the replicated checkpoint
+			} catch(Exception exception){//if the server's copy couldn't be deleted
+				log.log("Failed to delete replicated checkpoint for task: " + taskID);//log that the checkpoint couldn't be deleted
+				exception.printStackTrace(log);//log the exception
+			}
+		}
+	}
+
+	/**Runs the writer loop, which writes pending checkpoints to disk and replicates them to the server*/
+	private void writeLoop()
+	{
+		while(true){//loop until the store is closed and every checkpoint has been written
+			String taskID;//reference for the ID of the next checkpoint's task
+			byte[] data;//reference for the next serialized checkpoint
+			synchronized(pending){//lock pending
+				while(pending.isEmpty() && keepRunning){//while there are no checkpoints to write
+					try{//try to wait for a checkpoint
+						pending.wait();//wait until a checkpoint is queued
+					} catch(InterruptedException interruptedException){}//ignore any interruptions
+				}
+				Iterator<Map.Entry<String, byte[]>> iterator = pending.entrySet().iterator();//get an iterator for the pending checkpoints
+				if(!iterator.hasNext()){//if the store was closed with nothing pending
+					return;//stop writing
+				}
+				Map.Entry<String, byte[]> entry = iterator.next();//get the oldest pending checkpoint
+				taskID = entry.getKey();//store the checkpoint's task ID
+				data = entry.getValue();//store the serialized checkpoint
+				iterator.remove();//remove the checkpoint from the queue
+				writing = taskID;//mark the checkpoint as being written
+			}//release pending
+			synchronized(directory){//lock directory
+				File file = new File(directory, taskID + EXTENSION);//create a reference to the checkpoint's file
+				File temp = new File(directory, taskID + EXTENSION + TEMP_EXTENSION);//create a reference to a temporary file to write into first
+				try{//try to write the checkpoint
+					try(FileOutputStream fileOutputStream = new FileOutputStream(temp)){//create a stream for writing the temporary file
+						fileOutputStream.write(data);//write the checkpoint
+						fileOutputStream.getFD().sync();//ensure the checkpoint is on disk before replacing the old one
+					}
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);//replace the old checkpoint in one step, so a crash never leaves the task without one
+				} catch(IOException ioException){//if the checkpoint couldn't be written
+					temp.delete();//delete any partially written checkpoint
+					log.log("Failed to write checkpoint for task: " + taskID);//log that the checkpoint couldn't be written
+					ioException.printStackTrace(log);//log the exception
+				}
+			}//release directory
+			if(ioManager != null){//if checkpoints are being replicated
+				try{//try to replicate the checkpoint
+					ioManager.uploadCheckpoint(taskID, data);//upload the checkpoint to the server's ANDAC entry
+				} catch(Exception exception){//if the checkpoint couldn't be replicated
+					log.log("Failed to replicate checkpoint for task: " + taskID);//log that the checkpoint couldn't be replicated
+					exception.printStackTrace(log);//log the exception
+				}
+			}
+			boolean stale;//flag for whether the task was discarded while it's checkpoint was being written
+			synchronized(pending){//lock pending
+				writing = null;//the checkpoint is written
+				stale = discarded.remove(taskID);//check whether the task finished in the meantime
+			}//release pending
+			if(stale){//if the checkpoint belongs to a task that already finished
+				delete(taskID);//delete it again so a re-dispatched task doesn't resume from it
+			}
+		}
+	}
+
+	/**Closes the store, writing out any checkpoints that are still pending first*/
+	public void close()
+	{
+		synchronized(pending){//lock pending
+			keepRunning = false;//set that the store should stop running
+			pending.notify();//wake up the writer thread
+		}//release pending
+		try{//try to wait for the writer to finish
+			writer.join();//block until the writer thread finishes
+		} catch(InterruptedException interruptedException){}//ignore any interruptions
+	}
+}
@@ -0,0 +1,159 @@
+package net.insertcreativity.andac;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import net.insertcreativity.util.BloomFilter;
+
+/**Class holding everything the server's dispatcher knows about a single client, used for deciding which client
+ * a task should be sent to*/
+class ClientRecord
+{
+	/**The ANDAC name of the client*/
+	final String name;
+	/**How many tasks can be outstanding on the client at once*/
+	volatile int capacity;
+	/**How many cores the client reported having*/
+	volatile int cores = 1;
+	/**How many tasks have been dispatched to the client that haven't finished yet*/
+	final AtomicInteger outstanding = new AtomicInteger(0);
+	/**Weight given to the newest sample in the throughput average*/
+	private static final double THROUGHPUT_WEIGHT = 0.2;
+	/**How many completions have to be timed before the measured throughput is trusted over the core count*/
+	private static final int MIN_COMPLETIONS = 4;
+	/**Exponentially weighted average of how many tasks per second the client completes while it's busy, 0 until measured*/
+	private volatile double throughput = 0;
+	/**How many completions have been timed, guarded by this*/
+	private int completions = 0;
+	/**When the client last completed a task or started being busy, in nanoseconds, guarded by this*/
+	private long lastMark = 0;
+	/**Summary of the task classes and data the client has cached, also it's own lock, null until the client advertises one*/
+	private BloomFilter cacheSummary = null;
+
+	/**Creates a new client record
+	 * @param clientName The ANDAC name of the client
+	 * @param clientCapacity How many tasks the client can run at once*/
+	ClientRecord(String clientName, int clientCapacity)
+	{
+		name = clientName;//set the client's name
+		capacity = clientCapacity;//set the client's capacity
+	}
+
+	/**Returns whether the client has room to start another task right away
+	 * @return True if the client has fewer outstanding tasks than it can run at once*/
+	boolean isIdle()
+	{
+		return outstanding.get() < capacity;//return whether the client has a free slot
+	}
+
+	/**Claims one of the client's free slots for a task, without any locking
+	 * @return True if a slot was claimed, false if the client was full*/
+	boolean tryAcquire()
+	{
+		while(true){//loop until a slot is claimed or the client is full
+			int current = outstanding.get();//get how many tasks are outstanding
+			if(current >= capacity){//if the client is full
+				return false;//return that no slot was claimed
+			}
+			if(outstanding.compareAndSet(current, current + 1)){//if the slot was claimed
+				if(current == 0){//if the client was idle until now
+					markBusy();//start timing from now rather than from the client's last completion
+				}
+				return true;//return that a slot was claimed
+			}
+		}
+	}
+
+	/**Releases one of the client's slots
+	 * @param completed Whether the slot was freed by the task completing, rather than by it being taken back*/
+	void release(boolean completed)
+	{
+		if(outstanding.decrementAndGet() < 0){//if the client had no outstanding tasks
+			outstanding.set(0);//don't let the count go negative
+		}
+		if(completed){//if the task completed
+			recordCompletion();//fold the completion into the throughput
+		}
+	}
+
+	/**Restarts the completion timer when an idle client is given work, so idle time isn't counted against it*/
+	private synchronized void markBusy()
+	{
+		lastMark = System.nanoTime();//start timing from now
+	}
+
+	/**Folds a task completion into the client's throughput average*/
+	private synchronized void recordCompletion()
+	{
+		long now = System.nanoTime();//store the current time
+		long interval = Math.max(now - lastMark, 1000);//calculate how long since the last completion, at least a microsecond
+		lastMark = now;//time the next completion from now
+		double rate = 1e9 / interval;//calculate the rate of this completion in tasks per second
+		throughput = ((completions == 0)? rate : (THROUGHPUT_WEIGHT * rate) + ((1 - THROUGHPUT_WEIGHT) * throughput));//update the average
+		completions++;//count the completion
+	}
+
+	/**Estimates how many seconds it would take the client to get through it's outstanding tasks and one more, using it's
+	 * measured throughput once it's known and otherwise assuming each of it's cores completes a task per second
+	 * @return The client's expected delay*/
+	double expectedDelay()
+	{
+		int timed;//how many completions have been timed
+		synchronized(this){//lock completions
+			timed = completions;//store how many completions have been timed
+		}//release completions
+		double rate = ((timed >= MIN_COMPLETIONS)? throughput : cores);//use the measured throughput if it's trusted
+		return (outstanding.get() + 1) / Math.max(rate, 1e-6);//return how long the queue would take to drain
+	}
+
+	/**Orders two clients by how well suited they are to a task, preferring the one with more of the task's dependencies
+	 * cached and then the one with the shorter expected delay
+	 * @param record1 The first client
+	 * @param record2 The second client
+	 * @param dependencies The hashes or names of the task's class bundles and data
+	 * @return A negative number if the first client is better, positive if the second is, or 0 if they're equal*/
+	static int compare(ClientRecord record1, ClientRecord record2, String[] dependencies)
+	{
+		if(dependencies.length > 0){//if the task has dependencies
+			int cached = record2.countCached(dependencies) - record1.countCached(dependencies);//compare how many dependencies each has cached
+			if(cached != 0){//if one has more cached
+				return cached;//prefer that one
+			}
+		}
+		return Double.compare(record1.expectedDelay(), record2.expectedDelay());//prefer the one with the shorter delay
+	}
+
+	/**Replaces the client's cache summary with a newly advertised one
+	 * @param summary The bloom filter of everything the client has cached*/
+	synchronized void setCacheSummary(BloomFilter summary)
+	{
+		cacheSummary = summary;//set the client's cache summary
+	}
+
+	/**Counts how many of a task's dependencies the client probably already has cached
+	 * @param dependencies The hashes or names of the task's class bundles and data
+	 * @return How many of the dependencies are in the client's cache summary*/
+	synchronized int countCached(String[] dependencies)
+	{
+		if(cacheSummary == null){//if the client hasn't advertised it's cache yet
+			return 0;//assume it has nothing cached
+		}
+		int count = 0;//counter for how many dependencies are cached
+		for(String dependency : dependencies){//iterate through the dependencies
+			if(cacheSummary.mightContain(dependency)){//if the client probably has the dependency cached
+				count++;//count the dependency
+			}
+		}
+		return count;//return how many dependencies are cached
+	}
+
+	/**Records that the client was sent a task's dependencies, so they count as cached until it's next advertisement
+	 * @param dependencies The hashes or names of the task's class bundles and data*/
+	synchronized void addCached(String[] dependencies)
+	{
+		if(cacheSummary == null){//if the client hasn't advertised it's cache yet
+			return;//there's no summary to add into
+		}
+		for(String dependency : dependencies){//iterate through the dependencies
+			cacheSummary.add(dependency);//add the dependency into the summary
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+
+/**Interface for folding the results of map tasks together, which must be associative so results can be combined on
+ * clients in any order before being reduced together on the server*/
+public interface Combiner extends Serializable
+{
+	/**Folds a task's results into an accumulated partial aggregate
+	 * @param accumulated The results accumulated so far, null if these are the first results being combined
+	 * @param results The results to fold in
+	 * @return The new accumulated results, which may reuse and modify the accumulated array*/
+	Serializable[] combine(Serializable[] accumulated, Serializable[] results);
+}
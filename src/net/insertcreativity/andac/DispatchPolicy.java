@@ -0,0 +1,72 @@
+package net.insertcreativity.andac;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**Interface for the policies a task dispatcher can use to pick which client a task is sent to. Policies are handed a
+ * snapshot of the clients and must not hold any locks while choosing; the dispatcher claims a slot on the chosen client
+ * afterwards and asks again if another thread claimed the last slot first*/
+interface DispatchPolicy
+{
+	/**Chooses the client a task should be sent to
+	 * @param clients Snapshot of every client that can be dispatched to
+	 * @param dependencies The hashes or names of the task's class bundles and data
+	 * @return The chosen client's record, or null if none of the clients have room*/
+	ClientRecord select(TaskDispatcher.Snapshot clients, String[] dependencies);
+
+	/**Policy that checks every client and picks the one with the most of the task's dependencies cached, breaking ties
+	 * by whichever will get through it's outstanding tasks soonest; this takes time proportional to the number of clients*/
+	final class LeastOutstanding implements DispatchPolicy
+	{
+		/**Chooses the least loaded client with room
+		 * @param clients Snapshot of every client that can be dispatched to
+		 * @param dependencies The hashes or names of the task's class bundles and data
+		 * @return The chosen client's record, or null if none of the clients have room*/
+		public ClientRecord select(TaskDispatcher.Snapshot clients, String[] dependencies)
+		{
+			ClientRecord best = null;//reference for the best client found so far
+			for(ClientRecord record : clients.records){//iterate through the clients
+				if(record.isIdle() && ((best == null) || (ClientRecord.compare(record, best, dependencies) < 0))){//if the client has room and is better than the best so far
+					best = record;//store the client as the best
+				}
+			}
+			return best;//return the best client
+		}
+	}
+
+	/**Policy that samples two clients at random and picks the better of the two, by the same ordering as
+	 * LeastOutstanding. Clients are sampled in proportion to their core counts, so a large client is considered as often
+	 * as it's share of the fleet rather than as often as a small one. This takes about constant time however many clients
+	 * there are, while keeping the load nearly as even as checking every client*/
+	final class PowerOfTwoChoices implements DispatchPolicy
+	{
+		/**How many times to sample for a client with room before falling back to checking every client*/
+		private static final int MAX_SAMPLES = 8;
+		/**Policy to fall back on when sampling can't find a client with room*/
+		private final LeastOutstanding fallback = new LeastOutstanding();
+
+		/**Chooses the better of two random clients with room
+		 * @param clients Snapshot of every client that can be dispatched to
+		 * @param dependencies The hashes or names of the task's class bundles and data
+		 * @return The chosen client's record, or null if none of the clients have room*/
+		public ClientRecord select(TaskDispatcher.Snapshot clients, String[] dependencies)
+		{
+			if(clients.records.length <= 2){//if there's no more than two clients anyways
+				return fallback.select(clients, dependencies);//check them both
+			}
+			ThreadLocalRandom random = ThreadLocalRandom.current();//get the thread's random generator
+			ClientRecord first = null;//reference for the first client with room
+			for(int counter = 0; counter < MAX_SAMPLES; counter++){//sample up to the sample limit
+				ClientRecord record = clients.sample(random);//pick a random client, weighted by it's cores
+				if(!record.isIdle() || (record == first)){//if the client is full or was already picked
+					continue;
+				}
+				if(first == null){//if this is the first client with room
+					first = record;//store it
+				} else{//if this is the second client with room
+					return ((ClientRecord.compare(record, first, dependencies) < 0)? record : first);//return the better of the two
+				}
+			}
+			return ((first != null)? first : fallback.select(clients, dependencies));//settle for the one client found, or check them all if most are full
+		}
+	}
+}
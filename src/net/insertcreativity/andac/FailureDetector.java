@@ -0,0 +1,162 @@
+package net.insertcreativity.andac;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**Class implementing a phi accrual failure detector for the server's clients. Rather than declaring a client dead after
+ * a fixed timeout, it learns the distribution of each client's heartbeat inter-arrival times and expresses how unlikely
+ * the current silence is as phi, where a phi of 1 means there's about a 10% chance the client is still alive, 2 means
+ * about 1%, and so on. A client is suspected once it's phi passes the threshold, which adapts to each client's own
+ * network jitter instead of needing a timeout tuned for the worst one*/
+class FailureDetector
+{
+	/**The phi above which a client is suspected of having failed*/
+	private volatile double threshold;
+	/**How many milliseconds apart heartbeats are expected before any have been measured*/
+	private final long firstInterval;
+	/**The smallest standard deviation in milliseconds used, so a very steady client isn't suspected over tiny delays*/
+	private final double minDeviation;
+	/**How many inter-arrival times are kept for each client*/
+	private final int windowSize;
+	/**Map of the heartbeat history of each client keyed by name, also it's own lock*/
+	private final HashMap<String, History> histories = new HashMap<String, History>();
+
+	/**Creates a new failure detector
+	 * @param suspicionThreshold The phi above which a client is suspected
+	 * @param expectedInterval How many milliseconds apart heartbeats are expected before any have been measured
+	 * @param minStandardDeviation The smallest standard deviation in milliseconds to use
+	 * @param samples How many inter-arrival times to keep for each client*/
+	FailureDetector(double suspicionThreshold, long expectedInterval, double minStandardDeviation, int samples)
+	{
+		threshold = suspicionThreshold;//set the suspicion threshold
+		firstInterval = expectedInterval;//set the initial interval
+		minDeviation = minStandardDeviation;//set the minimum deviation
+		windowSize = samples;//set the window size
+	}
+
+	/**Sets the phi above which clients are suspected, lower values detect failures sooner but suspect more live clients
+	 * @param suspicionThreshold The new threshold*/
+	void setThreshold(double suspicionThreshold)
+	{
+		threshold = suspicionThreshold;//set the suspicion threshold
+	}
+
+	/**Records that a heartbeat, or any other message, was received from a client; this also clears any suspicion of
+	 * the client
+	 * @param client The name of the client*/
+	void heartbeat(String client)
+	{
+		long now = System.currentTimeMillis();//store the current time
+		synchronized(histories){//lock histories
+			History history = histories.get(client);//retrieve the client's history
+			if(history == null){//if this is the client's first heartbeat
+				history = new History(windowSize);//create a new history for the client
+				history.add(firstInterval);//seed it with the expected interval
+				histories.put(client, history);//store the client's history
+			} else{//if the client has been heard from before
+				history.add(now - history.lastArrival);//record the time since the last heartbeat
+			}
+			history.lastArrival = now;//record when the heartbeat arrived
+			history.suspected = false;//the client is clearly alive
+		}//release histories
+	}
+
+	/**Stops tracking a client, such as after it disconnects cleanly
+	 * @param client The name of the client*/
+	void remove(String client)
+	{
+		synchronized(histories){//lock histories
+			histories.remove(client);//remove the client's history
+		}//release histories
+	}
+
+	/**Calculates a client's current phi
+	 * @param client The name of the client
+	 * @return The client's phi, or 0 if it's never been heard from*/
+	double phi(String client)
+	{
+		synchronized(histories){//lock histories
+			History history = histories.get(client);//retrieve the client's history
+			return ((history == null)? 0 : history.phi(System.currentTimeMillis(), minDeviation));//return the client's phi
+		}//release histories
+	}
+
+	/**Finds every client whose phi has newly passed the threshold, marking each of them as suspected so they're only
+	 * reported once until they're heard from again
+	 * @return List of the names of the newly suspected clients*/
+	List<String> findSuspects()
+	{
+		long now = System.currentTimeMillis();//store the current time
+		ArrayList<String> suspects = new ArrayList<String>();//create a list for the suspects
+		synchronized(histories){//lock histories
+			for(HashMap.Entry<String, History> entry : histories.entrySet()){//iterate through the clients
+				History history = entry.getValue();//get the client's history
+				if(!history.suspected && (history.phi(now, minDeviation) > threshold)){//if the client newly passed the threshold
+					history.suspected = true;//mark the client as suspected
+					suspects.add(entry.getKey());//add the client to the suspects
+				}
+			}
+		}//release histories
+		return suspects;//return the suspects
+	}
+
+	/**Class holding a sliding window of a single client's heartbeat inter-arrival times*/
+	private static class History
+	{
+		/**Ring of the most recent inter-arrival times in milliseconds*/
+		private final long[] intervals;
+		/**How many intervals are in the ring*/
+		private int count = 0;
+		/**The index the next interval is written to*/
+		private int next = 0;
+		/**The sum of the intervals in the ring*/
+		private double sum = 0;
+		/**The sum of the squares of the intervals in the ring*/
+		private double sumOfSquares = 0;
+		/**When the last heartbeat arrived*/
+		private long lastArrival;
+		/**Whether the client has already been reported as suspected*/
+		private boolean suspected = false;
+
+		/**Creates a new history
+		 * @param size How many intervals to keep*/
+		private History(int size)
+		{
+			intervals = new long[size];//allocate the ring
+		}
+
+		/**Adds an inter-arrival time into the window, pushing out the oldest once it's full
+		 * @param interval The time between two heartbeats in milliseconds*/
+		private void add(long interval)
+		{
+			if(count == intervals.length){//if the window is full
+				sum -= intervals[next];//remove the oldest interval from the sum
+				sumOfSquares -= (double)intervals[next] * intervals[next];//and from the sum of squares
+			} else{//if there's still room
+				count++;//count the new interval
+			}
+			intervals[next] = interval;//store the interval
+			sum += interval;//add it to the sum
+			sumOfSquares += (double)interval * interval;//add it to the sum of squares
+			next = (next + 1) % intervals.length;//move to the next slot
+		}
+
+		/**Calculates phi for the time since the last heartbeat, using a logistic approximation of the normal
+		 * distribution's tail
+		 * @param now The current time
+		 * @param minDeviation The smallest standard deviation to use
+		 * @return The client's phi*/
+		private double phi(long now, double minDeviation)
+		{
+			double mean = sum / count;//calculate the mean interval
+			double deviation = Math.max(Math.sqrt(Math.max(0, (sumOfSquares / count) - (mean * mean))), minDeviation);//calculate the standard deviation
+			double y = ((now - lastArrival) - mean) / deviation;//calculate how many deviations past the mean the silence is
+			double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));//approximate the normal distribution's tail
+			if(y > 0){//if the silence is longer than usual
+				return -Math.log10(e / (1.0 + e));//return phi from the tail probability
+			}
+			return -Math.log10(1.0 - 1.0 / (1.0 + e));//return phi from the complement, which stays small
+		}
+	}
+}
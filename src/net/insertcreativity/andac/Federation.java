@@ -0,0 +1,198 @@
+package net.insertcreativity.andac;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import net.insertcreativity.util.ConsistentHashRing;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class that lets several servers share a job by splitting it's clients between them, so no one server's accept loop or
+ * memory limits how many clients can run. Every server periodically renews a lease in the federation's directory of the
+ * master database and reads back everyone else's, and the live members are placed on a consistent hash ring that clients
+ * are assigned to by name. When a server joins or leaves, only the clients whose position on the ring changed hands
+ * move, and each member's listener is told so it can redirect the clients it no longer owns*/
+class Federation implements Closeable
+{
+	/**Listener that gets told whenever the federation's membership changes, and reports this server's load*/
+	interface Listener
+	{
+		/**Called after the ring has been updated with a new set of members, on the federation's refresh thread*/
+		void membershipChanged();
+
+		/**Called whenever the lease is renewed to publish how loaded this server is
+		 * @return How many tasks are queued on this server*/
+		int queuedTasks();
+	}
+
+	/**How many milliseconds apart this server renews it's lease and checks the other members*/
+	private static final long REFRESH_INTERVAL = 10000;
+	/**How many milliseconds a member's lease lasts without being renewed, long enough to survive a couple missed renewals*/
+	private static final long LEASE_TIME = 35000;
+	/**Reference to the log printer that the federation should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the io manager that leases are kept through*/
+	private final IOManager ioManager;
+	/**The name of the federation*/
+	private final String name;
+	/**The ANDAC name of this server*/
+	private final String localName;
+	/**The address clients should connect to this server on*/
+	private final String localAddress;
+	/**Reference to the listener that membership changes are reported to*/
+	private final Listener listener;
+	/**Ring that clients are assigned to servers by*/
+	private final ConsistentHashRing<String> ring;
+	/**Map of every live member's name to it's address, replaced rather than modified*/
+	private volatile HashMap<String, String> members = new HashMap<String, String>();
+	/**Map of every live member's name to how many tasks it had queued when it last renewed it's lease, replaced rather
+	 * than modified*/
+	private volatile HashMap<String, Integer> loads = new HashMap<String, Integer>();
+	/**Reference to the thread that renews the lease and checks the other members*/
+	private final Thread refresher;
+	/**Flag for whether or not the federation should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new federation membership and starts refreshing it. Until the first refresh completes this server
+	 * considers itself the only member, so it keeps every client
+	 * @param logPrinter The log printer that the federation should log it's activity to
+	 * @param manager The io manager to keep leases through
+	 * @param federation The name of the federation to join
+	 * @param serverName The ANDAC name of this server
+	 * @param address The address clients should connect to this server on, as 'host:port'
+	 * @param virtualNodes How many points on the ring each server gets
+	 * @param membershipListener The listener to report membership changes to*/
+	Federation(LogPrinter logPrinter, IOManager manager, String federation, String serverName, String address, int virtualNodes, Listener membershipListener)
+	{
+		log = logPrinter;//set the federation's log
+		ioManager = manager;//set the federation's io manager
+		name = federation;//set the federation's name
+		localName = serverName;//set this server's name
+		localAddress = address;//set this server's address
+		listener = membershipListener;//set the federation's listener
+		ring = new ConsistentHashRing<String>(virtualNodes);//create the ring
+		ring.add(localName);//start out as the only member
+		members.put(localName, localAddress);
+		refresher = new Thread(new Runnable(){//create the refreshing thread
+			public void run()
+			{
+				refreshLoop();//run the refreshing loop
+			}
+		}, "Federation-Refresher");
+		refresher.setDaemon(true);//don't let the refresher keep the JVM alive
+		refresher.start();//start the refreshing thread
+	}
+
+	/**Finds the server that owns a client
+	 * @param client The ANDAC name of the client
+	 * @return The name of the server that owns the client*/
+	String ownerOf(String client)
+	{
+		String owner = ring.get(client);//look up the client on the ring
+		return ((owner != null)? owner : localName);//return the owner, keeping the client if the ring is somehow empty
+	}
+
+	/**Checks whether this server owns a client
+	 * @param client The ANDAC name of the client
+	 * @return True if this server owns the client*/
+	boolean isLocal(String client)
+	{
+		return localName.equals(ownerOf(client));//return whether this server is the owner
+	}
+
+	/**Returns the address clients should connect to a member on
+	 * @param server The name of the member
+	 * @return The member's address, or null if it isn't a member*/
+	String addressOf(String server)
+	{
+		return members.get(server);//return the member's address
+	}
+
+	/**Returns how many servers are in the federation
+	 * @return The number of live members*/
+	int size()
+	{
+		return members.size();//return the number of members
+	}
+
+	/**Returns how many tasks each member had queued when it last renewed it's lease, which can be a refresh interval
+	 * out of date
+	 * @return Map of every live member's name to it's queued tasks*/
+	Map<String, Integer> getLoads()
+	{
+		return Collections.unmodifiableMap(loads);//return the members' loads
+	}
+
+	/**Returns the federation's name
+	 * @return The name of the federation*/
+	String getName()
+	{
+		return name;//return the federation's name
+	}
+
+	/**Returns this server's name within the federation
+	 * @return The ANDAC name of this server*/
+	String getLocalName()
+	{
+		return localName;//return this server's name
+	}
+
+	/**Loop run by the refreshing thread, which renews this server's lease and updates the ring whenever the live
+	 * members change*/
+	private void refreshLoop()
+	{
+		while(keepRunning){//while the federation should continue running
+			try{//try to refresh the membership
+				ioManager.renewMembership(name, localAddress + "|" + listener.queuedTasks());//renew this server's lease, publishing it's load
+				HashMap<String, String> live = new HashMap<String, String>();//create a map for the members' addresses
+				HashMap<String, Integer> liveLoads = new HashMap<String, Integer>();//create a map for the members' loads
+				for(Map.Entry<String, String> entry : ioManager.listMembers(name, LEASE_TIME).entrySet()){//iterate through the live members
+					String info = entry.getValue();//get the member's info
+					int separator = info.lastIndexOf('|');//find where it's load starts
+					live.put(entry.getKey(), ((separator < 0)? info : info.substring(0, separator)));//store the member's address
+					try{//try to read the member's load
+						liveLoads.put(entry.getKey(), ((separator < 0)? 0 : Integer.parseInt(info.substring(separator + 1))));//store the member's load
+					} catch(NumberFormatException numberFormatException){//if the load is garbled
+						liveLoads.put(entry.getKey(), 0);//treat the member as idle
+					}
+				}
+				live.put(localName, localAddress);//this server is always a member of it's own view
+				liveLoads.put(localName, listener.queuedTasks());
+				loads = liveLoads;//publish the members' loads
+				if(!live.equals(members)){//if the membership changed
+					ring.setNodes(new ArrayList<String>(live.keySet()));//rebuild the ring
+					members = live;//publish the new members
+					log.log("Federation " + name + " membership changed, " + live.size() + " members: " + live.keySet());//log the new membership
+					listener.membershipChanged();//let the listener rebalance
+				}
+			} catch(Exception exception){//if the membership couldn't be refreshed
+				if(keepRunning){//if this wasn't caused by the federation closing
+					log.log("Failed to refresh federation " + name);//log that the refresh failed
+					exception.printStackTrace(log);//log the exception
+				}
+			}
+			try{//try to wait for the next refresh
+				Thread.sleep(REFRESH_INTERVAL);//wait until the next refresh is due
+			} catch(InterruptedException interruptedException){}//if the thread was interrupted, check whether the federation closed
+		}
+	}
+
+	/**Leaves the federation right away so the other members take over this server's clients without waiting for it's
+	 * lease to run out*/
+	public void close()
+	{
+		keepRunning = false;//set that the federation should stop running
+		refresher.interrupt();//wake up the refresher so it stops
+		try{//try to wait for the refresher to stop
+			refresher.join(REFRESH_INTERVAL);//wait for any renewal in progress, so it can't recreate the lease after it's deleted
+		} catch(InterruptedException interruptedException){}//leave anyways if interrupted
+		try{//try to leave the federation
+			ioManager.leaveFederation(name);//delete this server's lease
+			log.log("Left federation " + name);//log that the server left
+		} catch(Exception exception){//if the lease couldn't be deleted
+			log.log("Failed to leave federation " + name + ", it's lease will run out instead");//log that the lease will have to expire
+			exception.printStackTrace(log);//log the exception
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package net.insertcreativity.andac;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class that serves files such as task bundles and shared input data to clients over their own sockets, so large
+ * transfers don't go through the message streams. File data is sent with FileChannel.transferTo, which lets the kernel
+ * copy straight from the page cache to the socket without it ever passing through the Java heap. Regions of files that
+ * are requested over and over, like a new task bundle every client fetches at once, are kept in direct buffers so
+ * they're written out of memory without touching the file at all.
+ * A client connects and sends any number of requests, each made up of the file's path relative to the served directory
+ * as a UTF string, the offset to start at as a long, and how many bytes to send as a long, -1 for the rest of the file.
+ * The server replies to each with how many bytes follow as a long, -1 if the file couldn't be served, and then the
+ * bytes. Each connection holds one worker while it's open, so clients should close it once they have what they need*/
+class FileServer implements Closeable
+{
+	/**How many bytes each cached region of a file covers*/
+	private static final int REGION_SIZE = 1024 * 1024;
+	/**How many times a region has to be requested before it's cached*/
+	private static final int HOT_REQUESTS = 3;
+	/**The most regions whose request counts are remembered*/
+	private static final int MAX_TRACKED_REGIONS = 4096;
+	/**How many milliseconds a client can go without sending a request before it's dropped*/
+	private static final int IDLE_TIMEOUT = 30000;
+	/**Reference to the log printer that the file server should log it's activity to*/
+	private final LogPrinter log;
+	/**The directory files are served out of*/
+	private final Path root;
+	/**The channel that connections are accepted on*/
+	private final ServerSocketChannel acceptor;
+	/**Queue of accepted connections waiting for a worker*/
+	private final LinkedBlockingQueue<SocketChannel> pending = new LinkedBlockingQueue<SocketChannel>();
+	/**The most bytes of file regions to keep cached*/
+	private final long maxCacheBytes;
+	/**Map of the cached regions keyed by file and region, in least recently used order, also the lock for the cache*/
+	private final LinkedHashMap<String, Region> cache = new LinkedHashMap<String, Region>(64, 0.75f, true);
+	/**How many bytes of regions are cached, guarded by cache*/
+	private long cachedBytes = 0;
+	/**Map of how many times each uncached region has been requested, guarded by cache*/
+	private final LinkedHashMap<String, Integer> requests = new LinkedHashMap<String, Integer>(64, 0.75f, true){
+		/**Serialization ID*/
+		private static final long serialVersionUID = 1L;
+
+		/**Forgets the least recently requested region once too many are tracked
+		 * @param eldest The least recently requested region
+		 * @return True if it should be forgotten*/
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+		{
+			return size() > MAX_TRACKED_REGIONS;//return whether too many regions are tracked
+		}
+	};
+	/**Flag for whether or not the file server should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new file server and starts it's accepting and worker threads
+	 * @param logPrinter The log printer that the file server should log it's activity to
+	 * @param directory The directory to serve files out of
+	 * @param port The port to accept connections on
+	 * @param workers How many connections can be served at once
+	 * @param cacheBytes The most bytes of hot file regions to keep in memory
+	 * @throws IOException If the directory doesn't exist or the port couldn't be bound*/
+	FileServer(LogPrinter logPrinter, File directory, int port, int workers, long cacheBytes) throws IOException
+	{
+		log = logPrinter;//set the file server's log
+		root = directory.toPath().toRealPath();//resolve the served directory
+		maxCacheBytes = cacheBytes;//set the cache limit
+		acceptor = ServerSocketChannel.open();//open the accepting channel
+		try{//try to bind the port
+			acceptor.bind(new InetSocketAddress(port));//bind the port
+		} catch(IOException ioException){//if the port couldn't be bound
+			acceptor.close();//close the accepting channel
+			throw ioException;//propagate the exception
+		}
+		Thread acceptThread = new Thread(new Runnable(){//create the accepting thread
+			public void run()
+			{
+				acceptLoop();//run the accepting loop
+			}
+		}, "FileServer-Acceptor");
+		acceptThread.setDaemon(true);//don't let the acceptor keep the JVM alive
+		acceptThread.start();//start the accepting thread
+		for(int counter = 0; counter < Math.max(1, workers); counter++){//iterate through the workers
+			Thread worker = new Thread(new Runnable(){//create the worker thread
+				public void run()
+				{
+					workLoop();//run the worker loop
+				}
+			}, "FileServer-Worker-" + counter);
+			worker.setDaemon(true);//don't let the worker keep the JVM alive
+			worker.start();//start the worker thread
+		}
+		log.log("File server serving " + root + " on port " + port);//log that the file server started
+	}
+
+	/**Loop run by the accepting thread, which hands each new connection to the workers*/
+	private void acceptLoop()
+	{
+		while(keepRunning){//while the file server should continue running
+			try{//try to accept a connection
+				pending.add(acceptor.accept());//queue the connection for a worker
+			} catch(IOException ioException){//if the connection couldn't be accepted
+				if(keepRunning){//if this wasn't caused by the file server closing
+					log.log("Failed to accept file connection");//log that the connection couldn't be accepted
+					ioException.printStackTrace(log);//log the exception
+				}
+			}
+		}
+	}
+
+	/**Loop run by each worker thread, which serves one connection at a time until it closes*/
+	private void workLoop()
+	{
+		while(keepRunning){//while the file server should continue running
+			SocketChannel channel;//reference for the connection to serve
+			try{//try to get a connection
+				channel = pending.take();//wait for a connection
+			} catch(InterruptedException interruptedException){//if the worker was interrupted
+				return;
+			}
+			try{//try to serve the connection
+				channel.socket().setSoTimeout(IDLE_TIMEOUT);//drop clients that stop sending requests
+				serve(channel);//serve the connection's requests
+			} catch(EOFException eofException){//if the client closed the connection
+			} catch(IOException ioException){//if the connection failed
+				log.log("File connection failed [" + channel.socket().getRemoteSocketAddress() + "]");//log that the connection failed
+				ioException.printStackTrace(log);//log the exception
+			} finally{//ensure the connection gets closed
+				try{//try to close the connection
+					channel.close();//close the connection
+				} catch(IOException ioException){}//there's nothing to do if it won't close
+			}
+		}
+	}
+
+	/**Serves requests from a connection until it's closed
+	 * @param channel The connection to serve
+	 * @throws IOException If a request couldn't be read or a reply couldn't be sent*/
+	private void serve(SocketChannel channel) throws IOException
+	{
+		DataInputStream input = new DataInputStream(channel.socket().getInputStream());//wrap the socket for reading requests, which honors it's timeout
+		ByteBuffer header = ByteBuffer.allocateDirect(8);//allocate a buffer for reply headers
+		while(keepRunning){//while the file server should continue running
+			String name = input.readUTF();//read the file's path
+			long offset = input.readLong();//read where to start
+			long length = input.readLong();//read how much to send
+			Path path = resolve(name);//find the file
+			if((path == null) || (offset < 0)){//if the file can't be served
+				writeLength(channel, header, -1);//reply that the file can't be served
+				continue;
+			}
+			try(FileChannel file = FileChannel.open(path, StandardOpenOption.READ)){//open the file
+				long size = file.size();//store the file's size
+				long modified = Files.getLastModifiedTime(path).toMillis();//store when the file was last changed
+				long end = ((length < 0)? size : Math.min(size, offset + length));//calculate where to stop
+				long position = Math.min(offset, end);//calculate where to start
+				writeLength(channel, header, end - position);//reply with how many bytes follow
+				while(position < end){//while there's more to send
+					long regionIndex = position / REGION_SIZE;//calculate which region the position is in
+					long regionStart = regionIndex * REGION_SIZE;//calculate where the region starts
+					long regionEnd = Math.min(end, regionStart + REGION_SIZE);//calculate where to stop in this region
+					ByteBuffer region = lookup(path, regionIndex, file, size, modified);//check the cache for the region
+					if(region != null){//if the region is cached
+						region.position((int)(position - regionStart));//start at the position
+						region.limit((int)(regionEnd - regionStart));//stop at the end
+						while(region.hasRemaining()){//while there's more of the region to send
+							channel.write(region);//write it out of memory
+						}
+					} else{//if the region isn't cached
+						transfer(file, position, regionEnd - position, channel);//have the kernel copy it straight to the socket
+					}
+					position = regionEnd;//move on to the next region
+				}
+			}
+		}
+	}
+
+	/**Resolves a requested path against the served directory, refusing anything outside of it
+	 * @param name The requested path
+	 * @return The file's path, or null if it isn't a file inside the served directory*/
+	private Path resolve(String name)
+	{
+		try{//try to resolve the path
+			Path path = root.resolve(name).toRealPath();//resolve the path, following any links
+			return ((path.startsWith(root) && Files.isRegularFile(path))? path : null);//return the path if it can be served
+		} catch(IOException ioException){//if the file doesn't exist
+			return null;//return that it can't be served
+		} catch(RuntimeException runtimeException){//if the path is invalid
+			return null;//return that it can't be served
+		}
+	}
+
+	/**Copies a range of a file straight to a socket with transferTo, which can stop short so it's repeated until
+	 * everything is sent
+	 * @param file The file to send from
+	 * @param position Where in the file to start
+	 * @param count How many bytes to send
+	 * @param channel The socket to send to
+	 * @throws IOException If the file shrank or the socket failed*/
+	private static void transfer(FileChannel file, long position, long count, SocketChannel channel) throws IOException
+	{
+		while(count > 0){//while there's more to send
+			long sent = file.transferTo(position, count, channel);//send as much as the kernel will take
+			if(sent <= 0){//if nothing could be sent
+				if(position >= file.size()){//if the file shrank while it was being sent
+					throw new IOException("File shrank while being sent");//except that the reply can't be completed
+				}
+				continue;
+			}
+			position += sent;
+			count -= sent;
+		}
+	}
+
+	/**Writes a reply's length
+	 * @param channel The socket to write to
+	 * @param header Buffer to write the length through
+	 * @param length The length to write
+	 * @throws IOException If the socket failed*/
+	private static void writeLength(SocketChannel channel, ByteBuffer header, long length) throws IOException
+	{
+		header.clear();//reset the buffer
+		header.putLong(length).flip();//write the length into it
+		while(header.hasRemaining()){//while the length hasn't all been sent
+			channel.write(header);//write the length
+		}
+	}
+
+	/**Looks up a region in the cache, counting the request and loading the region into the cache once it's hot
+	 * @param path The region's file
+	 * @param regionIndex Which region of the file
+	 * @param file The open file
+	 * @param size The file's size
+	 * @param modified When the file was last changed
+	 * @return A view of the cached region that the caller can position freely, or null if it isn't cached
+	 * @throws IOException If a hot region couldn't be read into the cache*/
+	private ByteBuffer lookup(Path path, long regionIndex, FileChannel file, long size, long modified) throws IOException
+	{
+		if(maxCacheBytes <= 0){//if caching is disabled
+			return null;
+		}
+		String key = path + "#" + regionIndex;//create the region's key
+		synchronized(cache){//lock cache
+			Region region = cache.get(key);//retrieve the cached region
+			if(region != null){//if the region is cached
+				if((region.size == size) && (region.modified == modified)){//if the file hasn't changed since it was cached
+					return region.data.duplicate();//return a view of the region
+				}
+				cache.remove(key);//drop the stale region
+				cachedBytes -= region.data.capacity();
+			}
+			Integer count = requests.get(key);//retrieve how often the region's been requested
+			count = ((count == null)? 1 : count + 1);//count this request
+			if(count < HOT_REQUESTS){//if the region isn't hot yet
+				requests.put(key, count);//store the new count
+				return null;
+			}
+			requests.remove(key);//the region is about to be cached instead
+		}//release cache
+		long start = regionIndex * REGION_SIZE;//calculate where the region starts
+		int length = (int)Math.min(REGION_SIZE, size - start);//calculate how long the region is
+		if((length <= 0) || (length > maxCacheBytes)){//if the region is empty or could never fit
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.allocateDirect(length);//allocate a direct buffer outside the heap for the region
+		while(data.hasRemaining()){//while the region hasn't all been read
+			if(file.read(data, start + data.position()) < 0){//if the file ended early
+				return null;//give up on caching it
+			}
+		}
+		data.flip();//prepare the region for reading
+		synchronized(cache){//lock cache
+			Region old = cache.put(key, new Region(data.asReadOnlyBuffer(), size, modified));//cache the region
+			cachedBytes += length;
+			if(old != null){//if another worker cached the region first
+				cachedBytes -= old.data.capacity();//uncount it
+			}
+			Iterator<Region> iterator = cache.values().iterator();//iterate from the least recently used region
+			while((cachedBytes > maxCacheBytes) && iterator.hasNext()){//while the cache is too large
+				cachedBytes -= iterator.next().data.capacity();//uncount the region
+				iterator.remove();//evict it
+			}
+		}//release cache
+		return data.duplicate();//return a view of the region
+	}
+
+	/**Closes the file server, no longer accepting connections and dropping any that are waiting
+	 * @throws IOException If the accepting channel couldn't be closed*/
+	public void close() throws IOException
+	{
+		keepRunning = false;//set that the file server should stop running
+		acceptor.close();//close the accepting channel
+		SocketChannel channel;//reference for each waiting connection
+		while((channel = pending.poll()) != null){//while there are connections waiting
+			channel.close();//drop the connection
+		}
+		synchronized(cache){//lock cache
+			cache.clear();//release the cached regions
+			cachedBytes = 0;
+		}//release cache
+		log.log("File server closed");//log that the file server was closed
+	}
+
+	/**Class holding a single cached region of a file*/
+	private static class Region
+	{
+		/**The region's data*/
+		private final ByteBuffer data;
+		/**The file's size when the region was cached*/
+		private final long size;
+		/**When the file was last changed when the region was cached*/
+		private final long modified;
+
+		/**Creates a new cached region
+		 * @param regionData The region's data
+		 * @param fileSize The file's size
+		 * @param fileModified When the file was last changed*/
+		private Region(ByteBuffer regionData, long fileSize, long fileModified)
+		{
+			data = regionData;//set the region's data
+			size = fileSize;//set the file's size
+			modified = fileModified;//set when the file was changed
+		}
+	}
+}
@@ -15,13 +15,20 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.dropbox.core.DbxClient;
 import com.dropbox.core.DbxEntry;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxHost;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.DbxWriteMode;
+import net.insertcreativity.util.BloomFilter;
 import net.insertcreativity.util.LogPrinter;
 import net.insertcreativity.util.Util;
 
@@ -35,6 +42,8 @@ public class IOManager
 	private final DbxClient database;
 	/**Class loader for dynamically loading in task classes*/
 	private final URLClassLoader classLoader;
+	/**Reference to the directory that task classes are loaded from*/
+	private final File taskDirectory;
 	/**Reference to the log printer that the io manager should log it's activity to*/
 	private final LogPrinter log;
 	/**Reference to the base directory that the io manager manages*/
@@ -43,8 +52,20 @@ public class IOManager
 	private final String remoteName;
 	/**The ANDAC name of the server to reference in ANDAC (same as remoteName for servers)*/
 	private final String serverName;
+	/**How many milliseconds to wait before retrying a sync of the offline journal that failed*/
+	private static final long RESYNC_RETRY = 30000;
 	/**Flag for whether or not the host computer's networks are currently enabled*/
-	private boolean networkEnabled = true;
+	private volatile boolean networkEnabled = true;
+	/**Journal holding status, log, result and checkpoint uploads made while the network is unavailable, also the lock for
+	 * switching between holding and sending uploads*/
+	private final UploadJournal offlineJournal;
+	/**Flag for whether uploads are held in the offline journal rather than sent, which stays set after the network comes
+	 * back until everything held has been synced so nothing newer is sent before something older*/
+	private volatile boolean offline = false;
+	/**Reference to the thread syncing the offline journal, null if it isn't syncing, guarded by offlineJournal*/
+	private Thread resyncer = null;
+	/**How many uploads are sent at once when the offline journal is synced*/
+	private volatile int resyncParallelism = 4;
 
 	/**Constructs a new io manager, which constructs and downloads all the necessary files an programs for the
 	 * client or server to function properly, in addition to establishing external connections to the master
@@ -97,8 +118,15 @@ public class IOManager
 		if(taskDir.mkdir()){//if the task directory was created
 			log.log("Created the task directory");//log that the task directory was created
 		}
+		taskDirectory = taskDir;//set the task class directory
 		classLoader = new URLClassLoader(new URL[] {taskDir.toURI().toURL()});//create the task class loader
 		log.log("Successfully created the task class loader at " + taskDir.getAbsolutePath());//log that the task class loader was created successfully
+		offlineJournal = new UploadJournal(new File(baseDirectory, "offline"));//open the offline journal
+		if(!offlineJournal.isEmpty()){//if uploads were still held when this node last stopped
+			log.log("Found uploads held while offline, syncing them");//log that the held uploads are being synced
+			offline = true;//keep holding uploads until the old ones are synced
+			startResync();//sync the held uploads
+		}
 	}
 
 	/**Creates a new io manager to set up and manage the files necessary for the server to function, both locally
@@ -123,6 +151,9 @@ public class IOManager
 		if(ioManager.database.createFolder(ioManager.remoteName + "/Clients") != null){//if the server's clients folder was just created
 			logPrinter.log("Created results folder for server in ANDAC");//log that the server's clients folder was just created
 		}
+		if(ioManager.database.createFolder(ioManager.remoteName + "/Checkpoints") != null){//if the server's checkpoints folder was just created
+			logPrinter.log("Created checkpoints folder for server in ANDAC");//log that the server's checkpoints folder was just created
+		}
 		File logFile = new File(serverDirectory, "log.dat");//create a reference to the server's log file
 		if(ioManager.database.getMetadata(ioManager.remoteName + "/log.dat") == null){//if this server doesn't have a log file in ANDAC
 			logFile.createNewFile();//create a new log file for the server
@@ -240,6 +271,161 @@ public class IOManager
 		return dbxEntry;//return the upload's meta-data
 	}
 
+	/**Uploads data or a local file, unless the network is unavailable, in which case it's held in the offline journal to be
+	 * synced once the network is back; an upload that fails because the network dropped out is held the same way
+	 * @param remotePath The path to upload to in the master database
+	 * @param data The data to upload, or null to upload a local file
+	 * @param localPath The path of the local file to upload if data is null
+	 * @param overwrite Whether the upload should replace the remote file rather than be added next to it
+	 * @throws IOException If the data couldn't be uploaded or held
+	 * @throws DbxException If the upload encountered a problem other than the network being unavailable*/
+	private void uploadOrHold(String remotePath, byte[] data, String localPath, boolean overwrite) throws IOException, DbxException
+	{
+		boolean held = false;//flag for whether the upload was held
+		synchronized(offlineJournal){//lock offlineJournal, which is never held while taking log
+			if(offline){//if uploads are being held
+				offlineJournal.queue(remotePath, data, localPath, overwrite);//hold the upload
+				held = true;
+			}
+		}//release offlineJournal
+		if(held){//if the upload was held
+			log.log("Network unavailable, holding upload to " + remotePath);//log that the upload was held
+			return;
+		}
+		try{//try to upload the data
+			send(remotePath, data, localPath, overwrite);//upload the data
+		} catch(DbxException.NetworkIO networkIO){//if the network dropped out
+			synchronized(offlineJournal){//lock offlineJournal
+				offline = true;//hold uploads until the network is back
+				offlineJournal.queue(remotePath, data, localPath, overwrite);//hold the upload
+				startResync();//keep trying to sync the held uploads
+			}//release offlineJournal
+			log.log("Network unavailable, holding upload to " + remotePath);//log that the upload was held
+		}
+	}
+
+	/**Uploads data or a local file to the master database
+	 * @param remotePath The path to upload to in the master database
+	 * @param data The data to upload, or null to upload a local file
+	 * @param localPath The path of the local file to upload if data is null
+	 * @param overwrite Whether the upload should replace the remote file rather than be added next to it
+	 * @throws IOException If the data couldn't be read
+	 * @throws DbxException If the upload encountered a problem*/
+	private void send(String remotePath, byte[] data, String localPath, boolean overwrite) throws IOException, DbxException
+	{
+		DbxWriteMode writeMode = (overwrite? DbxWriteMode.force() : DbxWriteMode.add());//store how the upload treats an existing file
+		if(data != null){//if data should be uploaded
+			database.uploadFile(remotePath, writeMode, data.length, new ByteArrayInputStream(data));//upload the data
+			return;
+		}
+		log.log("Uploading " + localPath + " -> " + remotePath);//log that a file is being uploaded
+		try(FileInputStream fileInputStream = new FileInputStream(new File(localPath))){//create a stream for reading the file
+			database.uploadFile(remotePath, writeMode, -1, fileInputStream);//upload the file
+		}
+		log.log("Successfully uploaded " + localPath + " -> " + remotePath);//log that the file was uploaded successfully
+	}
+
+	/**Sets how many uploads are sent at once when the offline journal is synced
+	 * @param parallelism How many uploads to send at once*/
+	void setResyncParallelism(int parallelism)
+	{
+		resyncParallelism = Math.max(1, parallelism);//set how many uploads to send at once
+	}
+
+	/**Starts syncing the offline journal if it isn't already being synced, must be called while holding offlineJournal*/
+	private void startResync()
+	{
+		if(resyncer == null){//if nothing is syncing the journal
+			resyncer = new Thread(new Runnable(){//create the syncing thread
+				public void run()
+				{
+					resync();//sync the journal
+				}
+			}, "IOManager-Resync");
+			resyncer.setDaemon(true);//don't let the resyncer keep the JVM alive
+			resyncer.start();//start the syncing thread
+		}
+	}
+
+	/**Syncs every upload held in the offline journal, several at a time, and stops holding uploads once the journal is
+	 * empty. Uploads made while syncing keep being held, so they coalesce with anything older to the same path and are
+	 * picked up by the next pass; a failed pass is retried until the network is turned off again*/
+	private void resync()
+	{
+		long start = System.currentTimeMillis();//store when the sync started
+		int synced = 0;//counter for how many uploads were synced
+		while(true){//sync until the journal is empty or the network is turned off
+			final ArrayDeque<File> queue;//reference for the uploads to sync in this pass
+			synchronized(offlineJournal){//lock offlineJournal
+				List<File> pending = offlineJournal.pending();//list the held uploads
+				if(pending.isEmpty()){//if everything is synced
+					offline = false;//send uploads straight away again
+					resyncer = null;//the sync is done
+					queue = null;
+				} else if(!networkEnabled){//if the network was turned off again
+					resyncer = null;//stop syncing until it's back
+					return;
+				} else{//if there are uploads left
+					queue = new ArrayDeque<File>(pending);//queue the uploads for this pass
+				}
+			}//release offlineJournal
+			if(queue == null){//if everything was synced
+				log.log("Synced " + synced + " held uploads in " + (System.currentTimeMillis() - start) + "ms");//log that the sync finished
+				return;
+			}
+			final AtomicInteger uploaded = new AtomicInteger();//counter for how many uploads this pass synced
+			final AtomicBoolean failed = new AtomicBoolean();//flag for whether any upload in this pass failed
+			Thread[] uploaders = new Thread[Math.min(resyncParallelism, queue.size())];//allocate the uploading threads
+			for(int counter = 0; counter < uploaders.length; counter++){//iterate through the uploading threads
+				uploaders[counter] = new Thread(new Runnable(){//create the uploading thread
+					public void run()
+					{
+						while(!failed.get()){//while every upload has succeeded
+							File file;//reference for the next upload
+							synchronized(queue){//lock queue
+								file = queue.poll();//take the next upload
+							}//release queue
+							if(file == null){//if the pass is done
+								return;
+							}
+							try{//try to sync the upload
+								UploadJournal.Upload upload = offlineJournal.read(file);//read the upload
+								if(upload != null){//if it wasn't already synced
+									if(upload.data == null){//if the upload is of a local file
+										synchronized(log){//lock log
+											send(upload.remotePath, null, upload.localPath, upload.overwrite);//upload the file as it is now
+										}//release log
+									} else{//if the upload is of data
+										send(upload.remotePath, upload.data, null, upload.overwrite);//upload the data
+									}
+									offlineJournal.remove(upload);//the upload is synced
+									uploaded.incrementAndGet();
+								}
+							} catch(Exception exception){//if the upload failed
+								failed.set(true);//stop the pass
+								log.log("Failed to sync held upload " + file.getName());//log that the upload failed
+								exception.printStackTrace(log);//log the exception
+							}
+						}
+					}
+				}, "IOManager-Resync-" + counter);
+				uploaders[counter].setDaemon(true);//don't let the uploader keep the JVM alive
+				uploaders[counter].start();//start the uploading thread
+			}
+			for(Thread uploader : uploaders){//iterate through the uploading threads
+				try{//try to wait for the uploader
+					uploader.join();//block until the uploader finishes
+				} catch(InterruptedException interruptedException){}//ignore any interruptions
+			}
+			synced += uploaded.get();//count the uploads synced in this pass
+			if(failed.get()){//if the pass failed
+				try{//try to wait before retrying
+					Thread.sleep(RESYNC_RETRY);//give the network time to come back
+				} catch(InterruptedException interruptedException){}//retry early if interrupted
+			}
+		}
+	}
+
 	/**Updates the server's log and status files in ANDAC
 	 * @param status The formatted status string of this server to be uploaded
 	 * @throws IOException If the data couldn't be written properly
@@ -247,9 +433,9 @@ public class IOManager
 	void updateANDAC(String status) throws IOException, DbxException
 	{
 		log.log("Updating ANDAC log and status files...");//log that the log and status files are being updated in ANDAC
-		uploadData(remoteName + "/status.dat", status.getBytes(log.encoding));//upload the status string to this server's status file
+		uploadOrHold(remoteName + "/status.dat", status.getBytes(log.encoding), null, false);//upload the status string to this server's status file
 		synchronized(log){//lock log
-			uploadFile(remoteName + "/log.dat", new File(baseDirectory, "log.dat").getAbsolutePath());//upload this server's log file to it's ANDAC entry
+			uploadOrHold(remoteName + "/log.dat", null, new File(baseDirectory, "log.dat").getAbsolutePath(), false);//upload this server's log file to it's ANDAC entry
 		}//release log
 		log.log("Updated ANDAC log and status files");//log that the log and status files were updated in ANDAC
 	}
@@ -260,6 +446,18 @@ public class IOManager
 	 * @throws IOException If the results couldn't be serialized properly
 	 * @throws DbxException If the results couldn't be uploaded properly*/
 	void uploadResult(String name, Serializable[] results) throws IOException, DbxException
+	{
+		uploadResult(name, results, null);//upload the results without any metrics
+	}
+
+	/**Upload the results of task into this server's ANDAC entry under the 'Results' directory, along with a metadata
+	 * file recording what running the task cost
+	 * @param name The file name that this task should be uploaded with
+	 * @param results The results of processing the task, stored as an array of serializable objects
+	 * @param metrics What running the task cost, null if no metadata should be uploaded
+	 * @throws IOException If the results couldn't be serialized properly
+	 * @throws DbxException If the results couldn't be uploaded properly*/
+	void uploadResult(String name, Serializable[] results, TaskMetrics metrics) throws IOException, DbxException
 	{
 		log.log("Uploading results for: " + name);//log that results are being uploaded
 		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing all the results into as bytes
@@ -268,10 +466,169 @@ public class IOManager
 				objectOutputStream.writeObject(result);//write the result into the output stream
 			}
 		}
-		uploadData(serverName + "/Results/" + name + ".dat", byteArrayOutputStream.toByteArray());//upload the byte array of results into a results file in ANDAC
+		uploadOrHold(serverName + "/Results/" + name + ".dat", byteArrayOutputStream.toByteArray(), null, false);//upload the byte array of results into a results file in ANDAC
+		if(metrics != null){//if the task's metrics should be uploaded
+			uploadOrHold(serverName + "/Results/" + name + ".meta", metrics.toString().getBytes(log.encoding), null, false);//upload the metrics into a metadata file next to the results
+		}
 		log.log("Succesfully uploaded results for: " + name);//log that the results were uploaded successfully
 	}
 
+	/**Replicates a task's checkpoint into this server's ANDAC entry under the 'Checkpoints' directory, replacing any
+	 * previous checkpoint of the task, so that whichever client the task is re-dispatched to can resume from it
+	 * @param taskID The ID of the task the checkpoint belongs to
+	 * @param data The serialized checkpoint
+	 * @throws IOException If the data couldn't be written properly
+	 * @throws DbxException If the checkpoint couldn't be uploaded properly*/
+	void uploadCheckpoint(String taskID, byte[] data) throws IOException, DbxException
+	{
+		uploadOrHold(serverName + "/Checkpoints/" + taskID + ".ckpt", data, null, true);//overwrite the task's checkpoint
+		log.log("Replicated " + data.length + " byte checkpoint for: " + taskID);//log that the checkpoint was replicated
+	}
+
+	/**Downloads a task's replicated checkpoint from this server's ANDAC entry
+	 * @param taskID The ID of the task to download the checkpoint of
+	 * @return The serialized checkpoint, or null if the task has no replicated checkpoint
+	 * @throws IOException If the data couldn't be retrieved properly
+	 * @throws DbxException If the download encountered a problem*/
+	byte[] downloadCheckpoint(String taskID) throws IOException, DbxException
+	{
+		String remotePath = serverName + "/Checkpoints/" + taskID + ".ckpt";//store the path of the task's checkpoint
+		if(database.getMetadata(remotePath) == null){//if the task has no replicated checkpoint
+			return null;//return that there's no checkpoint
+		}
+		return downloadData(remotePath);//download and return the checkpoint
+	}
+
+	/**Deletes a task's replicated checkpoint from this server's ANDAC entry, if it has one
+	 * @param taskID The ID of the task to delete the checkpoint of
+	 * @throws DbxException If the deletion encountered a problem*/
+	void deleteCheckpoint(String taskID) throws DbxException
+	{
+		String remotePath = serverName + "/Checkpoints/" + taskID + ".ckpt";//store the path of the task's checkpoint
+		if(database.getMetadata(remotePath) != null){//if the task has a replicated checkpoint
+			database.delete(remotePath);//delete the checkpoint
+		}
+	}
+
+	/**Renews this server's membership in a federation by overwriting it's member file under
+	 * '/ANDAC/Federations/[federation]' with it's info, such as the address clients should connect to it on; servers that
+	 * stop renewing their membership are dropped from the federation once their lease runs out
+	 * @param federation The name of the federation
+	 * @param info The member's info, written as a string
+	 * @throws IOException If the data couldn't be written properly
+	 * @throws DbxException If the member file couldn't be uploaded properly*/
+	void renewMembership(String federation, String info) throws IOException, DbxException
+	{
+		byte[] data = info.getBytes(log.encoding);//encode the info
+		database.uploadFile("/ANDAC/Federations/" + federation + "/" + serverName.substring(7) + ".member", DbxWriteMode.force(), data.length, new ByteArrayInputStream(data));//overwrite this server's member file
+	}
+
+	/**Lists the live members of a federation. Leases are judged against the newest member file rather than the local
+	 * clock, so clock skew between servers doesn't matter as long as this server renewed it's own membership first
+	 * @param federation The name of the federation
+	 * @param leaseTime How many milliseconds a membership lasts without being renewed
+	 * @return Map of every live member's name to it's info
+	 * @throws IOException If a member file couldn't be read properly
+	 * @throws DbxException If the federation couldn't be listed*/
+	HashMap<String, String> listMembers(String federation, long leaseTime) throws IOException, DbxException
+	{
+		HashMap<String, String> members = new HashMap<String, String>();//create a map for the members
+		DbxEntry.WithChildren listing = database.getMetadataWithChildren("/ANDAC/Federations/" + federation);//list the federation's member files
+		if(listing == null){//if the federation doesn't exist yet
+			return members;//return that there aren't any members
+		}
+		long newest = 0;//the time of the most recently renewed membership
+		for(DbxEntry child : listing.children){//iterate through the member files
+			if(child.isFile() && child.name.endsWith(".member")){//if the file is a member file
+				newest = Math.max(newest, child.asFile().lastModified.getTime());//check whether it's the newest
+			}
+		}
+		for(DbxEntry child : listing.children){//iterate through the member files
+			if(child.isFile() && child.name.endsWith(".member") && (child.asFile().lastModified.getTime() >= newest - leaseTime)){//if the member's lease hasn't run out
+				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a stream to download the info into
+				database.getFile(child.path, null, byteArrayOutputStream);//download the member's info
+				members.put(child.name.substring(0, child.name.length() - 7), new String(byteArrayOutputStream.toByteArray(), log.encoding));//store the member
+			}
+		}
+		return members;//return the live members
+	}
+
+	/**Overwrites a file in the master database, creating it if it doesn't exist
+	 * @param remotePath The path of the file
+	 * @param data The file's new contents
+	 * @throws IOException If the data couldn't be written properly
+	 * @throws DbxException If the upload encountered a problem*/
+	void overwriteData(String remotePath, byte[] data) throws IOException, DbxException
+	{
+		database.uploadFile(remotePath, DbxWriteMode.force(), data.length, new ByteArrayInputStream(data));//overwrite the file
+	}
+
+	/**Creates a file in the master database only if it doesn't already exist. If two nodes race to create the same file
+	 * exactly one of them wins, since the master database renames the loser's upload rather than overwriting, which makes
+	 * this usable for handing ownership of something from one node to another
+	 * @param remotePath The path of the file
+	 * @param data The file's contents
+	 * @return True if this call created the file, false if it already existed
+	 * @throws IOException If the data couldn't be written properly
+	 * @throws DbxException If the upload encountered a problem*/
+	boolean createData(String remotePath, byte[] data) throws IOException, DbxException
+	{
+		DbxEntry.File entry = database.uploadFile(remotePath, DbxWriteMode.add(), data.length, new ByteArrayInputStream(data));//try to create the file
+		if(entry.path.equalsIgnoreCase(remotePath)){//if the file was created where it was asked for
+			return true;//return that this call created it
+		}
+		database.delete(entry.path);//delete the renamed copy
+		return false;//return that the file already existed
+	}
+
+	/**Lists the names of the files in a directory of the master database
+	 * @param remotePath The path of the directory
+	 * @return List of the files' names, empty if the directory doesn't exist
+	 * @throws DbxException If the directory couldn't be listed*/
+	List<String> listFiles(String remotePath) throws DbxException
+	{
+		ArrayList<String> names = new ArrayList<String>();//create a list for the names
+		DbxEntry.WithChildren listing = database.getMetadataWithChildren(remotePath);//list the directory
+		if(listing != null){//if the directory exists
+			for(DbxEntry child : listing.children){//iterate through the directory's entries
+				if(child.isFile()){//if the entry is a file
+					names.add(child.name);//add it's name
+				}
+			}
+		}
+		return names;//return the names
+	}
+
+	/**Checks whether a file exists in the master database
+	 * @param remotePath The path of the file
+	 * @return True if the file exists
+	 * @throws DbxException If the file's meta-data couldn't be retrieved*/
+	boolean exists(String remotePath) throws DbxException
+	{
+		return database.getMetadata(remotePath) != null;//return whether the file has meta-data
+	}
+
+	/**Deletes a file from the master database if it exists
+	 * @param remotePath The path of the file
+	 * @throws DbxException If the deletion encountered a problem*/
+	void deleteData(String remotePath) throws DbxException
+	{
+		if(database.getMetadata(remotePath) != null){//if the file exists
+			database.delete(remotePath);//delete the file
+		}
+	}
+
+	/**Removes this server from a federation right away, instead of waiting for it's lease to run out
+	 * @param federation The name of the federation
+	 * @throws DbxException If the member file couldn't be deleted*/
+	void leaveFederation(String federation) throws DbxException
+	{
+		String remotePath = "/ANDAC/Federations/" + federation + "/" + serverName.substring(7) + ".member";//store the path of this server's member file
+		if(database.getMetadata(remotePath) != null){//if this server is a member
+			database.delete(remotePath);//delete it's member file
+		}
+	}
+
 	/**Uploads new tasks to a cloaked client in ANDAC
 	 * (this operation is blocking, and may take time if it happens to check while the tasks file is being modified)
 	 * @param destination The ANDAC name of the client to send the tasks to
@@ -321,6 +678,36 @@ public class IOManager
 		return localFile;//return the reference to the local file
 	}
 
+	/**Publishes a dataset that many tasks share into this server's ANDAC entry under the 'Broadcasts' directory, named
+	 * by the hash of it's contents so publishing the same dataset again doesn't upload it twice
+	 * @param dataset The dataset's local file
+	 * @return Handle to the dataset that can be passed to tasks in place of it
+	 * @throws IOException If the dataset couldn't be read
+	 * @throws DbxException If the upload encountered a problem*/
+	Broadcast publishBroadcast(File dataset) throws IOException, DbxException
+	{
+		String hash = BroadcastCache.hash(dataset);//hash the dataset's contents
+		String remotePath = serverName + "/Broadcasts/" + hash + ".bin";//store where the dataset goes
+		if(database.getMetadata(remotePath) == null){//if the dataset hasn't been published yet
+			try(FileInputStream fileInputStream = new FileInputStream(dataset)){//create a stream for reading the dataset
+				database.uploadFile(remotePath, DbxWriteMode.force(), dataset.length(), fileInputStream);//upload the dataset
+			}
+			log.log("Published " + dataset.length() + " byte broadcast " + hash);//log that the dataset was published
+		}
+		return new Broadcast(hash, dataset.length());//return the dataset's handle
+	}
+
+	/**Downloads a published dataset from this server's ANDAC entry
+	 * @param hash The hash of the dataset's contents
+	 * @param localFile The file to download the dataset into
+	 * @throws FileNotFoundException If the dataset was never published
+	 * @throws IOException If the data couldn't be written properly
+	 * @throws DbxException If the download encountered a problem*/
+	void downloadBroadcast(String hash, File localFile) throws FileNotFoundException, IOException, DbxException
+	{
+		downloadFile(serverName + "/Broadcasts/" + hash + ".bin", localFile.getAbsolutePath());//download the dataset
+	}
+
 	/**Downloads and decompresses a zip file from the master database
 	 * @param remotePath The path of the zip file to download in the master database
 	 * @param localPath The path to unzip the file to locally
@@ -392,6 +779,59 @@ public class IOManager
 		}
 	}
 
+	/**Builds a compact summary of everything this node has cached locally, which clients advertise to their server so
+	 * that tasks get sent to clients that won't have to download their dependencies again. The summary holds the binary
+	 * name and the SHA-256 content hash of every cached task class, so tasks can depend on a class bundle by either,
+	 * and the hash of every dataset in the broadcast cache
+	 * @param broadcasts The node's broadcast cache, or null if it doesn't have one
+	 * @return A bloom filter containing the names and hashes of everything cached*/
+	BloomFilter summarizeCache(BroadcastCache broadcasts)
+	{
+		ArrayList<String> names = new ArrayList<String>();//create a list for the cached class names
+		ArrayList<File> files = new ArrayList<File>();//create a list for the cached class files
+		collectClassNames(taskDirectory, "", names, files);//collect the names and files of all the cached classes
+		List<String> datasets = ((broadcasts != null)? broadcasts.cachedHashes() : new ArrayList<String>());//list the cached datasets
+		BloomFilter summary = new BloomFilter(Math.max((names.size() * 2 + datasets.size()) * 2, 256), 0.01);//create a filter with room for the client to grow
+		for(String name : names){//iterate through the cached class names
+			summary.add(name);//add the class into the summary
+		}
+		for(File file : files){//iterate through the cached class files
+			try{//try to hash the class file
+				summary.add(BroadcastCache.hash(file));//add the class's content hash into the summary
+			} catch(IOException ioException){//if the class file couldn't be read
+				log.log("Failed to hash cached class file: " + file.getAbsolutePath());//log that the class's hash was left out
+				ioException.printStackTrace(log);//log the exception
+			}
+		}
+		for(String hash : datasets){//iterate through the cached datasets
+			summary.add(hash);//add the dataset into the summary
+		}
+		log.log("Summarized " + names.size() + " cached task classes and " + datasets.size() + " cached datasets");//log how much was summarized
+		return summary;//return the cache summary
+	}
+
+	/**Recursively collects the binary names and files of every class file under a directory
+	 * @param directory The directory to search through
+	 * @param prefix The package prefix of the directory, ending in '.' unless it's empty
+	 * @param names The list to add the class names into
+	 * @param files The list to add the class files into*/
+	private static void collectClassNames(File directory, String prefix, List<String> names, List<File> files)
+	{
+		File[] children = directory.listFiles();//get a list of all the children in this directory
+		if(children == null){//if the directory couldn't be listed
+			return;//there's nothing to collect
+		}
+		for(File child : children){//iterate through all the children in this directory
+			String childName = child.getName();//store the child's name
+			if(child.isDirectory()){//if the child is a package directory
+				collectClassNames(child, prefix + childName + ".", names, files);//collect the classes inside the package
+			} else if(childName.endsWith(".class")){//if the child is a class file
+				names.add(prefix + childName.substring(0, childName.length() - 6));//add the class's binary name
+				files.add(child);//add the class's file
+			}
+		}
+	}
+
 	/**Checks ANDAC to see if any new tasks are queued for this server, downloading any that are
 	 * (this operation is blocking, and may take time if it happens to check while the tasks file is being modified)
 	 * @return An array of strings containing the tasks to be executed by the server
@@ -426,7 +866,9 @@ public class IOManager
 		}
 	}
 
-	/**Sets the state of the host computer's physical network adapters to either disabled or enabled
+	/**Sets the state of the host computer's physical network adapters to either disabled or enabled. While they're
+	 * disabled status, log, result and checkpoint uploads are held in the offline journal instead of failing, and once
+	 * they're enabled again everything held is synced in bulk in the background
 	 * @param state True if the networks should be enabled, false if they should be disabled
 	 * @returns Boolean indicating whether the operation succeeded on all of them
 	 * @throws IOException If an IO exception occurs during the process of setting the states*/
@@ -437,6 +879,11 @@ public class IOManager
 		}
 		String stateString = (state? "enable":"disable");//store the string version of the new network state
 		log.log("Setting network state: " + stateString + "d");//log the new network state
+		if(!state){//if the network is being disabled
+			synchronized(offlineJournal){//lock offlineJournal
+				offline = true;//start holding uploads before the network goes away
+			}//release offlineJournal
+		}
 		ProcessBuilder setNetworkState = new ProcessBuilder("wmic", "path", "win32_networkadapter", "where", "physicalAdapter=True", "call", stateString);//create a process to set the network state
 		setNetworkState.redirectErrorStream(true);//merge the process's error stream with it's output stream
 		Process process = setNetworkState.directory(new File(System.getenv("SystemRoot") + "\\System32")).start();//set the process from the system directory
@@ -458,10 +905,18 @@ public class IOManager
 			process.waitFor();//block until the process completes
 		} catch(InterruptedException interruptedException){}//ignore any interruptions
 		if(success){//if the network state was set successfully
+			networkEnabled = state;//store the new network state
 			log.log("Successfully set network state: " + stateString + "d");//log that the network state was set successfully
 		} else{//if the network state couldn't be set
 			log.log("Failed to set the network state: " + stateString + "d");//log that the network state wasn't set successfully
 		}
+		if(networkEnabled){//if the network is up, whether or not it was just enabled
+			synchronized(offlineJournal){//lock offlineJournal
+				if(offline){//if any uploads might be held
+					startResync();//sync them in the background
+				}
+			}//release offlineJournal
+		}
 		return success;//return whether all the processes were successful
 	}
 }
\ No newline at end of file
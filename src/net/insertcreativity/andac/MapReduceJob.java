@@ -0,0 +1,109 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**Class representing a map/reduce job, made up of a set of map tasks whose results are combined on the clients and then
+ * reduced into the job's final results, either on the server or on a designated client*/
+public class MapReduceJob
+{
+	/**Unique string identifier for this job*/
+	public final String ID;
+	/**The name of the client that should reduce the job's results, null if the server reduces them*/
+	public final String reducerClient;
+	/**The map tasks that make up the job*/
+	private final List<MapTask> mapTasks;
+	/**The reducer that folds the partial aggregates together into the job's results*/
+	private final Combiner reducer;
+	/**Map of the map tasks that haven't been reduced yet keyed by ID, guarded by this*/
+	private final HashMap<String, MapTask> remaining = new HashMap<String, MapTask>();
+	/**The results reduced so far, guarded by this*/
+	private Serializable[] reduced = null;
+
+	/**Creates a new map/reduce job
+	 * @param identifier Unique string identifier for the job
+	 * @param tasks The map tasks that make up the job, which should all have this job's ID
+	 * @param jobReducer The reducer that folds the partial aggregates together into the job's results
+	 * @param reducer The name of the client that should reduce the job's results, null if the server should reduce them*/
+	public MapReduceJob(String identifier, List<MapTask> tasks, Combiner jobReducer, String reducer)
+	{
+		ID = identifier;//set the job's ID
+		mapTasks = new ArrayList<MapTask>(tasks);//copy the job's map tasks
+		this.reducer = jobReducer;//set the job's reducer
+		reducerClient = reducer;//set the job's reducing client
+		for(MapTask task : mapTasks){//iterate through the map tasks
+			if(!ID.equals(task.jobID)){//if the task isn't part of this job
+				throw new IllegalArgumentException("Task " + task.ID + " belongs to job " + task.jobID);//except that the task can't be in this job
+			}
+			remaining.put(task.ID, task);//mark the task as not reduced yet
+		}
+	}
+
+	/**Returns the map tasks that need to be dispatched for this job
+	 * @return A list of the job's map tasks*/
+	public List<MapTask> getMapTasks()
+	{
+		return mapTasks;//return the job's map tasks
+	}
+
+	/**Reduces a partial aggregate into the job's results. An aggregate covering any task that was already reduced (such
+	 * as from a speculative copy) can't be split apart, so it's rejected whole so no task is counted twice, and the
+	 * tasks it carried that haven't been reduced yet are returned so they can be run again
+	 * @param partial The partial aggregate to reduce
+	 * @return Null if the aggregate was reduced, otherwise a list of it's tasks that still need to be reduced, which is
+	 *         empty if the aggregate was a complete duplicate*/
+	public synchronized List<MapTask> reduce(PartialAggregate partial)
+	{
+		List<MapTask> unreduced = claim(partial);//mark the aggregate's tasks as reduced
+		if(unreduced == null){//if the aggregate was accepted
+			reduced = reducer.combine(reduced, partial.results);//fold the aggregate into the job's results
+		}
+		return unreduced;//return whether the aggregate was reduced
+	}
+
+	/**Marks a partial aggregate's tasks as reduced without folding in it's results, for jobs whose results are reduced on
+	 * a client; overlapping aggregates are rejected whole the same way as by {@link #reduce(PartialAggregate)}
+	 * @param partial The partial aggregate being reduced elsewhere
+	 * @return Null if the aggregate was accepted, otherwise a list of it's tasks that still need to be reduced, which is
+	 *         empty if the aggregate was a complete duplicate*/
+	public synchronized List<MapTask> claim(PartialAggregate partial)
+	{
+		ArrayList<MapTask> unreduced = new ArrayList<MapTask>(partial.taskIDs.length);//create a list for the tasks not reduced yet
+		for(String taskID : partial.taskIDs){//iterate through the aggregate's tasks
+			MapTask task = remaining.get(taskID);//retrieve the task if it hasn't been reduced
+			if(task != null){//if the task still needs reducing
+				unreduced.add(task);//add it to the list
+			}
+		}
+		if(unreduced.size() < partial.taskIDs.length){//if the aggregate overlaps tasks that were already reduced
+			return unreduced;//reject the whole aggregate
+		}
+		for(String taskID : partial.taskIDs){//iterate through the aggregate's tasks
+			remaining.remove(taskID);//mark the task as reduced
+		}
+		return null;//return that the aggregate was accepted
+	}
+
+	/**Returns whether every map task's results have been reduced
+	 * @return True if the job is finished*/
+	public synchronized boolean isDone()
+	{
+		return remaining.isEmpty();//return whether there are tasks left to reduce
+	}
+
+	/**Returns how many map tasks haven't been reduced yet
+	 * @return How many tasks are left*/
+	public synchronized int getRemaining()
+	{
+		return remaining.size();//return how many tasks are left
+	}
+
+	/**Returns the job's results reduced so far, which are the final results once the job is done
+	 * @return The job's reduced results*/
+	public synchronized Serializable[] getResults()
+	{
+		return reduced;//return the reduced results
+	}
+}
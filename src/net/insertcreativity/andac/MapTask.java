@@ -0,0 +1,41 @@
+package net.insertcreativity.andac;
+
+/**Extension of task for the map stage of a map/reduce job, whose results are folded into partial aggregates on the
+ * client by the job's combiner and shipped in place of the raw results*/
+public abstract class MapTask extends Task
+{
+	/**Serial ID for serializing this task across networks*/
+	private static final long serialVersionUID = -2317760463312390148L;
+	/**The ID of the job this task is part of*/
+	public final String jobID;
+	/**The combiner that folds this task's results together with others from the same job, null to ship raw results*/
+	private final Combiner combiner;
+
+	/**Creates a new map task with no time limit
+	 * @param identifier Unique string identifier for the task
+	 * @param job The ID of the job this task is part of
+	 * @param jobCombiner The combiner for the job's results, null to ship raw results*/
+	public MapTask(String identifier, String job, Combiner jobCombiner)
+	{
+		this(identifier, 0, job, jobCombiner);//create a map task without a time limit
+	}
+
+	/**Creates a new map task
+	 * @param identifier Unique string identifier for the task
+	 * @param limit How many milliseconds the task is allowed to process for, 0 if it has no time limit
+	 * @param job The ID of the job this task is part of
+	 * @param jobCombiner The combiner for the job's results, null to ship raw results*/
+	public MapTask(String identifier, long limit, String job, Combiner jobCombiner)
+	{
+		super(identifier, limit);//create the underlying task
+		jobID = job;//set the task's job
+		combiner = jobCombiner;//set the job's combiner
+	}
+
+	/**Returns the combiner that folds this task's results together with others from the same job
+	 * @return The job's combiner, or null if raw results should be shipped*/
+	public final Combiner getCombiner()
+	{
+		return combiner;//return the job's combiner
+	}
+}
@@ -0,0 +1,772 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class responsible for every client connection of a server, using a small pool of I/O threads that each multiplex
+ * many non-blocking channels through their own selector, instead of a thread per client. A client connects over a
+ * single socket by sending it's name's length as a single byte followed by it's name, then how many compression codecs
+ * it supports as a byte followed by each codec's ID in order of preference, and then the highest compression level it
+ * wants as a byte. The server replies with the codec and level it picked as two bytes. After that the control messages,
+ * task dispatch and result return are multiplexed over the socket as separate streams; every message is split into
+ * frames of at most 16KB, each made up of the payload's length as an int, the stream ID as an int, the message type,
+ * a flags byte marking the message's last frame, and then the payload. Frames from different streams are interleaved
+ * so a large result can't hold up a task or a cancel behind it, and every stream except the control stream is flow
+ * controlled by a window the receiver replenishes with WINDOW_UPDATE messages. Messages larger than the compression
+ * threshold are compressed as a whole before being framed, and their frames are flagged as compressed; each stream keeps
+ * one compression context for the life of the connection, flushing it at the end of every message, so later messages
+ * are compressed against everything sent before them on the stream. Uncompressed frames never touch the context*/
+class NetworkManager implements Closeable
+{
+	/**Listener that gets handed each client's connection events and decoded messages, these are called on an I/O
+	 * thread so they should hand off any slow work rather than doing it themselves*/
+	interface Handler
+	{
+		/**Called once a client has finished connecting and sent it's name
+		 * @param connection The client's connection*/
+		void connected(Connection connection);
+
+		/**Called for every message received from a client
+		 * @param connection The connection the message arrived on
+		 * @param type The message's type
+		 * @param body The message's body*/
+		void messageReceived(Connection connection, byte type, byte[] body);
+
+		/**Called once when a client that finished connecting is disconnected
+		 * @param connection The client's connection*/
+		void disconnected(Connection connection);
+	}
+
+	/**The largest message in bytes that can be received before the connection is dropped*/
+	private static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+	/**The most bytes of payload a single frame can carry*/
+	private static final int MAX_FRAME_PAYLOAD = 16 * 1024;
+	/**How many bytes each frame's header takes up*/
+	private static final int HEADER_BYTES = 10;
+	/**Flag marking the last frame of a message*/
+	private static final byte END = 1;
+	/**Flag marking a frame whose payload is compressed*/
+	private static final byte COMPRESSED = 2;
+	/**Messages smaller than this many bytes are never compressed, since there's little to gain*/
+	private static final int COMPRESSION_THRESHOLD = 256;
+	/**How many bytes of messages are compressed on a stream before it's compression ratio is checked*/
+	private static final long RATIO_SAMPLE_BYTES = 256 * 1024;
+	/**The compressed size as a fraction of the original above which compression isn't worth it's CPU time*/
+	private static final double POOR_RATIO = 0.9;
+	/**How many bytes of messages are sent uncompressed on a stream after it's ratio is found to be poor, before
+	 * compression is tried again*/
+	private static final long DISABLED_BYTES = 4 * 1024 * 1024;
+	/**How many bytes of payload can be in flight on a flow controlled stream before the receiver acknowledges them*/
+	private static final int STREAM_WINDOW = 256 * 1024;
+	/**How many bytes of direct buffer each connection has for reading and for writing*/
+	private static final int BUFFER_BYTES = 64 * 1024;
+	/**How many milliseconds a client has to send it's name before it's dropped*/
+	private static final long HANDSHAKE_TIMEOUT = 10000;
+	/**Reference to the log printer that the network manager should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the handler that connection events and messages are handed to*/
+	private final Handler handler;
+	/**The channel that new client connections are accepted on*/
+	private final ServerSocketChannel acceptor;
+	/**The I/O threads that connections are spread across*/
+	private final IOThread[] ioThreads;
+	/**Counter for assigning new connections to I/O threads in turn, only used by the accepting thread*/
+	private int nextThread = 0;
+	/**The highest compression level offered to new connections, 0 to not compress at all*/
+	private volatile int compressionLevel = 6;
+	/**Flag for whether or not the network manager should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new network manager listening on the specified port and starts it's I/O threads
+	 * @param logPrinter The log printer that the network manager should log it's activity to
+	 * @param port The port to accept client connections on
+	 * @param threadCount How many I/O threads to spread connections across
+	 * @param connectionHandler The handler to hand connection events and messages to
+	 * @throws IOException If the port couldn't be bound or the selectors couldn't be opened*/
+	NetworkManager(LogPrinter logPrinter, int port, int threadCount, Handler connectionHandler) throws IOException
+	{
+		log = logPrinter;//set the network manager's log
+		handler = connectionHandler;//set the network manager's handler
+		acceptor = ServerSocketChannel.open();//open the accepting channel
+		ioThreads = new IOThread[Math.max(1, threadCount)];//allocate space for the I/O threads
+		try{//try to bind the port and open the selectors
+			acceptor.configureBlocking(false);//make accepting non-blocking so it can share a selector
+			acceptor.bind(new InetSocketAddress(port));//bind the port
+			for(int counter = 0; counter < ioThreads.length; counter++){//iterate through the I/O threads
+				ioThreads[counter] = new IOThread(counter);//create the I/O thread
+			}
+			acceptor.register(ioThreads[0].selector, SelectionKey.OP_ACCEPT);//accept connections on the first I/O thread
+		} catch(IOException ioException){//if the network manager couldn't be set up
+			for(IOThread ioThread : ioThreads){//iterate through the I/O threads
+				if(ioThread != null){//if the thread was created
+					ioThread.selector.close();//close it's selector
+				}
+			}
+			acceptor.close();//close the accepting channel
+			throw ioException;//propagate the exception
+		}
+		for(IOThread ioThread : ioThreads){//iterate through the I/O threads
+			ioThread.start();//start the I/O thread
+		}
+		log.log("Network manager listening on port " + port + " with " + ioThreads.length + " I/O threads");//log that the network manager started
+	}
+
+	/**Accepts every pending connection and assigns each one to an I/O thread, called on the first I/O thread*/
+	private void accept()
+	{
+		SocketChannel channel;//reference for each accepted channel
+		try{//try to accept the pending connections
+			while((channel = acceptor.accept()) != null){//while there are connections to accept
+				try{//try to set up the connection
+					channel.configureBlocking(false);//make the channel non-blocking
+					channel.socket().setTcpNoDelay(true);//send small messages right away
+					IOThread ioThread = ioThreads[nextThread];//pick the I/O thread for the connection
+					nextThread = (nextThread + 1) % ioThreads.length;//move on to the next I/O thread
+					ioThread.register(new Connection(channel, ioThread));//hand the connection to it's I/O thread
+					log.log("New connection [" + channel.getRemoteAddress() + "]");//log the new connection
+				} catch(IOException ioException){//if the connection couldn't be set up
+					log.log("Failed to set up new connection");//log that the connection couldn't be set up
+					ioException.printStackTrace(log);//log the exception
+					channel.close();//drop the connection
+				}
+			}
+		} catch(IOException ioException){//if the connections couldn't be accepted
+			if(keepRunning){//if this wasn't caused by the network manager closing
+				log.log("Failed to accept connection");//log that the connection couldn't be accepted
+				ioException.printStackTrace(log);//log the exception
+			}
+		}
+	}
+
+	/**Sets the highest compression level offered to connections made from now on, lower levels use less CPU time
+	 * @param level The compression level from 1 to 9, or 0 to not compress at all*/
+	void setCompressionLevel(int level)
+	{
+		compressionLevel = Math.max(0, Math.min(9, level));//set the compression level
+	}
+
+	/**Closes the network manager, closing the accepting channel and every connection and stopping the I/O threads
+	 * @throws IOException If the accepting channel couldn't be closed*/
+	public void close() throws IOException
+	{
+		keepRunning = false;//set that the network manager should stop running
+		try{//try to close the accepting channel
+			acceptor.close();//close the accepting channel
+		} finally{//ensure the I/O threads get stopped
+			for(IOThread ioThread : ioThreads){//iterate through the I/O threads
+				ioThread.selector.wakeup();//wake the thread up so it notices it should stop
+			}
+		}
+		log.log("Network manager closed");//log that the network manager was closed
+	}
+
+	/**Class for a single I/O thread, which services every connection registered with it's selector*/
+	private class IOThread extends Thread
+	{
+		/**The selector this thread waits on*/
+		private final Selector selector;
+		/**Queue of new connections waiting to be registered with the selector*/
+		private final ConcurrentLinkedQueue<Connection> registrations = new ConcurrentLinkedQueue<Connection>();
+		/**Queue of connections that have had messages queued for sending since the last select*/
+		private final ConcurrentLinkedQueue<Connection> writes = new ConcurrentLinkedQueue<Connection>();
+		/**List of the connections that haven't sent their name yet, only used by this thread*/
+		private final ArrayList<Connection> handshaking = new ArrayList<Connection>();
+
+		/**Creates a new I/O thread
+		 * @param index The index of the thread, used in it's name
+		 * @throws IOException If the selector couldn't be opened*/
+		private IOThread(int index) throws IOException
+		{
+			super("NetworkManager-IO-" + index);//name the thread
+			setDaemon(true);//don't let the thread keep the JVM alive
+			selector = Selector.open();//open the thread's selector
+		}
+
+		/**Hands a new connection to this thread to be registered with it's selector
+		 * @param connection The connection to register*/
+		private void register(Connection connection)
+		{
+			registrations.add(connection);//queue the connection to be registered
+			selector.wakeup();//wake the thread up to register it
+		}
+
+		/**Schedules a connection to have it's queued messages sent by this thread
+		 * @param connection The connection with messages to send*/
+		private void scheduleWrite(Connection connection)
+		{
+			writes.add(connection);//queue the connection to be written
+			if(Thread.currentThread() != this){//if this isn't being called from this I/O thread
+				selector.wakeup();//wake the thread up to write the messages
+			}
+		}
+
+		/**Runs the I/O thread, which waits for channels to become ready and services them*/
+		public void run()
+		{
+			try{//wrapper to ensure the selector is cleaned up
+				while(keepRunning){//while the network manager should continue running
+					if(writes.isEmpty()){//if there aren't any messages waiting to be sent
+						selector.select(1000);//wait for a channel to be ready, waking up periodically to check handshakes
+					} else{//if messages were queued while servicing the last channels
+						selector.selectNow();//check for ready channels without waiting, so the messages go out right away
+					}
+					Connection connection;//reference for each queued connection
+					while((connection = registrations.poll()) != null){//while there are connections to register
+						try{//try to register the connection
+							connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);//register the connection for reading
+							handshaking.add(connection);//start the connection's handshake timer
+						} catch(IOException ioException){//if the connection couldn't be registered
+							connection.close();//drop the connection
+						}
+					}
+					while((connection = writes.poll()) != null){//while there are connections with messages to send
+						connection.flush();//send the connection's messages
+					}
+					Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();//get the ready channels
+					while(iterator.hasNext()){//iterate through the ready channels
+						SelectionKey key = iterator.next();//get the next ready channel
+						iterator.remove();//remove it from the ready set
+						if(!key.isValid()){//if the channel was closed
+							continue;
+						}
+						if(key.isAcceptable()){//if there are connections to accept
+							accept();//accept the connections
+							continue;
+						}
+						Connection ready = (Connection)key.attachment();//get the channel's connection
+						if(key.isReadable()){//if there's data to read
+							ready.read();//read the data
+						}
+						if(key.isValid() && key.isWritable()){//if there's room to write
+							ready.flush();//send the connection's messages
+						}
+					}
+					long now = System.currentTimeMillis();//store the current time
+					for(Iterator<Connection> handshakes = handshaking.iterator(); handshakes.hasNext();){//iterate through the connections that haven't sent their name
+						Connection handshake = handshakes.next();//get the next connection
+						if(handshake.name != null){//if the connection finished it's handshake
+							handshakes.remove();//stop timing it
+						} else if(now - handshake.openTime > HANDSHAKE_TIMEOUT){//if the connection took too long
+							log.log("Connection timed out during handshake [" + handshake.address + "]");//log that the connection timed out
+							handshakes.remove();//stop timing it
+							handshake.close();//drop the connection
+						}
+					}
+				}
+			} catch(Exception exception){//if the I/O thread failed
+				if(keepRunning){//if this wasn't caused by the network manager closing
+					log.log("Fatal exception occurred in network I/O thread");//log that the thread failed
+					exception.printStackTrace(log);//log the exception
+				}
+			} finally{//ensure every connection gets closed
+				for(SelectionKey key : selector.keys()){//iterate through the thread's channels
+					if(key.attachment() instanceof Connection){//if the channel is a connection
+						((Connection)key.attachment()).close();//close the connection
+					}
+				}
+				try{//try to close the selector
+					selector.close();//close the selector
+				} catch(IOException ioException){//if the selector couldn't be closed
+					ioException.printStackTrace(log);//log the exception
+				}
+			}
+		}
+	}
+
+	/**Class holding the state of a single stream within a connection*/
+	private static class Stream
+	{
+		/**Queue of the framed messages waiting to be sent on the stream, guarded by the connection's streams*/
+		private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<ByteBuffer>();
+		/**How many more bytes of payload can be sent before the receiver has to acknowledge some, guarded by the
+		 * connection's streams*/
+		private int sendWindow = STREAM_WINDOW;
+		/**The frames of the message currently being received, null between messages, only used by the I/O thread*/
+		private ByteArrayOutputStream message = null;
+		/**The type of the message currently being received, only used by the I/O thread*/
+		private byte messageType;
+		/**How many bytes of payload have been received without being acknowledged, only used by the I/O thread*/
+		private int unacknowledged = 0;
+		/**Compressor for messages sent on the stream, keeping it's context from one message to the next, null until it's
+		 * first needed; this and the other compression fields are guarded by the stream itself*/
+		private Deflater deflater = null;
+		/**How many bytes of messages have been compressed since the ratio was last checked*/
+		private long sampledBytes = 0;
+		/**How many bytes those messages compressed into*/
+		private long sampledCompressed = 0;
+		/**How many more bytes of messages to send uncompressed before trying compression again*/
+		private long skipBytes = 0;
+		/**Decompressor for compressed frames received on the stream, null until it's first needed; only used by the I/O
+		 * thread, except to be ended when the connection closes, which the decompressor itself guards against*/
+		private Inflater inflater = null;
+	}
+
+	/**Class representing a single client's connection, messages can be sent through it from any thread*/
+	class Connection implements Closeable
+	{
+		/**The channel the client is connected through*/
+		private final SocketChannel channel;
+		/**The I/O thread servicing this connection*/
+		private final IOThread owner;
+		/**The client's address, kept for logging after the channel closes*/
+		private final String address;
+		/**When the connection was accepted, for timing out it's handshake*/
+		private final long openTime = System.currentTimeMillis();
+		/**The channel's key in it's I/O thread's selector, only used by the I/O thread*/
+		private SelectionKey key;
+		/**The ANDAC name of the client, null until the client sends it*/
+		private volatile String name = null;
+		/**Direct buffer that data is read into, only used by the I/O thread*/
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		/**Direct buffer that queued frames are copied into for writing, only used by the I/O thread*/
+		private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		/**Array of the connection's streams indexed by stream ID, also the lock for sending on them*/
+		private final Stream[] streams = new Stream[Protocol.STREAM_COUNT];
+		/**The stream that gets the first chance to send next, so the streams take turns, guarded by streams*/
+		private int nextStream = 0;
+		/**Whether the connection is already scheduled with it's I/O thread for writing, guarded by streams*/
+		private boolean writeScheduled = false;
+		/**The compression codec negotiated with the client*/
+		private volatile byte codec = Protocol.CODEC_NONE;
+		/**The compression level negotiated with the client*/
+		private volatile int level = 0;
+		/**Buffer that compressed frames are decompressed through, only used by the I/O thread*/
+		private final byte[] inflateBuffer = new byte[MAX_FRAME_PAYLOAD];
+		/**Flag for whether the connection should be closed once everything queued has been sent*/
+		private volatile boolean closing = false;
+		/**Flag for whether the connection has been closed*/
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		/**Creates a new connection
+		 * @param socketChannel The channel the client is connected through
+		 * @param ioThread The I/O thread that will service the connection
+		 * @throws IOException If the client's address couldn't be retrieved*/
+		private Connection(SocketChannel socketChannel, IOThread ioThread) throws IOException
+		{
+			channel = socketChannel;//set the connection's channel
+			owner = ioThread;//set the connection's I/O thread
+			address = String.valueOf(channel.getRemoteAddress());//store the client's address
+			for(int counter = 0; counter < streams.length; counter++){//iterate through the stream IDs
+				streams[counter] = new Stream();//create the stream
+			}
+		}
+
+		/**Returns the ANDAC name the client connected with
+		 * @return The client's name, or null if it hasn't finished connecting*/
+		String getName()
+		{
+			return name;//return the client's name
+		}
+
+		/**Queues a message to be sent to the client on the stream it's type belongs to, this can be called from any thread
+		 * @param type The message's type
+		 * @param body The message's body
+		 * @throws IOException If the connection has been closed*/
+		void send(byte type, byte[] body) throws IOException
+		{
+			send(Protocol.streamOf(type), type, body);//send the message on it's stream
+		}
+
+		/**Splits a message into frames and queues them to be sent on a stream
+		 * @param streamID The ID of the stream to send the message on
+		 * @param type The message's type
+		 * @param body The message's body
+		 * @throws IOException If the connection has been closed*/
+		private void send(int streamID, byte type, byte[] body) throws IOException
+		{
+			if(closed.get()){//if the connection has been closed
+				throw new IOException("Connection closed [" + address + "]");//except that the message can't be sent
+			}
+			Stream stream = streams[streamID];//get the stream
+			synchronized(stream){//lock stream, so messages are compressed in the same order they're queued
+				byte[] payload = body;//reference for what gets framed
+				byte flags = 0;//flags for every frame of the message
+				if(shouldCompress(stream, body.length)){//if the message should be compressed
+					payload = compress(stream, body);//compress the message
+					flags = COMPRESSED;//mark the frames as compressed
+				}
+				ArrayList<ByteBuffer> frames = new ArrayList<ByteBuffer>(payload.length / MAX_FRAME_PAYLOAD + 1);//create a list for the message's frames
+				int offset = 0;//counter for how much of the message has been framed
+				do{//loop until the whole message has been framed, always creating at least one frame
+					int length = Math.min(MAX_FRAME_PAYLOAD, payload.length - offset);//store how much of the message fits in this frame
+					ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + length);//allocate space for the frame
+					frame.putInt(length);//write the frame's payload length
+					frame.putInt(streamID);//write the frame's stream
+					frame.put(type);//write the message's type
+					frame.put((byte)(flags | ((offset + length == payload.length)? END : 0)));//mark whether this is the message's last frame
+					frame.put(payload, offset, length);//write the frame's payload
+					frame.flip();//prepare the frame for sending
+					frames.add(frame);//add the frame to the list
+					offset += length;//move past the framed part of the message
+				} while(offset < payload.length);
+				synchronized(streams){//lock streams
+					stream.frames.addAll(frames);//queue the frames together so the message isn't split up on it's stream
+				}//release streams
+			}//release stream
+			scheduleWrite();//have the I/O thread send the frames
+		}
+
+		/**Decides whether a message should be compressed, must be called while holding the stream
+		 * @param stream The stream the message is being sent on
+		 * @param length The message's length
+		 * @return True if the message should be compressed*/
+		private boolean shouldCompress(Stream stream, int length)
+		{
+			if((codec != Protocol.CODEC_DEFLATE) || (length < COMPRESSION_THRESHOLD)){//if compression is off or the message is small
+				return false;
+			}
+			if(stream.skipBytes > 0){//if compression was turned off for a while because of a poor ratio
+				stream.skipBytes -= length;//count the message towards trying again
+				return false;
+			}
+			return true;//return that the message should be compressed
+		}
+
+		/**Compresses a message with the stream's context, flushing it so the client can decompress the whole message
+		 * as soon as it arrives, and turns compression off for a while if the ratio has been poor; must be called while
+		 * holding the stream
+		 * @param stream The stream the message is being sent on
+		 * @param body The message's body
+		 * @return The compressed message*/
+		private byte[] compress(Stream stream, byte[] body)
+		{
+			if(stream.deflater == null){//if this is the first message compressed on the stream
+				stream.deflater = new Deflater(level);//create the stream's compressor
+			}
+			stream.deflater.setInput(body);//hand the message to the compressor
+			byte[] compressed = new byte[body.length / 2 + 64];//allocate space for the compressed message
+			int length = 0;//counter for how many compressed bytes have been produced
+			while(true){//loop until the message has been completely flushed out of the compressor
+				length += stream.deflater.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);//compress as much as fits
+				if(length < compressed.length){//if the compressor had room to finish flushing
+					break;
+				}
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);//make more room
+			}
+			stream.sampledBytes += body.length;//count the message towards the ratio
+			stream.sampledCompressed += length;
+			if(stream.sampledBytes >= RATIO_SAMPLE_BYTES){//if enough has been compressed to judge the ratio
+				double ratio = (double)stream.sampledCompressed / stream.sampledBytes;//calculate the ratio
+				if(ratio > POOR_RATIO){//if compression is barely saving anything
+					stream.skipBytes = DISABLED_BYTES;//stop compressing for a while
+					log.log("Compression ratio " + String.format("%.2f", ratio) + " too poor, pausing compression [" + ((name == null)? address : name) + "]");//log that compression was paused
+				}
+				stream.sampledBytes = 0;//start a new sample
+				stream.sampledCompressed = 0;
+			}
+			return Arrays.copyOf(compressed, length);//return the compressed message
+		}
+
+		/**Schedules the connection with it's I/O thread for writing, unless it already is*/
+		private void scheduleWrite()
+		{
+			synchronized(streams){//lock streams
+				if(writeScheduled){//if the I/O thread is already going to write this connection
+					return;
+				}
+				writeScheduled = true;//mark that the connection is scheduled
+			}//release streams
+			owner.scheduleWrite(this);//have the I/O thread write the connection
+		}
+
+		/**Reads whatever data is available from the channel and hands off every complete message, called on the I/O
+		 * thread*/
+		private void read()
+		{
+			try{//try to read from the channel
+				if(channel.read(readBuffer) < 0){//if the client closed the connection
+					close();//close the connection
+					return;
+				}
+				readBuffer.flip();//switch the buffer to reading what's been received
+				while(true){//loop until there isn't a complete frame left in the buffer
+					if(name == null){//if the client hasn't sent it's name yet
+						if(!readHandshake()){//if the handshake hasn't fully arrived
+							break;
+						}
+						handler.connected(this);//hand off the new connection
+						continue;
+					}
+					if(readBuffer.remaining() < HEADER_BYTES){//if the next frame's header hasn't arrived
+						break;
+					}
+					int length = readBuffer.getInt(readBuffer.position());//peek at the next frame's payload length
+					if((length < 0) || (length > MAX_FRAME_PAYLOAD)){//if the length is invalid
+						throw new IOException("Invalid frame length: " + length);//except that the stream is corrupt
+					}
+					if(readBuffer.remaining() < HEADER_BYTES + length){//if the frame hasn't fully arrived
+						break;
+					}
+					readBuffer.getInt();//skip past the frame's length
+					int streamID = readBuffer.getInt();//read the frame's stream
+					byte type = readBuffer.get();//read the message's type
+					byte flags = readBuffer.get();//read the frame's flags
+					if((streamID < 0) || (streamID >= streams.length)){//if the stream doesn't exist
+						throw new IOException("Invalid stream ID: " + streamID);//except that the stream is corrupt
+					}
+					byte[] payload = new byte[length];//allocate space for the frame's payload
+					readBuffer.get(payload);//read the frame's payload
+					receiveFrame(streamID, type, flags, payload);//handle the frame
+				}
+				readBuffer.compact();//move any partial frame to the front of the buffer
+			} catch(Exception exception){//if the channel couldn't be read or the data was corrupt
+				if(!closed.get()){//if the connection wasn't already closed
+					log.log("Failed to read from connection [" + ((name == null)? address : name) + "]");//log that the connection failed
+					exception.printStackTrace(log);//log the exception
+					close();//drop the connection
+				}
+			}
+		}
+
+		/**Reads the client's name and compression offer if they've fully arrived, and replies with the codec and level
+		 * picked, called on the I/O thread
+		 * @return True if the handshake was read, false if it hasn't fully arrived yet*/
+		private boolean readHandshake()
+		{
+			int start = readBuffer.position();//store where the handshake starts
+			int available = readBuffer.remaining();//store how much has arrived
+			if(available < 1){//if the name's length hasn't arrived
+				return false;
+			}
+			int nameLength = readBuffer.get(start) & 0xFF;//peek at the name's length
+			if(available < nameLength + 2){//if the name or codec count hasn't arrived
+				return false;
+			}
+			int codecCount = readBuffer.get(start + 1 + nameLength) & 0xFF;//peek at how many codecs the client supports
+			if(available < nameLength + codecCount + 3){//if the codecs or level haven't arrived
+				return false;
+			}
+			byte[] nameBytes = new byte[nameLength];//allocate space for the client's name
+			readBuffer.get();//skip past the name's length
+			readBuffer.get(nameBytes);//read the client's name
+			readBuffer.get();//skip past the codec count
+			byte chosenCodec = Protocol.CODEC_NONE;//the codec to use, uncompressed unless both sides support something better
+			for(int counter = 0; counter < codecCount; counter++){//iterate through the client's codecs in order of preference
+				byte offered = readBuffer.get();//read the codec
+				if((chosenCodec == Protocol.CODEC_NONE) && (offered == Protocol.CODEC_DEFLATE)){//if this is the first codec the server supports
+					chosenCodec = offered;//pick it
+				}
+			}
+			int chosenLevel = Math.min(readBuffer.get() & 0xFF, compressionLevel);//use the lower of the two sides' levels
+			if((chosenCodec == Protocol.CODEC_NONE) || (chosenLevel <= 0)){//if there's no compression both sides want
+				chosenCodec = Protocol.CODEC_NONE;//don't compress
+				chosenLevel = 0;
+			}
+			codec = chosenCodec;//set the connection's codec
+			level = chosenLevel;//set the connection's level
+			writeBuffer.put(chosenCodec);//reply with the codec, ahead of any frames
+			writeBuffer.put((byte)chosenLevel);//reply with the level
+			name = new String(nameBytes, StandardCharsets.UTF_8);//decode the client's name
+			scheduleWrite();//send the reply
+			return true;//return that the handshake was read
+		}
+
+		/**Handles a single frame, applying window updates and reassembling messages to hand off
+		 * @param streamID The ID of the stream the frame arrived on
+		 * @param type The type of the frame's message
+		 * @param flags The frame's flags
+		 * @param payload The frame's payload
+		 * @throws IOException If the frame broke the protocol*/
+		private void receiveFrame(int streamID, byte type, byte flags, byte[] payload) throws IOException
+		{
+			if((streamID == Protocol.STREAM_CONTROL) && (type == Protocol.WINDOW_UPDATE)){//if the client acknowledged data on a stream
+				ByteBuffer update = ByteBuffer.wrap(payload);//wrap the update for reading
+				int updatedStream = update.getInt();//read which stream the update is for
+				int increment = update.getInt();//read how many bytes were acknowledged
+				if((updatedStream <= Protocol.STREAM_CONTROL) || (updatedStream >= streams.length) || (increment < 0)){//if the update is invalid
+					throw new IOException("Invalid window update: " + updatedStream + " " + increment);//except that the stream is corrupt
+				}
+				synchronized(streams){//lock streams
+					streams[updatedStream].sendWindow += increment;//open up the stream's window
+				}//release streams
+				scheduleWrite();//send anything that was waiting on the window
+				return;
+			}
+			Stream stream = streams[streamID];//get the frame's stream
+			if(streamID != Protocol.STREAM_CONTROL){//if the stream is flow controlled
+				stream.unacknowledged += payload.length;//count the frame against the stream's window
+				if(stream.unacknowledged > STREAM_WINDOW){//if the client sent more than the window allows
+					throw new IOException("Flow control window exceeded on stream " + streamID);//except that the client broke the protocol
+				}
+				if(stream.unacknowledged >= STREAM_WINDOW / 2){//if half the window has been used up
+					ByteBuffer update = ByteBuffer.allocate(8);//allocate space for a window update
+					update.putInt(streamID);//write which stream the update is for
+					update.putInt(stream.unacknowledged);//write how many bytes are acknowledged
+					send(Protocol.STREAM_CONTROL, Protocol.WINDOW_UPDATE, update.array());//send the window update
+					stream.unacknowledged = 0;//everything received so far has been acknowledged
+				}
+			}
+			if(stream.message == null){//if this is the first frame of a message
+				stream.message = new ByteArrayOutputStream(payload.length);//start reassembling the message
+				stream.messageType = type;//store the message's type
+			}
+			if((flags & COMPRESSED) != 0){//if the frame is compressed
+				inflate(stream, payload);//decompress it into the message
+			} else{//if the frame isn't compressed
+				stream.message.write(payload);//add the frame's payload to the message
+			}
+			if(stream.message.size() > MAX_MESSAGE_BYTES){//if the message is too large
+				throw new IOException("Message too large on stream " + streamID);//except that the message can't be received
+			}
+			if((flags & END) != 0){//if this was the message's last frame
+				byte[] body = stream.message.toByteArray();//get the message's body
+				stream.message = null;//get ready for the stream's next message
+				handler.messageReceived(this, stream.messageType, body);//hand off the message
+			}
+		}
+
+		/**Decompresses a frame with the stream's context into the message being received, called on the I/O thread
+		 * @param stream The stream the frame arrived on
+		 * @param payload The frame's compressed payload
+		 * @throws IOException If the payload couldn't be decompressed or the message grew too large*/
+		private void inflate(Stream stream, byte[] payload) throws IOException
+		{
+			if(codec == Protocol.CODEC_NONE){//if compression wasn't negotiated
+				throw new IOException("Compressed frame on uncompressed connection");//except that the client broke the protocol
+			}
+			if(stream.inflater == null){//if this is the first compressed frame on the stream
+				stream.inflater = new Inflater();//create the stream's decompressor
+			}
+			stream.inflater.setInput(payload);//hand the frame to the decompressor
+			try{//try to decompress the frame
+				while(true){//loop until all of the frame has been decompressed
+					int length = stream.inflater.inflate(inflateBuffer);//decompress as much as fits
+					if(length > 0){//if anything was decompressed
+						stream.message.write(inflateBuffer, 0, length);//add it to the message
+						if(stream.message.size() > MAX_MESSAGE_BYTES){//if the message is too large
+							throw new IOException("Decompressed message too large");//except before decompressing any more of it
+						}
+					} else if(stream.inflater.needsInput()){//if the whole frame has been decompressed
+						break;
+					} else{//if the decompressor is stuck
+						throw new IOException("Invalid compressed frame");//except that the stream is corrupt
+					}
+				}
+			} catch(DataFormatException dataFormatException){//if the frame wasn't valid compressed data
+				throw new IOException("Invalid compressed frame", dataFormatException);//except that the stream is corrupt
+			}
+		}
+
+		/**Writes as many queued frames as the channel will take, taking one frame from each stream in turn that has window
+		 * left, and registering for write readiness if the channel fills up, called on the I/O thread*/
+		private void flush()
+		{
+			try{//try to write to the channel
+				while(true){//loop until everything sendable is written or the channel is full
+					boolean flushed = false;//flag for whether everything that can be sent has been
+					synchronized(streams){//lock streams
+						boolean copied = true;//flag for whether a frame was copied on the last pass
+						while(copied){//while frames are still being copied
+							copied = false;//nothing has been copied on this pass yet
+							for(int counter = 0; counter < streams.length; counter++){//iterate through the streams starting with the one whose turn it is
+								int streamID = (nextStream + counter) % streams.length;//get the stream's ID
+								Stream stream = streams[streamID];//get the stream
+								ByteBuffer frame = stream.frames.peek();//get the stream's next frame
+								if((frame == null) || (frame.remaining() > writeBuffer.remaining())){//if the stream has nothing to send or the frame doesn't fit
+									continue;
+								}
+								int payload = frame.remaining() - HEADER_BYTES;//store the size of the frame's payload
+								if((streamID != Protocol.STREAM_CONTROL) && (payload > stream.sendWindow)){//if the stream's window is used up
+									continue;
+								}
+								writeBuffer.put(stream.frames.poll());//copy the frame
+								if(streamID != Protocol.STREAM_CONTROL){//if the stream is flow controlled
+									stream.sendWindow -= payload;//count the frame against the stream's window
+								}
+								nextStream = (streamID + 1) % streams.length;//give the next stream the first chance
+								copied = true;//mark that a frame was copied
+								break;
+							}
+						}
+						if(writeBuffer.position() == 0){//if there's nothing that can be written
+							flushed = true;//mark that the connection is flushed
+							if(!closing){//if the connection isn't waiting to be flushed before closing
+								writeScheduled = false;//the connection needs to be rescheduled for new frames or window
+								if(key.isValid()){//if the channel is still open
+									key.interestOps(SelectionKey.OP_READ);//stop waiting for write readiness
+								}
+								return;
+							}
+						}
+					}//release streams
+					if(flushed){//if the connection was waiting to be flushed before closing
+						close();//close the connection, outside of the lock since closing takes each stream's lock
+						return;
+					}
+					writeBuffer.flip();//switch the buffer to writing it's contents
+					channel.write(writeBuffer);//write as much as the channel will take
+					boolean full = writeBuffer.hasRemaining();//store whether the channel was full
+					writeBuffer.compact();//keep anything that wasn't written
+					if(full){//if the channel couldn't take everything
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);//finish writing once there's room
+						return;
+					}
+				}
+			} catch(Exception exception){//if the channel couldn't be written
+				if(!closed.get()){//if the connection wasn't already closed
+					log.log("Failed to write to connection [" + ((name == null)? address : name) + "]");//log that the connection failed
+					exception.printStackTrace(log);//log the exception
+					close();//drop the connection
+				}
+			}
+		}
+		/**Closes the connection once everything already queued on it has been sent, or as much as the streams' windows
+		 * allow, so a final message like a redirect isn't cut off*/
+		void closeWhenFlushed()
+		{
+			closing = true;//mark that the connection should close once it's flushed
+			synchronized(streams){//lock streams
+				writeScheduled = true;//make sure the connection is scheduled, even if it already was
+			}//release streams
+			owner.scheduleWrite(this);//have the I/O thread flush and then close the connection
+		}
+
+		/**Closes the connection, handing off the disconnection if the client had finished connecting*/
+		public void close()
+		{
+			if(!closed.compareAndSet(false, true)){//if the connection was already closed
+				return;
+			}
+			if(key != null){//if the channel was registered
+				key.cancel();//unregister the channel
+			}
+			try{//try to close the channel
+				channel.close();//close the channel
+			} catch(IOException ioException){//if the channel couldn't be closed
+				ioException.printStackTrace(log);//log the exception
+			}
+			for(Stream stream : streams){//iterate through the streams
+				synchronized(stream){//lock stream
+					if(stream.deflater != null){//if the stream compressed anything
+						stream.deflater.end();//release the compressor's native memory
+					}
+				}//release stream
+				if(stream.inflater != null){//if the stream decompressed anything
+					stream.inflater.end();//release the decompressor's native memory
+				}
+			}
+			if(name != null){//if the client had finished connecting
+				handler.disconnected(this);//hand off the disconnection
+			}
+			log.log("Connection closed [" + ((name == null)? address : name) + "]");//log that the connection was closed
+		}
+	}
+}
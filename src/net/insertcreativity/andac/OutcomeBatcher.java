@@ -0,0 +1,185 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class that collects the outcomes of a client's tasks and ships them to the server in batches, so the server's credit
+ * for several tasks is returned with a single message. A batch is shipped as soon as it's full, or once it's oldest
+ * outcome has waited the batch delay, so a slow trickle of outcomes is never held back for long*/
+public class OutcomeBatcher implements TaskExecutor.OutcomeListener, Closeable
+{
+	/**Listener that gets handed each batch of outcomes once it's ready to be shipped*/
+	public interface BatchListener
+	{
+		/**Called whenever a batch of outcomes is ready to be shipped to the server
+		 * @param body The encoded body of an OUTCOMES message holding the batch*/
+		void batchReady(byte[] body);
+	}
+
+	/**Reference to the log printer that the batcher should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the listener that batches are handed to*/
+	private final BatchListener listener;
+	/**The most outcomes that can be put into a single batch*/
+	private final int maxBatch;
+	/**The most milliseconds an outcome can wait before it's batch is shipped*/
+	private final long maxDelay;
+	/**List of the outcomes in the batch being built, also it's own lock*/
+	private final ArrayList<TaskOutcome> batch = new ArrayList<TaskOutcome>();
+	/**When the oldest outcome in the batch arrived, guarded by batch*/
+	private long batchStart = 0;
+	/**Reference to the thread that ships batches once they've waited long enough*/
+	private final Thread flusher;
+	/**Flag for whether or not the batcher should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new outcome batcher and starts it's flushing thread
+	 * @param logPrinter The log printer that the batcher should log it's activity to
+	 * @param batchListener The listener that batches should be handed to
+	 * @param maxBatchSize The most outcomes to put into a single batch
+	 * @param maxBatchDelay The most milliseconds an outcome should wait before it's batch is shipped*/
+	public OutcomeBatcher(LogPrinter logPrinter, BatchListener batchListener, int maxBatchSize, long maxBatchDelay)
+	{
+		log = logPrinter;//set the batcher's log
+		listener = batchListener;//set the batcher's listener
+		maxBatch = Math.max(1, maxBatchSize);//set the batch limit
+		maxDelay = Math.max(1, maxBatchDelay);//set the batch delay
+		flusher = new Thread(new Runnable(){//create the flushing thread
+			public void run()
+			{
+				flushLoop();//run the flushing loop
+			}
+		}, "OutcomeBatcher-Flusher");
+		flusher.setDaemon(true);//don't let the flusher keep the JVM alive
+		flusher.start();//start the flushing thread
+	}
+
+	/**Adds a task's outcome to the current batch, shipping the batch if it's full
+	 * @param outcome The outcome of the task*/
+	public void taskFinished(TaskOutcome outcome)
+	{
+		List<TaskOutcome> ready = null;//reference for a batch that's ready to be shipped
+		synchronized(batch){//lock batch
+			if(batch.isEmpty()){//if this is the first outcome in the batch
+				batchStart = System.currentTimeMillis();//start timing the batch
+				batch.notifyAll();//wake up the flusher to time the batch
+			}
+			batch.add(outcome);//add the outcome to the batch
+			if(batch.size() >= maxBatch){//if the batch is full
+				ready = takeBatch();//take the batch to ship it
+			}
+		}//release batch
+		if(ready != null){//if a batch is ready
+			ship(ready);//ship the batch
+		}
+	}
+
+	/**Ships whatever outcomes are in the current batch right away*/
+	public void flush()
+	{
+		List<TaskOutcome> ready;//reference for the batch to ship
+		synchronized(batch){//lock batch
+			ready = takeBatch();//take the batch
+		}//release batch
+		if(!ready.isEmpty()){//if the batch held anything
+			ship(ready);//ship the batch
+		}
+	}
+
+	/**Removes every outcome from the current batch, must be called while holding batch
+	 * @return List of the outcomes that were in the batch*/
+	private List<TaskOutcome> takeBatch()
+	{
+		ArrayList<TaskOutcome> ready = new ArrayList<TaskOutcome>(batch);//copy the batch
+		batch.clear();//start a new batch
+		return ready;//return the outcomes
+	}
+
+	/**Encodes a batch of outcomes and hands it to the listener
+	 * @param outcomes The outcomes to ship*/
+	private void ship(List<TaskOutcome> outcomes)
+	{
+		listener.batchReady(encode(outcomes));//hand the batch to the listener
+	}
+
+	/**Encodes a batch of outcomes as the body of an OUTCOMES message, which is the number of outcomes as an int followed
+	 * by each serialized outcome's length as an int and then it's bytes. Each outcome is serialized on it's own, so one
+	 * that can't be serialized is replaced with a FAILED outcome instead of taking the rest of the batch with it
+	 * @param outcomes The outcomes to encode
+	 * @return The encoded batch*/
+	private byte[] encode(List<TaskOutcome> outcomes)
+	{
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the batch into
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the batch
+		try{//try to encode the batch
+			dataOutputStream.writeInt(outcomes.size());//write how many outcomes are in the batch
+			for(TaskOutcome outcome : outcomes){//iterate through the outcomes
+				byte[] data;//reference for the serialized outcome
+				try{//try to serialize the outcome
+					data = serialize(outcome);//serialize the outcome
+				} catch(IOException ioException){//if the outcome couldn't be serialized, which happens if it's results aren't serializable
+					log.log("Failed to serialize outcome, reporting it as failed: " + outcome);//log that the outcome was replaced
+					ioException.printStackTrace(log);//log the exception
+					data = serialize(new TaskOutcome(outcome.taskID, TaskOutcome.Status.FAILED, null, new IOException("Outcome couldn't be serialized: " + ioException), outcome.elapsedTime, false, false, null));//report the task as failed instead
+				}
+				dataOutputStream.writeInt(data.length);//write the outcome's length
+				dataOutputStream.write(data);//write the outcome
+			}
+		} catch(IOException ioException){//this can't happen when writing to a byte array and serializing a plain failure
+			throw new IllegalStateException(ioException);//except that something impossible happened
+		}
+		return byteArrayOutputStream.toByteArray();//return the encoded batch
+	}
+
+	/**Serializes a single outcome
+	 * @param outcome The outcome to serialize
+	 * @return The serialized outcome
+	 * @throws IOException If the outcome couldn't be serialized*/
+	private static byte[] serialize(TaskOutcome outcome) throws IOException
+	{
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the outcome into
+		try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)){//create an object output stream for writing the outcome to
+			objectOutputStream.writeObject(outcome);//write the outcome
+		}
+		return byteArrayOutputStream.toByteArray();//return the serialized outcome
+	}
+
+	/**Loop run by the flushing thread, which ships each batch once it's oldest outcome has waited the batch delay*/
+	private void flushLoop()
+	{
+		while(keepRunning){//while the batcher should continue running
+			List<TaskOutcome> ready = null;//reference for a batch that's ready to be shipped
+			synchronized(batch){//lock batch
+				try{//try to wait for the batch to be due
+					if(batch.isEmpty()){//if there's nothing to ship
+						batch.wait();//wait for an outcome
+					} else{//if there's a batch being built
+						long remaining = batchStart + maxDelay - System.currentTimeMillis();//calculate how long until the batch is due
+						if(remaining > 0){//if the batch isn't due yet
+							batch.wait(remaining);//wait until it's due
+						} else{//if the batch is due
+							ready = takeBatch();//take the batch to ship it
+						}
+					}
+				} catch(InterruptedException interruptedException){}//if the thread was interrupted, check whether the batcher closed
+			}//release batch
+			if(ready != null){//if a batch is ready
+				ship(ready);//ship the batch
+			}
+		}
+	}
+
+	/**Closes the batcher, shipping any outcomes left in the current batch*/
+	public void close()
+	{
+		keepRunning = false;//set that the batcher should stop running
+		flusher.interrupt();//wake up the flusher so it stops
+		flush();//ship what's left
+	}
+}
@@ -0,0 +1,28 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+
+/**Class carrying the combined results of several map tasks from the same job, which is shipped to the reducer in place
+ * of each task's raw results*/
+public class PartialAggregate implements Serializable
+{
+	/**Serial ID for serializing partial aggregates across networks*/
+	private static final long serialVersionUID = -5467090924812117585L;
+	/**The ID of the job the tasks are part of*/
+	public final String jobID;
+	/**The IDs of all the tasks whose results were combined into this*/
+	public final String[] taskIDs;
+	/**The combined results of the tasks*/
+	public final Serializable[] results;
+
+	/**Creates a new partial aggregate
+	 * @param job The ID of the job the tasks are part of
+	 * @param tasks The IDs of all the tasks whose results were combined
+	 * @param combined The combined results of the tasks*/
+	PartialAggregate(String job, String[] tasks, Serializable[] combined)
+	{
+		jobID = job;//set the aggregate's job
+		taskIDs = tasks;//set the aggregate's tasks
+		results = combined;//set the combined results
+	}
+}
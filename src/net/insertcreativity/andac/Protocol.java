@@ -0,0 +1,100 @@
+package net.insertcreativity.andac;
+
+/**Class holding the message types exchanged between a server and it's directly connected clients. Every message
+ * starts with it's type byte, followed by the fields listed in the type's description; sequenced messages have their
+ * sequence number before those fields*/
+final class Protocol
+{
+	/**Server -> Client: a new task to run, followed by the task's string*/
+	static final byte TASK = 1;
+	/**Client -> Server: the outcome of a task, followed by a serialized TaskOutcome*/
+	static final byte OUTCOME = 2;
+	/**Server -> Client: cancel a task the client was sent, followed by the task's ID as a UTF string*/
+	static final byte CANCEL = 3;
+	/**Client -> Server: a summary of everything the client has cached, followed by a serialized BloomFilter*/
+	static final byte CACHE_SUMMARY = 4;
+	/**Client -> Server, Server -> Client: the combined results of several map tasks, followed by a serialized
+	 * PartialAggregate; the server forwards these to the job's reducing client if it has one*/
+	static final byte PARTIAL = 5;
+
+	/**Either direction: replenishes the flow control window of a stream, sent on the control stream and followed by
+	 * the stream's ID as an int and how many bytes are acknowledged as an int*/
+	static final byte WINDOW_UPDATE = 6;
+	/**Client -> Server: how many tasks the server can have outstanding on the client at once, followed by the count as
+	 * an int and then how many cores the client has as an int. Clients should advertise more than they can run at once,
+	 * so the next task is already waiting when a worker frees up; the server pipelines tasks to the client until this
+	 * many are outstanding*/
+	static final byte CREDIT = 7;
+	/**Client -> Server: the outcomes of several tasks at once, each returning one task's worth of credit, followed by
+	 * the number of outcomes as an int and then each outcome's length as an int followed by it's serialized TaskOutcome*/
+	static final byte OUTCOMES = 8;
+	/**Either direction: starts or resumes a session, followed by the session's ID as a UTF string and the last sequence
+	 * number received from the other side as a long. A client sends this first after connecting, with an empty ID for
+	 * a new session, and the server replies with the session's ID and it's own last received number; each side then
+	 * replays everything it sent after the other side's last received number. If the server starts a new session
+	 * instead, the client should resend anything it never had acknowledged as new messages, and replay it's result
+	 * journal if it keeps one. Clients should advertise their CREDIT again after every RESUME, since a client suspected
+	 * of failing stops being dispatched to until it does*/
+	static final byte RESUME = 9;
+	/**Either direction: acknowledges every sequenced message up to a sequence number, followed by the number as a long*/
+	static final byte ACK = 10;
+	/**Either direction: shows the sender is still alive, with no body. Any message counts as a sign of life, but
+	 * heartbeats are sent every second so the failure detector has a steady rhythm to learn from*/
+	static final byte HEARTBEAT = 11;
+	/**Server -> Client: the client belongs to another server in the federation and should reconnect there, starting a
+	 * new session, followed by the server's name and then it's address as 'host:port', both as UTF strings*/
+	static final byte REDIRECT = 12;
+	/**Client -> Server: outcomes from the client's result journal, each returning one task's worth of credit, followed
+	 * by the journal's ID as a UTF string, the number of the first entry as a long, the number of entries as an int, and
+	 * then each entry's length as an int followed by it's serialized TaskOutcome. Entries are numbered contiguously, and
+	 * the server drops any it's already handled from the same journal, since journals replay whatever wasn't
+	 * acknowledged when a new session starts*/
+	static final byte RESULTS = 13;
+	/**Server -> Client: the server has handled a range of entries from the client's result journal and they can be
+	 * truncated, followed by the numbers of the first and last entries as longs*/
+	static final byte RESULTS_ACK = 14;
+
+	/**ID of the stream carrying control messages, which isn't flow controlled so they're never held up*/
+	static final int STREAM_CONTROL = 0;
+	/**ID of the stream carrying tasks from the server to the client*/
+	static final int STREAM_TASKS = 1;
+	/**ID of the stream carrying results from the client to the server*/
+	static final int STREAM_RESULTS = 2;
+	/**How many streams each connection is multiplexed into*/
+	static final int STREAM_COUNT = 3;
+
+	/**Codec ID for sending frames uncompressed*/
+	static final byte CODEC_NONE = 0;
+	/**Codec ID for compressing frames with deflate, keeping one compression context per stream*/
+	static final byte CODEC_DEFLATE = 1;
+
+	/**Returns the stream a type of message is sent on
+	 * @param type The message's type
+	 * @return The ID of the message's stream*/
+	static int streamOf(byte type)
+	{
+		switch(type){
+			case TASK://if the message is a task
+				return STREAM_TASKS;//send it on the task stream
+			case OUTCOME://if the message is a task's outcome
+			case OUTCOMES://if the message is a batch of outcomes
+			case RESULTS://if the message is a batch of journaled outcomes
+			case PARTIAL://if the message is a partial aggregate
+				return STREAM_RESULTS;//send it on the result stream
+			default://if the message is anything else
+				return STREAM_CONTROL;//send it on the control stream
+		}
+	}
+
+	/**Returns whether a type of message is sequenced; sequenced messages have their body prefixed with a sequence number
+	 * as a long, are kept for replay until acknowledged, and are dropped as duplicates if they're received twice
+	 * @param type The message's type
+	 * @return True if the message is sequenced*/
+	static boolean isSequenced(byte type)
+	{
+		return (type != RESUME) && (type != ACK) && (type != WINDOW_UPDATE) && (type != HEARTBEAT) && (type != REDIRECT);//return whether the message is session data rather than session control
+	}
+
+	/**Private constructor to prevent instantiation*/
+	private Protocol(){}
+}
@@ -0,0 +1,302 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class for memoizing the results of cacheable tasks, so that resubmitting an identical task reuses the results of the
+ * first one instead of recomputing them. Results are keyed by the task's type, version and a hash of it's arguments,
+ * and are stored serialized in a least recently used in-memory tier backed by a size limited on-disk tier*/
+public class ResultCache
+{
+	/**Extension given to the result files stored in the on-disk tier*/
+	private static final String EXTENSION = ".res";
+	/**Extension given to result files while they're being written, before they're moved into place*/
+	private static final String TEMP_EXTENSION = ".tmp";
+	/**Reference to the log printer that the cache should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the directory that the on-disk tier is stored in*/
+	private final File directory;
+	/**The maximum number of bytes of results to keep in memory*/
+	private final long memoryLimit;
+	/**The maximum number of bytes of results to keep on disk*/
+	private final long diskLimit;
+	/**Map of serialized results in access order, keyed by their cache keys, also it's own lock*/
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	/**How many bytes of results are currently in memory*/
+	private long memorySize = 0;
+	/**How many bytes of results are currently on disk, guarded by directory*/
+	private long diskSize = 0;
+
+	/**Creates a new result cache, picking up any results left on disk from previous runs
+	 * @param logPrinter The log printer that the cache should log it's activity to
+	 * @param cacheDirectory The directory to store the on-disk tier in
+	 * @param memoryBytes The maximum number of bytes of results to keep in memory
+	 * @param diskBytes The maximum number of bytes of results to keep on disk
+	 * @throws IOException If the cache directory couldn't be created*/
+	public ResultCache(LogPrinter logPrinter, File cacheDirectory, long memoryBytes, long diskBytes) throws IOException
+	{
+		log = logPrinter;//set the cache's log
+		directory = cacheDirectory;//set the cache's directory
+		memoryLimit = memoryBytes;//set the memory tier's limit
+		diskLimit = diskBytes;//set the disk tier's limit
+		if(!directory.isDirectory() && !directory.mkdirs()){//if the cache directory doesn't exist and couldn't be created
+			throw new IOException("Failed to create cache directory: " + directory.getAbsolutePath());//except that the directory couldn't be created
+		}
+		File[] leftovers = directory.listFiles();//list everything left in the cache directory
+		if(leftovers != null){//if the directory could be listed
+			for(File file : leftovers){//iterate through the files
+				if(file.getName().endsWith(TEMP_EXTENSION)){//if the file is a result that was never finished being written
+					file.delete();//delete the partial result
+				}
+			}
+		}
+		for(File file : listEntries()){//iterate through all the results left on disk
+			diskSize += file.length();//add the result's size to the disk tier
+		}
+		log.log("Opened result cache with " + diskSize + " bytes on disk at " + directory.getAbsolutePath());//log that the cache was opened
+	}
+
+	/**Generates the cache key for running a task with the specified arguments, which is a hash of the task's type,
+	 * version and serialized arguments; arguments should serialize deterministically for equal values to share a key
+	 * @param task The task to generate a key for
+	 * @param args The arguments the task is being run with
+	 * @return A hexadecimal string that uniquely identifies the task's computation
+	 * @throws IOException If the arguments couldn't be serialized*/
+	public static String key(Task task, Object[] args) throws IOException
+	{
+		final MessageDigest digest;//reference for the hashing algorithm
+		try{//try to retrieve the hashing algorithm
+			digest = MessageDigest.getInstance("SHA-256");//retrieve the SHA-256 algorithm
+		} catch(NoSuchAlgorithmException noSuchAlgorithmException){//if SHA-256 isn't available
+			throw new IOException("SHA-256 is unavailable", noSuchAlgorithmException);//except that no key could be generated
+		}
+		digest.update(task.getClass().getName().getBytes(StandardCharsets.UTF_8));//hash the task's type
+		digest.update(Integer.toString(task.getVersion()).getBytes(StandardCharsets.UTF_8));//hash the task's version
+		try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(new OutputStream(){//create a stream that hashes everything written to it
+			public void write(int b)
+			{
+				digest.update((byte)b);//hash the byte
+			}
+
+			public void write(byte[] b, int off, int len)
+			{
+				digest.update(b, off, len);//hash the bytes
+			}
+		})){
+			objectOutputStream.writeObject(args);//hash the serialized arguments
+		}
+		StringBuilder key = new StringBuilder(64);//create a builder for the hexadecimal key
+		for(byte b : digest.digest()){//iterate through the bytes of the hash
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));//append the byte in hexadecimal
+		}
+		return key.toString();//return the key
+	}
+
+	/**Retrieves the cached results for a key, checking the memory tier before the disk tier
+	 * @param key The cache key of the task's computation
+	 * @return The cached results, or null if they aren't cached*/
+	public Serializable[] get(String key)
+	{
+		byte[] data;//reference for the serialized results
+		synchronized(memory){//lock memory
+			data = memory.get(key);//retrieve the results from memory
+		}//release memory
+		if(data == null){//if the results weren't in memory
+			synchronized(directory){//lock directory, diskSize
+				File file = new File(directory, key + EXTENSION);//create a reference to the result's file
+				if(!file.isFile()){//if the results aren't on disk either
+					return null;//return that the results aren't cached
+				}
+				try{//try to read in the result's file
+					data = readFile(file);//read in the serialized results
+					file.setLastModified(System.currentTimeMillis());//mark the file as recently used
+				} catch(IOException ioException){//if the file couldn't be read
+					log.log("Failed to read cached results: " + key);//log that the file couldn't be read
+					ioException.printStackTrace(log);//log the exception
+					return null;//treat the results as not being cached
+				}
+			}//release directory, diskSize
+			storeInMemory(key, data);//promote the results into memory
+		}
+		try{//try to deserialize the results
+			return deserialize(data);//return the deserialized results
+		} catch(Exception exception){//if the results couldn't be deserialized
+			log.log("Failed to deserialize cached results, discarding them: " + key);//log that the results couldn't be deserialized
+			exception.printStackTrace(log);//log the exception
+			remove(key);//discard the results so they aren't read again
+			return null;//treat the results as not being cached
+		}
+	}
+
+	/**Removes a computation's results from both tiers of the cache
+	 * @param key The cache key of the task's computation*/
+	private void remove(String key)
+	{
+		synchronized(memory){//lock memory, memorySize
+			byte[] data = memory.remove(key);//remove the results from memory
+			if(data != null){//if the results were in memory
+				memorySize -= data.length;//remove their size from the memory tier
+			}
+		}//release memory, memorySize
+		synchronized(directory){//lock directory, diskSize
+			File file = new File(directory, key + EXTENSION);//create a reference to the result's file
+			long length = file.length();//store the result's size
+			if(file.delete()){//if the result was deleted
+				diskSize -= length;//remove it's size from the disk tier
+			}
+		}//release directory, diskSize
+	}
+
+	/**Stores the results of a computation in both tiers of the cache
+	 * @param key The cache key of the task's computation
+	 * @param results The results generated by the task*/
+	public void put(String key, Serializable[] results)
+	{
+		byte[] data;//reference for the serialized results
+		try{//try to serialize the results
+			data = serialize(results);//serialize the results
+		} catch(IOException ioException){//if the results couldn't be serialized
+			log.log("Failed to serialize results for caching: " + key);//log that the results couldn't be serialized
+			ioException.printStackTrace(log);//log the exception
+			return;//don't cache the results
+		}
+		storeInMemory(key, data);//store the results in memory
+		if(data.length > diskLimit){//if the results are too large for the disk tier
+			return;//don't store them on disk
+		}
+		synchronized(directory){//lock directory, diskSize
+			File file = new File(directory, key + EXTENSION);//create a reference to the result's file
+			if(file.isFile()){//if the results are already on disk
+				return;//don't store them again
+			}
+			File temp = new File(directory, key + TEMP_EXTENSION);//create a reference to the file the results are written to first
+			try{//try to write the result's file
+				try(FileOutputStream fileOutputStream = new FileOutputStream(temp)){//create a stream for writing the results
+					fileOutputStream.write(data);//write the serialized results
+				}
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);//move the finished results into place, so a crash never leaves a partial result file
+			} catch(IOException ioException){//if the results couldn't be written
+				log.log("Failed to write cached results: " + key);//log that the results couldn't be written
+				ioException.printStackTrace(log);//log the exception
+				temp.delete();//delete any partially written file
+				return;//don't count the results as being on disk
+			}
+			diskSize += data.length;//add the results to the disk tier's size
+			if(diskSize > diskLimit){//if the disk tier is over it's limit
+				File[] files = listEntries();//list all the results on disk
+				Arrays.sort(files, new Comparator<File>(){//sort the results from least to most recently used
+					public int compare(File file1, File file2)
+					{
+						return Long.compare(file1.lastModified(), file2.lastModified());//compare when the files were last used
+					}
+				});
+				for(int counter = 0; (counter < files.length) && (diskSize > diskLimit); counter++){//iterate through the results until the tier is under it's limit
+					long length = files[counter].length();//store the result's size
+					if(files[counter].delete()){//if the result was deleted
+						diskSize -= length;//remove it's size from the disk tier
+					}
+				}
+			}
+		}//release directory, diskSize
+	}
+
+	/**Stores serialized results in the memory tier, evicting the least recently used results if it goes over it's limit
+	 * @param key The cache key of the task's computation
+	 * @param data The serialized results*/
+	private void storeInMemory(String key, byte[] data)
+	{
+		if(data.length > memoryLimit){//if the results are too large for the memory tier
+			return;//don't store them in memory
+		}
+		synchronized(memory){//lock memory, memorySize
+			byte[] previous = memory.put(key, data);//store the results in memory
+			memorySize += data.length - ((previous == null)? 0 : previous.length);//update the memory tier's size
+			Iterator<Map.Entry<String, byte[]>> iterator = memory.entrySet().iterator();//get an iterator starting from the least recently used results
+			while((memorySize > memoryLimit) && iterator.hasNext()){//while the memory tier is over it's limit
+				memorySize -= iterator.next().getValue().length;//remove the result's size from the memory tier
+				iterator.remove();//evict the results from memory
+			}
+		}//release memory, memorySize
+	}
+
+	/**Lists all the result files currently in the on-disk tier
+	 * @return An array of all the result files*/
+	private File[] listEntries()
+	{
+		File[] files = directory.listFiles();//list all the files in the cache directory
+		if(files == null){//if the directory couldn't be listed
+			return new File[0];//return that there are no results
+		}
+		int count = 0;//counter for how many result files there are
+		for(File file : files){//iterate through the files
+			if(file.getName().endsWith(EXTENSION)){//if the file is a result file
+				files[count++] = file;//keep the file
+			}
+		}
+		return Arrays.copyOf(files, count);//return only the result files
+	}
+
+	/**Reads the entire contents of a file into memory
+	 * @param file The file to be read
+	 * @return A byte array containing the file's data
+	 * @throws IOException If the file couldn't be read*/
+	private static byte[] readFile(File file) throws IOException
+	{
+		byte[] data = new byte[(int)file.length()];//allocate space for the file's data
+		try(FileInputStream fileInputStream = new FileInputStream(file)){//create a stream for reading the file
+			int offset = 0;//index of where the next bytes should be read into
+			while(offset < data.length){//while the file hasn't been fully read
+				int read = fileInputStream.read(data, offset, data.length - offset);//read in the next section of the file
+				if(read == -1){//if the file ended early
+					throw new IOException("Unexpected end of file: " + file.getAbsolutePath());//except that the file was truncated
+				}
+				offset += read;//move the offset forward by how many bytes were read
+			}
+		}
+		return data;//return the file's data
+	}
+
+	/**Serializes an array of results into bytes
+	 * @param results The results to be serialized
+	 * @return A byte array containing the serialized results
+	 * @throws IOException If the results couldn't be serialized*/
+	private static byte[] serialize(Serializable[] results) throws IOException
+	{
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the results into
+		try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)){//create an object output stream for writing the results to
+			objectOutputStream.writeObject(results);//write the results
+		}
+		return byteArrayOutputStream.toByteArray();//return the serialized results
+	}
+
+	/**Deserializes an array of results from bytes
+	 * @param data A byte array containing the serialized results
+	 * @return The deserialized results
+	 * @throws IOException If the results couldn't be read
+	 * @throws ClassNotFoundException If the result's classes couldn't be found*/
+	private static Serializable[] deserialize(byte[] data) throws IOException, ClassNotFoundException
+	{
+		try(ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(data))){//create an object input stream for reading the results from
+			return (Serializable[])objectInputStream.readObject();//read in and return the results
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**Class that folds the results of map tasks into one partial aggregate per job on the client, so that a single
+ * aggregate is shipped for a batch of tasks instead of every task's raw results*/
+public class ResultCombiner
+{
+	/**Listener that gets handed each partial aggregate once it's ready to be shipped*/
+	public interface PartialListener
+	{
+		/**Called whenever a partial aggregate is ready to be shipped to the job's reducer
+		 * @param partial The partial aggregate*/
+		void partialReady(PartialAggregate partial);
+	}
+
+	/**Reference to the listener that partial aggregates are handed to*/
+	private final PartialListener listener;
+	/**The most tasks that can be combined into a single partial aggregate before it's shipped*/
+	private final int maxBatch;
+	/**Map of the partial aggregates being built keyed by job ID, also it's own lock*/
+	private final HashMap<String, Partial> partials = new HashMap<String, Partial>();
+
+	/**Creates a new result combiner
+	 * @param partialListener The listener that partial aggregates should be handed to
+	 * @param maxBatchSize The most tasks that can be combined into a single partial aggregate before it's shipped*/
+	public ResultCombiner(PartialListener partialListener, int maxBatchSize)
+	{
+		listener = partialListener;//set the combiner's listener
+		maxBatch = maxBatchSize;//set the batch limit
+	}
+
+	/**Folds a map task's results into it's job's partial aggregate, shipping the aggregate if it's reached the batch
+	 * limit or if the job has no more tasks left on this client
+	 * @param task The map task that completed
+	 * @param results The results of the task
+	 * @param lastForJob Whether this client has no more of the job's tasks queued or running*/
+	void add(MapTask task, Serializable[] results, boolean lastForJob)
+	{
+		PartialAggregate ready = null;//reference for an aggregate that's ready to be shipped
+		synchronized(partials){//lock partials
+			Partial partial = partials.get(task.jobID);//retrieve the job's partial aggregate
+			if(partial == null){//if this is the job's first result
+				partial = new Partial();//create a new partial aggregate
+				partials.put(task.jobID, partial);//store the job's partial aggregate
+			}
+			partial.results = task.getCombiner().combine(partial.results, results);//fold the results into the aggregate
+			partial.taskIDs.add(task.ID);//record the task as being in the aggregate
+			if(lastForJob || (partial.taskIDs.size() >= maxBatch)){//if the aggregate should be shipped
+				partials.remove(task.jobID);//remove the aggregate so a new one is started
+				ready = partial.toAggregate(task.jobID);//create the aggregate to ship
+			}
+		}//release partials
+		if(ready != null){//if an aggregate is ready
+			listener.partialReady(ready);//ship the aggregate
+		}
+	}
+
+	/**Ships every partial aggregate that's still being built, this should be called before the client disconnects*/
+	public void flush()
+	{
+		ArrayList<PartialAggregate> ready = new ArrayList<PartialAggregate>();//create a list for the aggregates to ship
+		synchronized(partials){//lock partials
+			for(HashMap.Entry<String, Partial> entry : partials.entrySet()){//iterate through all the partial aggregates
+				ready.add(entry.getValue().toAggregate(entry.getKey()));//create the aggregate to ship
+			}
+			partials.clear();//clear all the partial aggregates
+		}//release partials
+		for(PartialAggregate partial : ready){//iterate through the aggregates
+			listener.partialReady(partial);//ship the aggregate
+		}
+	}
+
+	/**Class holding a partial aggregate that's still being built*/
+	private static class Partial
+	{
+		/**List of the IDs of the tasks combined so far*/
+		private final ArrayList<String> taskIDs = new ArrayList<String>();
+		/**The results combined so far*/
+		private Serializable[] results = null;
+
+		/**Converts this into a partial aggregate that can be shipped
+		 * @param jobID The ID of the job the tasks are part of
+		 * @return The partial aggregate*/
+		private PartialAggregate toAggregate(String jobID)
+		{
+			return new PartialAggregate(jobID, taskIDs.toArray(new String[taskIDs.size()]), results);//create the partial aggregate
+		}
+	}
+}
@@ -0,0 +1,519 @@
+package net.insertcreativity.andac;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class that makes a client's task outcomes durable before they're shipped, so an outcome is never lost to a failed
+ * send, a dropped session or the client crashing. Every outcome is numbered and appended to a journal on disk, and
+ * outcomes that arrive close together are written and synced with a single fsync before being shipped to the server as
+ * one batch. The server acknowledges the range of entries it handled, and once every entry in one of the journal's
+ * segment files is acknowledged the segment is deleted. Whatever is still unacknowledged is shipped again by
+ * {@link #replay()}, which the client should call whenever it starts a new session; the server drops entries it's
+ * already handled, since every batch carries the journal's ID and the number of it's first entry*/
+public class ResultJournal implements TaskExecutor.OutcomeListener, Closeable
+{
+	/**The size a segment can grow to before a new one is started*/
+	private static final long SEGMENT_BYTES = 4 * 1024 * 1024;
+	/**Extension given to segment files, which are named by the number of their first entry*/
+	private static final String EXTENSION = ".wal";
+	/**The longest the writer waits in milliseconds before retrying a group that failed to be journaled*/
+	private static final long MAX_BACKOFF = 30000;
+	/**Reference to the log printer that the journal should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the directory the journal is kept in*/
+	private final File directory;
+	/**Reference to the listener that batches are handed to*/
+	private final OutcomeBatcher.BatchListener listener;
+	/**The most outcomes that can be synced and shipped as a single batch*/
+	private final int maxBatch;
+	/**The most milliseconds an outcome waits for others to share it's fsync*/
+	private final long maxDelay;
+	/**The journal's unique ID, kept across restarts so the server can tell replayed entries apart from new ones*/
+	private final String journalID;
+	/**List of the outcomes waiting to be written, also it's own lock*/
+	private final ArrayList<Entry> pending = new ArrayList<Entry>();
+	/**The number to give the next outcome, guarded by pending*/
+	private long nextEntry;
+	/**When the oldest pending outcome arrived, guarded by pending*/
+	private long pendingStart = 0;
+	/**Map of the journal's segment files by the number of their first entry, also the lock for writing and reading them*/
+	private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+	/**Channel for appending to the newest segment, guarded by segments*/
+	private FileChannel channel = null;
+	/**How many bytes are in the newest segment, guarded by segments*/
+	private long segmentBytes = 0;
+	/**The number of the last entry that's been synced to disk, guarded by segments*/
+	private long syncedThrough;
+	/**Map of acknowledged ranges of entries that aren't contiguous with the rest yet, by their first entry, also the
+	 * lock for acknowledgements*/
+	private final TreeMap<Long, Long> acknowledged = new TreeMap<Long, Long>();
+	/**The number of the last entry the server has acknowledged along with every entry before it, guarded by acknowledged*/
+	private long acknowledgedThrough = 0;
+	/**Reference to the thread that writes, syncs and ships outcomes*/
+	private final Thread writer;
+	/**Flag for whether or not the journal should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Opens a result journal, recovering any outcomes the server never acknowledged, and starts it's writer thread; the
+	 * recovered outcomes aren't shipped until {@link #replay()} is called
+	 * @param logPrinter The log printer that the journal should log it's activity to
+	 * @param journalDirectory The directory to keep the journal in
+	 * @param batchListener The listener that batches should be handed to, each as the body of a RESULTS message
+	 * @param maxBatchSize The most outcomes to sync and ship together
+	 * @param maxBatchDelay The most milliseconds an outcome should wait for others to share it's fsync
+	 * @throws IOException If the journal couldn't be opened or recovered*/
+	public ResultJournal(LogPrinter logPrinter, File journalDirectory, OutcomeBatcher.BatchListener batchListener, int maxBatchSize, long maxBatchDelay) throws IOException
+	{
+		log = logPrinter;//set the journal's log
+		directory = journalDirectory;//set the journal's directory
+		listener = batchListener;//set the journal's listener
+		maxBatch = Math.max(1, maxBatchSize);//set the batch limit
+		maxDelay = Math.max(0, maxBatchDelay);//set the batch delay
+		if(!directory.isDirectory() && !directory.mkdirs()){//if the journal directory doesn't exist and couldn't be created
+			throw new IOException("Failed to create journal directory: " + directory.getAbsolutePath());//except that the directory couldn't be created
+		}
+		File idFile = new File(directory, "journal.id");//create a reference to the journal's ID file
+		if(idFile.isFile()){//if the journal already exists
+			journalID = new String(Files.readAllBytes(idFile.toPath()), StandardCharsets.UTF_8);//read in the journal's ID
+		} else{//if this is a new journal
+			journalID = UUID.randomUUID().toString();//create a new ID
+			Files.write(idFile.toPath(), journalID.getBytes(StandardCharsets.UTF_8));//store the journal's ID
+		}
+		File ackFile = new File(directory, "acknowledged.dat");//create a reference to the acknowledgement file
+		if(ackFile.isFile()){//if entries were acknowledged before the journal was last closed
+			try(DataInputStream dataInputStream = new DataInputStream(new FileInputStream(ackFile))){//create a stream for reading the acknowledgement
+				acknowledgedThrough = dataInputStream.readLong();//read in the last acknowledged entry
+			} catch(EOFException eofException){}//a torn acknowledgement only means some entries get shipped again
+		}
+		syncedThrough = recover();//recover the journal's segments
+		nextEntry = syncedThrough + 1;//continue numbering after the last entry on disk
+		log.log("Opened result journal " + journalID + " with entries up to " + syncedThrough + ", acknowledged through " + acknowledgedThrough);//log that the journal was opened
+		writer = new Thread(new Runnable(){//create the writer thread
+			public void run()
+			{
+				writeLoop();//run the writer loop
+			}
+		}, "ResultJournal-Writer");
+		writer.setDaemon(true);//don't let the writer keep the JVM alive
+		writer.start();//start the writer thread
+	}
+
+	/**Returns the journal's unique ID
+	 * @return The journal's ID*/
+	public String getID()
+	{
+		return journalID;//return the journal's ID
+	}
+
+	/**Numbers a task's outcome and queues it to be journaled and shipped
+	 * @param outcome The outcome of the task*/
+	public void taskFinished(TaskOutcome outcome)
+	{
+		byte[] data;//reference for the serialized outcome
+		try{//try to serialize the outcome
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the outcome into
+			try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)){//create an object output stream for writing the outcome to
+				objectOutputStream.writeObject(outcome);//write the outcome
+			}
+			data = byteArrayOutputStream.toByteArray();//store the serialized outcome
+		} catch(IOException ioException){//if the outcome couldn't be serialized
+			log.log("Failed to serialize outcome for task: " + outcome.taskID);//log that the outcome couldn't be journaled
+			ioException.printStackTrace(log);//log the exception
+			return;
+		}
+		synchronized(pending){//lock pending
+			if(pending.isEmpty()){//if this is the first outcome waiting
+				pendingStart = System.currentTimeMillis();//start timing the group
+			}
+			pending.add(new Entry(nextEntry++, data));//queue the outcome
+			pending.notify();//wake up the writer thread
+		}//release pending
+	}
+
+	/**Records that the server handled a range of entries, deleting any segments that are now fully acknowledged
+	 * @param first The number of the first entry handled
+	 * @param last The number of the last entry handled*/
+	public void acknowledge(long first, long last)
+	{
+		long through;//the last entry acknowledged along with every entry before it
+		synchronized(acknowledged){//lock acknowledged
+			Long existing = acknowledged.get(first);//get any range that starts at the same entry
+			acknowledged.put(first, Math.max(last, (existing == null)? last : existing));//store the range
+			while(!acknowledged.isEmpty() && (acknowledged.firstKey() <= acknowledgedThrough + 1)){//while the first range joins onto the acknowledged entries
+				acknowledgedThrough = Math.max(acknowledgedThrough, acknowledged.pollFirstEntry().getValue());//extend the acknowledged entries over it
+			}
+			through = acknowledgedThrough;//store how far the acknowledgement reaches
+			try{//try to store the acknowledgement
+				File temp = new File(directory, "acknowledged.tmp");//create a reference to a temporary file to write into first
+				try(DataOutputStream dataOutputStream = new DataOutputStream(new FileOutputStream(temp))){//create a stream for writing the acknowledgement
+					dataOutputStream.writeLong(through);//write the last acknowledged entry
+				}
+				File ackFile = new File(directory, "acknowledged.dat");//create a reference to the acknowledgement file
+				ackFile.delete();//delete the old acknowledgement
+				temp.renameTo(ackFile);//replace it with the new one
+			} catch(IOException ioException){//if the acknowledgement couldn't be stored
+				log.log("Failed to store result journal acknowledgement");//log that the acknowledgement wasn't stored, which only means entries get shipped again
+				ioException.printStackTrace(log);//log the exception
+			}
+		}//release acknowledged
+		synchronized(segments){//lock segments
+			while(segments.size() > 1){//while there's a segment besides the one being appended to
+				Map.Entry<Long, File> oldest = segments.firstEntry();//get the oldest segment
+				if(segments.higherKey(oldest.getKey()) - 1 > through){//if the segment still holds unacknowledged entries
+					break;
+				}
+				oldest.getValue().delete();//delete the segment
+				segments.remove(oldest.getKey());
+			}
+		}//release segments
+	}
+
+	/**Ships every entry that's on disk but hasn't been acknowledged yet, which the client should do whenever it starts a
+	 * new session since anything shipped on the old one may never have arrived*/
+	public void replay()
+	{
+		long through;//reference for where the replay starts
+		synchronized(acknowledged){//lock acknowledged
+			through = acknowledgedThrough;//store the last acknowledged entry
+		}//release acknowledged
+		ArrayList<Entry> entries = new ArrayList<Entry>();//create a list for the entries to replay
+		synchronized(segments){//lock segments
+			for(File segment : segments.values()){//iterate through the segments
+				try{//try to read the segment
+					scan(segment, through, syncedThrough, entries);//copy out it's unacknowledged entries
+				} catch(IOException ioException){//if the segment couldn't be read
+					log.log("Failed to replay result journal segment: " + segment.getName());//log that the segment couldn't be replayed
+					ioException.printStackTrace(log);//log the exception
+				}
+			}
+		}//release segments, so the writer isn't held up while the entries are shipped
+		for(int start = 0; start < entries.size(); start += maxBatch){//iterate through the entries a batch at a time
+			ship(entries.subList(start, Math.min(entries.size(), start + maxBatch)));//ship the batch
+		}
+		log.log("Replayed " + entries.size() + " unacknowledged results from journal " + journalID);//log how many entries were replayed
+	}
+
+	/**Recovers the journal's segments after it's opened, cutting off any entry that was only partly written when the
+	 * client stopped, deleting segments that were fully acknowledged and opening the newest for appending
+	 * @return The number of the last entry on disk
+	 * @throws IOException If the segments couldn't be read*/
+	private long recover() throws IOException
+	{
+		File[] files = directory.listFiles();//list the journal's files
+		if(files != null){//if the directory could be listed
+			for(File file : files){//iterate through the files
+				String fileName = file.getName();//get the file's name
+				if(fileName.endsWith(EXTENSION)){//if the file is a segment
+					segments.put(Long.parseLong(fileName.substring(0, fileName.length() - EXTENSION.length())), file);//store the segment by it's first entry
+				}
+			}
+		}
+		long last = acknowledgedThrough;//the last entry found, never numbering below what the server has seen
+		Map.Entry<Long, File> newest = segments.lastEntry();//get the segment that was last appended to
+		if(newest != null){//if the journal has any segments
+			long lastInSegment = newest.getKey() - 1;//the last entry found in the newest segment
+			long valid = 0;//how many bytes of the segment hold complete entries
+			try(DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(newest.getValue())))){//create a stream for reading the segment
+				while(true){//read entries until the segment ends
+					Entry entry = readEntry(dataInputStream);//read the next entry
+					if(entry == null){//if the segment ended, or an entry was torn
+						break;
+					}
+					lastInSegment = entry.number;//store the entry's number
+					valid += 16 + entry.data.length;//count the entry's bytes
+				}
+			}
+			last = Math.max(last, lastInSegment);//store the last entry
+			channel = FileChannel.open(newest.getValue().toPath(), StandardOpenOption.WRITE);//open the segment for appending
+			if(channel.size() > valid){//if the segment ends with a torn entry
+				log.log("Truncated torn entry from result journal segment: " + newest.getValue().getName());//log that the torn entry was cut off
+				channel.truncate(valid);//cut the torn entry off
+			}
+			channel.position(valid);//append after the last complete entry
+			segmentBytes = valid;
+		}
+		acknowledge(acknowledgedThrough, acknowledgedThrough);//delete any segments that were fully acknowledged
+		return last;//return the last entry
+	}
+
+	/**Reads the next entry from a segment
+	 * @param input The stream to read the segment from
+	 * @return The entry, or null if the segment ended or the entry was torn
+	 * @throws IOException If the segment couldn't be read*/
+	private static Entry readEntry(DataInputStream input) throws IOException
+	{
+		try{//try to read the entry
+			int length = input.readInt();//read the entry's length
+			long number = input.readLong();//read the entry's number
+			int checksum = input.readInt();//read the entry's checksum
+			if((length < 0) || (length > SEGMENT_BYTES * 16)){//if the length is garbage
+				return null;//treat the entry as torn
+			}
+			byte[] data = new byte[length];//allocate space for the entry
+			input.readFully(data);//read in the entry
+			CRC32 crc = new CRC32();//create a checksum to check the entry against
+			crc.update(data);
+			if((int)crc.getValue() != checksum){//if the entry was only partly written
+				return null;//treat the entry as torn
+			}
+			return new Entry(number, data);//return the entry
+		} catch(EOFException eofException){//if the segment ended
+			return null;
+		}
+	}
+
+	/**Reads a segment, adding every entry in a range to a list
+	 * @param segment The segment to read
+	 * @param after Only entries after this number are added
+	 * @param through Only entries up to this number are added
+	 * @param entries The list to add entries to
+	 * @throws IOException If the segment couldn't be read*/
+	private static void scan(File segment, long after, long through, ArrayList<Entry> entries) throws IOException
+	{
+		try(DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))){//create a stream for reading the segment
+			Entry entry;//reference for the entry being read
+			while(((entry = readEntry(dataInputStream)) != null) && (entry.number <= through)){//while there are synced entries left
+				if(entry.number > after){//if the entry hasn't been acknowledged
+					entries.add(entry);//add it to the list
+				}
+			}
+		}
+	}
+
+	/**Appends a group of entries to the journal and syncs them with a single fsync, starting a new segment whenever the
+	 * current one fills up; if anything fails the whole group is rolled back off the journal, so a torn entry is never
+	 * left for later entries to be appended after. Must be called while holding segments
+	 * @param entries The entries to append
+	 * @throws IOException If the entries couldn't be written or synced*/
+	private void append(List<Entry> entries) throws IOException
+	{
+		Long startSegment = segments.isEmpty()? null : segments.lastKey();//store the segment the group starts in
+		long startBytes = segmentBytes;//store where the group starts in it
+		try{//try to write the group
+			for(Entry entry : entries){//iterate through the entries
+				write(entry);//write the entry
+			}
+			channel.force(false);//sync the whole group at once
+		} catch(IOException ioException){//if the group couldn't be written
+			rollBack(startSegment, startBytes);//cut the group back off the journal
+			throw ioException;//pass the failure on
+		}
+		syncedThrough = entries.get(entries.size() - 1).number;//store how far the journal is synced
+	}
+
+	/**Writes an entry to the end of the newest segment, starting a new segment first if the current one is full; must
+	 * be called while holding segments
+	 * @param entry The entry to write
+	 * @throws IOException If the entry couldn't be written*/
+	private void write(Entry entry) throws IOException
+	{
+		if((channel == null) || (segmentBytes >= SEGMENT_BYTES)){//if a new segment is needed
+			if(channel != null){//if there's a full segment open
+				channel.force(false);//sync the rest of it
+				channel.close();//close it
+				channel = null;
+			}
+			File segment = new File(directory, String.format("%020d", entry.number) + EXTENSION);//create a reference to the new segment
+			segments.put(entry.number, segment);//store the segment, before opening it so a failed open is rolled back too
+			channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);//open the new segment
+			segmentBytes = 0;
+		}
+		CRC32 crc = new CRC32();//create a checksum for the entry
+		crc.update(entry.data);
+		ByteBuffer header = ByteBuffer.allocate(16);//allocate the entry's header
+		header.putInt(entry.data.length).putLong(entry.number).putInt((int)crc.getValue()).flip();//write the entry's length, number and checksum
+		ByteBuffer[] buffers = new ByteBuffer[] {header, ByteBuffer.wrap(entry.data)};//gather the header and data into one write
+		long length = 16 + entry.data.length;//store how long the entry is
+		for(long written = 0; written < length;){//while the entry hasn't been fully written
+			written += channel.write(buffers);//write the entry
+		}
+		segmentBytes += length;
+	}
+
+	/**Rolls the journal back to where it was before a group failed to append, deleting any segments the group started
+	 * and truncating the segment it started in back to it's last good entry. If the segment can't be truncated it's
+	 * left as it is and the next group starts a new segment, so nothing is ever appended after a torn entry; must be
+	 * called while holding segments
+	 * @param startSegment The first entry of the segment the group started in, null if there were no segments
+	 * @param startBytes How many bytes of good entries the segment held before the group*/
+	private void rollBack(Long startSegment, long startBytes)
+	{
+		if(channel != null){//if a segment is open
+			try{//try to close the segment
+				channel.close();//close the segment
+			} catch(IOException ioException){}//the segment is being abandoned either way
+			channel = null;
+		}
+		while(!segments.isEmpty() && ((startSegment == null) || (segments.lastKey() > startSegment))){//while there are segments the group started
+			segments.pollLastEntry().getValue().delete();//delete the segment
+		}
+		if(startSegment == null){//if the group started the journal's first segment
+			return;//there's nothing left to truncate
+		}
+		File segment = segments.get(startSegment);//get the segment the group started in
+		try{//try to truncate the segment
+			channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE);//reopen the segment
+			channel.truncate(startBytes);//cut the group off
+			channel.force(false);//ensure the truncation is on disk
+			channel.position(startBytes);//append after the last good entry
+			segmentBytes = startBytes;
+		} catch(IOException ioException){//if the segment couldn't be truncated
+			log.log("Failed to truncate result journal segment " + segment.getName() + ", starting a new segment");//log that the segment is being abandoned
+			ioException.printStackTrace(log);//log the exception
+			if(channel != null){//if the segment was reopened
+				try{//try to close the segment
+					channel.close();//close the segment
+				} catch(IOException closeException){}//the segment is being abandoned either way
+				channel = null;//have the next group start a new segment
+			}
+		}
+	}
+
+	/**Encodes a batch of entries as the body of a RESULTS message and hands it to the listener
+	 * @param entries The entries to ship, which have to be contiguous*/
+	private void ship(List<Entry> entries)
+	{
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the batch into
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the batch
+		try{//try to encode the batch
+			dataOutputStream.writeUTF(journalID);//write the journal's ID
+			dataOutputStream.writeLong(entries.get(0).number);//write the number of the first entry
+			dataOutputStream.writeInt(entries.size());//write how many entries are in the batch
+			for(Entry entry : entries){//iterate through the entries
+				dataOutputStream.writeInt(entry.data.length);//write the entry's length
+				dataOutputStream.write(entry.data);//write the serialized outcome
+			}
+		} catch(IOException ioException){//this can't happen when writing to a byte array
+			throw new IllegalStateException(ioException);//except that something impossible happened
+		}
+		listener.batchReady(byteArrayOutputStream.toByteArray());//hand the batch to the listener
+	}
+
+	/**Loop run by the writer thread, which waits for a group of outcomes to build up, appends and syncs them, and then
+	 * ships them. Outcomes are only ever shipped once they're on disk, so a group that can't be journaled is put back
+	 * and retried with a growing backoff; anything still pending when the journal is closed is written before the loop
+	 * stops, and if that fails it's left unreported for the server to rerun*/
+	private void writeLoop()
+	{
+		long backoff = 0;//how long to wait before retrying a group that failed, zero if the last group was journaled
+		while(true){//loop until the journal is closed and every outcome has been written
+			ArrayList<Entry> group;//reference for the group to write
+			synchronized(pending){//lock pending
+				try{//try to wait for the group to be due
+					while(keepRunning && (pending.isEmpty() || ((pending.size() < maxBatch) && (System.currentTimeMillis() - pendingStart < maxDelay)))){//while the group isn't due yet
+						if(pending.isEmpty()){//if there's nothing to write
+							pending.wait();//wait for an outcome
+						} else{//if a group is building
+							pending.wait(Math.max(1, pendingStart + maxDelay - System.currentTimeMillis()));//wait until it's due
+						}
+					}
+				} catch(InterruptedException interruptedException){}//if the thread was interrupted, check whether the journal closed
+				if(pending.isEmpty()){//if the journal was closed with nothing pending
+					if(!keepRunning){
+						return;//stop writing
+					}
+					continue;
+				}
+				group = new ArrayList<Entry>(pending);//take the group
+				pending.clear();
+			}//release pending
+			boolean journaled = false;//flag for whether the group made it to disk
+			synchronized(segments){//lock segments
+				try{//try to write the group
+					append(group);//append and sync the group, into a new segment if the last one was abandoned
+					journaled = true;//the group is durable
+					backoff = 0;//the journal is writable again
+				} catch(IOException ioException){//if the group couldn't be made durable
+					backoff = Math.min(MAX_BACKOFF, Math.max(100, backoff * 2));//wait longer before each retry
+					log.log("Failed to journal " + group.size() + " results, retrying in " + backoff + "ms");//log that the group was rolled back
+					ioException.printStackTrace(log);//log the exception
+				}
+			}//release segments
+			if(!journaled){//if the group can't be shipped until it's durable
+				int unjournaled = 0;//how many results are left unreported if the journal is closing
+				synchronized(pending){//lock pending
+					pending.addAll(0, group);//put the group back in front of anything that arrived since
+					pendingStart = 0;//make it due as soon as the backoff ends
+					long retryAt = System.currentTimeMillis() + backoff;//store when to retry the group
+					try{//try to back off
+						for(long now = System.currentTimeMillis(); keepRunning && (now < retryAt); now = System.currentTimeMillis()){//until the backoff ends or the journal is closed
+							pending.wait(retryAt - now);//wait before retrying
+						}
+					} catch(InterruptedException interruptedException){}//if the thread was interrupted, retry now
+					if(!keepRunning){//if the journal is closing
+						unjournaled = pending.size();//store how many results are being left
+					}
+				}//release pending
+				if(unjournaled > 0){//if the journal closed before the results could be journaled
+					log.log("Closed result journal with " + unjournaled + " results that couldn't be journaled, leaving them for the server to rerun");//log that the results weren't reported
+					return;//stop writing
+				}
+				continue;
+			}
+			for(int start = 0; start < group.size(); start += maxBatch){//iterate through the group a batch at a time
+				ship(group.subList(start, Math.min(group.size(), start + maxBatch)));//ship the batch
+			}
+		}
+	}
+
+	/**Closes the journal, writing and shipping any outcomes that are still pending first*/
+	public void close()
+	{
+		synchronized(pending){//lock pending
+			keepRunning = false;//set that the journal should stop running
+			pending.notify();//wake up the writer thread
+		}//release pending
+		try{//try to wait for the writer to finish
+			writer.join();//block until the writer thread finishes
+		} catch(InterruptedException interruptedException){}//ignore any interruptions
+		synchronized(segments){//lock segments
+			if(channel != null){//if a segment is open
+				try{//try to close the segment
+					channel.close();//close the segment
+				} catch(IOException ioException){//if the segment couldn't be closed
+					ioException.printStackTrace(log);//log the exception
+				}
+				channel = null;
+			}
+		}//release segments
+	}
+
+	/**Class holding a single journaled outcome*/
+	private static class Entry
+	{
+		/**The entry's number*/
+		final long number;
+		/**The serialized outcome*/
+		final byte[] data;
+
+		/**Creates a new entry
+		 * @param entryNumber The entry's number
+		 * @param entryData The serialized outcome*/
+		Entry(long entryNumber, byte[] entryData)
+		{
+			number = entryNumber;//set the entry's number
+			data = entryData;//set the serialized outcome
+		}
+	}
+}
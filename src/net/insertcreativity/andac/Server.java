@@ -2,36 +2,124 @@
 package net.insertcreativity.andac;
 
 import java.awt.BorderLayout;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.swing.BoxLayout;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import net.insertcreativity.util.BloomFilter;
 import net.insertcreativity.util.LogPrinter;
-import net.insertcreativity.util.MinimalStack;
+import net.insertcreativity.util.RingBufferQueue;
+import net.insertcreativity.util.SecureHandshake;
+import net.insertcreativity.util.SecureInputStream;
+import net.insertcreativity.util.SpillingQueue;
+import net.insertcreativity.util.SecureOutputStream;
 
 public class Server extends Thread implements Closeable
 {
 	/**Map of all the clients connected to this server keyed by name, also it's own lock*/
 	private final HashMap<String, ClientManager> clients;
+	/**Set of the names of clients whose socket connections are being linked by a connecting thread, so two connections
+	 * from the same client can't be linked at once, guarded by clients*/
+	private final HashSet<String> connecting = new HashSet<String>();
 	/**Reference to the server manager used by this server*/
 	private ServerManager serverManager;
 	/**Reference to the GUI manager used by this server*/
 	private final GuiManager guiManager;
 	/**Reference to the log printer this server should log all it's activity to*/
 	private final LogPrinter log;
-	/**Stack of all the tasks currently assigned to this server*/
-	private final MinimalStack<String> tasks;
+	/**Queue of all the tasks currently assigned to this server, shared by the threads adding and dispatching tasks*/
+	private final RingBufferQueue<String> tasks = new RingBufferQueue<String>(65536, RingBufferQueue.WaitStrategy.BLOCKING);
+	/**Queue that tasks overflow into once the task queue is full, keeping the first 65536 on the heap and spilling the rest
+	 * to disk so millions of queued tasks don't fill the heap; the task sender moves them back into the task queue as
+	 * room frees up, so queueing a task never blocks or loses it. Also the lock held while tasks are queued, so they
+	 * stay in order*/
+	private final SpillingQueue overflow;
+	/**Queue of tasks that have to go back into the task queue ahead of the overflow, either because they were taken out of
+	 * the overflow when the queue had no room for them after all, or because the overflow couldn't spill them to disk,
+	 * guarded by overflow*/
+	private final ArrayDeque<String> backlog = new ArrayDeque<String>();
+	/**Dispatcher for deciding which client each task should be sent to*/
+	private final TaskDispatcher dispatcher = new TaskDispatcher();
+	/**Map of the tasks submitted to this server keyed by ID, which is also the string they're queued and sent as, kept
+	 * until they finish so dispatch can see what they depend on, also it's own lock*/
+	private final HashMap<String, Task> submitted = new HashMap<String, Task>();
+	/**Map of the split jobs that large splittable tasks were divided into, keyed by the IDs of their unfinished pieces,
+	 * also it's own lock*/
+	private final HashMap<String, SplitJob> splits = new HashMap<String, SplitJob>();
+	/**Set of the IDs of pieces whose split task already failed, which are skipped if they're still queued and have their
+	 * outcomes dropped if they're still running, guarded by splits*/
+	private final HashSet<String> deadPieces = new HashSet<String>();
+	/**Reference to the listener that's told the outcome of every task, with split tasks reported once their pieces are
+	 * merged, null if there isn't one*/
+	private volatile TaskExecutor.OutcomeListener outcomeListener = null;
+	/**Dependencies used for tasks that weren't submitted to this server, such as stolen ones, which are placed by load alone*/
+	private static final String[] NO_DEPENDENCIES = new String[0];
+	/**Map of all the map/reduce jobs running on this server keyed by job ID, also it's own lock*/
+	private final HashMap<String, MapReduceJob> jobs = new HashMap<String, MapReduceJob>();
+	/**Map of partial aggregates waiting for their job's reducing client to reconnect, keyed by the client's name, also
+	 * it's own lock*/
+	private final HashMap<String, ArrayList<PartialAggregate>> heldPartials = new HashMap<String, ArrayList<PartialAggregate>>();
+	/**Manager for launching backup copies of straggling tasks, backing up tasks past 1.5x the 90th percentile runtime
+	 * while keeping backups under 10% of the running tasks*/
+	private final SpeculationManager speculation = new SpeculationManager(0.9, 1.5, 0.1);
+	/**Reference to the network manager handling this server's non-blocking client connections, null until it's opened*/
+	private NetworkManager network = null;
+	/**Reference to the file server that sends clients task bundles and input files, null until it's opened*/
+	private FileServer fileServer = null;
+	/**Reference to the federation this server shares it's job with, null if it isn't federated*/
+	private volatile Federation federation = null;
+	/**Reference to the stealer moving queued tasks between this server and the rest of it's federation, null if it
+	 * isn't federated*/
+	private WorkStealer workStealer = null;
+	/**How few tasks this server has to have queued before it steals more from the rest of it's federation*/
+	private int stealLowWater = 64;
+	/**How many tasks this server steals from the rest of it's federation at a time*/
+	private int stealBatch = 256;
+	/**The highest compression level offered to clients connecting through the network manager, 0 to not compress*/
+	private volatile int compressionLevel = 6;
+	/**Lock that the task sending thread waits on for a client to have credit free*/
+	private final Object creditLock = new Object();
+	/**Reference to the thread that sends queued tasks to clients, null until it's started*/
+	private Thread taskSender = null;
+	/**How many milliseconds apart heartbeats are sent to clients and expected from them*/
+	private static final long HEARTBEAT_INTERVAL = 1000;
+	/**Detector for clients that have silently failed, suspecting a client once it's phi passes 8 with at least 500ms
+	 * of assumed jitter, over it's last 200 heartbeat intervals*/
+	private final FailureDetector failureDetector = new FailureDetector(8.0, HEARTBEAT_INTERVAL, 500, 200);
+	/**Reference to the thread that sends heartbeats and checks for failed clients, null until it's started*/
+	private Thread heartbeatMonitor = null;
+	/**Secret shared with the clients that authenticates the key exchange on socket connections, null if there isn't one*/
+	private volatile byte[] preSharedKey = null;
 	/**The ANDAC name of this server*/
 	private final String serverName;
 	/**Flag for whether or not the server is currently cloaked*/
@@ -45,7 +133,14 @@ public class Server extends Thread implements Closeable
 	 * @throws IOException If the server couldn't be constructed correctly*/
 	public Server(LogPrinter logPrinter, String name, int inputPort, int outputPort) throws IOException
 	{
-		//TODO
+		log = logPrinter;//set the server's log
+		serverName = name;//set the server's name
+		clients = new HashMap<String, ClientManager>();//create the map for the server's clients
+		overflow = new SpillingQueue(log, Files.createTempDirectory("andac-" + name + "-").toFile(), 65536, 4 * 1024 * 1024, 2);//create the overflow for the task queue
+		guiManager = null;//the server runs without a GUI
+		serverManager = new ServerManager(inputPort, outputPort);//establish the server's sockets
+		startDispatching();//start sending tasks and heartbeats to clients
+		serverManager.runServer();//start accepting clients
 	}
 
 	/**Creates a new server with the specified details
@@ -131,8 +226,22 @@ public class Server extends Thread implements Closeable
 	 * ensures that it will always be a reference to the most recent server manager*/
 	private class ServerManager implements Closeable
 	{
-		/**Reference to the underlying server manager implementation*/
-		private ServerManagerImpl serverManagerImpl;
+		/**How many milliseconds a repaired server manager has to accept a probe connection before the repair fails*/
+		private static final int PROBE_TIMEOUT = 2000;
+		/**How many milliseconds a connecting client has to send it's name before it's dropped*/
+		private static final int CONNECT_TIMEOUT = 10000;
+		/**Reference to the underlying server manager implementation, replaced by the repairing thread*/
+		private volatile ServerManagerImpl serverManagerImpl;
+		/**How many times the server manager has been repaired successfully*/
+		private int repairs = 0;
+		/**How many times repairing the server manager failed*/
+		private int failedRepairs = 0;
+		/**How many nanoseconds the last repair took, from the old accept loop dying to the new one answering it's probe*/
+		private long lastRepairTime = 0;
+		/**How many nanoseconds the slowest repair took*/
+		private long maxRepairTime = 0;
+		/**How many nanoseconds all the successful repairs took together*/
+		private long totalRepairTime = 0;
 
 		/**Creates a new server manager on the specified ports
 		 * @param inputPort The port number to establish the server's input socket on
@@ -156,6 +265,29 @@ public class Server extends Thread implements Closeable
 			serverManagerImpl.close();//close the underlying server manager thread
 		}
 
+		/**Records how a repair went
+		 * @param time How many nanoseconds the repair took
+		 * @param succeeded Whether the new accept loop answered it's probe*/
+		private synchronized void recordRepair(long time, boolean succeeded)
+		{
+			if(succeeded){//if the repair worked
+				repairs++;
+				lastRepairTime = time;//store how long it took
+				maxRepairTime = Math.max(maxRepairTime, time);
+				totalRepairTime += time;
+			} else{//if the repair failed
+				failedRepairs++;
+			}
+			log.log("Server manager repair " + (succeeded? "succeeded" : "failed") + " in " + TimeUnit.NANOSECONDS.toMillis(time) + "ms " + getRepairStatistics());//log the repair
+		}
+
+		/**Returns a summary of how the server manager's repairs have gone
+		 * @return The number of repairs and failures, and the last, mean and slowest repair times*/
+		private synchronized String getRepairStatistics()
+		{
+			return "[repairs:" + repairs + " failed:" + failedRepairs + " last:" + TimeUnit.NANOSECONDS.toMillis(lastRepairTime) + "ms mean:" + ((repairs == 0)? 0 : TimeUnit.NANOSECONDS.toMillis(totalRepairTime / repairs)) + "ms max:" + TimeUnit.NANOSECONDS.toMillis(maxRepairTime) + "ms]";//return the summary
+		}
+
 
 		/**Class for establishing connections being established with this server, first listening for requested connections,
 		 * and passing them alone to their respective client managers.*/
@@ -167,6 +299,10 @@ public class Server extends Thread implements Closeable
 			private final ServerSocket serverOutput;
 			/**The parent server manager that created this one as an attempt at self-repair*/
 			private volatile ServerManagerImpl parent = null;
+			/**Latch released once this server manager's accept loop answers the probe it's parent sends it*/
+			private final CountDownLatch probed = new CountDownLatch(1);
+			/**The local port of the parent's probe connection, so the accept loop can tell it apart from clients*/
+			private volatile int probePort = -1;
 			/**Flag for whether or not the server manager should continue running*/
 			private volatile boolean keepRunning = true;
 
@@ -211,6 +347,79 @@ public class Server extends Thread implements Closeable
 				log.log("Successfully created server manager");//log the successful creation of the server manager
 			}
 
+			/**Creates a new standby server manager that takes over another one's sockets, which are still bound, so
+			 * connections that arrive during the handover wait in the socket's backlog instead of being refused
+			 * @param input The server input socket to accept connections on
+			 * @param output The server output socket to accept connections on*/
+			private ServerManagerImpl(ServerSocket input, ServerSocket output)
+			{
+				serverInput = input;//set the server's input socket
+				serverOutput = output;//set the server's output socket
+				log.log("Created standby server manager on Input:" + input.getLocalPort() + " Output:" + output.getLocalPort());//log the creation of the standby server manager
+			}
+
+			/**Checks whether a connection is the probe sent by this server manager's parent, answering it if so
+			 * @param socket The accepted connection
+			 * @return True if the connection was the probe and has been closed*/
+			private boolean answeredProbe(Socket socket)
+			{
+				if((socket.getPort() != probePort) || !socket.getInetAddress().isLoopbackAddress()){//if this is a client
+					return false;
+				}
+				probed.countDown();//tell the parent the accept loop is working
+				try{//try to close the probe
+					socket.close();//close the probe
+				} catch(IOException ioException){}//the probe already did it's job
+				return true;
+			}
+
+			/**Replaces this server manager after it's accept loop died, handing it's sockets to a standby server manager if
+			 * they're still open, or binding new ones if not, and then probing the new accept loop with a loopback
+			 * connection. The repair only succeeds once the probe is accepted, which normally takes a few milliseconds;
+			 * must be called while holding this
+			 * @return True if the new server manager took over*/
+			private boolean repair()
+			{
+				long start = System.nanoTime();//store when the repair started
+				log.log("Unexpected termination of server manager thread... Attempting repair");//log that the repair process is starting
+				Socket probe = new Socket();//create the socket to probe the new accept loop with
+				try{//try to reconstruct the server manager thread to replace this one
+					ServerManagerImpl child;//reference for the new server manager
+					if(!serverInput.isClosed() && !serverOutput.isClosed()){//if the sockets survived
+						child = new ServerManagerImpl(serverInput, serverOutput);//hand them to a standby server manager
+					} else{//if the sockets have to be bound again
+						int inputPort = serverInput.getLocalPort();//store the sockets' ports
+						int outputPort = serverOutput.getLocalPort();
+						serverInput.close();//release both ports
+						serverOutput.close();
+						child = new ServerManagerImpl(inputPort, outputPort);//create a new server manager
+					}
+					child.parent = this;//set this server manager as it's parent
+					probe.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));//pick the probe's port
+					child.probePort = probe.getLocalPort();//tell the child which connection is the probe
+					serverManagerImpl = child;//update the server manager implementation reference to the child
+					child.start();//start the new server manager thread
+					probe.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), child.serverInput.getLocalPort()), PROBE_TIMEOUT);//probe the new accept loop
+					if(!child.probed.await(PROBE_TIMEOUT, TimeUnit.MILLISECONDS)){//if the new accept loop never answered
+						throw new IOException("Server manager didn't accept it's probe within " + PROBE_TIMEOUT + "ms");//except that the child isn't working
+					}
+					child.parent = null;//remove the new server manager's parent so its no longer marked as a reconstruction
+					recordRepair(System.nanoTime() - start, true);//record how long the repair took
+					return true;//the repair was successful
+				} catch(InterruptedException interruptedException){//if the reconstruction self-reported it's failure
+					log.log("Server manager reconstruction failed");//log that the server manager reconstruction failed
+				} catch(Exception exception){//if the reconstruction failed for an unknown reason
+					log.log("Server manager reconstruction failed exceptionally");//log that the server manager reconstruction failed
+					exception.printStackTrace(log);//log the exception
+				} finally{//ensure the probe gets closed
+					try{//try to close the probe
+						probe.close();//close the probe
+					} catch(IOException ioException){}//the probe isn't needed either way
+				}
+				recordRepair(System.nanoTime() - start, false);//record that the repair failed
+				return false;//the repair failed
+			}
+
 			/**Runs the server manager thread, which listens for incoming connections, determines which are valid, and links them with
 			 * a corresponding manager into this server*/
 			public void run()
@@ -218,186 +427,1474 @@ public class Server extends Thread implements Closeable
 				try{//wrapper for the server manager loop
 					while(keepRunning){//while the server manager should continue running
 						Socket inputSocket = serverInput.accept();//block until a connection is available and accept it
+						if(answeredProbe(inputSocket)){//if this was a repair probe rather than a client
+							continue;
+						}
+						acceptClient(inputSocket);//link the client into the server
+					}
+				} catch(Exception exception){
+					if(!(exception instanceof SocketException) || (keepRunning)){//if this isn't an expected socket closure exception
+						log.log("Fatal exception occurred in server manager thread");//log that an unknown fatal exception occurred
+						exception.printStackTrace(log);//log the exception
+					}
+				} finally{//attempt to repair the server manager if necessary, and close leftover sockets
+					synchronized(this){//lock serverInput, keepRunning, parent
+						boolean repaired = false;//flag for whether a new server manager took over the sockets
+						if(keepRunning){//if the server manager thread should still be running
+							if(parent != null){//if this server manager was a reconstruction attempt
+								parent.interrupt();//interrupt the parent to inform it that the reconstruction failed
+							} else{//if this server manager should attempt a reconstruction
+								repaired = repair();//hand over to a new server manager
+							}
+						}
+						if(!repaired){//if the sockets are still this server manager's
+							try{//try to close the server output socket
+								serverOutput.close();//close the server output socket
+							} catch(Exception exception){//if the server output socket couldn't be closed
+								log.log("Failed to finalize server output socket");//log that the output socket couldn't be closed
+								exception.printStackTrace(log);//log the exception
+							}
+							if(!serverInput.isClosed()){//if the server input socket isn't already closed
+								try{//try to close the server input socket
+									serverInput.close();//close the server input socket
+								} catch(Exception exception){//if the server input socket couldn't be closed
+									log.log("Failed to finalize server input socket");//log that the input socket couldn't be closed
+									exception.printStackTrace(log);//log the exception
+								}
+							}
+							if(keepRunning && (parent == null)){//if the server can't accept connections anymore
+								Server.this.close();//close the rest of the server down
+							}
+						}
+						log.log("Server manager thread terminated");//log that the server manager thread has terminated
+					}//release serverInput, keepRunning, parent
+				}
+			}
 
+			/**Accepts the output socket of a client whose input socket was accepted, then hands both to a connecting thread
+			 * that reads the client's name and exchanges keys with it, so a slow or silent client only holds up the accept
+			 * loop for as long as it takes to open it's second socket; a client that fails to connect is dropped without
+			 * disturbing the accept loop
+			 * @param inputSocket The client's input socket
+			 * @throws IOException If the server output socket failed, rather than the client*/
+			private void acceptClient(final Socket inputSocket) throws IOException
+			{
+				final String address = inputSocket.getRemoteSocketAddress().toString();//store the client's address for logging
+				log.log("New connection [" + address + "]");//log the new connection
+				Socket outputSocket = null;//reference for the client's output socket
+				try{//try to accept the client's output socket
+					outputSocket = serverOutput.accept();//accept the client's output connection, the socket times out after 10s
+					if(!outputSocket.getInetAddress().equals(inputSocket.getInetAddress())){//if another host's connection was accepted
+						throw new ConnectException("Output connection came from " + outputSocket.getRemoteSocketAddress());//except that the sockets don't belong together
+					}
+				} catch(SocketTimeoutException socketTimeoutException){//if the client took too long (>10s) to connect
+					log.log("Connection timed out [" + address + "]");//log that the connection timed out
+					drop(inputSocket, outputSocket);//drop the connection
+					return;
+				} catch(IOException ioException){//if the client couldn't be connected
+					drop(inputSocket, outputSocket);//drop the connection
+					if(serverOutput.isClosed()){//if the output socket failed rather than the client
+						throw ioException;//propagate the exception so the server manager is repaired
+					}
+					log.log("Connection failed [" + address + "]");//log that the connection failed
+					ioException.printStackTrace(log);//log the exception
+					return;
+				}
+				final Socket clientOutput = outputSocket;//store the output socket for the connecting thread
+				Thread connector = new Thread(new Runnable(){//create a thread to finish connecting the client
+					public void run()
+					{
+						connectClient(address, inputSocket, clientOutput);//finish connecting the client
+					}
+				}, "Server-Connector");
+				connector.setDaemon(true);//don't let a connecting client keep the JVM alive
+				connector.start();//start connecting the client
+			}
 
+			/**Finishes connecting a client on it's own thread, reading the client's name and handing it's sockets to the
+			 * client's manager, which exchanges keys with it; a client that fails to connect is dropped
+			 * @param address The client's address, for logging
+			 * @param inputSocket The client's input socket
+			 * @param outputSocket The client's output socket*/
+			private void connectClient(String address, Socket inputSocket, Socket outputSocket)
+			{
+				try{//try to link the client into the server
+					inputSocket.setSoTimeout(CONNECT_TIMEOUT);//don't let a silent client hold up it's connecting thread forever
+					DataInputStream inputStream = new DataInputStream(inputSocket.getInputStream());//wrap the input socket's stream
+					byte[] nameBytes = new byte[inputStream.readUnsignedByte()];//allocate bytes for the client's name
+					inputStream.readFully(nameBytes);//read in the client's name
+					String name = new String(nameBytes, log.encoding);//decode the client's name
+					linkClient(name, inputSocket, outputSocket);//hand the sockets to the client's manager
+					inputSocket.setSoTimeout(0);//the client's manager waits on the client for as long as it takes
+				} catch(SocketTimeoutException socketTimeoutException){//if the client took too long (>10s) to connect
+					log.log("Connection timed out [" + address + "]");//log that the connection timed out
+					drop(inputSocket, outputSocket);//drop the connection
+				} catch(IOException ioException){//if the client couldn't be connected
+					drop(inputSocket, outputSocket);//drop the connection
+					log.log("Connection failed [" + address + "]");//log that the connection failed
+					ioException.printStackTrace(log);//log the exception
+				}
+			}
 
+			/**Hands a client's sockets to it's existing manager if it's reconnecting, or creates and starts a new manager
+			 * for it; the key exchange happens outside the clients lock so a slow client doesn't hold up the rest, and only
+			 * one connection per client is linked at a time
+			 * @param name The ANDAC name of the client
+			 * @param inputSocket The client's input socket
+			 * @param outputSocket The client's output socket
+			 * @throws IOException If the client is already connecting or the key exchange with the client failed*/
+			private void linkClient(String name, Socket inputSocket, Socket outputSocket) throws IOException
+			{
+				ClientManager clientManager;//reference for the client's manager
+				synchronized(clients){//lock clients, connecting
+					if(!connecting.add(name)){//if another connection from the client is being linked
+						throw new ConnectException("Client is already connecting: " + name);//except that the connection is a duplicate
+					}
+					clientManager = clients.get(name);//retrieve the client's manager
+				}//release clients, connecting
+				try{//try to link the client
+					if(clientManager != null){//if this is an existing client
+						clientManager.reestablishConnection(inputSocket, outputSocket);//reestablish the client's connection
+						log.log("Successfully re-established connection [" + name + ":" + inputSocket.getRemoteSocketAddress() + "]");//log the connection succeeded
+						return;
+					}
+					clientManager = new ClientManager(name, inputSocket, outputSocket);//create a new client manager
+					synchronized(clients){//lock clients
+						clients.put(name, clientManager);//add the new client manager to the client map
+					}//release clients
+				} finally{//ensure the client can connect again
+					synchronized(clients){//lock connecting
+						connecting.remove(name);//the connection is no longer being linked
+					}//release connecting
+				}
+				Thread clientThread = new Thread(clientManager, "Server-ClientManager");//create the client manager's thread
+				clientThread.setDaemon(true);//don't let the client manager keep the JVM alive
+				clientThread.start();//start the client manager's thread
+				log.log("Successfully established connection [" + name + ":" + inputSocket.getRemoteSocketAddress() + "]");//log the connection succeeded
+			}
 
-						try{//try to close the input socket
-							inputSocket.close();//close the input socket
-						} catch(IOException ioException){
+			/**Closes a connection that failed partway through being established
+			 * @param inputSocket The client's input socket
+			 * @param outputSocket The client's output socket, null if it was never accepted*/
+			private void drop(Socket inputSocket, Socket outputSocket)
+			{
+				try{//try to close the input socket
+					inputSocket.close();//close the input socket
+				} catch(IOException ioException){}//the connection is being abandoned either way
+				if(outputSocket != null){//if the output socket was accepted
+					try{//try to close the output socket
+						outputSocket.close();//close the output socket
+					} catch(IOException ioException){}//the connection is being abandoned either way
+				}
+			}
 
-						}
+			/**Closes the server manager by closing it's underlying sockets
+			 * @throws IOException if the server's sockets couldn't be closed*/
+			public void close() throws IOException
+			{
+				synchronized(this){//lock serverInput, keepRunning, parent
+					keepRunning = false;//set that the server manager should stop running
+					if(serverInput.isClosed()){//if the server input socket is already closed
+						log.log("Server input socket already closed");//log that the input socket is already closed
+					} else{//if the server input socket is still open
+						serverInput.close();//close the server input socket
+						log.log("Closed the server input socket");//log that the server input socket was closed
+					}
+				}//release serverInput, keepRunning, parent
+			}
+		}
+	}
+
+	//TODO
+	private class ServerManger implements Runnable, Closeable
+	{
+		private class ServerManagerImpl implements Closeable
+		{
+
+		}
+	}
+
+	/**Class that manages a single client connection, responsible for transferring data and commands between the client and server*/
+	private class ClientManager implements Runnable, Closeable
+	{
+		/**The ANDAC name of the client this manages*/
+		private final String name;
+		/**The socket that the server receives the client's messages through*/
+		private volatile Socket inputSocket;
+		/**The socket that the server sends messages to the client through*/
+		private volatile Socket outputSocket;
+		/**Stream for writing messages to the client, also it's own lock*/
+		private DataOutputStream output;
+		/**Stream for reading messages from the client*/
+		private volatile DataInputStream input;
+		/**The non-blocking connection the client is connected through, null if it's connected through a pair of sockets*/
+		private volatile NetworkManager.Connection connection = null;
+		/**The client's session, which numbers and buffers the messages sent to it so they can be replayed if it reconnects,
+		 * keeping up to 4096 messages or 16MB of them*/
+		private final Session session = new Session(4096, 16 * 1024 * 1024);
+		/**Set of the tasks sent to the client that haven't finished yet, also it's own lock*/
+		private final HashSet<String> outstandingTasks = new HashSet<String>();
+		/**Map of the outcomes of map tasks whose results the client folded into a partial aggregate it hasn't shipped yet,
+		 * keyed by task ID; they're reported once the aggregate arrives and run again if the client fails first, guarded
+		 * by outstandingTasks*/
+		private final HashMap<String, TaskOutcome> combinedTasks = new HashMap<String, TaskOutcome>();
+		/**Set of the tasks whose partial aggregate arrived before their outcome, which can happen since the two travel on
+		 * different streams, guarded by outstandingTasks*/
+		private final HashSet<String> aggregatedTasks = new HashSet<String>();
+		/**The ID of the result journal the client last shipped outcomes from, only touched while handling the client's messages*/
+		private String journalID = "";
+		/**The number of the last entry of the client's result journal that was handled along with every entry before it, so
+		 * replayed entries aren't handled twice, only touched while handling the client's messages*/
+		private long journalThrough = 0;
+		/**Map of handled ranges of journal entries that aren't contiguous with the rest yet, by their first entry, only
+		 * touched while handling the client's messages*/
+		private final TreeMap<Long, Long> journalHandled = new TreeMap<Long, Long>();
+		/**Flag for whether the client has resumed it's session on it's current connection, tasks aren't dispatched to it
+		 * until it has so none are sent on a session that's about to be reset, guarded by session*/
+		private boolean resumed = false;
+		/**The credit and core count the client advertised before resuming it's session, applied once it resumes, null if it
+		 * hasn't advertised any on it's current connection, guarded by session*/
+		private int[] advertised = null;
+		/**Flag for whether or not the client manager should continue running*/
+		private volatile boolean keepRunning = true;
+
+		/**Creates a new client manager for the specified client connection, which isn't dispatched to until it resumes it's
+		 * session and advertises it's credit
+		 * @param clientName The ANDAC name of the client
+		 * @param input The socket that the server receives the client's messages through
+		 * @param output The socket that the server sends messages to the client through
+		 * @throws IOException If the socket's streams couldn't be retrieved*/
+		private ClientManager(String clientName, Socket input, Socket output) throws IOException
+		{
+			name = clientName;//set the client's name
+			reestablishConnection(input, output);//set the client's sockets
+		}
 
+		/**Creates a new client manager for a client connected through the network manager, these don't need their own
+		 * thread since the network manager hands them each message, and aren't dispatched to until the client resumes it's
+		 * session and advertises it's credit
+		 * @param clientConnection The client's connection*/
+		private ClientManager(NetworkManager.Connection clientConnection)
+		{
+			name = clientConnection.getName();//set the client's name
+			connection = clientConnection;//set the client's connection
+		}
+
+		/**Stops dispatching to the client while it reconnects, until it resumes it's session on the new connection*/
+		private void awaitResume()
+		{
+			dispatcher.pause(name);//stop sending tasks to the client, keeping count of the ones it has
+			synchronized(session){//lock session
+				resumed = false;//wait for the client to resume it's session
+				advertised = null;//and advertise it's credit again
+			}//release session
+		}
+
+		/**Replaces this client's sockets with a new pair after the client reconnects, exchanging keys with the client so
+		 * everything sent either way over the new sockets is encrypted
+		 * @param input The socket that the server receives the client's messages through
+		 * @param output The socket that the server sends messages to the client through
+		 * @throws IOException If the socket's streams couldn't be retrieved or the key exchange failed*/
+		private void reestablishConnection(Socket input, Socket output) throws IOException
+		{
+			awaitResume();//don't send anything new until the client resumes it's session
+			SecureHandshake handshake = SecureHandshake.perform(input.getInputStream(), output.getOutputStream(), false, preSharedKey);//exchange keys with the client
+			DataOutputStream dataOutputStream = new DataOutputStream(new SecureOutputStream(output.getOutputStream(), handshake));//wrap the output socket's stream, which the secure stream buffers
+			DataInputStream dataInputStream = new DataInputStream(new SecureInputStream(input.getInputStream(), handshake));//wrap the input socket's stream
+			synchronized(this){//lock output
+				inputSocket = input;//set the client's input socket
+				outputSocket = output;//set the client's output socket
+				this.output = dataOutputStream;//set the stream for writing to the client
+				this.input = dataInputStream;//set the stream for reading from the client
+			}//release output
+		}
 
+		/**Replaces this client's connection with a new one after the client reconnects through the network manager
+		 * @param clientConnection The client's new connection*/
+		private void reestablishConnection(NetworkManager.Connection clientConnection)
+		{
+			awaitResume();//don't send anything new until the client resumes it's session
+			NetworkManager.Connection oldConnection = connection;//store the client's old connection
+			connection = clientConnection;//set the client's new connection
+			if((oldConnection != null) && (oldConnection != clientConnection)){//if the client had a different connection
+				oldConnection.close();//close the old connection
+			}
+		}
 
-						try{//try to listen for a connection and accept it if valid
-							Socket inputSocket = serverInput.accept();//block until a connection is available and accept it
+		/**Runs the client manager thread, which reads in messages from the client and handles them*/
+		public void run()
+		{
+			log.log("Client manager started [" + name + "]");//log that the client manager has started
+			while(keepRunning){//while the client manager should continue running
+				try{//try to read in the next message from the client
+					DataInputStream input = this.input;//get the stream for reading from the client
+					byte type = input.readByte();//read in the message's type
+					byte[] body = new byte[input.readInt()];//allocate space for the message's body
+					input.readFully(body);//read in the message's body
+					handleMessage(type, body);//handle the message
+				} catch(Exception exception){//if the message couldn't be read
+					if(keepRunning){//if this wasn't caused by the client manager closing
+						log.log("Failed to read message from client [" + name + "]");//log that the message couldn't be read
+						exception.printStackTrace(log);//log the exception
+						try{//try to wait for the client to reconnect
+							Thread.sleep(1000);//sleep for 1 second
+						} catch(InterruptedException interruptedException){}//ignore any interruptions
+					}
+				}
+			}
+			log.log("Client manager terminated [" + name + "]");//log that the client manager has terminated
+		}
 
+		/**Handles a single message received from the client, dropping sequenced messages that were already received
+		 * before the client reconnected
+		 * @param type The message's type
+		 * @param body The message's body
+		 * @throws Exception If the message couldn't be read or understood*/
+		private void handleMessage(byte type, byte[] body) throws Exception
+		{
+			failureDetector.heartbeat(name);//any message shows the client is alive
+			DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));//wrap the body for reading
+			boolean sequenced = Protocol.isSequenced(type);//store whether the message is numbered
+			if(sequenced && !session.receive(input.readLong())){//if the message is a replay of one already received
+				log.log("Dropping duplicate message [" + name + "] type " + type);//log that the message was a duplicate
+				return;
+			}
+			switch(type){
+				case Protocol.OUTCOME://if the message is a task's outcome
+					handleOutcome((TaskOutcome)new ObjectInputStream(input).readObject());//read in and handle the task's outcome
+					break;
+				case Protocol.OUTCOMES://if the message is a batch of outcomes
+					int count = input.readInt();//read in how many outcomes are in the batch
+					for(int counter = 0; counter < count; counter++){//iterate through the outcomes
+						byte[] data = new byte[input.readInt()];//allocate space for the outcome
+						input.readFully(data);//read in the outcome
+						handleOutcome((TaskOutcome)new ObjectInputStream(new ByteArrayInputStream(data)).readObject());//deserialize and handle the outcome
+					}
+					break;
+				case Protocol.RESULTS://if the message is a batch of journaled outcomes
+					handleResults(input);//handle the new outcomes and acknowledge the batch
+					break;
+				case Protocol.RESUME://if the client is starting or resuming it's session
+					resume(input.readUTF(), input.readLong());//resume the client's session
+					break;
+				case Protocol.ACK://if the client acknowledged messages it received
+					session.acknowledge(input.readLong());//release the acknowledged messages
+					break;
+				case Protocol.CREDIT://if the message is the client advertising it's credit
+					int credit = input.readInt();//read in the client's credit
+					int cores = input.readInt();//read in how many cores the client has
+					synchronized(session){//lock session
+						if(!resumed){//if the client hasn't resumed it's session yet
+							advertised = new int[] {credit, cores};//apply the credit once it has
+							break;
+						}
+					}//release session
+					applyCredit(credit, cores);//update how many tasks can be outstanding on the client
+					break;
+				case Protocol.PARTIAL://if the message is a partial aggregate for a job
+					PartialAggregate partial = (PartialAggregate)new ObjectInputStream(input).readObject();//read in the aggregate
+					ArrayList<TaskOutcome> combined = new ArrayList<TaskOutcome>(partial.taskIDs.length);//create a list for the outcomes the aggregate completes
+					synchronized(outstandingTasks){//lock outstandingTasks
+						for(String taskID : partial.taskIDs){//iterate through the aggregate's tasks
+							outstandingTasks.remove(taskID);//the task is no longer outstanding
+							TaskOutcome combinedOutcome = combinedTasks.remove(taskID);//retrieve the task's held outcome
+							if(combinedOutcome != null){//if the task was waiting on the aggregate
+								combined.add(combinedOutcome);//report it now
+							} else{//if the task's outcome hasn't arrived yet
+								aggregatedTasks.add(taskID);//report it as soon as it does
+							}
+						}
+					}//release outstandingTasks
+					synchronized(submitted){//lock submitted
+						for(TaskOutcome combinedOutcome : combined){//iterate through the completed tasks
+							submitted.remove(combinedOutcome.taskID);//the task's details aren't needed anymore
 						}
+					}//release submitted
+					reducePartial(name, partial);//reduce or forward the aggregate
+					for(TaskOutcome combinedOutcome : combined){//iterate through the completed tasks
+						reportOutcome(combinedOutcome);//report the task's outcome
+					}
+					break;
+				case Protocol.HEARTBEAT://if the message is a heartbeat
+					break;//the heartbeat has already been recorded
+				case Protocol.CACHE_SUMMARY://if the message is a summary of the client's cache
+					dispatcher.updateCacheSummary(name, (BloomFilter)new ObjectInputStream(input).readObject());//update the client's cache summary
+					log.log("Received cache summary [" + name + "]");//log that the client's cache summary was updated
+					break;
+				default://if the message type is unknown
+					throw new IOException("Unknown message type: " + type);//except that the message couldn't be understood
+			}
+			if(sequenced && session.shouldAcknowledge(Protocol.streamOf(type) == Protocol.STREAM_RESULTS)){//if the client should be told what's been received, right away for results
+				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the acknowledgement into
+				new DataOutputStream(byteArrayOutputStream).writeLong(session.getLastReceived());//write the last sequence number received
+				send(Protocol.ACK, byteArrayOutputStream.toByteArray());//send the acknowledgement
+			}
+		}
 
+		/**Resumes the client's session after it connects, replaying every message it missed; if the session can't be
+		 * resumed a new one is started and any tasks the client never acknowledged are queued to be sent again
+		 * @param sessionID The ID of the session the client is resuming, empty if it's starting a new one
+		 * @param lastReceived The last sequence number the client received
+		 * @throws IOException If the session's messages couldn't be sent*/
+		private void resume(String sessionID, long lastReceived) throws IOException
+		{
+			int[] credit;//reference for any credit the client advertised before resuming
+			synchronized(session){//lock session, so nothing new is sent until the replay is finished
+				List<Session.Message> replay = session.resume(sessionID, lastReceived);//try to resume the session
+				if(replay == null){//if the session couldn't be resumed
+					session.reset();//start a new session
+					replay = new ArrayList<Session.Message>();//there's nothing to replay in a new session
+					log.log("Started new session [" + name + "] " + session.getID());//log that a new session started
+					requeueOutstanding();//the client may have lost any of it's tasks, so send them all again
+				} else{//if the session was resumed
+					log.log("Resumed session [" + name + "] replaying " + replay.size() + " messages");//log that the session was resumed
+				}
+				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the reply into
+				DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the reply
+				dataOutputStream.writeUTF(session.getID());//write the session's ID
+				dataOutputStream.writeLong(session.getLastReceived());//write the last sequence number received from the client
+				transmit(Protocol.RESUME, byteArrayOutputStream.toByteArray());//reply so the client can replay what the server missed
+				for(Session.Message message : replay){//iterate through the messages the client missed
+					transmit(message.type, message.body);//replay the message
+				}
+				resumed = true;//the client can be dispatched to once it's advertised it's credit
+				credit = advertised;//take any credit the client advertised before resuming
+				advertised = null;
+			}//release session
+			if(credit != null){//if the client advertised it's credit before resuming
+				applyCredit(credit[0], credit[1]);//apply it now
+			}
+		}
 
+		/**Makes the client available for dispatching with the credit it advertised
+		 * @param credit How many tasks can be outstanding on the client at once
+		 * @param cores How many cores the client has*/
+		private void applyCredit(int credit, int cores)
+		{
+			dispatcher.register(name, Math.max(1, credit), cores);//update how many tasks can be outstanding on the client
+			creditReturned();//let the task sender use the new credit
+			log.log("Client credit set to " + credit + " with " + cores + " cores [" + name + "]");//log the client's new credit
+			forwardHeldPartials(name);//forward any aggregates that were held while the client was away
+		}
 
+		/**Handles the outcome of a task the client ran, returning the task's credit
+		 * @param outcome The task's outcome*/
+		private void handleOutcome(TaskOutcome outcome)
+		{
+			log.log("Received task outcome [" + name + "] " + outcome);//log the task's outcome
+			synchronized(outstandingTasks){//lock outstandingTasks
+				outstandingTasks.remove(outcome.taskID);//the task is no longer outstanding
+			}//release outstandingTasks
+			boolean completed = (outcome.status == TaskOutcome.Status.COMPLETED);//store whether the task completed
+			dispatcher.finished(name, completed);//free up the slot the task was using, only counting it towards the client's throughput if it completed
+			creditReturned();//let the task sender use the freed slot
+			String loser = speculation.finished(outcome.taskID, name, completed);//record that the task finished
+			if(loser == null){//if another copy of the task already finished, or is still running after this one didn't complete
+				log.log("Discarding outcome superseded by another copy [" + name + "] " + outcome);//log that the outcome is superseded
+				synchronized(outstandingTasks){//lock outstandingTasks
+					aggregatedTasks.remove(outcome.taskID);//forget any aggregate that arrived for the copy
+				}//release outstandingTasks
+				return;
+			}
+			if(!loser.isEmpty()){//if another copy of the task is still running
+				cancelTask(loser, outcome.taskID);//cancel the other copy
+			}
+			if(outcome.combined){//if the client folded the task's results into a partial aggregate
+				synchronized(outstandingTasks){//lock outstandingTasks
+					if(!aggregatedTasks.remove(outcome.taskID)){//if the aggregate hasn't arrived yet
+						combinedTasks.put(outcome.taskID, outcome);//keep the task until it does, running it again if the client fails first
+						return;
+					}
+				}//release outstandingTasks
+			}
+			synchronized(submitted){//lock submitted
+				submitted.remove(outcome.taskID);//the task's details aren't needed anymore
+			}//release submitted
+			SplitJob split;//reference for the split job the task is a piece of
+			boolean dead;//flag for whether the task is a piece of a split task that already failed
+			synchronized(splits){//lock splits
+				split = splits.remove(outcome.taskID);//retrieve the task's split job, if it's a piece of one
+				dead = deadPieces.remove(outcome.taskID);//check whether the piece's split task already failed
+			}//release splits
+			if(split != null){//if the task is a piece of a larger task
+				completePiece(split, outcome);//merge the piece into the original task
+			} else if(dead){//if the task is a piece of a split task that already failed
+				log.log("Discarding outcome of a piece of a failed split task [" + name + "] " + outcome.taskID);//log that the piece's outcome was dropped
+			} else{//if the task was dispatched whole
+				reportOutcome(outcome);//report the task's outcome
+			}
+		}
 
+		/**Handles a batch of outcomes from the client's result journal, skipping any entries that were already handled
+		 * since the journal replays everything unacknowledged whenever a new session starts, and then acknowledges the
+		 * batch so the client can truncate it. Every entry in the batch has been handled by the time it's acknowledged,
+		 * either just now or in an earlier batch, and if an entry fails nothing is acknowledged so it's replayed later
+		 * @param input The stream to read the batch from
+		 * @throws IOException If the batch couldn't be read or acknowledged
+		 * @throws ClassNotFoundException If an outcome couldn't be deserialized*/
+		private void handleResults(DataInputStream input) throws IOException, ClassNotFoundException
+		{
+			String batchJournal = input.readUTF();//read in the journal's ID
+			long first = input.readLong();//read in the number of the first entry
+			int entries = input.readInt();//read in how many entries are in the batch
+			if(!batchJournal.equals(journalID)){//if the client started a new journal
+				journalID = batchJournal;//switch to the new journal
+				journalThrough = 0;//none of it's entries have been handled
+				journalHandled.clear();//forget the old journal's ranges
+			}
+			for(int counter = 0; counter < entries; counter++){//iterate through the entries
+				byte[] data = new byte[input.readInt()];//allocate space for the entry
+				input.readFully(data);//read in the entry
+				if(!isHandled(first + counter)){//if the entry hasn't been handled yet
+					handleOutcome((TaskOutcome)new ObjectInputStream(new ByteArrayInputStream(data)).readObject());//deserialize and handle the outcome
+					markHandled(first + counter);//record that the entry was handled
+				}
+			}
+			if(entries <= 0){//if the batch was empty
+				return;//there's nothing to acknowledge
+			}
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the acknowledgement into
+			DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the range
+			dataOutputStream.writeLong(first);//write the first entry handled
+			dataOutputStream.writeLong(first + entries - 1);//write the last entry handled
+			send(Protocol.RESULTS_ACK, byteArrayOutputStream.toByteArray());//let the client truncate the batch
+		}
 
-						Socket inputSocket = null;//variable for holding the inputSocket if it needs to be closed in the finally block
-						Socket outputSocket = null;//variable for holding the outputSocket if it needs to be closed in the finally block
-						boolean dropConnection = false;//flag for whether the connection should be dropped in the finally block
-						try{//try to listen for a new client connection and attempt to accept it
+		/**Checks whether an entry of the client's result journal has already been handled
+		 * @param entry The number of the entry
+		 * @return True if the entry was handled*/
+		private boolean isHandled(long entry)
+		{
+			if(entry <= journalThrough){//if the entry is contiguous with the handled entries
+				return true;
+			}
+			Map.Entry<Long, Long> range = journalHandled.floorEntry(entry);//get the handled range that starts closest before the entry
+			return (range != null) && (range.getValue() >= entry);//return whether the range covers the entry
+		}
 
-						} finally{//ensure the connection gets dropped if it should be
-							if(dropConnection){//if the connection should be dropped
-								try{//try to close the input socket
-									inputSocket.close();
-								} catch(Exception exception){
+		/**Records that an entry of the client's result journal was handled, merging it into the neighbouring handled ranges
+		 * @param entry The number of the entry*/
+		private void markHandled(long entry)
+		{
+			long start = entry;//the first entry of the range the entry ends up in
+			long end = entry;//the last entry of the range the entry ends up in
+			Map.Entry<Long, Long> before = journalHandled.floorEntry(entry);//get the handled range that starts closest before the entry
+			if((before != null) && (before.getValue() >= entry - 1)){//if the entry joins onto it
+				start = before.getKey();//extend the range back over it
+				end = Math.max(end, before.getValue());
+			}
+			Long after = journalHandled.higherKey(entry);//get the handled range that starts after the entry
+			if((after != null) && (after == end + 1)){//if the entry joins onto it
+				end = journalHandled.remove(after);//extend the range forward over it
+			}
+			journalHandled.put(start, end);//store the range
+			while(!journalHandled.isEmpty() && (journalHandled.firstKey() <= journalThrough + 1)){//while the first range joins onto the handled entries
+				journalThrough = Math.max(journalThrough, journalHandled.pollFirstEntry().getValue());//extend the handled entries over it
+			}
+		}
 
-								}
-								try{
-									outputSocket.close();
-								} catch(Exception exception){
+		/**Sends a task to the client
+		 * @param task The task's string
+		 * @throws IOException If the message couldn't be sent*/
+		private void sendTask(String task) throws IOException
+		{
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the task into
+			new DataOutputStream(byteArrayOutputStream).writeUTF(task);//write the task's string
+			synchronized(outstandingTasks){//lock outstandingTasks
+				outstandingTasks.add(task);//track the task until it finishes, task strings being the tasks' IDs
+			}//release outstandingTasks
+			try{//try to send the task
+				send(Protocol.TASK, byteArrayOutputStream.toByteArray());//send the task to the client
+			} catch(IOException ioException){//if the task couldn't be sent
+				synchronized(outstandingTasks){//lock outstandingTasks
+					outstandingTasks.remove(task);//the task never made it to the client
+				}//release outstandingTasks
+				throw ioException;//propagate the exception
+			}
+		}
 
-								}
-							}
-						}
+		/**Checks whether a task has been sent to the client and hasn't finished yet
+		 * @param taskID The ID of the task
+		 * @return True if the task is outstanding on the client*/
+		private boolean isRunning(String taskID)
+		{
+			synchronized(outstandingTasks){//lock outstandingTasks
+				return outstandingTasks.contains(taskID);//return whether the task is outstanding
+			}//release outstandingTasks
+		}
 
+		/**Takes back every task outstanding on the client and queues the ones that no other client is running a copy of to
+		 * be sent again, returning their credit
+		 * @return How many tasks were requeued*/
+		private int requeueOutstanding()
+		{
+			ArrayList<String> requeue;//reference for the tasks to requeue
+			ArrayList<String> lostResults;//reference for the tasks whose results were lost with the client's aggregates
+			synchronized(outstandingTasks){//lock outstandingTasks
+				requeue = new ArrayList<String>(outstandingTasks);//copy the outstanding tasks
+				outstandingTasks.clear();//the client no longer has any tasks
+				lostResults = new ArrayList<String>(combinedTasks.keySet());//copy the tasks held in aggregates
+				combinedTasks.clear();//the client's aggregates won't arrive now
+				aggregatedTasks.clear();//neither will the outcomes of tasks whose aggregates already did
+			}//release outstandingTasks
+			int requeued = 0;//counter for how many tasks were requeued
+			for(String task : lostResults){//iterate through the tasks whose results were lost
+				requeue(task);//run the task again, it's credit was already returned when it finished
+				requeued++;//count the task
+			}
+			for(String task : requeue){//iterate through the tasks
+				dispatcher.finished(name, false);//return the task's credit
+				if(!speculation.abandoned(task, name)){//if another copy of the task is running or already finished
+					continue;//leave the task to the other copy
+				}
+				requeue(task);//queue the task to be sent again
+				requeued++;//count the task
+			}
+			creditReturned();//let the task sender use the returned credit
+			log.log("Requeued " + requeued + " outstanding tasks [" + name + "]");//log how many tasks were requeued
+			return requeued;//return how many tasks were requeued
+		}
 
+		/**Handles the client being suspected of having failed, no longer dispatching to it, requeueing all of it's
+		 * outstanding tasks and dropping it's connection and session. If the client is actually alive it has to reconnect,
+		 * start a new session and advertise it's credit again before it's sent more tasks*/
+		private void suspect()
+		{
+			log.log("Client suspected of failure, phi=" + failureDetector.phi(name) + " [" + name + "]");//log that the client is suspected
+			dispatcher.unregister(name);//stop dispatching tasks to the client
+			synchronized(session){//lock session
+				session.reset();//forget the session so nothing requeued is replayed to the client
+			}//release session
+			requeueOutstanding();//send the client's tasks elsewhere
+			NetworkManager.Connection clientConnection = connection;//store the client's connection
+			if(clientConnection != null){//if the client is connected through the network manager
+				clientConnection.close();//drop the connection
+			}
+		}
 
-						input
+		/**Forwards a partial aggregate to the client, which should be the reducing client of the aggregate's job
+		 * @param partial The partial aggregate to forward
+		 * @throws IOException If the message couldn't be sent*/
+		private void sendPartial(PartialAggregate partial) throws IOException
+		{
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the aggregate into
+			try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)){//wrap it for writing the aggregate
+				objectOutputStream.writeObject(partial);//write the aggregate
+			}
+			send(Protocol.PARTIAL, byteArrayOutputStream.toByteArray());//send the aggregate to the client
+		}
+
+		/**Sends a message telling the client to cancel a task it was sent, the client will report a cancelled outcome
+		 * for it in place of the task's results
+		 * @param taskID The ID of the task to cancel
+		 * @throws IOException If the message couldn't be sent*/
+		private void sendCancel(String taskID) throws IOException
+		{
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the task ID into
+			new DataOutputStream(byteArrayOutputStream).writeUTF(taskID);//write the ID of the task to cancel
+			send(Protocol.CANCEL, byteArrayOutputStream.toByteArray());//send the cancel message to the client
+		}
 
+		/**Sends a message to the client, numbering it and keeping it for replay if it's a sequenced message
+		 * @param type The message's type
+		 * @param body The message's body
+		 * @throws IOException If the message couldn't be sent*/
+		private void send(byte type, byte[] body) throws IOException
+		{
+			if(!Protocol.isSequenced(type)){//if the message isn't numbered
+				transmit(type, body);//send the message as it is
+				return;
+			}
+			synchronized(session){//lock session, so messages are transmitted in sequence order
+				transmit(type, session.record(type, body));//number the message and send it
+			}//release session
+		}
 
+		/**Transmits a message to the client through whichever kind of connection it has
+		 * @param type The message's type
+		 * @param body The message's body
+		 * @throws IOException If the message couldn't be sent*/
+		private void transmit(byte type, byte[] body) throws IOException
+		{
+			NetworkManager.Connection clientConnection = connection;//store the client's connection
+			if(clientConnection != null){//if the client is connected through the network manager
+				clientConnection.send(type, body);//queue the message on the client's connection
+				return;
+			}
+			synchronized(this){//lock output
+				output.writeByte(type);//write the message type
+				output.writeInt(body.length);//write the message's length
+				output.write(body);//write the message's body
+				output.flush();//flush the message to the client
+			}//release output
+		}
 
+		/**Hands the client off to another server in the federation, telling it where to reconnect, requeueing it's
+		 * outstanding tasks and forgetting it here
+		 * @param owner The name of the server that now owns the client
+		 * @param address The address the client should connect to the server on*/
+		private void redirect(String owner, String address)
+		{
+			synchronized(clients){//lock clients
+				clients.remove(name);//forget the client
+			}//release clients
+			dispatcher.unregister(name);//stop dispatching tasks to the client
+			failureDetector.remove(name);//stop watching the client's heartbeats
+			requeueOutstanding();//keep the client's tasks on this server for other clients
+			keepRunning = false;//set that the client manager should stop running
+			try{//try to tell the client where to go
+				transmit(Protocol.REDIRECT, encodeRedirect(owner, address));//send the redirect
+			} catch(IOException ioException){//if the client couldn't be told
+				log.log("Failed to send redirect [" + name + "]");//log that the redirect failed, the client will be redirected when it reconnects
+			}
+			NetworkManager.Connection clientConnection = connection;//store the client's connection
+			try{//try to drop the client's connection
+				if(clientConnection != null){//if the client is connected through the network manager
+					clientConnection.closeWhenFlushed();//drop the connection once the redirect is sent
+				} else{//if the client is connected through a pair of sockets
+					inputSocket.close();//close the input socket
+					outputSocket.close();//close the output socket
+				}
+			} catch(IOException ioException){//if the sockets couldn't be closed
+				ioException.printStackTrace(log);//log the exception
+			}
+			log.log("Redirected client to " + owner + " [" + name + "]");//log that the client was redirected
+		}
+
+		/**Closes the client manager by closing both of it's sockets
+		 * @throws IOException If the sockets couldn't be closed*/
+		public void close() throws IOException
+		{
+			keepRunning = false;//set that the client manager should stop running
+			dispatcher.unregister(name);//stop dispatching tasks to the client
+			if(connection != null){//if the client is connected through the network manager
+				connection.close();//close the client's connection
+				return;
+			}
+			try{//try to close the input socket
+				inputSocket.close();//close the input socket
+			} finally{//ensure the output socket gets closed
+				outputSocket.close();//close the output socket
+			}
+		}
+	}
 
+	/**Starts accepting client connections through the non-blocking network manager, which services every client with a
+	 * small pool of I/O threads instead of a thread per client. Unlike socket connections, connections through the
+	 * network manager aren't encrypted or authenticated, so it must only be opened on a trusted network
+	 * @param port The port to accept client connections on
+	 * @param ioThreads How many I/O threads to spread the connections across
+	 * @throws IOException If the network manager couldn't be started*/
+	public void openNetwork(int port, int ioThreads) throws IOException
+	{
+		network = new NetworkManager(log, port, ioThreads, new NetworkHandler());//start the network manager
+		network.setCompressionLevel(compressionLevel);//offer clients the compression level
+		startDispatching();//start sending tasks and heartbeats to clients
+	}
 
+	/**Starts the threads that send queued tasks to clients and send and watch their heartbeats, unless they're already
+	 * running*/
+	private synchronized void startDispatching()
+	{
+		if(taskSender == null){//if the task sender hasn't been started yet
+			taskSender = new Thread(new Runnable(){//create the task sending thread
+				public void run()
+				{
+					sendTasks();//run the task sending loop
+				}
+			}, "Server-TaskSender");
+			taskSender.setDaemon(true);//don't let the task sender keep the JVM alive
+			taskSender.start();//start the task sending thread
+		}
+		if(heartbeatMonitor == null){//if the heartbeat monitor hasn't been started yet
+			heartbeatMonitor = new Thread(new Runnable(){//create the heartbeat monitor thread
+				public void run()
+				{
+					monitorHeartbeats();//run the heartbeat loop
+				}
+			}, "Server-HeartbeatMonitor");
+			heartbeatMonitor.setDaemon(true);//don't let the monitor keep the JVM alive
+			heartbeatMonitor.start();//start the heartbeat monitor thread
+		}
+	}
 
-						try{//try to listen for a new client connection and attempt to accept it
-							inputSocket = serverInput.accept();//block until a connection is available and accept it
-							log.log("New connection [" + inputSocket.getRemoteSocketAddress().toString() + "]");//log the new connection
-							synchronized(clients){//lock clients
-								try{//try to read in the client's name
-									inputStream = inputSocket.getInputStream();//get the input socket's input stream
-									byte[] nameBytes = new byte[inputStream.read()];//allocate bytes for the client's name
-									inputStream.read(nameBytes);//read in the client's name
-								} catch(IOException ioException){//if the client's name couldn't be read
+	/**Joins this server to a federation of servers sharing a job, after which clients are split between the members by
+	 * consistent hashing of their names; clients that belong to another member are redirected to it, both when they
+	 * connect and whenever a server joins or leaves and the client changes hands. Queued tasks are also stolen from
+	 * loaded members whenever this server runs low, so jobs whose tasks land unevenly keep every server busy
+	 * @param ioManager The io manager to keep the federation's leases through
+	 * @param federationName The name of the federation to join
+	 * @param address The address clients should connect to this server on, as 'host:port'
+	 * @param virtualNodes How many points on the hash ring each server gets, around 128 spreads clients evenly*/
+	public void joinFederation(IOManager ioManager, String federationName, String address, int virtualNodes)
+	{
+		leaveFederation();//leave any federation the server's already in
+		federation = new Federation(log, ioManager, federationName, serverName, address, virtualNodes, new Federation.Listener(){//join the federation
+			public void membershipChanged()
+			{
+				rebalanceClients();//redirect the clients this server no longer owns
+			}
 
-								}
+			public int queuedTasks()
+			{
+				return (int)Math.min(Integer.MAX_VALUE, countQueued());//publish how many tasks are queued
+			}
+		});
+		synchronized(this){//lock this server
+			workStealer = new WorkStealer(log, ioManager, federation, tasks, stealLowWater, stealBatch);//start stealing work from the other members
+		}//release this server
+	}
 
-								//TODO also make the streams into secure streams or something...
-								//TODO get the 'name' here or something, also 'outputSocket'
+	/**Sets how eagerly this server steals queued tasks from the rest of it's federation; smaller batches spread skewed
+	 * jobs more evenly at the cost of more round-trips through the master database
+	 * @param lowWaterMark How few tasks have to be queued before this server steals more
+	 * @param batchSize How many tasks to steal at a time, never more than half of the other member's queue*/
+	public synchronized void setWorkStealing(int lowWaterMark, int batchSize)
+	{
+		stealLowWater = lowWaterMark;//set the low water mark
+		stealBatch = batchSize;//set the batch size
+		if(workStealer != null){//if the server is federated
+			workStealer.setGranularity(lowWaterMark, batchSize);//update the running stealer
+		}
+	}
 
+	/**Leaves the server's federation, if it's in one, after which it keeps every client that connects to it*/
+	public void leaveFederation()
+	{
+		WorkStealer currentStealer;//reference for the server's work stealer
+		synchronized(this){//lock this server
+			currentStealer = workStealer;//store the server's work stealer
+			workStealer = null;
+		}//release this server
+		if(currentStealer != null){//if the server was stealing work
+			currentStealer.close();//stop stealing, taking back any batches that weren't claimed
+		}
+		Federation currentFederation = federation;//store the server's federation
+		if(currentFederation != null){//if the server is federated
+			federation = null;//stop redirecting clients
+			currentFederation.close();//leave the federation
+		}
+	}
 
+	/**Redirects every client that belongs to another member of the federation after it's membership changes; with
+	 * consistent hashing only about 1/n of the clients move when a server joins or leaves*/
+	private void rebalanceClients()
+	{
+		Federation currentFederation = federation;//store the server's federation
+		if(currentFederation == null){//if the server isn't federated anymore
+			return;
+		}
+		ArrayList<ClientManager> clientManagers;//reference for the clients to check
+		synchronized(clients){//lock clients
+			clientManagers = new ArrayList<ClientManager>(clients.values());//copy the clients
+		}//release clients
+		int moved = 0;//counter for how many clients were redirected
+		for(ClientManager clientManager : clientManagers){//iterate through the clients
+			String owner = currentFederation.ownerOf(clientManager.name);//find the client's server
+			if(!currentFederation.isLocal(clientManager.name)){//if the client belongs to another server
+				clientManager.redirect(owner, currentFederation.addressOf(owner));//hand the client off
+				moved++;//count the client
+			}
+		}
+		log.log("Rebalanced federation, redirected " + moved + " of " + clientManagers.size() + " clients");//log how many clients moved
+	}
 
-								if(clients.containsKey(name)){//if this is an existent connection
-									clients.get(name).reestablishConnection(inputSocket, outputSocket);//reestablish the client's connection
-									log.log("Successfully re-established connection [" + name + ":" + inputSocket.getRemoteSocketAddress() + "]");//log the connection succeeded
-								} else{//if this is a new connection
-									clientManager = new ClientManager(name, inputSocket, outputSocket);//create a new client manager
-									log.log("Successfully established connection [" + name + ":" + inputSocket.getRemoteSocketAddress() + "]");//log the connection succeeded
-									clients.put(name, clientManager);//add the new client manager to the client map
-									new Thread(clientManager).start();//start the client manager's thread
-									//TODO have the client manager log 'client manager made instead of being here'
-								}
-							}//release clients
-						} catch(SocketTimeoutException socketTimeoutException){//if the client took too long (>10s) to connect
-							log.log("Connection timed out [" + inputSocket.getRemoteSocketAddress().toString() + "]");//log that the connection timed out
-						} catch(ConnectException connectException){//TODO make sure client manager throws this for all it's own things
-							log.log("Connection failed [" + inputSocket.getRemoteSocketAddress().toString() + "]");//log that the connection failed
-							connectException.printStackTrace(log);//log the exception
-						} finally{//ensure all the loop's references get cleared
-							clientManager = null;
-							inputSocket = null;
-							outputSocket = null;
-							inputStream = null;
-							name = null;
-						}
+	/**Encodes the body of a REDIRECT message
+	 * @param server The name of the server the client should go to
+	 * @param address The server's address
+	 * @return The encoded body*/
+	private static byte[] encodeRedirect(String server, String address)
+	{
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the redirect into
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the strings
+		try{//try to write the redirect
+			dataOutputStream.writeUTF(server);//write the server's name
+			dataOutputStream.writeUTF((address != null)? address : "");//write the server's address
+		} catch(IOException ioException){//this can't happen when writing to a byte array
+			throw new IllegalStateException(ioException);//except that something impossible happened
+		}
+		return byteArrayOutputStream.toByteArray();//return the encoded redirect
+	}
 
+	/**Returns how the server manager's self-repairs have gone, measured from an accept loop dying to it's replacement
+	 * accepting a probe connection
+	 * @return Summary of the number of repairs and failures, and the last, mean and slowest repair times*/
+	public String getRepairStatistics()
+	{
+		ServerManager currentManager = serverManager;//store the server's manager
+		return ((currentManager != null)? currentManager.getRepairStatistics() : "[not listening]");//return the manager's statistics
+	}
 
+	/**Returns a summary of what the server is doing, for including in it's status
+	 * @return The number of connected clients and queued tasks, how speculative backups have gone, and the server
+	 *         manager's repairs, one per line*/
+	public String getStatus()
+	{
+		int clientCount;//reference for how many clients are connected
+		synchronized(clients){//lock clients
+			clientCount = clients.size();//count the clients
+		}//release clients
+		return "Clients: " + clientCount + "\nQueued tasks: " + countQueued() + "\n" + speculation.getStatus() + "\nRepairs: " + getRepairStatistics() + "\n";//return the status
+	}
 
+	/**Sets the highest compression level offered to clients, which applies to clients that connect from now on; clients
+	 * on slow links benefit from higher levels, while fast local networks may be better off not compressing
+	 * @param level The compression level from 1 to 9, or 0 to not compress at all*/
+	public void setCompressionLevel(int level)
+	{
+		compressionLevel = level;//set the compression level
+		NetworkManager networkManager = network;//store the network manager
+		if(networkManager != null){//if the network manager is running
+			networkManager.setCompressionLevel(level);//offer the new level to new connections
+		}
+	}
 
+	/**Starts serving files such as task bundles and shared input data to clients over their own connections, sending
+	 * them with zero-copy transfers and keeping the most requested regions in memory
+	 * @param directory The directory to serve files out of
+	 * @param port The port to accept file connections on
+	 * @param workers How many file connections can be served at once
+	 * @param cacheBytes The most bytes of hot file regions to keep in memory
+	 * @throws IOException If the file server couldn't be started*/
+	public void openFileServer(File directory, int port, int workers, long cacheBytes) throws IOException
+	{
+		if(fileServer != null){//if a file server is already running
+			fileServer.close();//close the old file server
+		}
+		fileServer = new FileServer(log, directory, port, workers, cacheBytes);//start the file server
+	}
 
+	/**Sets the secret shared with the clients that authenticates the key exchange on socket connections, without one the
+	 * traffic is still encrypted but a man in the middle could exchange keys with both sides
+	 * @param key The pre-shared key, or null to not use one*/
+	public void setPreSharedKey(byte[] key)
+	{
+		preSharedKey = ((key != null)? key.clone() : null);//set the pre-shared key
+	}
 
+	/**Sets the phi above which clients are suspected of having failed, lower values catch failures sooner but are more
+	 * likely to suspect a client that's only slow
+	 * @param threshold The new suspicion threshold*/
+	public void setSuspicionThreshold(double threshold)
+	{
+		failureDetector.setThreshold(threshold);//set the detector's threshold
+	}
 
+	/**Loop run by the heartbeat monitor thread, which sends every client a heartbeat and then requeues the tasks of any
+	 * client that's been silent for suspiciously long*/
+	private void monitorHeartbeats()
+	{
+		while(true){//loop for as long as the server runs
+			ArrayList<ClientManager> clientManagers;//reference for the clients to check
+			synchronized(clients){//lock clients
+				clientManagers = new ArrayList<ClientManager>(clients.values());//copy the clients
+			}//release clients
+			for(ClientManager clientManager : clientManagers){//iterate through the clients
+				try{//try to send the client a heartbeat
+					clientManager.send(Protocol.HEARTBEAT, new byte[0]);//send the heartbeat
+				} catch(IOException ioException){}//if it couldn't be sent the detector will notice the client going silent
+			}
+			for(String suspect : failureDetector.findSuspects()){//iterate through the newly suspected clients
+				ClientManager clientManager;//reference for the suspect's manager
+				synchronized(clients){//lock clients
+					clientManager = clients.get(suspect);//retrieve the suspect's manager
+				}//release clients
+				if(clientManager != null){//if the suspect is still known
+					clientManager.suspect();//take back the suspect's tasks
+				}
+			}
+			launchBackups();//back up any tasks that are straggling
+			try{//try to wait for the next round
+				Thread.sleep(HEARTBEAT_INTERVAL);//wait until the next heartbeat is due
+			} catch(InterruptedException interruptedException){//if the thread was interrupted
+				log.log("Heartbeat monitor interrupted");//log that the monitor stopped
+				return;
+			}
+		}
+	}
 
+	/**Launches backup copies of straggling tasks on idle clients, never on the client already running the straggler;
+	 * whichever copy finishes first wins and the other is cancelled. Backups that can't be placed are left for a later
+	 * round*/
+	private void launchBackups()
+	{
+		for(String taskID : speculation.findStragglers(dispatcher.countIdle())){//iterate through the stragglers
+			ClientRecord record = dispatcher.dispatch(dependenciesOf(taskID));//pick a client for the backup
+			ClientManager clientManager = null;//reference for the client's manager
+			if(record != null){//if a client was picked
+				synchronized(clients){//lock clients
+					clientManager = clients.get(record.name);//retrieve the client's manager
+				}//release clients
+			}
+			if((clientManager == null) || clientManager.isRunning(taskID)){//if no other client could take the backup
+				if(record != null){//if a client's slot was claimed
+					dispatcher.finished(record.name, false);//return the slot
+				}
+				speculation.backupFailed(taskID);//try again in a later round
+				continue;
+			}
+			speculation.backupStarted(taskID, record.name);//record the backup before it's sent so it's outcome is recognized
+			try{//try to send the backup
+				clientManager.sendTask(taskID);//send the backup copy to the client
+				log.log("Launched backup copy of straggling task [" + record.name + "] " + taskID);//log that the backup was launched
+			} catch(IOException ioException){//if the backup couldn't be sent
+				log.log("Failed to send backup copy [" + record.name + "] " + taskID);//log that the backup couldn't be sent
+				ioException.printStackTrace(log);//log the exception
+				dispatcher.finished(record.name, false);//return the slot
+				speculation.backupFailed(taskID);//try again in a later round
+			}
+		}
+	}
 
+	/**Returns what a queued task depends on, for picking a client that already has it cached
+	 * @param taskID The ID of the task
+	 * @return The task's dependencies, or none if it wasn't submitted to this server*/
+	private String[] dependenciesOf(String taskID)
+	{
+		synchronized(submitted){//lock submitted
+			Task details = submitted.get(taskID);//retrieve the task, if it was submitted to this server
+			return ((details != null)? details.getDependencies() : NO_DEPENDENCIES);//return what the task depends on
+		}//release submitted
+	}
 
+	/**Returns the type a queued task's runtimes are grouped under when looking for stragglers
+	 * @param taskID The ID of the task
+	 * @return The task's class name, or a shared type if it wasn't submitted to this server*/
+	private String typeOf(String taskID)
+	{
+		synchronized(submitted){//lock submitted
+			Task details = submitted.get(taskID);//retrieve the task, if it was submitted to this server
+			return ((details != null)? details.getClass().getName() : "[unknown]");//return the task's type
+		}//release submitted
+	}
 
+	/**Loop run by the task sending thread, which pipelines queued tasks out to clients as long as they have credit left,
+	 * so each client already has it's next tasks waiting by the time it finishes the ones it's running*/
+	private void sendTasks()
+	{
+		while(true){//loop for as long as the server runs
+			String task;//reference for the next task to send
+			try{//try to wait for a task and a client with credit
+				boolean overflowing = drainBacklog();//move any tasks that overflowed while the queue was full into it
+				task = tasks.poll();//take the next task
+				if(task == null){//if the queue is empty
+					if(overflowing){//if the overflow couldn't be moved in
+						Thread.sleep(100);//wait before trying it again
+						continue;
 					}
-				} catch(Exception exception){
-					if(!(exception instanceof SocketException) || (keepRunning)){//if this isn't an expected socket closure exception
-						log.log("Fatal exception occurred in server manager thread");//log that an unknown fatal exception occurred
-						exception.printStackTrace(log);//log the exception
+					task = tasks.take();//wait for a task, anything queued from here on goes straight into the queue
+				}
+				synchronized(splits){//lock splits
+					if(deadPieces.remove(task)){//if the task is a piece of a split task that already failed
+						continue;//drop the piece instead of sending it
 					}
-				} finally{//attempt to repair the server manager if necessary, and close leftover sockets
-					try{//try to close the server output socket
-						serverOutput.close();//close the server output socket
-					} catch(Exception exception){//if the server output socket couldn't be closed
-						log.log("Failed to finalize server output socket");//log that the output socket couldn't be closed
-						exception.printStackTrace(log);//log the exception
+				}//release splits
+				String[] dependencies = dependenciesOf(task);//get what the task depends on
+				ClientRecord record;//reference for the client the task is sent to
+				synchronized(creditLock){//lock creditLock
+					while((record = dispatcher.dispatch(dependencies)) == null){//while every client's credit is used up
+						creditLock.wait(1000);//wait for credit to be returned, checking periodically in case a client registered without returning any
 					}
-					synchronized(this){//lock serverInput, keepRunning, parent
-						if(!serverInput.isClosed()){//if the server input socket isn't already closed
-							try{//try to close the server input socket
-								serverInput.close();//close the server input socket
-							} catch(Exception exception){//if the server input socket couldn't be closed
-								log.log("Failed to finalize server input socket");//log that the input socket couldn't be closed
-								exception.printStackTrace(log);//log the exception
-							}
-						}//release serverInput, keepRunning, parent
-						if(keepRunning){//if the server manager thread should still be running
-							if(parent != null){//if this server manager was a reconstruction attempt
-								parent.interrupt();//interrupt the parent to inform it that the reconstruction failed
-							} else{//if this server manager should attempt a reconstruction
-								log.log("Unexpected termination of server manager thread... Attempting repair");//log that the repair process is starting
-								try{//try to reconstruct the server manager thread to replace this one
-									ServerManagerImpl child = new ServerManagerImpl(serverInput.getLocalPort(), serverOutput.getLocalPort());//create a new server manager
-									child.parent = this;//set this server manager as it's parent
-									serverManagerImpl = child;//update the server manager implementation reference to the child
-									child.start();//start the new server manager thread
-									Thread.sleep(60000);//TODO test the new child somehow here (also apparently returning from finally is bad...)
-									child.parent = null;//remove the new server manager's parent so its no longer marked as a reconstruction
-									return;//close this server manager since the repair was successful
-								} catch(InterruptedException interruptedException){//if the reconstruction self-reported it's failure
-									log.log("Server manager reconstruction failed");//log that the server manager reconstruction failed
-								} catch(Exception exception){//if the reconstruction failed for an unknown reason
-									log.log("Server manager reconstruction failed exceptionally");//log that the server manager reconstruction failed
-									exception.printStackTrace(log);//log the exception
-								}
-							}
-							Server.this.close();//close the rest of the server down
-						}
-						log.log("Server manager thread terminated");//log that the server manager thread has terminated
-					}//release serverInput, keepRunning, parent
+				}//release creditLock
+				ClientManager clientManager;//reference for the client's manager
+				synchronized(clients){//lock clients
+					clientManager = clients.get(record.name);//retrieve the client's manager
+				}//release clients
+				speculation.started(task, typeOf(task), record.name);//start timing the task, before it's sent so it's outcome is recognized
+				try{//try to send the task
+					clientManager.sendTask(task);//send the task to the client
+				} catch(Exception exception){//if the task couldn't be sent
+					log.log("Failed to send task, requeueing it [" + record.name + "] " + task);//log that the task couldn't be sent
+					exception.printStackTrace(log);//log the exception
+					dispatcher.finished(record.name, false);//return the credit the task took
+					speculation.abandoned(task, record.name);//the task isn't running anywhere
+					requeue(task);//queue the task to be sent again, without waiting on the queue this thread empties
 				}
+			} catch(InterruptedException interruptedException){//if the thread was interrupted
+				log.log("Task sender interrupted");//log that the task sender stopped
+				return;
 			}
+		}
+	}
 
-			/**Closes the server manager by closing it's underlying sockets
-			 * @throws IOException if the server's sockets couldn't be closed*/
-			public void close() throws IOException
-			{
-				synchronized(this){//lock serverInput, keepRunning, parent
-					keepRunning = false;//set that the server manager should stop running
-					if(serverInput.isClosed()){//if the server input socket is already closed
-						log.log("Server input socket already closed");//log that the input socket is already closed
-					} else{//if the server input socket is still open
-						serverInput.close();//close the server input socket
-						log.log("Closed the server input socket");//log that the server input socket was closed
+	/**Queues a task to be sent without blocking, overflowing it if the task queue is full
+	 * @param task The task's string*/
+	private void requeue(String task)
+	{
+		IOException spillFailure = null;//reference for why the task couldn't be spilled
+		synchronized(overflow){//lock overflow
+			if(backlog.isEmpty() && (overflow.size() == 0) && tasks.offer(task)){//if nothing is waiting ahead of the task and it fit in the queue
+				return;
+			}
+			try{//try to overflow the task
+				overflow.offer(task);//hold the task until there's room
+			} catch(IOException ioException){//if the task couldn't be spilled
+				spillFailure = ioException;//store the failure
+				backlog.add(task);//hold the task on the heap instead
+			}
+		}//release overflow
+		if(spillFailure != null){//if the task is being held on the heap
+			log.log("Failed to spill queued task, holding it in memory: " + task);//log that the task wasn't spilled
+			spillFailure.printStackTrace(log);//log the exception
+		}
+	}
+
+	/**Moves as many tasks from the overflow into the task queue as there's room for
+	 * @return True if there are still tasks waiting in the overflow*/
+	private boolean drainBacklog()
+	{
+		IOException loadFailure = null;//reference for why spilled tasks couldn't be loaded
+		boolean waiting;//flag for whether tasks are still waiting
+		synchronized(overflow){//lock overflow
+			while(!backlog.isEmpty() && tasks.offer(backlog.peek())){//while there's a held task that fits in the queue
+				backlog.poll();//remove it from the backlog
+			}
+			try{//try to move the overflow into the queue
+				while(backlog.isEmpty() && (tasks.size() < tasks.capacity())){//while there's likely room in the queue
+					String task = overflow.poll();//take the oldest overflowed task
+					if(task == null){//if the overflow is empty
+						break;
 					}
-				}//release serverInput, keepRunning, parent
+					if(!tasks.offer(task)){//if another thread filled the queue first
+						backlog.add(task);//put the task first in line for the next time there's room
+					}
+				}
+			} catch(IOException ioException){//if spilled tasks couldn't be loaded, they're kept and tried again next time
+				loadFailure = ioException;//store the failure
 			}
+			waiting = !backlog.isEmpty() || (overflow.size() > 0);//check whether anything is left
+		}//release overflow
+		if(loadFailure != null){//if spilled tasks couldn't be loaded
+			log.log("Failed to load spilled tasks, retrying");//log that the overflow couldn't be drained
+			loadFailure.printStackTrace(log);//log the exception
 		}
+		return waiting;//return whether tasks are still waiting
 	}
 
-	//TODO
-	private class ServerManger implements Runnable, Closeable
+	/**Counts every task waiting to be dispatched, including those overflowed or spilled to disk
+	 * @return How many tasks are queued*/
+	private long countQueued()
 	{
-		private class ServerManagerImpl implements Closeable
+		synchronized(overflow){//lock overflow
+			return tasks.size() + backlog.size() + overflow.size();//return how many tasks are queued
+		}//release overflow
+	}
+
+	/**Wakes up the task sender after credit is returned or a client's credit changes*/
+	private void creditReturned()
+	{
+		synchronized(creditLock){//lock creditLock
+			creditLock.notifyAll();//wake up the task sender
+		}//release creditLock
+	}
+
+	/**Class that links connections from the network manager to client managers, handing each message to the client's
+	 * manager on the I/O thread it arrived on*/
+	private class NetworkHandler implements NetworkManager.Handler
+	{
+		/**Creates a client manager for a newly connected client, or hands the connection to the client's existing manager
+		 * if it's reconnecting
+		 * @param connection The client's connection*/
+		public void connected(NetworkManager.Connection connection)
 		{
+			Federation currentFederation = federation;//store the server's federation
+			if((currentFederation != null) && !currentFederation.isLocal(connection.getName())){//if the client belongs to another server
+				String owner = currentFederation.ownerOf(connection.getName());//find the client's server
+				try{//try to redirect the client
+					connection.send(Protocol.REDIRECT, encodeRedirect(owner, currentFederation.addressOf(owner)));//tell the client where to go
+					log.log("Redirected client to " + owner + " [" + connection.getName() + "]");//log that the client was redirected
+				} catch(IOException ioException){}//the client will reconnect and be redirected again
+				connection.closeWhenFlushed();//drop the client once it's been told
+				return;
+			}
+			synchronized(clients){//lock clients
+				ClientManager clientManager = clients.get(connection.getName());//retrieve the client's manager
+				if(clientManager != null){//if this is an existing client
+					clientManager.reestablishConnection(connection);//give the client it's new connection
+					log.log("Successfully re-established connection [" + connection.getName() + "]");//log the connection succeeded
+				} else{//if this is a new client
+					clients.put(connection.getName(), new ClientManager(connection));//create and store a manager for the client
+					log.log("Successfully established connection [" + connection.getName() + "]");//log the connection succeeded
+				}
+			}//release clients
+		}
+
+		/**Hands a message to the manager of the client it came from
+		 * @param connection The connection the message arrived on
+		 * @param type The message's type
+		 * @param body The message's body*/
+		public void messageReceived(NetworkManager.Connection connection, byte type, byte[] body)
+		{
+			ClientManager clientManager;//reference for the client's manager
+			synchronized(clients){//lock clients
+				clientManager = clients.get(connection.getName());//retrieve the client's manager
+			}//release clients
+			try{//try to handle the message
+				clientManager.handleMessage(type, body);//handle the message
+			} catch(Exception exception){//if the message couldn't be handled
+				log.log("Failed to handle message from client [" + connection.getName() + "]");//log that the message couldn't be handled
+				exception.printStackTrace(log);//log the exception
+			}
+		}
 
+		/**Logs that a client disconnected, it's manager is kept so that it can reconnect
+		 * @param connection The client's connection*/
+		public void disconnected(NetworkManager.Connection connection)
+		{
+			log.log("Client disconnected, waiting for it to reconnect [" + connection.getName() + "]");//log that the client disconnected
 		}
 	}
 
-	//TODO
-	private class ClientManager implements Runnable, Closeable
+	/**Queues a task to be dispatched to a client, which is sent the task's ID; the task is kept until it finishes so
+	 * that it's sent to clients that already have it's dependencies cached whenever possible. Splittable tasks are first
+	 * split into a piece for every free slot in the cluster, and their pieces' results are merged back together before
+	 * the task's outcome is reported
+	 * @param task The task to queue*/
+	public void submitTask(Task task)
 	{
+		if(task instanceof SplittableTask){//if the task can be split across the cluster
+			int[] slots = dispatcher.countSlots();//count how many tasks the cluster can take
+			SplitJob split = new SplitJob((SplittableTask)task, slots[0], slots[1]);//split the task for the cluster
+			List<SplittableTask> pieces = split.getPieces();//get the task's pieces
+			if(pieces.size() > 1){//if the task was split
+				synchronized(splits){//lock splits
+					for(SplittableTask piece : pieces){//iterate through the pieces
+						splits.put(piece.ID, split);//track the piece until it finishes
+					}
+				}//release splits
+				log.log("Split task [" + task.ID + "] into " + pieces.size() + " pieces for " + slots[0] + " free slots");//log that the task was split
+				for(SplittableTask piece : pieces){//iterate through the pieces
+					queueTask(piece);//queue the piece
+				}
+				return;
+			}
+		}
+		queueTask(task);//queue the task whole
+	}
 
+	/**Sets the listener that's told the outcome of every task clients finish, duplicates from speculative copies
+	 * excluded; a split task is reported once, after it's pieces are merged
+	 * @param listener The listener to report outcomes to, or null to not report them*/
+	public void setOutcomeListener(TaskExecutor.OutcomeListener listener)
+	{
+		outcomeListener = listener;//set the outcome listener
+	}
+
+	/**Merges a finished piece into it's split job, reporting the original task's outcome once every piece has finished,
+	 * or as soon as a piece fails since the task can't be merged without it
+	 * @param split The split job the piece belongs to
+	 * @param outcome The piece's outcome*/
+	private void completePiece(SplitJob split, TaskOutcome outcome)
+	{
+		long elapsed = System.currentTimeMillis() - split.startTime;//calculate how long the split task has been running
+		if(outcome.status != TaskOutcome.Status.COMPLETED){//if the piece didn't complete
+			ArrayList<String> siblings = new ArrayList<String>();//create a list for the pieces that are still queued or running
+			synchronized(splits){//lock splits
+				for(SplittableTask piece : split.getPieces()){//iterate through the unfinished pieces
+					if(!piece.ID.equals(outcome.taskID)){//if the piece is one of the failed piece's siblings
+						splits.remove(piece.ID);//stop tracking the piece, it's results can't be used
+						deadPieces.add(piece.ID);//skip the piece if it's queued, and drop it's outcome if it's running
+						siblings.add(piece.ID);
+					}
+				}
+			}//release splits
+			synchronized(submitted){//lock submitted
+				for(String piece : siblings){//iterate through the sibling pieces
+					submitted.remove(piece);//the piece's details aren't needed anymore
+				}
+			}//release submitted
+			ArrayList<ClientManager> clientManagers;//reference for the connected clients
+			synchronized(clients){//lock clients
+				clientManagers = new ArrayList<ClientManager>(clients.values());//copy the connected clients
+			}//release clients
+			for(String piece : siblings){//iterate through the sibling pieces
+				for(ClientManager clientManager : clientManagers){//iterate through the clients
+					if(clientManager.isRunning(piece)){//if the client is running the piece
+						cancelTask(clientManager.name, piece);//stop the piece, it's work can't be used
+					}
+				}
+			}
+			log.log("Split task [" + split.getID() + "] ended " + outcome.status + " with piece " + outcome.taskID);//log that the split task failed
+			reportOutcome(new TaskOutcome(split.getID(), outcome.status, null, outcome.exception, elapsed, false, false, null));//report the failure
+			return;
+		}
+		Serializable[] merged = split.complete(outcome.taskID, outcome.results);//merge the piece's results upwards
+		if(merged != null){//if that was the last piece
+			log.log("Split task finished [" + split.getID() + "]");//log that the split task finished
+			reportOutcome(new TaskOutcome(split.getID(), TaskOutcome.Status.COMPLETED, merged, null, elapsed, false, false, null));//report the merged results
+		}
+	}
+
+	/**Hands a task's outcome to the outcome listener, if there is one
+	 * @param outcome The task's outcome*/
+	private void reportOutcome(TaskOutcome outcome)
+	{
+		TaskExecutor.OutcomeListener listener = outcomeListener;//store the outcome listener
+		if(listener == null){//if no one's listening
+			return;
+		}
+		try{//try to notify the listener
+			listener.taskFinished(outcome);//report the outcome
+		} catch(Exception exception){//if the listener failed
+			log.log("Outcome listener failed for task: " + outcome.taskID);//log that the listener failed
+			exception.printStackTrace(log);//log the exception
+		}
+	}
+
+	/**Queues a single task to be dispatched, keeping it's details for dispatch
+	 * @param task The task to queue*/
+	private void queueTask(Task task)
+	{
+		synchronized(submitted){//lock submitted
+			submitted.put(task.ID, task);//keep the task's details for dispatching it
+		}//release submitted
+		requeue(task.ID);//queue the task, overflowing it if the queue is full
+	}
+
+	/**Adds a map/reduce job to this server so that partial aggregates from it's map tasks can be reduced
+	 * @param job The job to add*/
+	public void submitJob(MapReduceJob job)
+	{
+		synchronized(jobs){//lock jobs
+			jobs.put(job.ID, job);//store the job
+		}//release jobs
+		log.log("Submitted job [" + job.ID + "] with " + job.getMapTasks().size() + " map tasks");//log that the job was submitted
+	}
+
+	/**Handles a partial aggregate received from a client, either reducing it into it's job on the server or forwarding
+	 * it to the job's reducing client
+	 * @param clientName The name of the client that sent the aggregate
+	 * @param partial The partial aggregate*/
+	private void reducePartial(String clientName, PartialAggregate partial)
+	{
+		MapReduceJob job;//reference for the aggregate's job
+		synchronized(jobs){//lock jobs
+			job = jobs.get(partial.jobID);//retrieve the aggregate's job
+		}//release jobs
+		if(job == null){//if the job isn't running on this server
+			log.log("Discarding partial aggregate for unknown job [" + clientName + "] " + partial.jobID);//log that the aggregate was discarded
+			return;
+		}
+		boolean forward = (job.reducerClient != null) && !job.reducerClient.equals(clientName);//store whether the job is reduced on another client
+		List<MapTask> unreduced = forward? job.claim(partial) : job.reduce(partial);//mark the aggregate's tasks as reduced, folding it into the job if it's reduced here
+		if(unreduced != null){//if the aggregate overlapped with results already reduced
+			log.log("Discarding overlapping partial aggregate [" + clientName + "] " + partial.jobID + ", running " + unreduced.size() + " of it's " + partial.taskIDs.length + " tasks again");//log that the aggregate was rejected
+			for(MapTask task : unreduced){//iterate through the tasks that still need reducing
+				queueTask(task);//run the task again so it's results arrive in an aggregate of their own
+			}
+			return;
+		}
+		if(forward){//if the job is reduced on another client
+			forwardPartial(job, partial);//send the aggregate to the reducing client
+		}
+		finishJob(job);//remove the job if that was it's last aggregate
+	}
+
+	/**Forwards a partial aggregate to it's job's reducing client, holding it until the client advertises it's credit
+	 * again if it isn't connected or the aggregate couldn't be sent
+	 * @param job The aggregate's job
+	 * @param partial The partial aggregate*/
+	private void forwardPartial(MapReduceJob job, PartialAggregate partial)
+	{
+		ClientManager reducer;//reference for the reducing client's manager
+		synchronized(clients){//lock clients
+			reducer = clients.get(job.reducerClient);//retrieve the reducing client's manager
+		}//release clients
+		if((reducer != null) && reducer.keepRunning){//if the reducing client is connected
+			try{//try to forward the aggregate
+				reducer.sendPartial(partial);//forward the aggregate to the reducing client
+				return;
+			} catch(IOException ioException){//if the aggregate couldn't be forwarded
+				log.log("Failed to forward partial aggregate [" + job.reducerClient + "] " + partial.jobID);//log that the aggregate couldn't be forwarded
+				ioException.printStackTrace(log);//log the exception
+			}
+		}
+		synchronized(heldPartials){//lock heldPartials
+			ArrayList<PartialAggregate> held = heldPartials.get(job.reducerClient);//retrieve the aggregates held for the client
+			if(held == null){//if this is the first aggregate held for the client
+				held = new ArrayList<PartialAggregate>();//create a list for the client's aggregates
+				heldPartials.put(job.reducerClient, held);//store the list
+			}
+			held.add(partial);//hold the aggregate
+		}//release heldPartials
+		log.log("Holding partial aggregate until the reducing client returns [" + job.reducerClient + "] " + partial.jobID);//log that the aggregate is being held
+	}
+
+	/**Forwards every partial aggregate that was held while a reducing client was away
+	 * @param clientName The name of the reducing client*/
+	private void forwardHeldPartials(String clientName)
+	{
+		ArrayList<PartialAggregate> held;//reference for the aggregates held for the client
+		synchronized(heldPartials){//lock heldPartials
+			held = heldPartials.remove(clientName);//take the client's aggregates
+		}//release heldPartials
+		if(held == null){//if nothing was held for the client
+			return;
+		}
+		log.log("Forwarding " + held.size() + " held partial aggregates [" + clientName + "]");//log that the aggregates are being forwarded
+		for(PartialAggregate partial : held){//iterate through the held aggregates
+			MapReduceJob job;//reference for the aggregate's job
+			synchronized(jobs){//lock jobs
+				job = jobs.get(partial.jobID);//retrieve the aggregate's job
+			}//release jobs
+			if(job != null){//if the job is still running, which it is until it's aggregates are delivered
+				forwardPartial(job, partial);//forward the aggregate, holding it again if the client left already
+				finishJob(job);//remove the job if that was it's last aggregate
+			}
+		}
+	}
+
+	/**Removes a job from this server once every map task's results have been reduced and any aggregates held for it's
+	 * reducing client have been delivered
+	 * @param job The job to check*/
+	private void finishJob(MapReduceJob job)
+	{
+		if(!job.isDone()){//if the job still has tasks to reduce
+			return;
+		}
+		synchronized(heldPartials){//lock heldPartials
+			ArrayList<PartialAggregate> held = heldPartials.get(job.reducerClient);//retrieve the aggregates held for the job's reducing client
+			if(held != null){//if aggregates are being held for the client
+				for(PartialAggregate partial : held){//iterate through the held aggregates
+					if(partial.jobID.equals(job.ID)){//if the aggregate belongs to the job
+						return;//the job isn't finished until it's delivered
+					}
+				}
+			}
+		}//release heldPartials
+		boolean removed;//flag for whether this call removed the job
+		synchronized(jobs){//lock jobs
+			removed = (jobs.remove(job.ID) != null);//remove the finished job
+		}//release jobs
+		if(removed){//if the job was still registered
+			log.log("Job finished [" + job.ID + "]");//log that the job finished
+		}
+	}
+
+	/**Cancels a task that has already been dispatched to a client, the client stops the task and reclaims the worker
+	 * running it, reporting a cancelled outcome in place of results
+	 * @param clientName The name of the client the task was dispatched to
+	 * @param taskID The ID of the task to cancel
+	 * @return True if the cancel message was sent, false if the client isn't connected or the message couldn't be sent*/
+	public boolean cancelTask(String clientName, String taskID)
+	{
+		ClientManager clientManager;//reference for the client's manager
+		synchronized(clients){//lock clients
+			clientManager = clients.get(clientName);//retrieve the client's manager
+		}//release clients
+		if(clientManager == null){//if the client isn't connected
+			log.log("Cannot cancel task, unknown client [" + clientName + "] " + taskID);//log that the client couldn't be found
+			return false;//return that the task couldn't be cancelled
+		}
+		try{//try to send the cancel message
+			clientManager.sendCancel(taskID);//send the cancel message to the client
+			log.log("Sent cancel request [" + clientName + "] " + taskID);//log that the cancel message was sent
+			return true;//return that the cancel message was sent
+		} catch(IOException ioException){//if the cancel message couldn't be sent
+			log.log("Failed to send cancel request [" + clientName + "] " + taskID);//log that the cancel message couldn't be sent
+			ioException.printStackTrace(log);//log the exception
+			return false;//return that the task couldn't be cancelled
+		}
 	}
 
 	//TODO
@@ -405,6 +1902,4 @@ public class Server extends Thread implements Closeable
 	{
 
 	}
-	
-	//TODO http://www.techrepublic.com/article/protect-your-network-traffic-using-javas-encryption-features/ USE ENCRYPTION
 }
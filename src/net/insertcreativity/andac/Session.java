@@ -0,0 +1,174 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**Class tracking one side of a client's session with the server, so that a client whose connection drops can pick up
+ * where it left off instead of having all it's work reassigned. Every sequenced message sent is numbered and kept in a
+ * bounded retransmit buffer until the other side acknowledges it, and every sequenced message received is checked
+ * against the last one received so replayed duplicates are dropped. When the client reconnects both sides exchange the
+ * last sequence number they received, and only the messages after that are replayed*/
+class Session
+{
+	/**How many sequenced messages are received before an acknowledgement is sent, unless one is sent sooner*/
+	private static final int ACK_INTERVAL = 16;
+	/**The most messages kept in the retransmit buffer*/
+	private final int maxMessages;
+	/**The most bytes of messages kept in the retransmit buffer*/
+	private final long maxBytes;
+	/**Queue of the sent messages that haven't been acknowledged yet, in order*/
+	private final ArrayDeque<Message> retransmit = new ArrayDeque<Message>();
+	/**How many bytes of messages are in the retransmit buffer*/
+	private long retransmitBytes = 0;
+	/**The session's unique ID*/
+	private String ID = UUID.randomUUID().toString();
+	/**The sequence number to give the next message sent*/
+	private long nextSequence = 1;
+	/**The highest sequence number that's been dropped from the retransmit buffer without being acknowledged, 0 if none
+	 * have been; the session can't be resumed by anyone who hasn't received at least this far*/
+	private long droppedThrough = 0;
+	/**The sequence number of the last message received*/
+	private long lastReceived = 0;
+	/**How many sequenced messages have been received since the last acknowledgement was sent*/
+	private int unacknowledged = 0;
+
+	/**Creates a new session
+	 * @param maxBufferedMessages The most sent messages to keep for retransmitting
+	 * @param maxBufferedBytes The most bytes of sent messages to keep for retransmitting*/
+	Session(int maxBufferedMessages, long maxBufferedBytes)
+	{
+		maxMessages = maxBufferedMessages;//set the retransmit message limit
+		maxBytes = maxBufferedBytes;//set the retransmit byte limit
+	}
+
+	/**Returns the session's unique ID
+	 * @return The session's ID*/
+	synchronized String getID()
+	{
+		return ID;//return the session's ID
+	}
+
+	/**Returns the sequence number of the last message received
+	 * @return The last sequence number received*/
+	synchronized long getLastReceived()
+	{
+		return lastReceived;//return the last sequence number received
+	}
+
+	/**Numbers a message being sent and keeps it for retransmitting. The message and any others sent on the session
+	 * should be transmitted while holding this session's lock so they go out in sequence order
+	 * @param type The message's type
+	 * @param body The message's body
+	 * @return The message's body prefixed with it's sequence number, which is what should be transmitted*/
+	synchronized byte[] record(byte type, byte[] body)
+	{
+		long sequence = nextSequence++;//assign the message's sequence number
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(body.length + 8);//create a byte array stream for writing the sequenced body into
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the sequence number
+		try{//try to write the sequenced body
+			dataOutputStream.writeLong(sequence);//write the sequence number
+			dataOutputStream.write(body);//write the body
+		} catch(IOException ioException){//this can't happen when writing to a byte array
+			throw new IllegalStateException(ioException);//except that something impossible happened
+		}
+		Message message = new Message(sequence, type, byteArrayOutputStream.toByteArray());//create the message
+		retransmit.add(message);//keep the message until it's acknowledged
+		retransmitBytes += message.body.length;//count the message's size
+		while((retransmit.size() > maxMessages) || (retransmitBytes > maxBytes)){//while the retransmit buffer is too large
+			Message dropped = retransmit.poll();//drop the oldest message
+			retransmitBytes -= dropped.body.length;//uncount it's size
+			droppedThrough = dropped.sequence;//the session can no longer be resumed from before this message
+		}
+		return message.body;//return the sequenced body
+	}
+
+	/**Records that the other side has received every message up to a sequence number, releasing them from the
+	 * retransmit buffer
+	 * @param sequence The last sequence number the other side received*/
+	synchronized void acknowledge(long sequence)
+	{
+		while(!retransmit.isEmpty() && (retransmit.peek().sequence <= sequence)){//while the oldest message has been received
+			retransmitBytes -= retransmit.poll().body.length;//release the message
+		}
+	}
+
+	/**Records that a sequenced message was received
+	 * @param sequence The message's sequence number
+	 * @return True if the message is new, false if it's a duplicate that was already received*/
+	synchronized boolean receive(long sequence)
+	{
+		if(sequence <= lastReceived){//if the message was already received
+			return false;//return that it's a duplicate
+		}
+		lastReceived = sequence;//record the message as received
+		unacknowledged++;//count it towards the next acknowledgement
+		return true;//return that it's new
+	}
+
+	/**Returns whether an acknowledgement should be sent now, resetting the count if so
+	 * @param urgent Whether the last message received should be acknowledged right away
+	 * @return True if an acknowledgement of the last sequence number received should be sent*/
+	synchronized boolean shouldAcknowledge(boolean urgent)
+	{
+		if((unacknowledged == 0) || (!urgent && (unacknowledged < ACK_INTERVAL))){//if there's no need to acknowledge yet
+			return false;//return that no acknowledgement is needed
+		}
+		unacknowledged = 0;//the acknowledgement covers everything received so far
+		return true;//return that an acknowledgement is needed
+	}
+
+	/**Attempts to resume the session after the other side reconnects
+	 * @param sessionID The ID of the session the other side is resuming
+	 * @param peerLastReceived The last sequence number the other side received
+	 * @return The messages that should be replayed in order, or null if the session can't be resumed*/
+	synchronized List<Message> resume(String sessionID, long peerLastReceived)
+	{
+		if(!ID.equals(sessionID) || (peerLastReceived < droppedThrough)){//if the session doesn't match or messages it missed were dropped
+			return null;//return that the session can't be resumed
+		}
+		acknowledge(peerLastReceived);//everything the other side received no longer needs to be kept
+		return new ArrayList<Message>(retransmit);//return everything after it for replaying
+	}
+
+	/**Starts a new session, forgetting everything about the old one
+	 * @return The messages from the old session that were never acknowledged, in order*/
+	synchronized List<Message> reset()
+	{
+		List<Message> lost = new ArrayList<Message>(retransmit);//copy the unacknowledged messages
+		retransmit.clear();//clear the retransmit buffer
+		retransmitBytes = 0;
+		ID = UUID.randomUUID().toString();//give the session a new ID
+		nextSequence = 1;//restart the sequence numbers
+		droppedThrough = 0;
+		lastReceived = 0;
+		unacknowledged = 0;
+		return lost;//return the unacknowledged messages
+	}
+
+	/**Class holding a single sent message that may need to be retransmitted*/
+	static class Message
+	{
+		/**The message's sequence number*/
+		final long sequence;
+		/**The message's type*/
+		final byte type;
+		/**The message's body, prefixed with it's sequence number*/
+		final byte[] body;
+
+		/**Creates a new message
+		 * @param messageSequence The message's sequence number
+		 * @param messageType The message's type
+		 * @param messageBody The message's body, prefixed with it's sequence number*/
+		private Message(long messageSequence, byte messageType, byte[] messageBody)
+		{
+			sequence = messageSequence;//set the message's sequence number
+			type = messageType;//set the message's type
+			body = messageBody;//set the message's body
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package net.insertcreativity.andac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**Class responsible for spotting straggling tasks on the server and deciding when to launch backup copies of them.
+ * A task is considered a straggler once it's been running longer than a multiple of the given percentile of it's task
+ * type's recent runtimes; each straggler gets at most one backup, the number of backups running at once is capped as a
+ * fraction of all running tasks, and whichever copy finishes first wins while the other is cancelled*/
+class SpeculationManager
+{
+	/**How many recent runtimes are kept for each task type*/
+	private static final int SAMPLE_SIZE = 256;
+	/**How many runtimes a task type needs before it's tasks can be considered stragglers*/
+	private static final int MIN_SAMPLES = 10;
+	/**Map of recent runtimes keyed by task type, guarded by this*/
+	private final HashMap<String, RuntimeSamples> runtimes = new HashMap<String, RuntimeSamples>();
+	/**Map of all the running tasks keyed by task ID, guarded by this*/
+	private final HashMap<String, RunningTask> running = new HashMap<String, RunningTask>();
+	/**The runtime percentile that a task's runtime is compared against, between 0 and 1*/
+	private final double percentile;
+	/**How many times longer than the percentile runtime a task must run to be considered a straggler*/
+	private final double slowdown;
+	/**The largest fraction of running tasks that can be backup copies at any one time*/
+	private final double maxBackupFraction;
+	/**How many backup copies are currently running*/
+	private int backupsRunning = 0;
+	/**How many backup copies have been launched in total*/
+	private long backupsLaunched = 0;
+	/**How many backup copies finished before the original*/
+	private long backupsWon = 0;
+	/**How many milliseconds of work were spent on copies that lost and were cancelled*/
+	private long wastedTime = 0;
+
+	/**Creates a new speculation manager
+	 * @param runtimePercentile The runtime percentile a task's runtime is compared against, between 0 and 1 (ie. 0.9)
+	 * @param slowdownFactor How many times longer than the percentile runtime a task must run to be a straggler (ie. 1.5)
+	 * @param backupFraction The largest fraction of running tasks that can be backup copies at once (ie. 0.1)*/
+	SpeculationManager(double runtimePercentile, double slowdownFactor, double backupFraction)
+	{
+		percentile = runtimePercentile;//set the runtime percentile
+		slowdown = slowdownFactor;//set the slowdown factor
+		maxBackupFraction = backupFraction;//set the backup limit
+	}
+
+	/**Records that a task has been dispatched to a client
+	 * @param taskID The ID of the task
+	 * @param taskType The type of the task, usually it's class name
+	 * @param client The name of the client the task was dispatched to*/
+	synchronized void started(String taskID, String taskType, String client)
+	{
+		running.put(taskID, new RunningTask(taskType, client, System.currentTimeMillis()));//store the running task
+	}
+
+	/**Finds all the running tasks that have become stragglers and should have a backup copy launched, marking each one
+	 * returned as having a backup, so the caller must either dispatch the backup or call backupFailed for it
+	 * @param idleClients How many clients are idle and could run a backup copy
+	 * @return A list of the IDs of the tasks that should have backup copies launched*/
+	synchronized List<String> findStragglers(int idleClients)
+	{
+		ArrayList<String> stragglers = new ArrayList<String>();//create a list for the stragglers
+		int allowed = (int)(running.size() * maxBackupFraction) - backupsRunning;//calculate how many more backups can be launched
+		allowed = Math.min(allowed, idleClients);//backups can only go to idle clients
+		if(allowed <= 0){//if no more backups can be launched
+			return stragglers;//return that there are no stragglers to back up
+		}
+		long now = System.currentTimeMillis();//store the current time
+		for(HashMap.Entry<String, RunningTask> entry : running.entrySet()){//iterate through all the running tasks
+			RunningTask task = entry.getValue();//get the running task
+			if(task.backupClient != null){//if the task already has a backup
+				continue;//skip the task
+			}
+			RuntimeSamples samples = runtimes.get(task.type);//get the recent runtimes of the task's type
+			if((samples == null) || (samples.count < MIN_SAMPLES)){//if there aren't enough runtimes to judge the task by
+				continue;//skip the task
+			}
+			if(now - task.startTime > samples.percentile(percentile) * slowdown){//if the task is running too long
+				task.backupClient = "";//mark the task as having a backup pending
+				backupsRunning++;//count the backup as running
+				stragglers.add(entry.getKey());//add the task to the stragglers
+				if(stragglers.size() >= allowed){//if no more backups can be launched
+					break;//stop looking for stragglers
+				}
+			}
+		}
+		return stragglers;//return the stragglers
+	}
+
+	/**Records that a backup copy of a straggler has been dispatched to a client
+	 * @param taskID The ID of the straggling task
+	 * @param client The name of the client the backup copy was dispatched to*/
+	synchronized void backupStarted(String taskID, String client)
+	{
+		RunningTask task = running.get(taskID);//get the running task
+		if(task != null){//if the task is still running
+			task.backupClient = client;//store which client is running the backup
+			task.backupStartTime = System.currentTimeMillis();//store when the backup started
+			backupsLaunched++;//count the backup as launched
+		}
+	}
+
+	/**Records that a backup copy of a straggler couldn't be dispatched, allowing it to be picked again later
+	 * @param taskID The ID of the straggling task*/
+	synchronized void backupFailed(String taskID)
+	{
+		RunningTask task = running.get(taskID);//get the running task
+		if((task != null) && (task.backupClient != null)){//if the task was marked as having a backup
+			if(!task.backupClient.isEmpty()){//if the backup was recorded as started before it failed
+				backupsLaunched--;//it never actually launched
+			}
+			task.backupClient = null;//unmark the task
+			backupsRunning--;//the backup is no longer running
+		}
+	}
+
+	/**Records that a copy of a task has finished, and determines which other copy, if any, should be cancelled. Only a
+	 * copy that completed wins the race and has it's runtime sampled; a copy that failed, timed out or was cancelled is
+	 * treated as abandoned, so if the other copy is still running it carries on as the task's only copy
+	 * @param taskID The ID of the task that finished
+	 * @param client The name of the client that finished the task
+	 * @param completed Whether the copy completed successfully
+	 * @return The name of the client running the other copy that should now be cancelled, an empty string if there's no
+	 *         other copy, or null if this copy's outcome should be discarded because another copy already finished or
+	 *         is still running after this one didn't complete*/
+	synchronized String finished(String taskID, String client, boolean completed)
+	{
+		if(!completed){//if the copy didn't complete
+			return (abandoned(taskID, client)? "" : null);//report it only if it was the task's last copy
+		}
+		RunningTask task = running.remove(taskID);//remove the task now that it's finished
+		if(task == null){//if the task already finished on another client
+			return null;//return that this copy is a duplicate
+		}
+		long now = System.currentTimeMillis();//store the current time
+		boolean backupWon = client.equals(task.backupClient);//store whether the backup copy finished first
+		long runtime = now - (backupWon? task.backupStartTime : task.startTime);//calculate how long the winning copy ran for
+		RuntimeSamples samples = runtimes.get(task.type);//get the recent runtimes of the task's type
+		if(samples == null){//if this is the first time the task's type has finished
+			samples = new RuntimeSamples();//create a new set of runtimes
+			runtimes.put(task.type, samples);//store the runtimes
+		}
+		samples.add(runtime);//record the task's runtime
+		if((task.backupClient == null) || task.backupClient.isEmpty()){//if the task never had a backup dispatched
+			if(task.backupClient != null){//if a backup was pending
+				backupsRunning--;//the backup will never run
+			}
+			return "";//there's nothing to cancel
+		}
+		backupsRunning--;//the backup is no longer running
+		if(backupWon){//if the backup copy finished first
+			backupsWon++;//count the backup as having won
+			wastedTime += now - task.startTime;//the original copy's work was wasted
+			return task.client;//cancel the original copy
+		}
+		wastedTime += now - task.backupStartTime;//the backup copy's work was wasted
+		return task.backupClient;//cancel the backup copy
+	}
+
+	/**Records that a copy of a task was abandoned without finishing, such as when it's client disconnected; if the task's
+	 * other copy is still running it carries on as the task's only copy
+	 * @param taskID The ID of the task
+	 * @param client The name of the client the copy was running on
+	 * @return True if no copy of the task is left running and it should be queued again, false if the other copy is
+	 *         still running or the task already finished*/
+	synchronized boolean abandoned(String taskID, String client)
+	{
+		RunningTask task = running.get(taskID);//get the running task
+		if(task == null){//if the task already finished on another client
+			return false;//there's nothing left to run
+		}
+		if(client.equals(task.backupClient)){//if the backup copy was abandoned
+			task.backupClient = null;//the original copy carries on without a backup
+			backupsRunning--;//the backup is no longer running
+			return false;//the original copy is still running
+		}
+		if((task.backupClient != null) && !task.backupClient.isEmpty()){//if the original copy was abandoned while a backup runs
+			running.put(taskID, new RunningTask(task.type, task.backupClient, task.backupStartTime));//make the backup the task's only copy
+			backupsRunning--;//it's no longer counted as a backup
+			return false;//the backup copy is still running
+		}
+		running.remove(taskID);//remove the task
+		if(task.backupClient != null){//if a backup was pending
+			backupsRunning--;//the backup is no longer tracked as running
+		}
+		return true;//the task has to be run again
+	}
+
+	/**Returns a summary of how much speculative work has been done, for including in the server's status
+	 * @return A string with the number of backups launched, how many won, and how much time was wasted on losing copies*/
+	synchronized String getStatus()
+	{
+		return "Speculation: launched=" + backupsLaunched + " won=" + backupsWon + " running=" + backupsRunning + " wasted=" + wastedTime + "ms";//return the speculation summary
+	}
+
+	/**Class holding a running task's dispatch details*/
+	private static class RunningTask
+	{
+		/**The type of the task*/
+		private final String type;
+		/**The name of the client running the original copy*/
+		private final String client;
+		/**When the original copy was dispatched*/
+		private final long startTime;
+		/**The name of the client running the backup copy, an empty string if one is pending, or null if there's no backup*/
+		private String backupClient = null;
+		/**When the backup copy was dispatched*/
+		private long backupStartTime = 0;
+
+		/**Creates a new running task
+		 * @param taskType The type of the task
+		 * @param taskClient The name of the client running the original copy
+		 * @param start When the original copy was dispatched*/
+		private RunningTask(String taskType, String taskClient, long start)
+		{
+			type = taskType;//set the task's type
+			client = taskClient;//set the task's client
+			startTime = start;//set when the task started
+		}
+	}
+
+	/**Class holding a ring of the most recent runtimes of a task type*/
+	private static class RuntimeSamples
+	{
+		/**Array of the most recent runtimes*/
+		private final long[] samples = new long[SAMPLE_SIZE];
+		/**How many runtimes have been recorded, capped at the sample size*/
+		private int count = 0;
+		/**Index of where the next runtime should be recorded*/
+		private int next = 0;
+
+		/**Records a new runtime, replacing the oldest one once the ring is full
+		 * @param runtime The runtime in milliseconds*/
+		private void add(long runtime)
+		{
+			samples[next] = runtime;//store the runtime
+			next = (next + 1) % SAMPLE_SIZE;//move to the next slot
+			count = Math.min(count + 1, SAMPLE_SIZE);//count the runtime
+		}
+
+		/**Calculates a percentile of the recorded runtimes
+		 * @param fraction The percentile to calculate, between 0 and 1
+		 * @return The runtime at the specified percentile*/
+		private long percentile(double fraction)
+		{
+			long[] sorted = Arrays.copyOf(samples, count);//copy the recorded runtimes
+			Arrays.sort(sorted);//sort the runtimes
+			return sorted[Math.min(count - 1, (int)(fraction * count))];//return the runtime at the percentile
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**Class that tracks a splittable task the server has divided up across it's clients, recording how the pieces fit
+ * together so their results can be merged back up into the original task's results as they arrive*/
+class SplitJob
+{
+	/**The node for the original task*/
+	private final Node root;
+	/**Map of the nodes for all the pieces that should be dispatched keyed by task ID, guarded by this*/
+	private final HashMap<String, Node> leaves = new HashMap<String, Node>();
+	/**When the task was split, in milliseconds*/
+	final long startTime = System.currentTimeMillis();
+
+	/**Creates a new split job by repeatedly splitting the largest piece of a task until there's a piece for every idle slot
+	 * in the cluster, or none of the pieces can be split any further
+	 * @param task The task to be split
+	 * @param idleSlots How many tasks the idle clients in the cluster could start right now
+	 * @param totalSlots How many tasks all the clients in the cluster can run at once*/
+	SplitJob(SplittableTask task, int idleSlots, int totalSlots)
+	{
+		root = new Node(task, null, 0);//create the node for the original task
+		int target = Math.max(1, Math.min(idleSlots, totalSlots));//split into as many pieces as can start right away
+		PriorityQueue<Node> pieces = new PriorityQueue<Node>(16, new Comparator<Node>(){//create a queue ordered from largest to smallest piece
+			public int compare(Node node1, Node node2)
+			{
+				return Long.compare(node2.task.getSize(), node1.task.getSize());//compare the sizes of the pieces
+			}
+		});
+		pieces.add(root);//start with the original task as the only piece
+		ArrayList<Node> unsplittable = new ArrayList<Node>();//list for pieces that can't be split any further
+		while(!pieces.isEmpty() && (pieces.size() + unsplittable.size() < target)){//while there are too few pieces
+			Node largest = pieces.poll();//take the largest piece
+			SplittableTask[] subtasks = (largest.task.canSplit()? largest.task.split(2) : null);//split the piece
+			if((subtasks == null) || (subtasks.length < 2)){//if the piece couldn't be split
+				unsplittable.add(largest);//set the piece aside
+				continue;
+			}
+			largest.children = new Node[subtasks.length];//allocate space for the piece's children
+			largest.results = new Serializable[subtasks.length][];//allocate space for the children's results
+			largest.remaining = subtasks.length;//none of the children have finished yet
+			for(int counter = 0; counter < subtasks.length; counter++){//iterate through the subtasks
+				largest.children[counter] = new Node(subtasks[counter], largest, counter);//create a node for the subtask
+				pieces.add(largest.children[counter]);//add the subtask as a piece
+			}
+		}
+		for(Node node : pieces){//iterate through the remaining pieces
+			leaves.put(node.task.ID, node);//store the piece as a leaf
+		}
+		for(Node node : unsplittable){//iterate through the unsplittable pieces
+			leaves.put(node.task.ID, node);//store the piece as a leaf
+		}
+	}
+
+	/**Returns the pieces of the task that should be dispatched to clients
+	 * @return A list of the tasks to dispatch*/
+	synchronized List<SplittableTask> getPieces()
+	{
+		ArrayList<SplittableTask> pieces = new ArrayList<SplittableTask>(leaves.size());//create a list for the pieces
+		for(Node node : leaves.values()){//iterate through the leaves
+			pieces.add(node.task);//add the leaf's task
+		}
+		return pieces;//return the pieces
+	}
+
+	/**Returns the ID of the original task this job was split from
+	 * @return The ID of the original task*/
+	String getID()
+	{
+		return root.task.ID;//return the original task's ID
+	}
+
+	/**Records the results of a piece, merging them upwards as each group of sibling pieces finishes
+	 * @param pieceID The ID of the piece that finished
+	 * @param results The results the piece produced
+	 * @return The merged results of the original task once every piece has finished, otherwise null*/
+	synchronized Serializable[] complete(String pieceID, Serializable[] results)
+	{
+		Node node = leaves.remove(pieceID);//remove the piece's node now that it's finished
+		if(node == null){//if the piece isn't part of this job or already finished
+			return null;//there's nothing to record
+		}
+		while(node.parent != null){//while the node has a parent to merge into
+			Node parent = node.parent;//get the node's parent
+			parent.results[node.index] = results;//store the node's results in the parent
+			if(--parent.remaining > 0){//if the parent's other children haven't all finished
+				return null;//wait for the rest of the children
+			}
+			results = parent.task.merge(parent.results);//merge the children's results into the parent's
+			parent.results = null;//release the children's results
+			node = parent;//move up to the parent
+		}
+		return results;//return the original task's results
+	}
+
+	/**Class representing a single piece in the tree of splits*/
+	private static class Node
+	{
+		/**The task this piece represents*/
+		private final SplittableTask task;
+		/**The node this piece was split from, null for the original task*/
+		private final Node parent;
+		/**The index of this piece among it's siblings*/
+		private final int index;
+		/**The pieces this was split into, null if it wasn't split*/
+		private Node[] children = null;
+		/**The results of each of this piece's children*/
+		private Serializable[][] results = null;
+		/**How many of this piece's children haven't finished yet*/
+		private int remaining = 0;
+
+		/**Creates a new node
+		 * @param nodeTask The task the piece represents
+		 * @param parentNode The node the piece was split from
+		 * @param nodeIndex The index of the piece among it's siblings*/
+		private Node(SplittableTask nodeTask, Node parentNode, int nodeIndex)
+		{
+			task = nodeTask;//set the piece's task
+			parent = parentNode;//set the piece's parent
+			index = nodeIndex;//set the piece's index
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import net.insertcreativity.util.LogPrinter;
+
+/**Extension of task for work that can be divided into smaller independent subtasks whose results can be merged back
+ * together. The server splits large tasks across it's idle clients, and clients split the pieces they receive further
+ * across their own cores*/
+public abstract class SplittableTask extends Task
+{
+	/**Serial ID for serializing this task across networks*/
+	private static final long serialVersionUID = 6048311916726485202L;
+
+	/**Creates a new splittable task with the specified ID and no time limit*/
+	public SplittableTask(String identifier)
+	{
+		super(identifier);//create the underlying task
+	}
+
+	/**Creates a new splittable task with the specified ID and time limit
+	 * @param identifier Unique string identifier for the task
+	 * @param limit How many milliseconds the task is allowed to process for, 0 if it has no time limit*/
+	public SplittableTask(String identifier, long limit)
+	{
+		super(identifier, limit);//create the underlying task
+	}
+
+	/**Returns an estimate of how much work this task represents, in whatever units suit the task (ie. sweep points)
+	 * @return The amount of work in this task*/
+	public abstract long getSize();
+
+	/**Divides this task into subtasks that together perform the same work, subtasks should be given IDs from subtaskID
+	 * @param parts How many subtasks this should be divided into, subtasks may return fewer if it can't be divided that far
+	 * @return An array of the subtasks*/
+	public abstract SplittableTask[] split(int parts);
+
+	/**Merges the results of this task's subtasks into the results this task would have produced on it's own
+	 * @param results The results of each subtask, in the same order as they were returned by split
+	 * @return The merged results*/
+	public abstract Serializable[] merge(Serializable[][] results);
+
+	/**Returns whether this task is large enough to be worth splitting
+	 * @return True if the task can be split, by default if it's size is greater than 1*/
+	public boolean canSplit()
+	{
+		return getSize() > 1;//tasks can be split until they're a single unit of work
+	}
+
+	/**Generates the ID for one of this task's subtasks
+	 * @param index The index of the subtask
+	 * @return The subtask's ID*/
+	protected final String subtaskID(int index)
+	{
+		return ID + "-" + index;//return the task's ID suffixed with the subtask's index
+	}
+
+	/**Processes this task by recursively splitting it in half across a fork/join pool and merging the results
+	 * @param log A log printer that the subtasks can use to log their activity to
+	 * @param args Array containing all the necessary input data to perform the task
+	 * @param pool The fork/join pool to run the subtasks on
+	 * @return An array of results generated by the task
+	 * @throws Exception If any of the subtasks fail to complete properly*/
+	final Serializable[] processParallel(LogPrinter log, Object[] args, ForkJoinPool pool) throws Exception
+	{
+		int depth = 32 - Integer.numberOfLeadingZeros(Math.max(pool.getParallelism() * 4 - 1, 1));//split until there's about 4 pieces per thread
+		try{//try to run the task on the pool
+			return pool.invoke(new Fork(this, this, log, args, depth));//run the task and return it's merged results
+		} catch(ForkException forkException){//if one of the subtasks failed
+			Throwable cause = forkException;//reference for unwrapping the subtask's exception
+			while(cause instanceof ForkException){//while the exception is still wrapped
+				cause = cause.getCause();//unwrap the exception
+			}
+			throw (Exception)cause;//propagate the subtask's exception
+		}
+	}
+
+	/**Fork/join task that splits a splittable task in half until it's reached it's depth, and then processes it*/
+	private static class Fork extends RecursiveTask<Serializable[]>
+	{
+		/**Serial ID for serializing this fork*/
+		private static final long serialVersionUID = -1794302624860768346L;
+		/**The task that the whole computation is running for, which is checked for cancellation*/
+		private final Task root;
+		/**The piece of the task this fork is responsible for*/
+		private final SplittableTask task;
+		/**The log printer that the task can log it's activity to*/
+		private final LogPrinter log;
+		/**The input data for the task*/
+		private final Object[] args;
+		/**How many more times this fork can split it's task*/
+		private final int depth;
+
+		/**Creates a new fork
+		 * @param rootTask The task that the whole computation is running for
+		 * @param forkTask The piece of the task this fork is responsible for
+		 * @param logPrinter The log printer that the task can log it's activity to
+		 * @param taskArgs The input data for the task
+		 * @param remainingDepth How many more times this fork can split it's task*/
+		private Fork(Task rootTask, SplittableTask forkTask, LogPrinter logPrinter, Object[] taskArgs, int remainingDepth)
+		{
+			root = rootTask;//set the root task
+			task = forkTask;//set the fork's task
+			log = logPrinter;//set the fork's log
+			args = taskArgs;//set the task's input data
+			depth = remainingDepth;//set the fork's remaining depth
+		}
+
+		/**Either splits this fork's task and runs the halves in parallel, or processes it directly
+		 * @return The results of this fork's task*/
+		protected Serializable[] compute()
+		{
+			if(root.isCancelled()){//if the whole computation was cancelled
+				throw new ForkException(new InterruptedException("Task cancelled: " + root.ID));//stop processing
+			}
+			SplittableTask[] halves = (((depth > 0) && task.canSplit())? task.split(2) : null);//split the task in half if it should be
+			if((halves == null) || (halves.length < 2)){//if the task wasn't split
+				try{//try to process the task
+					return task.process(log, args);//process the task directly
+				} catch(Exception exception){//if the task failed
+					throw new ForkException(exception);//propagate the exception through the pool
+				}
+			}
+			Fork[] forks = new Fork[halves.length];//allocate space for the forks of each piece
+			for(int counter = 0; counter < halves.length; counter++){//iterate through the pieces
+				forks[counter] = new Fork(root, halves[counter], log, args, depth - 1);//create a fork for the piece
+			}
+			invokeAll(forks);//run all the forks in parallel
+			Serializable[][] results = new Serializable[forks.length][];//allocate space for the results of each piece
+			for(int counter = 0; counter < forks.length; counter++){//iterate through the forks
+				results[counter] = forks[counter].join();//store the fork's results
+			}
+			return task.merge(results);//merge and return the results
+		}
+	}
+
+	/**Unchecked wrapper for carrying a subtask's exception out of the fork/join pool*/
+	private static class ForkException extends RuntimeException
+	{
+		/**Serial ID for serializing this exception*/
+		private static final long serialVersionUID = 3529840416402275171L;
+
+		/**Creates a new fork exception
+		 * @param cause The exception thrown by the subtask*/
+		private ForkException(Exception cause)
+		{
+			super(cause);//create the underlying exception
+		}
+	}
+}
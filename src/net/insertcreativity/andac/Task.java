@@ -13,11 +13,31 @@ public abstract class Task implements java.io.Serializable
 	private static final long serialVersionUID = -8857059140968619573L;
 	/**Unique string identifier for this specified task*/
 	public final String ID;
+	/**How many milliseconds this task is allowed to process for before it's cancelled, 0 if it has no time limit*/
+	public final long timeLimit;
+	/**Flag for whether or not this task has been cancelled, which the task should check periodically while processing*/
+	private transient volatile boolean cancelled = false;
+	/**Reference to the store that this task's checkpoints are saved to, null if checkpointing is disabled*/
+	private transient CheckpointStore checkpointStore = null;
+	/**The progress this task saved in it's last checkpoint before being re-dispatched, null if it's starting fresh*/
+	private transient Serializable lastCheckpoint = null;
 	
-	/**Creates a new task with the specified ID*/
+	/**Creates a new task with the specified ID and no time limit*/
 	public Task(String identifier)
 	{
+		this(identifier, 0);//create a task without a time limit
+	}
+	
+	/**Creates a new task with the specified ID and time limit
+	 * @param identifier Unique string identifier for the task
+	 * @param limit How many milliseconds the task is allowed to process for, 0 if it has no time limit*/
+	public Task(String identifier, long limit)
+	{
+		if(limit < 0){//if the time limit is negative
+			throw new IllegalArgumentException("Time limit cannot be negative: " + limit);//except that the time limit is invalid
+		}
 		ID = identifier;//set this tasks ID
+		timeLimit = limit;//set this task's time limit
 	}
 	
 	/**This method should encapsulate the actual work or functionality of the task, this is what's called by the worker threads
@@ -27,6 +47,85 @@ public abstract class Task implements java.io.Serializable
 	 * @throws Exception If the task fails to complete properly*/
 	public abstract Serializable[] process(LogPrinter log, Object[] args) throws Exception;
 	
+	/**Returns whether or not this task has been cancelled or has run past it's time limit; long running tasks should
+	 * check this periodically and return early once it's set, since their results will be discarded anyways
+	 * @return True if the task should stop processing, false otherwise*/
+	public final boolean isCancelled()
+	{
+		return cancelled;//return whether the task has been cancelled
+	}
+	
+	/**Convenience method for tasks to stop processing at a safe point if they've been cancelled
+	 * @throws InterruptedException If this task has been cancelled*/
+	protected final void checkCancelled() throws InterruptedException
+	{
+		if(cancelled){//if the task has been cancelled
+			throw new InterruptedException("Task cancelled: " + ID);//except that the task was cancelled
+		}
+	}
+	
+	/**Saves this task's progress so that if it's client fails, the task can be resumed from this point instead of
+	 * restarting; the checkpoint is written asynchronously, so the state must not be modified after it's passed in.
+	 * Checkpoints larger than the executor's size limit are rejected, and this does nothing if checkpointing is disabled
+	 * @param state The task's progress to be saved
+	 * @return True if the checkpoint was accepted, false otherwise*/
+	protected final boolean checkpoint(Serializable state)
+	{
+		CheckpointStore store = checkpointStore;//get the task's checkpoint store
+		if(store == null){//if checkpointing is disabled
+			return false;//return that the checkpoint wasn't saved
+		}
+		lastCheckpoint = state;//store the checkpoint as the task's latest progress
+		return store.save(ID, state);//queue the checkpoint to be saved
+	}
+	
+	/**Returns the progress this task saved in it's last checkpoint, which tasks should check at the start of processing
+	 * to resume from where they left off
+	 * @return The task's last checkpoint, or null if the task is starting fresh*/
+	protected final Serializable getCheckpoint()
+	{
+		return lastCheckpoint;//return the task's last checkpoint
+	}
+	
+	/**Attaches the store that this task's checkpoints should be saved to, this is called by the task executor
+	 * @param store The checkpoint store to save to, null to disable checkpointing
+	 * @param checkpoint The task's last saved checkpoint, null if it's starting fresh*/
+	final void attachCheckpoints(CheckpointStore store, Serializable checkpoint)
+	{
+		checkpointStore = store;//set the task's checkpoint store
+		lastCheckpoint = checkpoint;//set the task's last checkpoint
+	}
+	
+	/**Returns whether or not this task's results can be cached and reused for identical tasks; tasks should only opt in
+	 * if their results depend solely on their type, version and arguments
+	 * @return True if the task's results can be cached, false by default*/
+	public boolean isCacheable()
+	{
+		return false;//tasks aren't cached unless they opt in
+	}
+	
+	/**Returns the version of this task's implementation, which should be incremented whenever a change to the task's code
+	 * would change it's results, so that results cached from older versions aren't reused
+	 * @return The version of this task's implementation, 0 by default*/
+	public int getVersion()
+	{
+		return 0;//tasks are version 0 unless they specify otherwise
+	}
+	
+	/**Returns the names or content hashes of everything this task needs cached on a client to run, which the server
+	 * uses to prefer clients that already have them; tasks that use shared input data should add it's hashes to these
+	 * @return An array of the task's dependencies, containing only the task's class name by default*/
+	public String[] getDependencies()
+	{
+		return new String[] {getClass().getName()};//return the task's class as it's only dependency
+	}
+	
+	/**Marks this task as cancelled, this is called by the task executor and shouldn't be called by the task itself*/
+	final void cancel()
+	{
+		cancelled = true;//mark the task as cancelled
+	}
+	
 	/**Compares an object against this task for equality
 	 * @param object The object to compare against this task
 	 * @return True, only if the object is a task with the same ID as this one*/
@@ -37,4 +136,11 @@ public abstract class Task implements java.io.Serializable
 		}
 		return false;//return that they are false otherwise
 	}
+	
+	/**Generates a hash code for this task that's consistent with equals
+	 * @return The hash code of this task's ID*/
+	public final int hashCode()
+	{
+		return ID.hashCode();//return the hash of the task's ID
+	}
 }
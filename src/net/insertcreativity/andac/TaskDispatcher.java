@@ -0,0 +1,172 @@
+package net.insertcreativity.andac;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import net.insertcreativity.util.BloomFilter;
+
+/**Class responsible for deciding which client each task should be sent to, through a pluggable dispatch policy. The
+ * clients are kept in a copy-on-write snapshot so tasks can be dispatched without taking any lock; the snapshot is only
+ * copied when a client joins or leaves*/
+class TaskDispatcher
+{
+	/**Map of all the clients that can be dispatched to keyed by name, writes to it are guarded by this*/
+	private final ConcurrentHashMap<String, ClientRecord> clients = new ConcurrentHashMap<String, ClientRecord>();
+	/**Snapshot of every client that can be dispatched to, replaced whenever a client joins, leaves or changes it's cores*/
+	private volatile Snapshot snapshot = new Snapshot(new ClientRecord[0]);
+	/**The policy used for choosing which client each task goes to*/
+	private volatile DispatchPolicy policy = new DispatchPolicy.PowerOfTwoChoices();
+	/**How many times to ask the policy for a client before giving up, in case other threads claim the chosen clients' last slots*/
+	private static final int MAX_ATTEMPTS = 4;
+
+	/**Sets the policy used for choosing which client each task goes to
+	 * @param dispatchPolicy The policy to use*/
+	void setPolicy(DispatchPolicy dispatchPolicy)
+	{
+		policy = dispatchPolicy;//set the dispatch policy
+	}
+
+	/**Adds a client into the dispatcher, or updates it's capacity and core count if it's already been added
+	 * @param name The ANDAC name of the client
+	 * @param capacity How many tasks can be outstanding on the client at once
+	 * @param cores How many cores the client has
+	 * @return The client's record*/
+	synchronized ClientRecord register(String name, int capacity, int cores)
+	{
+		ClientRecord record = clients.get(name);//retrieve the client's existing record
+		if(record == null){//if this is a new client
+			record = new ClientRecord(name, capacity);//create a new record for the client
+			clients.put(name, record);//store the client's record
+		} else{//if the client was already added
+			record.capacity = capacity;//update the client's capacity
+		}
+		record.cores = Math.max(1, cores);//update the client's core count
+		snapshot = new Snapshot(clients.values().toArray(new ClientRecord[0]));//replace the snapshot with one including the client's new details
+		return record;//return the client's record
+	}
+
+	/**Stops sending tasks to a client until it advertises it's capacity again, while still counting the tasks it already
+	 * has outstanding
+	 * @param name The ANDAC name of the client*/
+	synchronized void pause(String name)
+	{
+		ClientRecord record = clients.get(name);//retrieve the client's record
+		if(record != null){//if the client was added
+			record.capacity = 0;//leave the client no free slots
+		}
+	}
+
+	/**Removes a client from the dispatcher so no more tasks are sent to it
+	 * @param name The ANDAC name of the client
+	 * @return The client's record, or null if it wasn't added*/
+	synchronized ClientRecord unregister(String name)
+	{
+		ClientRecord record = clients.remove(name);//remove the client's record
+		if(record != null){//if the client was added
+			snapshot = new Snapshot(clients.values().toArray(new ClientRecord[0]));//replace the snapshot with one excluding the client
+		}
+		return record;//return the client's record
+	}
+
+	/**Updates the summary of what a client has cached
+	 * @param name The ANDAC name of the client
+	 * @param summary The bloom filter the client advertised*/
+	void updateCacheSummary(String name, BloomFilter summary)
+	{
+		ClientRecord record = clients.get(name);//retrieve the client's record
+		if(record != null){//if the client was added
+			record.setCacheSummary(summary);//update the client's cache summary
+		}
+	}
+
+	/**Selects the client a task should be sent to using the dispatch policy, and claims one of it's slots. The selected
+	 * client is counted as having one more outstanding task, and as having cached the task's dependencies
+	 * @param dependencies The hashes or names of the task's class bundles and data
+	 * @return The record of the selected client, or null if every client is busy*/
+	ClientRecord dispatch(String[] dependencies)
+	{
+		for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++){//ask the policy up to the attempt limit
+			ClientRecord record = policy.select(snapshot, dependencies);//choose a client
+			if(record == null){//if every client is busy
+				return null;//return that no client is available
+			}
+			if(record.tryAcquire()){//if a slot was claimed on the client
+				record.addCached(dependencies);//the client will have the dependencies once it receives the task
+				return record;//return the selected client
+			}
+		}
+		return null;//return that no client could be claimed
+	}
+
+	/**Counts the clients that have room to start another task right away
+	 * @return How many clients are idle*/
+	int countIdle()
+	{
+		int idle = 0;//counter for how many clients are idle
+		for(ClientRecord record : snapshot.records){//iterate through the clients
+			if(record.isIdle()){//if the client has a free slot
+				idle++;//count the client
+			}
+		}
+		return idle;//return how many clients are idle
+	}
+
+	/**Counts how many more tasks the clients could start right now, and how many they can have outstanding in total
+	 * @return Array holding the free slots ([0]) and the total slots ([1])*/
+	int[] countSlots()
+	{
+		int[] slots = new int[2];//allocate space for the counts
+		for(ClientRecord record : snapshot.records){//iterate through the clients
+			slots[0] += Math.max(0, record.capacity - record.outstanding.get());//count the client's free slots
+			slots[1] += record.capacity;//count all the client's slots
+		}
+		return slots;//return the counts
+	}
+
+	/**Records that a task dispatched to a client is no longer outstanding, freeing up one of the client's slots
+	 * @param name The ANDAC name of the client
+	 * @param completed Whether the task completed on the client, rather than being taken back to send elsewhere*/
+	void finished(String name, boolean completed)
+	{
+		ClientRecord record = clients.get(name);//retrieve the client's record
+		if(record != null){//if the client was added
+			record.release(completed);//free the client's slot
+		}
+	}
+
+	/**Class holding an immutable snapshot of the clients, along with their running total of cores so that clients can be
+	 * sampled in proportion to their size*/
+	static final class Snapshot
+	{
+		/**Array of every client in the snapshot*/
+		final ClientRecord[] records;
+		/**Array of the total cores of every client up to and including each index*/
+		private final int[] cumulativeCores;
+
+		/**Creates a new snapshot of the clients
+		 * @param clients Array of every client that can be dispatched to*/
+		private Snapshot(ClientRecord[] clients)
+		{
+			records = clients;//set the snapshot's clients
+			cumulativeCores = new int[clients.length];//allocate space for the running totals
+			int total = 0;//counter for the total cores so far
+			for(int counter = 0; counter < clients.length; counter++){//iterate through the clients
+				total += clients[counter].cores;//add the client's cores
+				cumulativeCores[counter] = total;//store the running total
+			}
+		}
+
+		/**Picks a client at random, with each client's chance of being picked proportional to it's core count
+		 * @param random The random generator to use
+		 * @return The picked client, or null if there aren't any clients*/
+		ClientRecord sample(Random random)
+		{
+			if(records.length == 0){//if there aren't any clients
+				return null;//there's nothing to pick
+			}
+			int target = random.nextInt(cumulativeCores[records.length - 1]);//pick a random core
+			int index = Arrays.binarySearch(cumulativeCores, target + 1);//find the client that owns the core
+			return records[(index >= 0)? index : -index - 1];//return the client
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package net.insertcreativity.andac;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.insertcreativity.util.LogPrinter;
+
+/**Class responsible for running tasks on a pool of worker threads. Each task's time limit is enforced by a watchdog
+ * thread, and tasks can be cancelled at any point; a task that's been stopped is given a short grace period to notice
+ * it's been cancelled, after which it's worker thread is abandoned and replaced so that the pool never shrinks*/
+public class TaskExecutor implements Closeable
+{
+	/**Listener that gets notified of the outcome of every task submitted to a task executor*/
+	public interface OutcomeListener
+	{
+		/**Called exactly once for every submitted task, after it's completed, failed, timed out or been cancelled
+		 * @param outcome The outcome of the task*/
+		void taskFinished(TaskOutcome outcome);
+	}
+
+	/**How many milliseconds a stopped task is given to return on it's own before it's worker thread is abandoned*/
+	private static final long GRACE_PERIOD = 2000;
+	/**How many milliseconds the watchdog thread sleeps between checking on the running tasks*/
+	private static final long WATCHDOG_INTERVAL = 100;
+	/**Reference to the log printer that the executor and it's tasks should log their activity to*/
+	private final LogPrinter log;
+	/**Reference to the listener that should be notified of every task's outcome*/
+	private final OutcomeListener listener;
+	/**Queue of all the tasks that are waiting for a free worker*/
+	private final LinkedBlockingQueue<Assignment> queue = new LinkedBlockingQueue<Assignment>();
+	/**Map of all the queued and running tasks keyed by their IDs, also it's own lock*/
+	private final HashMap<String, Assignment> assignments = new HashMap<String, Assignment>();
+	/**Array of the worker threads currently in the pool, also it's own lock*/
+	private final Worker[] workers;
+	/**Reference to the watchdog thread that enforces time limits and reclaims stuck workers*/
+	private final Thread watchdog;
+	/**Pool that splittable tasks are split across so they can use all of this node's cores*/
+	private final ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	/**Reference to the cache that cacheable tasks' results are stored in, null if result caching is disabled*/
+	private volatile ResultCache resultCache = null;
+	/**Reference to the store that tasks' checkpoints are saved to, null if checkpointing is disabled*/
+	private volatile CheckpointStore checkpointStore = null;
+	/**Reference to the cache that broadcast datasets in tasks' arguments are fetched through, null if there isn't one*/
+	private volatile BroadcastCache broadcastCache = null;
+	/**Reference to the combiner that map tasks' results are folded into, null if raw results should always be reported*/
+	private volatile ResultCombiner resultCombiner = null;
+	/**Map of the accumulated metrics of each task type run by this executor keyed by type, also it's own lock*/
+	private final HashMap<String, TaskMetrics.Aggregate> aggregates = new HashMap<String, TaskMetrics.Aggregate>();
+	/**Counter used for naming new worker threads*/
+	private int workerCount = 0;
+	/**Flag for whether or not the executor should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new task executor and starts all it's threads
+	 * @param logPrinter The log printer that the executor and it's tasks should log their activity to
+	 * @param threadCount How many worker threads should be running tasks at once
+	 * @param outcomeListener The listener that should be notified of every task's outcome*/
+	public TaskExecutor(LogPrinter logPrinter, int threadCount, OutcomeListener outcomeListener)
+	{
+		log = logPrinter;//set the executor's log
+		listener = outcomeListener;//set the executor's outcome listener
+		workers = new Worker[threadCount];//allocate space for all the worker threads
+		synchronized(workers){//lock workers
+			for(int counter = 0; counter < threadCount; counter++){//iterate through the worker slots
+				workers[counter] = new Worker(counter);//create a new worker for the slot
+				workers[counter].start();//start the worker thread
+			}
+		}//release workers
+		watchdog = new Thread(new Runnable(){//create the watchdog thread
+			public void run()
+			{
+				watch();//run the watchdog loop
+			}
+		}, "TaskExecutor-Watchdog");
+		watchdog.setDaemon(true);//don't let the watchdog keep the JVM alive
+		watchdog.start();//start the watchdog thread
+		log.log("Started task executor with " + threadCount + " workers");//log that the executor was started
+	}
+
+	/**Queues a task to be run by the next available worker
+	 * @param task The task to be run
+	 * @param args Array containing all the input data the task needs
+	 * @throws IllegalStateException If the executor has been closed, or a task with the same ID is already queued or running*/
+	public void submit(Task task, Object[] args)
+	{
+		Assignment assignment = new Assignment(task, args);//create an assignment for the task
+		synchronized(assignments){//lock assignments
+			if(!keepRunning){//if the executor has already been closed
+				throw new IllegalStateException("Task executor is closed");//except that no more tasks can be submitted
+			}
+			if(assignments.containsKey(task.ID)){//if there's already a task with the same ID
+				throw new IllegalStateException("Task is already queued: " + task.ID);//except that the task is a duplicate
+			}
+			assignments.put(task.ID, assignment);//store the assignment
+		}//release assignments
+		queue.add(assignment);//queue the assignment for the workers
+	}
+
+	/**Cancels a queued or running task, a queued task is removed immediately while a running task is asked to stop
+	 * and has it's worker reclaimed if it doesn't stop within the grace period
+	 * @param taskID The ID of the task to cancel
+	 * @return True if the task was found and cancelled, false if it wasn't queued or running*/
+	public boolean cancel(String taskID)
+	{
+		Assignment assignment;//reference for the task's assignment
+		synchronized(assignments){//lock assignments
+			assignment = assignments.get(taskID);//retrieve the task's assignment
+		}//release assignments
+		if(assignment == null){//if the task isn't queued or running
+			return false;//return that there was nothing to cancel
+		}
+		log.log("Cancelling task: " + taskID);//log that the task is being cancelled
+		if(queue.remove(assignment)){//if the task hadn't been picked up by a worker yet
+			assignment.stop(TaskOutcome.Status.CANCELLED);//mark the task as cancelled
+			finish(assignment, null, null, false);//report the cancellation immediately
+		} else{//if the task is already running
+			assignment.stop(TaskOutcome.Status.CANCELLED);//ask the task to stop
+		}
+		return true;//return that the task was cancelled
+	}
+
+	/**Sets the cache that cacheable tasks should check for their results before running, and store their results in after
+	 * @param cache The result cache to use, or null to disable result caching*/
+	public void setResultCache(ResultCache cache)
+	{
+		resultCache = cache;//set the executor's result cache
+	}
+
+	/**Sets the store that tasks should save their checkpoints to and resume from
+	 * @param store The checkpoint store to use, or null to disable checkpointing*/
+	void setCheckpointStore(CheckpointStore store)
+	{
+		checkpointStore = store;//set the executor's checkpoint store
+	}
+
+	/**Sets the cache that broadcast datasets passed in tasks' arguments should be fetched through
+	 * @param cache The broadcast cache to use, or null if tasks aren't given broadcasts*/
+	public void setBroadcastCache(BroadcastCache cache)
+	{
+		broadcastCache = cache;//set the executor's broadcast cache
+	}
+
+	/**Sets the combiner that map tasks' results should be folded into, a map task whose results are combined is reported
+	 * with no results and it's combined flag set, since it's results are shipped in a partial aggregate instead
+	 * @param combiner The result combiner to use, or null to always report raw results*/
+	public void setResultCombiner(ResultCombiner combiner)
+	{
+		resultCombiner = combiner;//set the executor's result combiner
+	}
+
+	/**Returns a summary of what the tasks run by this executor have cost, with one line per task type, for including in
+	 * the node's status
+	 * @return A string containing the accumulated metrics of each task type*/
+	public String getStatus()
+	{
+		StringBuilder status = new StringBuilder();//create a builder for the status
+		synchronized(aggregates){//lock aggregates
+			for(HashMap.Entry<String, TaskMetrics.Aggregate> entry : aggregates.entrySet()){//iterate through the task types
+				status.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');//add the task type's metrics
+			}
+		}//release aggregates
+		return status.toString();//return the status
+	}
+
+	/**Retrieves the number of tasks that are currently queued or running
+	 * @return How many tasks haven't finished yet*/
+	public int pending()
+	{
+		synchronized(assignments){//lock assignments
+			return assignments.size();//return how many tasks haven't finished
+		}//release assignments
+	}
+
+	/**Reports the outcome of an assignment to the listener, only the first call for any given assignment has any effect
+	 * @param assignment The assignment that finished
+	 * @param results The results generated by the task, if any
+	 * @param exception The exception thrown by the task, if any
+	 * @param cached Whether the results were retrieved from the result cache*/
+	private void finish(Assignment assignment, Serializable[] results, Throwable exception, boolean cached)
+	{
+		if(!assignment.finished.compareAndSet(false, true)){//if the assignment's outcome was already reported
+			return;//do nothing
+		}
+		boolean lastForJob = true;//flag for whether this is the last of it's job's tasks on this node
+		synchronized(assignments){//lock assignments
+			assignments.remove(assignment.task.ID);//remove the finished assignment
+			if(assignment.task instanceof MapTask){//if the task is part of a job
+				String jobID = ((MapTask)assignment.task).jobID;//get the task's job
+				for(Assignment other : assignments.values()){//iterate through the unfinished assignments
+					if((other.task instanceof MapTask) && jobID.equals(((MapTask)other.task).jobID)){//if the assignment is part of the same job
+						lastForJob = false;//there are more of the job's tasks left
+						break;
+					}
+				}
+			}
+		}//release assignments
+		TaskOutcome.Status status = assignment.stopReason;//get the reason the task was stopped, if it was
+		if(status == null){//if the task wasn't stopped
+			status = ((exception == null)? TaskOutcome.Status.COMPLETED : TaskOutcome.Status.FAILED);//the task either completed or failed on it's own
+		} else{//if the task was stopped
+			results = null;//discard any results from the stopped task
+		}
+		if(assignment.metrics != null){//if the task's cost was measured
+			assignment.metrics.setResultBytes(TaskMetrics.measureResults(results));//measure the results before they're combined or shipped
+		}
+		boolean combined = false;//flag for whether the results were folded into an aggregate
+		ResultCombiner combiner = resultCombiner;//get the executor's result combiner
+		if((status == TaskOutcome.Status.COMPLETED) && (combiner != null) && (assignment.task instanceof MapTask) && (((MapTask)assignment.task).getCombiner() != null)){//if the results should be combined
+			try{//try to combine the results
+				combiner.add((MapTask)assignment.task, results, lastForJob);//fold the results into the job's aggregate
+				results = null;//the results will be shipped with the aggregate
+				combined = true;//mark the results as combined
+			} catch(Exception combineException){//if the results couldn't be combined
+				log.log("Failed to combine results for task: " + assignment.task.ID);//log that the results couldn't be combined
+				combineException.printStackTrace(log);//log the exception
+			}
+		}
+		long elapsed = ((assignment.startTime == 0)? 0 : (System.currentTimeMillis() - assignment.startTime));//calculate how long the task ran for
+		TaskOutcome outcome = new TaskOutcome(assignment.task.ID, status, results, exception, elapsed, cached, combined, assignment.metrics);//create the task's outcome
+		log.log("Task finished: " + outcome);//log the task's outcome
+		try{//try to notify the listener
+			listener.taskFinished(outcome);//report the outcome to the listener
+		} catch(Exception listenerException){//if the listener failed
+			log.log("Outcome listener failed for task: " + assignment.task.ID);//log that the listener failed
+			listenerException.printStackTrace(log);//log the exception
+		}
+		if(assignment.metrics != null){//if the task's cost was measured
+			TaskMetrics.Aggregate aggregate;//reference for the task type's aggregate
+			synchronized(aggregates){//lock aggregates
+				aggregate = aggregates.get(assignment.metrics.taskType);//retrieve the task type's aggregate
+				if(aggregate == null){//if this is the first task of it's type
+					aggregate = new TaskMetrics.Aggregate();//create a new aggregate
+					aggregates.put(assignment.metrics.taskType, aggregate);//store the aggregate
+				}
+			}//release aggregates
+			aggregate.add(assignment.metrics);//add the task's metrics
+		}
+	}
+
+	/**Runs the watchdog loop, which stops tasks that have run past their time limits, and abandons the workers of
+	 * stopped tasks that haven't returned by the end of their grace period*/
+	private void watch()
+	{
+		ArrayList<Assignment> running = new ArrayList<Assignment>();//list for holding a snapshot of the running tasks
+		while(keepRunning){//while the executor should continue running
+			try{//try to sleep until the next check
+				Thread.sleep(WATCHDOG_INTERVAL);//sleep between checks
+			} catch(InterruptedException interruptedException){//if the watchdog was interrupted
+				continue;//re-check whether the executor is still running
+			}
+			synchronized(assignments){//lock assignments
+				for(Assignment assignment : assignments.values()){//iterate through all the unfinished assignments
+					if(assignment.worker != null){//if the assignment is running
+						running.add(assignment);//add it to the snapshot
+					}
+				}
+			}//release assignments
+			long now = System.currentTimeMillis();//store the current time
+			for(Assignment assignment : running){//iterate through all the running assignments
+				if(assignment.stopReason == null){//if the task hasn't been stopped yet
+					if((assignment.task.timeLimit > 0) && (now - assignment.startTime >= assignment.task.timeLimit)){//if the task has run past it's time limit
+						log.log("Task exceeded it's time limit of " + assignment.task.timeLimit + "ms: " + assignment.task.ID);//log that the task timed out
+						assignment.stop(TaskOutcome.Status.TIMED_OUT);//ask the task to stop
+					}
+				} else if(now - assignment.stopTime >= GRACE_PERIOD){//if the stopped task hasn't returned within it's grace period
+					abandon(assignment);//abandon the task's worker
+				}
+			}
+			running.clear();//clear the snapshot for the next check
+		}
+	}
+
+	/**Reports a stopped assignment as finished and replaces the worker thread it's stuck on with a fresh one
+	 * @param assignment The assignment whose worker should be abandoned*/
+	private void abandon(Assignment assignment)
+	{
+		Worker worker = assignment.worker;//get the worker the assignment is stuck on
+		if((worker == null) || assignment.finished.get()){//if the task returned or was reported since the snapshot was taken
+			return;//the worker isn't stuck on it anymore
+		}
+		log.log("Task ignored cancellation, abandoning worker: " + worker.getName());//log that the worker is being abandoned
+		finish(assignment, null, null, false);//report the stopped task's outcome
+		synchronized(workers){//lock workers
+			if((!worker.abandoned) && (workers[worker.slot] == worker) && keepRunning){//if the worker hasn't already been replaced
+				worker.abandoned = true;//mark the old worker as abandoned so it exits once the task returns
+				workers[worker.slot] = new Worker(worker.slot);//create a new worker in it's place
+				workers[worker.slot].start();//start the new worker thread
+			}
+		}//release workers
+	}
+
+	/**Closes the executor, cancelling all queued tasks and asking all running tasks to stop*/
+	public void close()
+	{
+		log.log("Closing task executor");//log that the executor is closing
+		keepRunning = false;//set that the executor should stop running
+		ArrayList<Assignment> remaining;//list for holding all the unfinished assignments
+		synchronized(assignments){//lock assignments
+			remaining = new ArrayList<Assignment>(assignments.values());//copy all the unfinished assignments
+		}//release assignments
+		for(Assignment assignment : remaining){//iterate through all the unfinished assignments
+			queue.remove(assignment);//remove the assignment if it's still queued
+			assignment.stop(TaskOutcome.Status.CANCELLED);//stop the assignment
+			finish(assignment, null, null, false);//report the assignment as cancelled
+		}
+		synchronized(workers){//lock workers
+			for(Worker worker : workers){//iterate through all the workers
+				worker.interrupt();//interrupt the worker so it notices the executor closed
+			}
+		}//release workers
+		watchdog.interrupt();//interrupt the watchdog so it notices the executor closed
+		forkJoinPool.shutdown();//stop accepting new splittable tasks
+	}
+
+	/**Class that pairs a task with it's input data and tracks it's progress through the executor*/
+	private static class Assignment
+	{
+		/**The task being run*/
+		private final Task task;
+		/**The input data the task should be run with*/
+		private final Object[] args;
+		/**Flag for whether the assignment's outcome has been reported yet*/
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		/**Reference to the worker running this assignment, null while it's still queued and once it's task returns,
+		 * guarded by this for writes*/
+		private volatile Worker worker = null;
+		/**Flag for whether the assignment's task has returned from it's worker, guarded by this*/
+		private boolean returned = false;
+		/**The time when the task started running, 0 while it's still queued*/
+		private volatile long startTime = 0;
+		/**The reason the task was stopped, null unless it was cancelled or timed out*/
+		private volatile TaskOutcome.Status stopReason = null;
+		/**The time when the task was stopped*/
+		private volatile long stopTime = 0;
+		/**What running the task cost, null until it's finished running on a worker*/
+		private volatile TaskMetrics metrics = null;
+
+		/**Creates a new assignment
+		 * @param assignedTask The task to be run
+		 * @param taskArgs The input data the task should be run with*/
+		private Assignment(Task assignedTask, Object[] taskArgs)
+		{
+			task = assignedTask;//set the assignment's task
+			args = taskArgs;//set the task's input data
+		}
+
+		/**Stops the assignment, flagging it's task as cancelled and interrupting it's worker; does nothing once the task has
+		 * returned or the assignment has been reported, so a late stop can't relabel a finished task or interrupt whatever
+		 * it's worker runs next
+		 * @param reason Why the assignment is being stopped*/
+		private synchronized void stop(TaskOutcome.Status reason)
+		{
+			if((stopReason != null) || returned || finished.get()){//if the assignment was already stopped or is done
+				return;//keep the original outcome
+			}
+			stopTime = System.currentTimeMillis();//store when the assignment was stopped
+			stopReason = reason;//store why the assignment was stopped
+			task.cancel();//flag the task as cancelled
+			Worker current = worker;//get the worker running the assignment
+			if(current != null){//if the assignment is running
+				current.interrupt();//interrupt the worker in case the task is blocked
+			}
+		}
+
+		/**Marks the assignment's task as having returned and detaches it from it's worker, which must be called by the
+		 * worker before it clears it's interrupt and takes it's next assignment*/
+		private synchronized void returned()
+		{
+			returned = true;//mark the task as returned
+			worker = null;//the worker is free to run another assignment
+		}
+	}
+
+	/**Worker thread that takes assignments off the queue and runs them until the executor closes or it's abandoned*/
+	private class Worker extends Thread
+	{
+		/**The index of this worker in the worker array*/
+		private final int slot;
+		/**Flag for whether this worker has been replaced and should exit once it's current task returns*/
+		private volatile boolean abandoned = false;
+
+		/**Creates a new worker thread for the specified slot
+		 * @param workerSlot The index of the worker in the worker array*/
+		private Worker(int workerSlot)
+		{
+			super("TaskExecutor-Worker-" + (workerCount++));//name the worker thread
+			slot = workerSlot;//set the worker's slot
+			setDaemon(true);//don't let a stuck task keep the JVM alive
+		}
+
+		/**Runs the worker loop, which takes assignments off the queue and processes them*/
+		public void run()
+		{
+			while(keepRunning && !abandoned){//while the worker should continue running
+				Assignment assignment;//reference for the next assignment
+				try{//try to take the next assignment
+					assignment = queue.take();//block until an assignment is available
+				} catch(InterruptedException interruptedException){//if the worker was interrupted while waiting
+					continue;//re-check whether the worker should keep running
+				}
+				synchronized(assignment){//lock assignment.worker, assignment.stopReason
+					assignment.startTime = System.currentTimeMillis();//store when the task started running
+					assignment.worker = this;//mark this worker as running the assignment
+				}//release assignment.worker, assignment.stopReason
+				Serializable[] results = null;//reference for the task's results
+				Throwable exception = null;//reference for any exception the task throws
+				ResultCache cache = (assignment.task.isCacheable()? resultCache : null);//get the result cache if the task can be cached
+				String key = null;//reference for the task's cache key
+				if(cache != null){//if the task's results might be cached
+					try{//try to look up the task's results
+						key = ResultCache.key(assignment.task, assignment.args);//generate the task's cache key
+						results = cache.get(key);//retrieve the task's cached results
+					} catch(IOException ioException){//if the task's cache key couldn't be generated
+						log.log("Failed to generate cache key for task: " + assignment.task.ID);//log that the task can't be cached
+						ioException.printStackTrace(log);//log the exception
+					}
+					if(results != null){//if the task's results were cached
+						assignment.returned();//detach the assignment from this worker
+						Thread.interrupted();//clear any interrupt from stopping the assignment
+						finish(assignment, results, null, true);//report the cached results without running the task
+						continue;//move on to the next assignment
+					}
+				}
+				BroadcastCache broadcasts = broadcastCache;//get the executor's broadcast cache
+				if((broadcasts != null) && (assignment.args != null)){//if the task might have been given broadcasts
+					for(Object arg : assignment.args){//iterate through the task's arguments
+						if(arg instanceof Broadcast){//if the argument is a broadcast
+							((Broadcast)arg).bind(broadcasts);//let the task fetch it's dataset through the cache
+						}
+					}
+				}
+				CheckpointStore checkpoints = checkpointStore;//get the executor's checkpoint store
+				if(checkpoints != null){//if checkpointing is enabled
+					assignment.task.attachCheckpoints(checkpoints, checkpoints.load(assignment.task.ID));//attach the store and the task's last checkpoint
+				}
+				if(assignment.stopReason == null){//if the task wasn't stopped before it could start
+					long wallStart = System.nanoTime();//store the wall time before the task runs
+					long cpuStart = TaskMetrics.currentCpuTime();//store the thread's CPU time before the task runs
+					long allocatedStart = TaskMetrics.currentAllocatedBytes();//store the thread's allocation before the task runs
+					try{//try to process the task
+						if((assignment.task instanceof SplittableTask) && (forkJoinPool.getParallelism() > 1)){//if the task can be split across this node's cores
+							results = ((SplittableTask)assignment.task).processParallel(log, assignment.args, forkJoinPool);//process the task in parallel
+						} else{//if the task should be processed on a single thread
+							results = assignment.task.process(log, assignment.args);//process the task
+						}
+					} catch(Throwable throwable){//if the task failed
+						exception = throwable;//store the exception
+					}
+					long cpuEnd = TaskMetrics.currentCpuTime();//store the thread's CPU time after the task ran
+					long allocatedEnd = TaskMetrics.currentAllocatedBytes();//store the thread's allocation after the task ran
+					assignment.metrics = new TaskMetrics(assignment.task.getClass().getName(), System.nanoTime() - wallStart, (((cpuStart < 0) || (cpuEnd < 0))? -1 : (cpuEnd - cpuStart)), (((allocatedStart < 0) || (allocatedEnd < 0))? -1 : (allocatedEnd - allocatedStart)));//store what the task cost
+				}
+				assignment.returned();//detach the assignment from this worker, so it can't be stopped or interrupted anymore
+				Thread.interrupted();//clear any interrupt left over from stopping the task
+				if((broadcasts != null) && (assignment.args != null)){//if the task might have been given broadcasts
+					for(Object arg : assignment.args){//iterate through the task's arguments
+						if(arg instanceof Broadcast){//if the argument is a broadcast
+							((Broadcast)arg).release();//let the cache evict any dataset files the task held
+						}
+					}
+				}
+				if((key != null) && (results != null) && (exception == null) && (assignment.stopReason == null)){//if the task completed and can be cached
+					cache.put(key, results);//store the task's results in the cache
+				}
+				if((checkpoints != null) && (exception == null) && (assignment.stopReason == null)){//if the task completed
+					checkpoints.discard(assignment.task.ID);//the task's checkpoints are no longer needed
+				}
+				finish(assignment, results, exception, false);//report the task's outcome
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package net.insertcreativity.andac;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**Class recording what a single task's execution cost, in wall time, CPU time, allocated memory, and the size of the
+ * results it produced. CPU time and allocation are only measured on the worker thread, so work a splittable task does
+ * on the fork/join pool isn't included in them*/
+public class TaskMetrics implements Serializable
+{
+	/**Serial ID for serializing task metrics across networks*/
+	private static final long serialVersionUID = 7417206525342001853L;
+	/**Reference to the JVM's thread bean, for measuring thread CPU time and allocation*/
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+	/**The type of the task these metrics are for*/
+	public final String taskType;
+	/**How many nanoseconds of wall time the task took*/
+	public final long wallTime;
+	/**How many nanoseconds of CPU time the task's thread used, -1 if it couldn't be measured*/
+	public final long cpuTime;
+	/**How many bytes the task's thread allocated, -1 if it couldn't be measured*/
+	public final long allocatedBytes;
+	/**How many bytes the task's serialized results took up, -1 if it didn't produce any or they couldn't be serialized*/
+	private volatile long resultBytes = -1;
+
+	/**Creates a new set of task metrics
+	 * @param type The type of the task
+	 * @param wall How many nanoseconds of wall time the task took
+	 * @param cpu How many nanoseconds of CPU time the task's thread used
+	 * @param allocated How many bytes the task's thread allocated*/
+	TaskMetrics(String type, long wall, long cpu, long allocated)
+	{
+		taskType = type;//set the task's type
+		wallTime = wall;//set the task's wall time
+		cpuTime = cpu;//set the task's CPU time
+		allocatedBytes = allocated;//set the task's allocation
+	}
+
+	/**Returns how many bytes the task's serialized results took up
+	 * @return The size of the task's results, or -1 if it has none or they couldn't be serialized*/
+	public long getResultBytes()
+	{
+		return resultBytes;//return the size of the results
+	}
+
+	/**Sets how many bytes the task's serialized results took up, this is called by the executor when the task's outcome
+	 * is built
+	 * @param bytes The size of the task's results*/
+	void setResultBytes(long bytes)
+	{
+		resultBytes = bytes;//set the size of the results
+	}
+
+	/**Measures how many bytes a task's results take up when serialized the way they're uploaded, without keeping the
+	 * serialized bytes around
+	 * @param results The task's results
+	 * @return The size of the serialized results, or -1 if there are none or they couldn't be serialized*/
+	static long measureResults(Serializable[] results)
+	{
+		if(results == null){//if the task produced no results
+			return -1;//there's nothing to measure
+		}
+		final long[] size = new long[1];//counter for how many bytes were written
+		try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(new OutputStream(){//create a stream that counts everything written to it
+			public void write(int b)
+			{
+				size[0]++;//count the byte
+			}
+
+			public void write(byte[] b, int off, int len)
+			{
+				size[0] += len;//count the bytes
+			}
+		})){
+			for(Serializable result : results){//iterate through all the results
+				objectOutputStream.writeObject(result);//write the result
+			}
+		} catch(IOException ioException){//if the results couldn't be serialized
+			return -1;//return that they couldn't be measured
+		}
+		return size[0];//return the size of the results
+	}
+
+	/**Returns the CPU time the current thread has used so far
+	 * @return How many nanoseconds of CPU time the current thread has used, or -1 if it can't be measured*/
+	static long currentCpuTime()
+	{
+		try{//try to measure the thread's CPU time
+			return (THREAD_BEAN.isCurrentThreadCpuTimeSupported()? THREAD_BEAN.getCurrentThreadCpuTime() : -1);//return the thread's CPU time
+		} catch(UnsupportedOperationException unsupportedOperationException){//if CPU time measurement is disabled
+			return -1;//return that it couldn't be measured
+		}
+	}
+
+	/**Returns how many bytes the current thread has allocated so far
+	 * @return How many bytes the current thread has allocated, or -1 if it can't be measured*/
+	static long currentAllocatedBytes()
+	{
+		if(!(THREAD_BEAN instanceof com.sun.management.ThreadMXBean)){//if the JVM doesn't support measuring allocation
+			return -1;//return that it couldn't be measured
+		}
+		try{//try to measure the thread's allocation
+			return ((com.sun.management.ThreadMXBean)THREAD_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());//return the thread's allocation
+		} catch(UnsupportedOperationException unsupportedOperationException){//if allocation measurement is disabled
+			return -1;//return that it couldn't be measured
+		}
+	}
+
+	/**Formats these metrics as lines of 'key=value' pairs, for storing next to the task's results
+	 * @return A string containing the metrics*/
+	public String toString()
+	{
+		return "type=" + taskType + "\nwallNanos=" + wallTime + "\ncpuNanos=" + cpuTime + "\nallocatedBytes=" + allocatedBytes + "\nresultBytes=" + resultBytes + "\n";//return the formatted metrics
+	}
+
+	/**Class accumulating the metrics of every task of one type that ran on a node*/
+	static class Aggregate
+	{
+		/**How many tasks have been recorded*/
+		private long count = 0;
+		/**The total wall time of the tasks in nanoseconds*/
+		private long totalWall = 0;
+		/**The longest wall time of any task in nanoseconds*/
+		private long maxWall = 0;
+		/**The total CPU time of the tasks in nanoseconds*/
+		private long totalCpu = 0;
+		/**The total bytes allocated by the tasks*/
+		private long totalAllocated = 0;
+		/**The total bytes of results produced by the tasks*/
+		private long totalResultBytes = 0;
+
+		/**Adds a task's metrics into the aggregate
+		 * @param metrics The task's metrics*/
+		synchronized void add(TaskMetrics metrics)
+		{
+			count++;//count the task
+			totalWall += metrics.wallTime;//add the task's wall time
+			maxWall = Math.max(maxWall, metrics.wallTime);//update the longest wall time
+			totalCpu += Math.max(metrics.cpuTime, 0);//add the task's CPU time
+			totalAllocated += Math.max(metrics.allocatedBytes, 0);//add the task's allocation
+			totalResultBytes += Math.max(metrics.resultBytes, 0);//add the task's result size
+		}
+
+		/**Formats the aggregate as a single line of averages and totals, for including in the node's status
+		 * @return A string summarizing the aggregate*/
+		public synchronized String toString()
+		{
+			long divisor = Math.max(count, 1);//store what to divide by for averages, avoiding dividing by 0
+			return "count=" + count + " avgWallMs=" + (totalWall / divisor / 1000000) + " maxWallMs=" + (maxWall / 1000000) + " avgCpuMs=" + (totalCpu / divisor / 1000000) + " avgAllocatedBytes=" + (totalAllocated / divisor) + " totalResultBytes=" + totalResultBytes;//return the summary
+		}
+	}
+}
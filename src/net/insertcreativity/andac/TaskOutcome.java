@@ -0,0 +1,71 @@
+package net.insertcreativity.andac;
+
+import java.io.Serializable;
+
+/**Class representing how a task's execution ended, carrying either the results the task generated, or the reason why
+ * no results were produced. This is what gets reported back to the server in place of raw results*/
+public class TaskOutcome implements Serializable
+{
+	/**Serial ID for serializing task outcomes across networks*/
+	private static final long serialVersionUID = 4370851602219841365L;
+
+	/**Enumeration of all the ways a task's execution can end*/
+	public enum Status
+	{
+		/**The task finished processing and returned it's results*/
+		COMPLETED,
+		/**The task threw an exception while processing*/
+		FAILED,
+		/**The task ran past it's time limit and was stopped*/
+		TIMED_OUT,
+		/**The task was cancelled before it could finish*/
+		CANCELLED
+	}
+
+	/**The ID of the task this is the outcome of*/
+	public final String taskID;
+	/**How the task's execution ended*/
+	public final Status status;
+	/**The results generated by the task, null unless the task completed*/
+	public final Serializable[] results;
+	/**The exception thrown by the task, null unless the task failed*/
+	public final Throwable exception;
+	/**How many milliseconds the task was running for before it ended*/
+	public final long elapsedTime;
+	/**Flag for whether the results were retrieved from the result cache instead of being computed, so a listener that
+	 * already uploaded the results under the task's name can skip uploading them again*/
+	public final boolean cached;
+	/**Flag for whether the results were folded into a partial aggregate for the task's job, in which case they're
+	 * shipped with the aggregate instead of on their own*/
+	public final boolean combined;
+	/**What running the task cost, null if the task never ran on a worker*/
+	public final TaskMetrics metrics;
+
+	/**Creates a new task outcome
+	 * @param id The ID of the task this is the outcome of
+	 * @param outcomeStatus How the task's execution ended
+	 * @param taskResults The results generated by the task, null unless the task completed
+	 * @param taskException The exception thrown by the task, null unless the task failed
+	 * @param elapsed How many milliseconds the task was running for before it ended
+	 * @param fromCache Whether the results were retrieved from the result cache
+	 * @param intoAggregate Whether the results were folded into a partial aggregate
+	 * @param taskMetrics What running the task cost, null if it never ran*/
+	TaskOutcome(String id, Status outcomeStatus, Serializable[] taskResults, Throwable taskException, long elapsed, boolean fromCache, boolean intoAggregate, TaskMetrics taskMetrics)
+	{
+		taskID = id;//set the task's ID
+		status = outcomeStatus;//set how the task ended
+		results = taskResults;//set the task's results
+		exception = taskException;//set the task's exception
+		elapsedTime = elapsed;//set how long the task was running for
+		cached = fromCache;//set whether the results came from the cache
+		combined = intoAggregate;//set whether the results went into an aggregate
+		metrics = taskMetrics;//set the task's metrics
+	}
+
+	/**Returns a short human readable summary of this outcome for logging
+	 * @return A string containing the task's ID, status and running time*/
+	public String toString()
+	{
+		return taskID + ":" + status + (cached? " (cached)" : (" (" + elapsedTime + "ms)"));//return the outcome's summary
+	}
+}
@@ -0,0 +1,210 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Class that holds uploads on disk while the host's network is off, so they can be synced in bulk once it's back. Each
+ * upload is stored in a file named by the hash of it's remote path, so queueing a second upload to the same path
+ * replaces the first and only the latest copy of a status or checkpoint is ever sent. Every stored upload carries a version, which
+ * lets a sync remove exactly the copy it sent without losing a newer one queued in the meantime*/
+class UploadJournal
+{
+	/**Extension given to stored uploads*/
+	private static final String EXTENSION = ".upload";
+	/**Extension given to uploads while they're being written, before they're moved into place*/
+	private static final String TEMP_EXTENSION = ".tmp";
+	/**Reference to the directory uploads are stored in*/
+	private final File directory;
+	/**Counter for the versions given to stored uploads, started from the clock so they keep increasing across restarts*/
+	private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+
+	/**Creates a new upload journal, deleting any uploads that were still being written when the host last stopped; those
+	 * were never reported as stored, so whoever queued them didn't count on them
+	 * @param journalDirectory The directory to store uploads in
+	 * @throws IOException If the directory couldn't be created*/
+	UploadJournal(File journalDirectory) throws IOException
+	{
+		directory = journalDirectory;//set the journal's directory
+		if(!directory.isDirectory() && !directory.mkdirs()){//if the journal directory doesn't exist and couldn't be created
+			throw new IOException("Failed to create upload journal directory: " + directory.getAbsolutePath());//except that the directory couldn't be created
+		}
+		File[] files = directory.listFiles();//list the journal's files
+		if(files != null){//if the directory could be listed
+			for(File file : files){//iterate through the files
+				if(file.getName().endsWith(TEMP_EXTENSION)){//if the file is an upload that was never finished being written
+					file.delete();//delete the partial upload
+				}
+			}
+		}
+	}
+
+	/**Stores an upload, replacing any upload to the same path that hasn't been synced yet
+	 * @param remotePath The path to upload to in the master database
+	 * @param data The data to upload, or null to upload a local file as it is when it's synced
+	 * @param localPath The path of the local file to upload if data is null
+	 * @param overwrite Whether the upload should replace the remote file rather than be added next to it
+	 * @throws IOException If the upload couldn't be stored*/
+	synchronized void queue(String remotePath, byte[] data, String localPath, boolean overwrite) throws IOException
+	{
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a byte array stream for writing the upload into
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);//wrap it for writing the upload's fields
+		dataOutputStream.writeLong(versions.incrementAndGet());//write the upload's version
+		dataOutputStream.writeUTF(remotePath);//write where the upload goes
+		dataOutputStream.writeBoolean(overwrite);//write whether the upload replaces the remote file
+		dataOutputStream.writeBoolean(data == null);//write whether the upload is of a local file
+		if(data == null){//if a local file should be uploaded
+			dataOutputStream.writeUTF(localPath);//write the file's path
+		} else{//if data should be uploaded
+			dataOutputStream.write(data);//write the data
+		}
+		File file = fileOf(remotePath);//create a reference to the upload's file
+		File temp = new File(directory, file.getName() + TEMP_EXTENSION);//create a reference to a temporary file to write into first
+		try{//try to store the upload
+			try(FileOutputStream fileOutputStream = new FileOutputStream(temp)){//create a stream for writing the temporary file
+				fileOutputStream.write(byteArrayOutputStream.toByteArray());//write the upload
+				fileOutputStream.getFD().sync();//ensure the upload is on disk before replacing the old one
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);//replace any older upload to the same path in one step, so a crash never leaves neither
+		} catch(IOException ioException){//if the upload couldn't be stored
+			temp.delete();//delete any partially written upload
+			throw ioException;//pass on that the upload couldn't be stored
+		}
+	}
+
+	/**Lists every stored upload, oldest first
+	 * @return List of the uploads' files*/
+	synchronized List<File> pending()
+	{
+		File[] files = directory.listFiles();//list the journal's files
+		ArrayList<File> uploads = new ArrayList<File>();//create a list for the uploads
+		if(files != null){//if the directory could be listed
+			for(File file : files){//iterate through the files
+				if(file.getName().endsWith(EXTENSION)){//if the file is a stored upload
+					uploads.add(file);//add it to the list
+				}
+			}
+		}
+		uploads.sort(new Comparator<File>(){//sort the uploads by age
+			public int compare(File first, File second)
+			{
+				return Long.compare(first.lastModified(), second.lastModified());//compare the uploads' ages
+			}
+		});
+		return uploads;//return the uploads
+	}
+
+	/**Checks whether there are any uploads waiting to be synced
+	 * @return True if the journal is empty*/
+	synchronized boolean isEmpty()
+	{
+		return pending().isEmpty();//return whether there are any uploads
+	}
+
+	/**Reads a stored upload
+	 * @param file The upload's file
+	 * @return The upload, or null if it was synced or replaced since being listed
+	 * @throws IOException If the upload couldn't be read*/
+	synchronized Upload read(File file) throws IOException
+	{
+		if(!file.isFile()){//if the upload is gone
+			return null;
+		}
+		byte[] contents = new byte[(int)file.length()];//allocate space for the upload
+		try(DataInputStream dataInputStream = new DataInputStream(new FileInputStream(file))){//create a stream for reading the upload
+			dataInputStream.readFully(contents);//read in the upload
+		}
+		DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(contents));//wrap the upload for reading it's fields
+		long version = dataInputStream.readLong();//read the upload's version
+		String remotePath = dataInputStream.readUTF();//read where the upload goes
+		boolean overwrite = dataInputStream.readBoolean();//read whether the upload replaces the remote file
+		if(dataInputStream.readBoolean()){//if the upload is of a local file
+			return new Upload(file, version, remotePath, overwrite, null, dataInputStream.readUTF());//return the upload
+		}
+		int offset = contents.length - dataInputStream.available();//find where the data starts
+		return new Upload(file, version, remotePath, overwrite, Arrays.copyOfRange(contents, offset, contents.length), null);//return the upload
+	}
+
+	/**Removes an upload once it's been synced, unless a newer upload to the same path replaced it in the meantime
+	 * @param upload The upload that was synced*/
+	synchronized void remove(Upload upload)
+	{
+		try(DataInputStream dataInputStream = new DataInputStream(new FileInputStream(upload.file))){//create a stream for reading the stored version
+			if(dataInputStream.readLong() != upload.version){//if the upload was replaced
+				return;//keep the newer upload
+			}
+		} catch(IOException ioException){//if the upload is already gone
+			return;
+		}
+		upload.file.delete();//delete the upload
+	}
+
+	/**Returns the file an upload to a path is stored in, which is named by the SHA-256 hash of the path so it stays
+	 * within the filesystem's name limit however long the path is; the path itself is stored inside the file
+	 * @param remotePath The path the upload goes to
+	 * @return Reference to the upload's file
+	 * @throws IOException If the path couldn't be hashed*/
+	private File fileOf(String remotePath) throws IOException
+	{
+		MessageDigest digest;//reference for the hashing algorithm
+		try{//try to retrieve the hashing algorithm
+			digest = MessageDigest.getInstance("SHA-256");//retrieve the SHA-256 algorithm
+		} catch(NoSuchAlgorithmException noSuchAlgorithmException){//if SHA-256 isn't available
+			throw new IOException("SHA-256 is unavailable", noSuchAlgorithmException);//except that the path can't be hashed
+		}
+		StringBuilder name = new StringBuilder(64 + EXTENSION.length());//create a builder for the file's name
+		for(byte b : digest.digest(remotePath.getBytes(StandardCharsets.UTF_8))){//iterate through the bytes of the path's hash
+			name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));//append the byte in hexadecimal
+		}
+		return new File(directory, name.append(EXTENSION).toString());//name the file after the hash
+	}
+
+	/**Class holding a single stored upload*/
+	static class Upload
+	{
+		/**The file the upload is stored in*/
+		final File file;
+		/**The upload's version*/
+		final long version;
+		/**The path to upload to in the master database*/
+		final String remotePath;
+		/**Whether the upload replaces the remote file rather than being added next to it*/
+		final boolean overwrite;
+		/**The data to upload, null if a local file should be uploaded*/
+		final byte[] data;
+		/**The path of the local file to upload, null if data should be uploaded*/
+		final String localPath;
+
+		/**Creates a new upload
+		 * @param uploadFile The file the upload is stored in
+		 * @param uploadVersion The upload's version
+		 * @param path The path to upload to
+		 * @param replace Whether the upload replaces the remote file
+		 * @param uploadData The data to upload, null if a local file should be uploaded
+		 * @param local The path of the local file to upload, null if data should be uploaded*/
+		private Upload(File uploadFile, long uploadVersion, String path, boolean replace, byte[] uploadData, String local)
+		{
+			file = uploadFile;//set the upload's file
+			version = uploadVersion;//set the upload's version
+			remotePath = path;//set where the upload goes
+			overwrite = replace;//set whether the upload replaces the remote file
+			data = uploadData;//set the upload's data
+			localPath = local;//set the upload's local file
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package net.insertcreativity.andac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.insertcreativity.util.LogPrinter;
+import net.insertcreativity.util.RingBufferQueue;
+
+/**Class that moves queued tasks from loaded members of a federation to idle ones, so a job whose tasks landed unevenly
+ * still keeps every server's clients busy. Everything goes through the federation's directory in the master database,
+ * under 'Steals': an idle server drops a request into the loaded server's directory, the loaded server pulls a batch
+ * off it's queue and drops it into the idle server's directory, and the batch then belongs to whichever of the two
+ * first creates it's owner file. The idle server tries to claim it as soon as it's downloaded, and the loaded server
+ * tries to revoke it if it's still unclaimed after a timeout, so a batch is run by exactly one server even if either
+ * side stalls or a write fails part way through*/
+class WorkStealer implements Closeable
+{
+	/**How many milliseconds apart the stealer serves requests, claims batches and looks for work*/
+	private static final long STEAL_INTERVAL = 2000;
+	/**How many milliseconds a batch can go unclaimed before the server that sent it tries to take it back*/
+	private static final long HANDOFF_TIMEOUT = 30000;
+	/**How many milliseconds to wait for a request to be answered before asking someone else*/
+	private static final long REQUEST_TIMEOUT = 20000;
+	/**How many milliseconds owner files are kept after a batch is settled, far longer than a claim can take*/
+	private static final long OWNER_RETENTION = 600000;
+	/**Reference to the log printer that the stealer should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the io manager that requests and batches are passed through*/
+	private final IOManager ioManager;
+	/**Reference to the federation whose members tasks are moved between*/
+	private final Federation federation;
+	/**Reference to the queue that tasks are stolen into and given away from*/
+	private final RingBufferQueue<String> tasks;
+	/**The path of the federation's stealing directory*/
+	private final String root;
+	/**Map of the batches this server gave away that haven't been settled yet, by their IDs*/
+	private final HashMap<String, Batch> pending = new HashMap<String, Batch>();
+	/**Map of when each settled batch's owner file can be deleted, by the batches' IDs*/
+	private final HashMap<String, Long> settled = new HashMap<String, Long>();
+	/**Reference to the thread that runs the stealing loop*/
+	private final Thread stealer;
+	/**The member this server last asked for tasks, null if it isn't waiting on anyone*/
+	private String requestedFrom = null;
+	/**The time the last request was made at*/
+	private long requestTime = 0;
+	/**How few tasks this server has to have queued before it tries to steal more*/
+	private volatile int lowWater;
+	/**How many tasks this server asks for at a time, the victim never gives away more than half it's queue*/
+	private volatile int batchSize;
+	/**Flag for whether or not the stealer should continue running*/
+	private volatile boolean keepRunning = true;
+
+	/**Creates a new work stealer and starts it running
+	 * @param logPrinter The log printer that the stealer should log it's activity to
+	 * @param manager The io manager to pass requests and batches through
+	 * @param federated The federation to move tasks between the members of
+	 * @param queue The queue to steal tasks into and give them away from
+	 * @param lowWaterMark How few tasks have to be queued before this server steals more
+	 * @param stealBatch How many tasks to ask for at a time*/
+	WorkStealer(LogPrinter logPrinter, IOManager manager, Federation federated, RingBufferQueue<String> queue, int lowWaterMark, int stealBatch)
+	{
+		log = logPrinter;//set the stealer's log
+		ioManager = manager;//set the stealer's io manager
+		federation = federated;//set the stealer's federation
+		tasks = queue;//set the stealer's queue
+		root = "/ANDAC/Federations/" + federation.getName() + "/Steals";//set the stealing directory
+		setGranularity(lowWaterMark, stealBatch);//set how eagerly to steal
+		stealer = new Thread(new Runnable(){//create the stealing thread
+			public void run()
+			{
+				stealLoop();//run the stealing loop
+			}
+		}, "WorkStealer-Stealer");
+		stealer.setDaemon(true);//don't let the stealer keep the JVM alive
+		stealer.start();//start the stealing thread
+	}
+
+	/**Sets how eagerly this server steals work; small batches even out skewed jobs more finely but cost more round-trips
+	 * through the master database, which takes a few seconds each
+	 * @param lowWaterMark How few tasks have to be queued before this server steals more
+	 * @param stealBatch How many tasks to ask for at a time*/
+	void setGranularity(int lowWaterMark, int stealBatch)
+	{
+		lowWater = Math.max(0, lowWaterMark);//set the low water mark
+		batchSize = Math.max(1, stealBatch);//set the batch size
+	}
+
+	/**Loop run by the stealing thread, which hands out batches other members asked for, claims batches sent to this
+	 * server, settles batches that were sent out, and asks the most loaded member for work when this server runs low*/
+	private void stealLoop()
+	{
+		while(keepRunning){//while the stealer should continue running
+			try{//try to move tasks around
+				String localName = federation.getLocalName();//store this server's name
+				for(String file : ioManager.listFiles(root + "/" + localName)){//iterate through this server's directory
+					if(file.endsWith(".request")){//if another member asked for tasks
+						serveRequest(file.substring(0, file.length() - 8));//give it a batch
+					} else if(file.endsWith(".batch")){//if another member sent tasks
+						claimBatch(file.substring(0, file.length() - 6));//try to claim them
+					}
+				}
+				settleBatches();//settle the batches this server gave away
+				requestWork();//ask for more work if this server is running low
+			} catch(Exception exception){//if the master database couldn't be reached
+				if(keepRunning){//if this wasn't caused by the stealer closing
+					log.log("Work stealing failed in federation " + federation.getName());//log that stealing failed
+					exception.printStackTrace(log);//log the exception
+				}
+			}
+			try{//try to wait for the next round
+				Thread.sleep(STEAL_INTERVAL);//wait until the next round is due
+			} catch(InterruptedException interruptedException){}//if the thread was interrupted, check whether the stealer closed
+		}
+	}
+
+	/**Answers a request for tasks by taking up to the number asked for, but never more than half of this server's queue,
+	 * and sending them to the member that asked. The tasks are kept aside until the batch is settled, so they're put back
+	 * on the queue if the other member never claims them
+	 * @param thief The name of the member that asked
+	 * @throws Exception If the master database couldn't be reached*/
+	private void serveRequest(String thief) throws Exception
+	{
+		String requestPath = root + "/" + federation.getLocalName() + "/" + thief + ".request";//store the request's path
+		int wanted = new DataInputStream(new ByteArrayInputStream(ioManager.downloadData(requestPath))).readInt();//read how many tasks were asked for
+		ioManager.deleteData(requestPath);//the request is answered whether or not any tasks can be spared
+		int give = Math.min(wanted, tasks.size() / 2);//calculate how many tasks can be spared
+		if((give < 1) || (federation.addressOf(thief) == null)){//if there's nothing to spare or the member left
+			return;
+		}
+		Batch batch = new Batch(thief);//create a batch for the member
+		tasks.drainTo(batch.tasks, give);//pull the tasks off the queue
+		if(batch.tasks.isEmpty()){//if the queue emptied in the meantime
+			return;
+		}
+		String batchID = UUID.randomUUID().toString();//create a unique ID for the batch
+		pending.put(batchID, batch);//keep the tasks aside until the batch is settled
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a stream to encode the batch into
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		dataOutputStream.writeUTF(federation.getLocalName());//write who sent the batch
+		dataOutputStream.writeInt(batch.tasks.size());//write how many tasks are in the batch
+		for(String task : batch.tasks){//iterate through the tasks
+			dataOutputStream.writeUTF(task);//write the task
+		}
+		dataOutputStream.flush();//flush the batch into the byte stream
+		ioManager.overwriteData(root + "/" + thief + "/" + batchID + ".batch", byteArrayOutputStream.toByteArray());//send the batch, if this fails it's revoked once it times out
+		log.log("Sent " + batch.tasks.size() + " tasks to " + thief + " [" + batchID + "]");//log that the batch was sent
+	}
+
+	/**Claims a batch another member sent, adding it's tasks to this server's queue if the claim wins; if the sender
+	 * already revoked the batch it's tasks are left to the sender
+	 * @param batchID The ID of the batch
+	 * @throws Exception If the master database couldn't be reached*/
+	private void claimBatch(String batchID) throws Exception
+	{
+		String batchPath = root + "/" + federation.getLocalName() + "/" + batchID + ".batch";//store the batch's path
+		DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(ioManager.downloadData(batchPath)));//download the batch
+		String victim = dataInputStream.readUTF();//read who sent the batch
+		int count = dataInputStream.readInt();//read how many tasks are in the batch
+		if(tasks.capacity() - tasks.size() < count){//if the tasks wouldn't fit in the queue
+			return;//leave the batch until there's room, or it's revoked
+		}
+		ArrayList<String> stolen = new ArrayList<String>(count);//create a list for the tasks
+		for(int counter = 0; counter < count; counter++){//iterate through the tasks
+			stolen.add(dataInputStream.readUTF());//read the task
+		}
+		if(ioManager.createData(root + "/Owners/" + batchID + ".owner", federation.getLocalName().getBytes(log.encoding))){//if this server won the batch
+			requeue(stolen);//queue the tasks, which belong to this server now
+			log.log("Stole " + stolen.size() + " tasks from " + victim + " [" + batchID + "]");//log that the batch was claimed
+		} else{//if the sender already took the batch back
+			log.log("Batch " + batchID + " from " + victim + " was revoked");//log that the batch was revoked
+		}
+		ioManager.deleteData(batchPath);//the batch is settled either way
+		if(victim.equals(requestedFrom)){//if this answers this server's request
+			requestedFrom = null;//stop waiting on the request
+		}
+	}
+
+	/**Settles the batches this server gave away, forgetting the ones that were claimed and taking back the ones that
+	 * timed out, then deletes owner files that are old enough that no claim can still be in flight
+	 * @throws Exception If the master database couldn't be reached*/
+	private void settleBatches() throws Exception
+	{
+		long now = System.currentTimeMillis();//store the current time
+		Iterator<Map.Entry<String, Batch>> iterator = pending.entrySet().iterator();//iterate through the unsettled batches
+		while(iterator.hasNext()){
+			Map.Entry<String, Batch> entry = iterator.next();//get the batch
+			String batchID = entry.getKey();//get the batch's ID
+			Batch batch = entry.getValue();
+			String ownerPath = root + "/Owners/" + batchID + ".owner";//store the batch's owner file
+			if(ioManager.exists(ownerPath)){//if the member claimed the batch
+				log.log(batch.thief + " claimed " + batch.tasks.size() + " tasks [" + batchID + "]");//log that the handoff finished
+			} else if(now - batch.sent < HANDOFF_TIMEOUT){//if the member still has time to claim it
+				continue;
+			} else if(ioManager.createData(ownerPath, federation.getLocalName().getBytes(log.encoding))){//if this server took the batch back
+				requeue(batch.tasks);//queue the tasks again
+				ioManager.deleteData(root + "/" + batch.thief + "/" + batchID + ".batch");//delete the batch so the member stops trying to claim it
+				log.log("Revoked " + batch.tasks.size() + " unclaimed tasks from " + batch.thief + " [" + batchID + "]");//log that the batch was revoked
+			} else{//if the member claimed it just before the revoke
+				log.log(batch.thief + " claimed " + batch.tasks.size() + " tasks [" + batchID + "]");//log that the handoff finished
+			}
+			iterator.remove();//the batch is settled
+			settled.put(batchID, now + OWNER_RETENTION);//keep it's owner file around long enough to fend off a late claim
+		}
+		Iterator<Map.Entry<String, Long>> expired = settled.entrySet().iterator();//iterate through the settled batches
+		while(expired.hasNext()){
+			Map.Entry<String, Long> entry = expired.next();//get the batch
+			if(entry.getValue() <= now){//if it's owner file isn't needed anymore
+				ioManager.deleteData(root + "/Owners/" + entry.getKey() + ".owner");//delete the owner file
+				expired.remove();
+			}
+		}
+	}
+
+	/**Asks the most loaded member for a batch of tasks if this server is running low and isn't already waiting on a
+	 * request, going by the loads published in the members' leases
+	 * @throws Exception If the master database couldn't be reached*/
+	private void requestWork() throws Exception
+	{
+		if(tasks.size() > lowWater){//if this server has enough work
+			return;
+		}
+		long now = System.currentTimeMillis();//store the current time
+		if((requestedFrom != null) && (now - requestTime < REQUEST_TIMEOUT)){//if a request is still waiting to be answered
+			return;
+		}
+		String localName = federation.getLocalName();//store this server's name
+		String victim = null;//reference for the most loaded member
+		int victimLoad = 2 * lowWater + 1;//only steal from members with enough work to share
+		for(Map.Entry<String, Integer> entry : federation.getLoads().entrySet()){//iterate through the members' loads
+			if(!entry.getKey().equals(localName) && (entry.getValue() > victimLoad)){//if this is the most loaded member so far
+				victim = entry.getKey();//store the member
+				victimLoad = entry.getValue();
+			}
+		}
+		requestedFrom = victim;//store who was asked, if anyone
+		requestTime = now;
+		if(victim == null){//if no one has work to spare
+			return;
+		}
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();//create a stream to encode the request into
+		new DataOutputStream(byteArrayOutputStream).writeInt(batchSize);//write how many tasks are wanted
+		ioManager.overwriteData(root + "/" + victim + "/" + localName + ".request", byteArrayOutputStream.toByteArray());//send the request
+		log.log("Requested " + batchSize + " tasks from " + victim + ", which has " + victimLoad + " queued");//log that work was requested
+	}
+
+	/**Stops stealing; batches this server gave away that haven't been settled yet are taken back if they can be, so
+	 * their tasks stay on this server*/
+	public void close()
+	{
+		keepRunning = false;//set that the stealer should stop running
+		stealer.interrupt();//wake up the stealer so it stops
+		try{//try to wait for the stealer to stop
+			stealer.join(HANDOFF_TIMEOUT);//wait for any round in progress to finish
+		} catch(InterruptedException interruptedException){}//carry on anyways if interrupted
+		for(Map.Entry<String, Batch> entry : pending.entrySet()){//iterate through the unsettled batches
+			try{//try to take the batch back
+				if(ioManager.createData(root + "/Owners/" + entry.getKey() + ".owner", federation.getLocalName().getBytes(log.encoding))){//if this server took the batch back
+					requeue(entry.getValue().tasks);//queue the tasks again
+					ioManager.deleteData(root + "/" + entry.getValue().thief + "/" + entry.getKey() + ".batch");//delete the batch
+				}
+			} catch(Exception exception){//if the batch couldn't be settled
+				log.log("Failed to settle batch " + entry.getKey() + " while closing");//log that the batch was left unsettled
+				exception.printStackTrace(log);//log the exception
+			}
+		}
+		pending.clear();//forget the batches
+	}
+
+	/**Queues tasks that belong to this server, waiting for room in the queue rather than dropping any; an interrupt,
+	 * such as from the stealer closing, doesn't stop the wait since the tasks would be lost, but is kept for the caller
+	 * @param owned The tasks to queue*/
+	private void requeue(List<String> owned)
+	{
+		boolean interrupted = false;//flag for whether the thread was interrupted while waiting
+		for(String task : owned){//iterate through the tasks
+			while(true){//loop until the task is queued
+				try{//try to queue the task
+					tasks.put(task);//queue the task, waiting for room
+					break;
+				} catch(InterruptedException interruptedException){//if the thread was interrupted
+					interrupted = true;//keep waiting, but remember the interrupt
+				}
+			}
+		}
+		if(interrupted){//if the thread was interrupted
+			Thread.currentThread().interrupt();//restore the interrupt
+		}
+	}
+
+	/**Class for holding a batch of tasks given to another member until it's settled*/
+	private static class Batch
+	{
+		/**The name of the member the batch was given to*/
+		final String thief;
+		/**The tasks in the batch*/
+		final ArrayList<String> tasks = new ArrayList<String>();
+		/**The time the batch was sent at*/
+		final long sent = System.currentTimeMillis();
+
+		/**Creates a new empty batch
+		 * @param member The name of the member the batch is for*/
+		Batch(String member)
+		{
+			thief = member;//set who the batch is for
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package net.insertcreativity.util;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**Implements a compact probabilistic set of strings, which can report false positives but never false negatives*/
+public class BloomFilter implements Serializable
+{
+	/**Serial ID for serializing bloom filters across networks*/
+	private static final long serialVersionUID = 2659174630850173914L;
+	/**Array containing the bits of this filter*/
+	private final long[] bits;
+	/**How many bits are in this filter*/
+	private final int bitCount;
+	/**How many bits are set for each element added to this filter*/
+	private final int hashCount;
+
+	/**Creates a new empty bloom filter sized for the specified number of elements and false positive rate
+	 * @param expectedElements How many elements are expected to be added into the filter
+	 * @param falsePositiveRate The desired probability of the filter reporting an element it doesn't contain*/
+	public BloomFilter(int expectedElements, double falsePositiveRate)
+	{
+		expectedElements = Math.max(expectedElements, 1);//ensure there's at least one expected element
+		long optimalBits = (long)Math.ceil(-expectedElements * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));//calculate the optimal number of bits
+		bitCount = (int)Math.max(64, Math.min(optimalBits, Integer.MAX_VALUE - 63));//clamp the number of bits to a sane range
+		hashCount = Math.max(1, (int)Math.round((double)bitCount / expectedElements * Math.log(2)));//calculate the optimal number of hashes
+		bits = new long[(bitCount + 63) / 64];//allocate space for the filter's bits
+	}
+
+	/**Adds an element into this filter
+	 * @param element The string to be added*/
+	public void add(String element)
+	{
+		long hash = hash(element);//hash the element
+		int hash1 = (int)hash;//split the lower half of the hash off
+		int hash2 = (int)(hash >>> 32);//split the upper half of the hash off
+		for(int counter = 1; counter <= hashCount; counter++){//iterate through each of the hashes
+			int index = ((hash1 + counter * hash2) & Integer.MAX_VALUE) % bitCount;//combine the two halves into the next bit index
+			bits[index >>> 6] |= (1L << index);//set the bit
+		}
+	}
+
+	/**Checks whether an element might have been added into this filter
+	 * @param element The string to check for
+	 * @return False if the element definitely hasn't been added, true if it probably has*/
+	public boolean mightContain(String element)
+	{
+		long hash = hash(element);//hash the element
+		int hash1 = (int)hash;//split the lower half of the hash off
+		int hash2 = (int)(hash >>> 32);//split the upper half of the hash off
+		for(int counter = 1; counter <= hashCount; counter++){//iterate through each of the hashes
+			int index = ((hash1 + counter * hash2) & Integer.MAX_VALUE) % bitCount;//combine the two halves into the next bit index
+			if((bits[index >>> 6] & (1L << index)) == 0){//if the bit isn't set
+				return false;//the element was never added
+			}
+		}
+		return true;//the element was probably added
+	}
+
+	/**Generates a 64 bit FNV-1a hash of a string's UTF-8 bytes, which is stable across JVMs unlike String.hashCode
+	 * @param element The string to hash
+	 * @return The 64 bit hash of the string*/
+	private static long hash(String element)
+	{
+		long hash = 0xcbf29ce484222325L;//start from the FNV offset basis
+		for(byte b : element.getBytes(StandardCharsets.UTF_8)){//iterate through the string's bytes
+			hash ^= (b & 0xFF);//mix the byte into the hash
+			hash *= 0x100000001b3L;//multiply by the FNV prime
+		}
+		hash ^= (hash >>> 33);//finalize the hash so both halves are well mixed
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= (hash >>> 33);
+		return hash;//return the hash
+	}
+}
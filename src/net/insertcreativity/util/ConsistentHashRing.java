@@ -0,0 +1,130 @@
+package net.insertcreativity.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**Implements a consistent hash ring, which maps keys onto a changing set of nodes so that adding or removing a node
+ * only moves the keys that node gains or loses, about 1/n of them, instead of reshuffling everything. Each node is
+ * placed on the ring at many points, it's virtual nodes, which evens out how much of the ring each node owns; a node can
+ * be given more virtual nodes than the others to take a proportionally larger share. Lookups never lock, since the ring
+ * is replaced with a new copy whenever a node is added or removed*/
+public class ConsistentHashRing<N>
+{
+	/**The number of virtual nodes a node gets unless it's added with a weight*/
+	private final int defaultVirtualNodes;
+	/**The ring, mapping each virtual node's position to it's node, replaced rather than modified*/
+	private volatile TreeMap<Long, N> ring = new TreeMap<Long, N>();
+	/**Map of how many virtual nodes each node has, writes to it and the ring are guarded by this*/
+	private final HashMap<N, Integer> nodes = new HashMap<N, Integer>();
+
+	/**Creates a new empty hash ring
+	 * @param virtualNodes How many points on the ring each node gets, more give a more even spread but use more memory*/
+	public ConsistentHashRing(int virtualNodes)
+	{
+		defaultVirtualNodes = Math.max(1, virtualNodes);//set the default number of virtual nodes
+	}
+
+	/**Adds a node into the ring with the default number of virtual nodes, or resets it's weight if it's already in it
+	 * @param node The node to add, whose string form must be unique and the same on every machine sharing the ring*/
+	public void add(N node)
+	{
+		add(node, defaultVirtualNodes);//add the node with the default weight
+	}
+
+	/**Adds a node into the ring, or changes it's weight if it's already in it
+	 * @param node The node to add, whose string form must be unique and the same on every machine sharing the ring
+	 * @param virtualNodes How many points on the ring the node gets*/
+	public synchronized void add(N node, int virtualNodes)
+	{
+		nodes.put(node, Math.max(1, virtualNodes));//store the node's weight
+		rebuild();//rebuild the ring
+	}
+
+	/**Removes a node from the ring, the keys it owned move to the nodes after it
+	 * @param node The node to remove
+	 * @return True if the node was in the ring*/
+	public synchronized boolean remove(N node)
+	{
+		if(nodes.remove(node) == null){//if the node wasn't in the ring
+			return false;
+		}
+		rebuild();//rebuild the ring
+		return true;
+	}
+
+	/**Replaces every node in the ring at once, so a membership change only rebuilds the ring once
+	 * @param members The nodes that should be in the ring, each with the default number of virtual nodes*/
+	public synchronized void setNodes(List<N> members)
+	{
+		nodes.clear();//forget the old nodes
+		for(N node : members){//iterate through the new nodes
+			nodes.put(node, defaultVirtualNodes);//store the node's weight
+		}
+		rebuild();//rebuild the ring
+	}
+
+	/**Finds the node that owns a key, which is the first virtual node at or after the key's position on the ring
+	 * @param key The key to look up
+	 * @return The node that owns the key, or null if the ring is empty*/
+	public N get(String key)
+	{
+		TreeMap<Long, N> current = ring;//store the current ring
+		if(current.isEmpty()){//if there aren't any nodes
+			return null;
+		}
+		Map.Entry<Long, N> entry = current.ceilingEntry(hash(key));//find the first virtual node after the key
+		return ((entry != null)? entry : current.firstEntry()).getValue();//return it's node, wrapping around to the start
+	}
+
+	/**Returns every node in the ring
+	 * @return List of the nodes*/
+	public synchronized List<N> getNodes()
+	{
+		return Collections.unmodifiableList(new ArrayList<N>(nodes.keySet()));//return a copy of the nodes
+	}
+
+	/**Returns how many nodes are in the ring
+	 * @return The number of nodes*/
+	public synchronized int size()
+	{
+		return nodes.size();//return the number of nodes
+	}
+
+	/**Rebuilds the ring from the nodes and their weights, must be called while holding this*/
+	private void rebuild()
+	{
+		TreeMap<Long, N> newRing = new TreeMap<Long, N>();//create the new ring
+		for(Map.Entry<N, Integer> entry : nodes.entrySet()){//iterate through the nodes
+			String name = entry.getKey().toString();//get the node's name
+			for(int counter = 0; counter < entry.getValue(); counter++){//iterate through the node's virtual nodes
+				newRing.put(hash(name + "#" + counter), entry.getKey());//place the virtual node on the ring
+			}
+		}
+		ring = newRing;//publish the new ring
+	}
+
+	/**Hashes a string onto the ring, using the first 8 bytes of it's MD5 digest since that spreads similar names far
+	 * apart and is the same on every JVM
+	 * @param key The string to hash
+	 * @return The string's position on the ring*/
+	private static long hash(String key)
+	{
+		try{//try to digest the string
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));//digest the string
+			long hash = 0;//accumulator for the hash
+			for(int counter = 0; counter < 8; counter++){//iterate through the first 8 bytes
+				hash = (hash << 8) | (digest[counter] & 0xFF);//add the byte into the hash
+			}
+			return hash;//return the hash
+		} catch(NoSuchAlgorithmException noSuchAlgorithmException){//every JVM has to support MD5
+			throw new IllegalStateException(noSuchAlgorithmException);//except that something impossible happened
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package net.insertcreativity.util;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**Implements a bounded, lock-free, first in, first out queue that any number of threads can add to and remove from at
+ * once. Each slot in the ring has a sequence number recording which lap of the ring it's ready for, so producers and
+ * consumers only ever contend on a single compare-and-set of the head or tail counter, and batches of elements can be
+ * claimed with a single compare-and-set*/
+public class RingBufferQueue<T>
+{
+	/**Enumeration of the ways a thread can wait for space or elements in the queue*/
+	public enum WaitStrategy
+	{
+		/**Busy spin, yielding the processor between attempts; lowest latency but burns a core while waiting*/
+		SPINNING,
+		/**Spin briefly and then park until signalled; uses no CPU while waiting but adds wake-up latency*/
+		BLOCKING
+	}
+
+	/**How many times a blocking waiter spins before parking*/
+	private static final int SPIN_LIMIT = 100;
+	/**Array of the elements in each slot of the ring*/
+	private final AtomicReferenceArray<T> elements;
+	/**Array of the sequence numbers of each slot of the ring*/
+	private final AtomicLongArray sequences;
+	/**Mask for converting a position into a slot index, the capacity minus one*/
+	private final int mask;
+	/**The position of the next element to be removed*/
+	private final PaddedCounter head = new PaddedCounter();
+	/**The position of the next element to be added*/
+	private final PaddedCounter tail = new PaddedCounter();
+	/**How this queue's threads wait for space or elements*/
+	private final WaitStrategy waitStrategy;
+	/**Lock that blocked threads park on*/
+	private final ReentrantLock lock = new ReentrantLock();
+	/**Condition that blocked threads are signalled through when the queue changes*/
+	private final Condition changed = lock.newCondition();
+	/**How many threads are currently parked waiting on the queue*/
+	private final AtomicInteger waiters = new AtomicInteger(0);
+
+	/**Creates a new queue that holds at least the specified number of elements
+	 * @param minimumCapacity The fewest elements the queue should be able to hold, rounded up to a power of two
+	 * @param strategy How threads should wait for space or elements*/
+	public RingBufferQueue(int minimumCapacity, WaitStrategy strategy)
+	{
+		if((minimumCapacity < 1) || (minimumCapacity > (1 << 30))){//if the capacity is out of range
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + minimumCapacity);//except that the capacity is invalid
+		}
+		int capacity = Integer.highestOneBit(minimumCapacity - 1) << 1;//round the capacity up to a power of two
+		capacity = Math.max(capacity, 2);//ensure there's at least 2 slots
+		elements = new AtomicReferenceArray<T>(capacity);//allocate the ring's slots
+		sequences = new AtomicLongArray(capacity);//allocate the ring's sequence numbers
+		for(int counter = 0; counter < capacity; counter++){//iterate through the slots
+			sequences.set(counter, counter);//mark the slot as ready for it's first element
+		}
+		mask = capacity - 1;//set the index mask
+		waitStrategy = strategy;//set the wait strategy
+	}
+
+	/**Adds an element to the tail of the queue if there's space
+	 * @param element The element to add, which cannot be null
+	 * @return True if the element was added, false if the queue is full*/
+	public boolean offer(T element)
+	{
+		if(element == null){//if the element is null
+			throw new NullPointerException("Queue elements cannot be null");//except that null can't be queued
+		}
+		long position = tail.get();//get the position to add at
+		while(true){//loop until the element is added or the queue is full
+			int index = (int)position & mask;//convert the position into a slot
+			long difference = sequences.get(index) - position;//compare the slot's sequence to the position
+			if(difference == 0){//if the slot is free for this lap
+				if(tail.compareAndSet(position, position + 1)){//if this thread claimed the slot
+					elements.lazySet(index, element);//store the element in the slot
+					sequences.lazySet(index, position + 1);//publish the element to consumers
+					signal();//wake up any parked consumers
+					return true;//return that the element was added
+				}
+				position = tail.get();//another producer claimed the slot, try the next position
+			} else if(difference < 0){//if the slot still holds an element from the last lap
+				return false;//return that the queue is full
+			} else{//if another producer already filled the slot
+				position = tail.get();//try the next position
+			}
+		}
+	}
+
+	/**Removes and returns the element at the head of the queue
+	 * @return The head element, or null if the queue is empty*/
+	public T poll()
+	{
+		long position = head.get();//get the position to remove from
+		while(true){//loop until an element is removed or the queue is empty
+			int index = (int)position & mask;//convert the position into a slot
+			long difference = sequences.get(index) - (position + 1);//compare the slot's sequence to the position
+			if(difference == 0){//if the slot holds an element for this lap
+				if(head.compareAndSet(position, position + 1)){//if this thread claimed the element
+					T element = elements.get(index);//retrieve the element
+					elements.lazySet(index, null);//clear the slot
+					sequences.lazySet(index, position + mask + 1);//release the slot for the next lap
+					signal();//wake up any parked producers
+					return element;//return the element
+				}
+				position = head.get();//another consumer claimed the element, try the next position
+			} else if(difference < 0){//if the slot hasn't been filled yet
+				return null;//return that the queue is empty
+			} else{//if another consumer already took the element
+				position = head.get();//try the next position
+			}
+		}
+	}
+
+	/**Adds as many elements from an array as there's space for, claiming all their slots at once
+	 * @param batch The elements to add, none of which can be null
+	 * @param offset The index of the first element to add
+	 * @param length How many elements to add
+	 * @return How many elements were added, which is less than length if the queue filled up*/
+	public int offerAll(T[] batch, int offset, int length)
+	{
+		for(int counter = offset; counter < offset + length; counter++){//iterate through the batch
+			if(batch[counter] == null){//if the element is null
+				throw new NullPointerException("Queue elements cannot be null");//except that null can't be queued
+			}
+		}
+		if(length <= 0){//if there's nothing to add
+			return 0;//return that nothing was added
+		}
+		while(true){//loop until a batch of slots is claimed
+			long position = tail.get();//get the position to start adding at
+			int free = 0;//counter for how many consecutive slots are free
+			while((free < length) && (sequences.get((int)(position + free) & mask) == position + free)){//while the next slot is free for this lap
+				free++;//count the slot
+			}
+			if(free == 0){//if there's no space
+				if(sequences.get((int)position & mask) < position){//if the queue is full rather than contended
+					return 0;//return that nothing was added
+				}
+				continue;//another producer moved the tail, try again
+			}
+			if(tail.compareAndSet(position, position + free)){//if this thread claimed the slots
+				for(int counter = 0; counter < free; counter++){//iterate through the claimed slots
+					int index = (int)(position + counter) & mask;//convert the position into a slot
+					elements.lazySet(index, batch[offset + counter]);//store the element in the slot
+					sequences.lazySet(index, position + counter + 1);//publish the element to consumers
+				}
+				signal();//wake up any parked consumers
+				return free;//return how many elements were added
+			}
+		}
+	}
+
+	/**Removes up to the specified number of elements from the head of the queue into a collection, claiming all their
+	 * slots at once
+	 * @param collection The collection to add the removed elements to
+	 * @param maxElements The most elements to remove
+	 * @return How many elements were removed*/
+	public int drainTo(Collection<? super T> collection, int maxElements)
+	{
+		if(maxElements <= 0){//if nothing should be removed
+			return 0;//return that nothing was removed
+		}
+		while(true){//loop until a batch of elements is claimed
+			long position = head.get();//get the position to start removing from
+			int ready = 0;//counter for how many consecutive elements are ready
+			while((ready < maxElements) && (sequences.get((int)(position + ready) & mask) == position + ready + 1)){//while the next slot holds an element for this lap
+				ready++;//count the element
+			}
+			if(ready == 0){//if there are no elements
+				if(sequences.get((int)position & mask) < position + 1){//if the queue is empty rather than contended
+					return 0;//return that nothing was removed
+				}
+				continue;//another consumer moved the head, try again
+			}
+			if(head.compareAndSet(position, position + ready)){//if this thread claimed the elements
+				for(int counter = 0; counter < ready; counter++){//iterate through the claimed slots
+					int index = (int)(position + counter) & mask;//convert the position into a slot
+					collection.add(elements.get(index));//move the element into the collection
+					elements.lazySet(index, null);//clear the slot
+					sequences.lazySet(index, position + counter + mask + 1);//release the slot for the next lap
+				}
+				signal();//wake up any parked producers
+				return ready;//return how many elements were removed
+			}
+		}
+	}
+
+	/**Adds an element to the tail of the queue, waiting for space if the queue is full
+	 * @param element The element to add, which cannot be null
+	 * @throws InterruptedException If the thread was interrupted while waiting*/
+	public void put(T element) throws InterruptedException
+	{
+		for(int attempt = 0; !offer(element); attempt++){//while the element couldn't be added
+			await(attempt);//wait for space
+		}
+	}
+
+	/**Removes and returns the element at the head of the queue, waiting for one if the queue is empty
+	 * @return The head element
+	 * @throws InterruptedException If the thread was interrupted while waiting*/
+	public T take() throws InterruptedException
+	{
+		T element;//reference for the removed element
+		for(int attempt = 0; (element = poll()) == null; attempt++){//while there's no element to remove
+			await(attempt);//wait for an element
+		}
+		return element;//return the element
+	}
+
+	/**Waits for the queue to change according to the wait strategy
+	 * @param attempt How many times the caller has already waited
+	 * @throws InterruptedException If the thread was interrupted while waiting*/
+	private void await(int attempt) throws InterruptedException
+	{
+		if(Thread.interrupted()){//if the thread was interrupted
+			throw new InterruptedException();//stop waiting
+		}
+		if((waitStrategy == WaitStrategy.SPINNING) || (attempt < SPIN_LIMIT)){//if the thread should spin
+			Thread.yield();//give up the processor for a moment
+			return;
+		}
+		lock.lock();//lock changed
+		try{//wrapper to ensure the lock is released
+			waiters.incrementAndGet();//count this thread as parked
+			changed.await(1, TimeUnit.MILLISECONDS);//park until signalled, re-checking periodically in case a signal was missed
+		} finally{//ensure the waiter count and lock are released
+			waiters.decrementAndGet();//this thread is no longer parked
+			lock.unlock();//release changed
+		}
+	}
+
+	/**Wakes up any threads parked on the queue, this is skipped entirely when nobody is parked*/
+	private void signal()
+	{
+		if(waiters.get() > 0){//if there are parked threads
+			lock.lock();//lock changed
+			try{//wrapper to ensure the lock is released
+				changed.signalAll();//wake up the parked threads
+			} finally{//ensure the lock is released
+				lock.unlock();//release changed
+			}
+		}
+	}
+
+	/**Retrieves an estimate of the number of elements in the queue, which may be stale by the time it's returned
+	 * @return How many elements are in the queue*/
+	public int size()
+	{
+		return (int)Math.max(0, Math.min(tail.get() - head.get(), mask + 1));//return the distance between the head and tail
+	}
+
+	/**Returns whether the queue currently appears empty
+	 * @return True if there are no elements in the queue*/
+	public boolean isEmpty()
+	{
+		return size() == 0;//return whether the queue has no elements
+	}
+
+	/**Returns how many elements the queue can hold
+	 * @return The queue's capacity*/
+	public int capacity()
+	{
+		return mask + 1;//return the number of slots
+	}
+
+	/**Counter padded out to it's own cache line, so the head and tail counters don't falsely share one*/
+	private static final class PaddedCounter extends AtomicLong
+	{
+		/**Serial ID for serializing this counter*/
+		private static final long serialVersionUID = 1854327720412573063L;
+		/**Padding to fill out the rest of the counter's cache line*/
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
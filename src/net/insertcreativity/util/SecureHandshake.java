@@ -0,0 +1,168 @@
+package net.insertcreativity.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**Class that performs the key exchange for a pair of secure streams. Each side sends a fresh X25519 public key, both
+ * compute the shared secret, and a separate AES-256 key is derived from it for each direction with HKDF-SHA256, so the
+ * two directions never share a key and nonce. The derivation covers both public keys, and can mix in a pre-shared key;
+ * without one the exchange stops eavesdropping but not an active man in the middle. Every stream numbers it's chunks
+ * from 0, so each key can only be handed to a single stream; a handshake hands out each of it's keys once, and a new
+ * exchange is needed for every pair of streams*/
+public final class SecureHandshake
+{
+	/**Version of the handshake and chunk format, sent first so incompatible peers fail cleanly*/
+	private static final int VERSION = 1;
+	/**The largest public key accepted from the other side, in bytes*/
+	private static final int MAX_KEY_LENGTH = 1024;
+	/**The length of the authentication tag on each chunk in bytes*/
+	static final int TAG_LENGTH = 16;
+	/**The length of each chunk's nonce in bytes*/
+	static final int NONCE_LENGTH = 12;
+	/**The most plaintext bytes that can be put into a single chunk*/
+	static final int MAX_CHUNK_SIZE = 1024 * 1024;
+	/**Bit set in a chunk's length header if it's the last chunk in the stream*/
+	static final int FINAL_CHUNK = 0x80000000;
+	/**The key for encrypting data sent to the other side, null once it's been taken, guarded by this*/
+	private SecretKey sendKey;
+	/**The key for decrypting data received from the other side, null once it's been taken, guarded by this*/
+	private SecretKey receiveKey;
+
+	/**Creates a new handshake result
+	 * @param sendingKey The key for data sent to the other side
+	 * @param receivingKey The key for data received from the other side*/
+	private SecureHandshake(SecretKey sendingKey, SecretKey receivingKey)
+	{
+		sendKey = sendingKey;//set the sending key
+		receiveKey = receivingKey;//set the receiving key
+	}
+
+	/**Takes the key for encrypting data sent to the other side, which can only be done once
+	 * @return The sending key
+	 * @throws IllegalStateException If the sending key was already taken by another stream*/
+	synchronized SecretKey takeSendKey()
+	{
+		if(sendKey == null){//if the key was already handed out
+			throw new IllegalStateException("The handshake's sending key was already used");//except that reusing it would reuse nonces
+		}
+		SecretKey key = sendKey;//store the key
+		sendKey = null;//make sure it isn't handed out again
+		return key;//return the key
+	}
+
+	/**Takes the key for decrypting data received from the other side, which can only be done once
+	 * @return The receiving key
+	 * @throws IllegalStateException If the receiving key was already taken by another stream*/
+	synchronized SecretKey takeReceiveKey()
+	{
+		if(receiveKey == null){//if the key was already handed out
+			throw new IllegalStateException("The handshake's receiving key was already used");//except that reusing it would reuse nonces
+		}
+		SecretKey key = receiveKey;//store the key
+		receiveKey = null;//make sure it isn't handed out again
+		return key;//return the key
+	}
+
+	/**Performs the key exchange with the other side. Exactly one of the two sides must be the initiator, which is
+	 * normally whoever opened the connection
+	 * @param input Stream for reading from the other side
+	 * @param output Stream for writing to the other side
+	 * @param initiator Whether this side opened the connection
+	 * @param preSharedKey Secret both sides already know to authenticate the exchange with, or null if there isn't one
+	 * @return The handshake's result, for creating the secure streams with
+	 * @throws IOException If the exchange failed or the other side sent an invalid key*/
+	public static SecureHandshake perform(InputStream input, OutputStream output, boolean initiator, byte[] preSharedKey) throws IOException
+	{
+		try{//try to exchange keys
+			KeyPair keyPair = KeyPairGenerator.getInstance("X25519").generateKeyPair();//generate a fresh key pair
+			byte[] localKey = keyPair.getPublic().getEncoded();//store the encoded public key
+			DataOutputStream dataOutputStream = new DataOutputStream(output);//wrap the output for writing the key
+			dataOutputStream.writeInt(VERSION);//write the handshake version
+			dataOutputStream.writeShort(localKey.length);//write the key's length
+			dataOutputStream.write(localKey);//write the key
+			dataOutputStream.flush();//send the key to the other side
+			DataInputStream dataInputStream = new DataInputStream(input);//wrap the input for reading the other side's key
+			int version = dataInputStream.readInt();//read the other side's version
+			if(version != VERSION){//if the other side doesn't speak the same version
+				throw new IOException("Unsupported secure stream version " + version);//except that the versions don't match
+			}
+			int keyLength = dataInputStream.readUnsignedShort();//read the key's length
+			if(keyLength > MAX_KEY_LENGTH){//if the key is unreasonably long
+				throw new IOException("Invalid public key length " + keyLength);//except that the key is invalid
+			}
+			byte[] remoteKey = new byte[keyLength];//allocate space for the other side's key
+			dataInputStream.readFully(remoteKey);//read in the key
+			PublicKey remotePublicKey = KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(remoteKey));//decode the key
+			KeyAgreement keyAgreement = KeyAgreement.getInstance("X25519");//create a key agreement
+			keyAgreement.init(keyPair.getPrivate());//initialize it with the local private key
+			keyAgreement.doPhase(remotePublicKey, true);//combine it with the other side's public key
+			byte[] sharedSecret = keyAgreement.generateSecret();//compute the shared secret
+
+			Mac mac = Mac.getInstance("HmacSHA256");//create the mac HKDF is built from
+			mac.init(new SecretKeySpec(((preSharedKey != null)? preSharedKey : new byte[32]), "HmacSHA256"));//key the extraction with the pre-shared key as salt
+			byte[] pseudoRandomKey = mac.doFinal(sharedSecret);//extract the pseudo-random key
+			byte[] initiatorKey = (initiator? localKey : remoteKey);//store the initiator's public key
+			byte[] responderKey = (initiator? remoteKey : localKey);//store the responder's public key
+			SecretKey initiatorToResponder = deriveKey(mac, pseudoRandomKey, "andac initiator", initiatorKey, responderKey);//derive the key for the initiator's data
+			SecretKey responderToInitiator = deriveKey(mac, pseudoRandomKey, "andac responder", initiatorKey, responderKey);//derive the key for the responder's data
+			return (initiator? new SecureHandshake(initiatorToResponder, responderToInitiator) : new SecureHandshake(responderToInitiator, initiatorToResponder));//return this side's keys
+		} catch(GeneralSecurityException generalSecurityException){//if the key exchange failed
+			throw new IOException("Key exchange failed", generalSecurityException);//except that the exchange failed
+		}
+	}
+
+	/**Derives a single AES-256 key with one round of HKDF expansion, bound to both sides' public keys
+	 * @param mac The mac to derive with
+	 * @param pseudoRandomKey The pseudo-random key extracted from the shared secret
+	 * @param label Label distinguishing the key's direction
+	 * @param initiatorKey The initiator's encoded public key
+	 * @param responderKey The responder's encoded public key
+	 * @return The derived key
+	 * @throws GeneralSecurityException If the mac couldn't be keyed*/
+	private static SecretKey deriveKey(Mac mac, byte[] pseudoRandomKey, String label, byte[] initiatorKey, byte[] responderKey) throws GeneralSecurityException
+	{
+		mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));//key the mac with the pseudo-random key
+		mac.update(label.getBytes(StandardCharsets.UTF_8));//mix in the label
+		mac.update(initiatorKey);//mix in the initiator's key
+		mac.update(responderKey);//mix in the responder's key
+		mac.update((byte)1);//mix in the block counter
+		return new SecretKeySpec(mac.doFinal(), "AES");//return the first block as the key
+	}
+
+	/**Writes a chunk's nonce, which is 4 zero bytes followed by the chunk's number; since each direction has it's own
+	 * key, numbering the chunks is enough to never reuse a nonce
+	 * @param nonce Array to write the nonce into
+	 * @param chunk The chunk's number*/
+	static void writeNonce(byte[] nonce, long chunk)
+	{
+		for(int counter = 0; counter < 8; counter++){//iterate through the number's bytes
+			nonce[NONCE_LENGTH - 1 - counter] = (byte)(chunk >>> (counter * 8));//write the byte
+		}
+	}
+
+	/**Writes an int in big-endian order
+	 * @param array Array to write the int into
+	 * @param offset Where in the array to write it
+	 * @param value The int to write*/
+	static void writeInt(byte[] array, int offset, int value)
+	{
+		array[offset] = (byte)(value >>> 24);//write the highest byte
+		array[offset + 1] = (byte)(value >>> 16);
+		array[offset + 2] = (byte)(value >>> 8);
+		array[offset + 3] = (byte)value;//write the lowest byte
+	}
+}
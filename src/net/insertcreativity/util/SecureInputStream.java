@@ -1,14 +1,169 @@
-
 package net.insertcreativity.util;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 
+/**Input-stream that reads the chunks written by a secure output-stream, checking and decrypting each one before
+ * releasing any of it's data. A chunk that was tampered with, replayed or reordered fails authentication, and a stream
+ * that ends before it's last chunk is reported as truncated instead of as a normal end of stream. The cipher and buffers
+ * are reused for every chunk, and large reads are decrypted straight into the caller's array*/
 public class SecureInputStream extends InputStream
 {
-	private final InputStream input;
-	
-	public SecureInputStream(InputStream inputStream)
+	/**Reference to the underlying input-stream*/
+	private final DataInputStream input;
+	/**The key chunks are decrypted with*/
+	private final SecretKey key;
+	/**The cipher chunks are decrypted with, reinitialized with the expected nonce for each chunk*/
+	private final Cipher cipher;
+	/**Buffer for the nonce of the chunk being decrypted*/
+	private final byte[] nonce = new byte[SecureHandshake.NONCE_LENGTH];
+	/**Buffer for the header of the chunk being read*/
+	private final byte[] header = new byte[4];
+	/**Buffer for the ciphertext of the chunk being read, grown to fit the largest chunk seen*/
+	private byte[] sealed = new byte[SecureOutputStream.DEFAULT_CHUNK_SIZE + SecureHandshake.TAG_LENGTH];
+	/**Buffer for the decrypted data that hasn't been read yet, grown to fit the largest chunk seen*/
+	private byte[] plaintext = new byte[SecureOutputStream.DEFAULT_CHUNK_SIZE];
+	/**The index of the next byte to read from the plaintext buffer*/
+	private int position = 0;
+	/**How many bytes of the plaintext buffer hold data*/
+	private int limit = 0;
+	/**The number of the next chunk, which it's nonce is made from*/
+	private long chunkNumber = 0;
+	/**Flag for whether the last chunk has been read*/
+	private boolean finished = false;
+
+	/**Creates a new secure input-stream
+	 * @param inputStream The input-stream to read encrypted data from
+	 * @param handshake The completed key exchange with the other side, which no other stream in this direction has used
+	 * @throws IOException If AES-GCM isn't available
+	 * @throws IllegalStateException If the handshake's key was already used by another stream*/
+	public SecureInputStream(InputStream inputStream, SecureHandshake handshake) throws IOException
+	{
+		input = new DataInputStream(inputStream);//wrap the underlying input-stream
+		key = handshake.takeReceiveKey();//set the receiving key
+		try{//try to create the cipher
+			cipher = Cipher.getInstance("AES/GCM/NoPadding");//create the cipher
+		} catch(GeneralSecurityException generalSecurityException){//if AES-GCM isn't available
+			throw new IOException("AES-GCM unavailable", generalSecurityException);//except that the cipher couldn't be created
+		}
+	}
+
+	/**Reads a single byte from the stream
+	 * @return The byte, or -1 if the stream ended
+	 * @throws IOException If a chunk couldn't be read or failed authentication*/
+	public int read() throws IOException
 	{
+		while(position == limit){//while there's no data buffered
+			if(finished){//if the last chunk was already read
+				return -1;//return that the stream ended
+			}
+			readChunk(null, 0, 0);//read in the next chunk
+		}
+		return plaintext[position++] & 0xFF;//return the next byte
+	}
 
+	/**Reads up to a range of bytes from the stream, blocking until at least one is available. If nothing is buffered and
+	 * the next chunk fits in the range it's decrypted straight into the array
+	 * @param b The array to read the bytes into
+	 * @param off The index to start storing bytes at
+	 * @param len The most bytes to read
+	 * @return How many bytes were read, or -1 if the stream ended
+	 * @throws IOException If a chunk couldn't be read or failed authentication*/
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if((off < 0) || (len < 0) || (len > b.length - off)){//if the range is outside the array
+			throw new IndexOutOfBoundsException();//except that the range is invalid
+		}
+		if(len == 0){//if nothing was asked for
+			return 0;
+		}
+		while(position == limit){//while there's no data buffered
+			if(finished){//if the last chunk was already read
+				return -1;//return that the stream ended
+			}
+			int direct = readChunk(b, off, len);//read in the next chunk, straight into the array if it fits
+			if(direct > 0){//if the chunk was decrypted straight into the array
+				return direct;//return how much was read
+			}
+		}
+		int copied = Math.min(len, limit - position);//calculate how much can be copied
+		System.arraycopy(plaintext, position, b, off, copied);//copy the buffered data
+		position += copied;
+		return copied;//return how much was read
+	}
+
+	/**Returns how many bytes can be read without blocking
+	 * @return How many decrypted bytes are buffered*/
+	public int available()
+	{
+		return limit - position;//return how much is buffered
+	}
+
+	/**Closes the underlying input-stream
+	 * @throws IOException If the underlying input-stream couldn't be closed*/
+	public void close() throws IOException
+	{
+		input.close();//close the underlying input-stream
+	}
+
+	/**Reads, authenticates and decrypts the next chunk, either into the plaintext buffer or straight into an array if it
+	 * fits there
+	 * @param b Array to decrypt the chunk straight into if it fits, or null to always buffer it
+	 * @param off The index to start storing bytes at
+	 * @param len How many bytes there's room for in the array
+	 * @return How many bytes were decrypted into the array, 0 if the chunk was buffered instead
+	 * @throws IOException If the chunk couldn't be read or failed authentication*/
+	private int readChunk(byte[] b, int off, int len) throws IOException
+	{
+		readFully(header, 4);//read the header
+		int value = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);//decode the header
+		int sealedLength = value & ~SecureHandshake.FINAL_CHUNK;//get the chunk's length
+		if((sealedLength < SecureHandshake.TAG_LENGTH) || (sealedLength > SecureHandshake.MAX_CHUNK_SIZE + SecureHandshake.TAG_LENGTH)){//if the length is impossible
+			throw new IOException("Invalid chunk length " + sealedLength);//except that the stream is corrupt
+		}
+		if(sealed.length < sealedLength){//if the chunk is larger than any seen before
+			sealed = new byte[sealedLength];//grow the ciphertext buffer
+		}
+		readFully(sealed, sealedLength);//read in the chunk
+		int plainLength = sealedLength - SecureHandshake.TAG_LENGTH;//calculate how much data the chunk holds
+		boolean direct = (b != null) && (plainLength > 0) && (plainLength <= len);//store whether to decrypt straight into the array
+		if(!direct && (plaintext.length < plainLength)){//if the chunk is larger than the plaintext buffer
+			plaintext = new byte[plainLength];//grow the plaintext buffer
+		}
+		SecureHandshake.writeNonce(nonce, chunkNumber++);//create the chunk's expected nonce
+		try{//try to decrypt the chunk
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(SecureHandshake.TAG_LENGTH * 8, nonce));//prepare the cipher for the chunk
+			cipher.updateAAD(header, 0, 4);//authenticate the header along with the chunk
+			if(direct){//if the chunk fits in the array
+				cipher.doFinal(sealed, 0, sealedLength, b, off);//decrypt it straight into the array
+			} else{//if the chunk has to be buffered
+				cipher.doFinal(sealed, 0, sealedLength, plaintext, 0);//decrypt it into the buffer
+				position = 0;//read from the start of the buffer
+				limit = plainLength;
+			}
+		} catch(GeneralSecurityException generalSecurityException){//if the chunk failed authentication
+			throw new IOException("Secure stream chunk failed authentication", generalSecurityException);//except that the stream was tampered with
+		}
+		finished = ((value & SecureHandshake.FINAL_CHUNK) != 0);//store whether this was the last chunk
+		return (direct? plainLength : 0);//return how much went straight into the array
+	}
+
+	/**Reads an exact number of bytes from the underlying input-stream
+	 * @param buffer The array to read into
+	 * @param length How many bytes to read
+	 * @throws IOException If the bytes couldn't be read, or the stream ended before it's last chunk*/
+	private void readFully(byte[] buffer, int length) throws IOException
+	{
+		try{//try to read the bytes
+			input.readFully(buffer, 0, length);//read the bytes
+		} catch(EOFException eofException){//if the stream ended before it's last chunk
+			throw new IOException("Secure stream truncated", eofException);//except that data may be missing
+		}
 	}
 }
@@ -1,14 +1,177 @@
-
 package net.insertcreativity.util;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 
+/**Output-stream that encrypts and authenticates everything written to it with AES-GCM before passing it on. Data is
+ * buffered into chunks which are each sealed on their own with the next nonce in sequence and written as an int header
+ * followed by the ciphertext and tag. The header is authenticated along with the chunk and marks the stream's last
+ * chunk, so the reader can tell a cleanly closed stream from a truncated one. The cipher and buffers are reused for
+ * every chunk, and large writes are encrypted straight out of the caller's array*/
 public class SecureOutputStream extends OutputStream
 {
+	/**The default number of plaintext bytes put into each chunk*/
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+	/**Reference to the underlying output-stream*/
 	private final OutputStream output;
-	
-	public SecureOutputStream(OutputStream outputStream)
+	/**The key chunks are encrypted with*/
+	private final SecretKey key;
+	/**The cipher chunks are encrypted with, reinitialized with a new nonce for each chunk*/
+	private final Cipher cipher;
+	/**Buffer for the nonce of the chunk being encrypted*/
+	private final byte[] nonce = new byte[SecureHandshake.NONCE_LENGTH];
+	/**Buffer for the data written since the last chunk was sealed*/
+	private final byte[] plaintext;
+	/**How many bytes are in the plaintext buffer*/
+	private int count = 0;
+	/**Buffer for the header and ciphertext of the chunk being written*/
+	private final byte[] sealed;
+	/**The number of the next chunk, which it's nonce is made from*/
+	private long chunkNumber = 0;
+	/**Flag for whether the stream has been closed*/
+	private boolean closed = false;
+
+	/**Creates a new secure output-stream with the default chunk size
+	 * @param outputStream The output-stream to write the encrypted data to
+	 * @param handshake The completed key exchange with the other side, which no other stream in this direction has used
+	 * @throws IOException If AES-GCM isn't available
+	 * @throws IllegalStateException If the handshake's key was already used by another stream*/
+	public SecureOutputStream(OutputStream outputStream, SecureHandshake handshake) throws IOException
+	{
+		this(outputStream, handshake, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**Creates a new secure output-stream. Larger chunks cost less per byte but make the reader wait longer before it can
+	 * use any of a chunk's data, since nothing is released until the whole chunk is authenticated
+	 * @param outputStream The output-stream to write the encrypted data to
+	 * @param handshake The completed key exchange with the other side
+	 * @param chunkSize The most plaintext bytes to put into each chunk, up to 1MB
+	 * @throws IOException If AES-GCM isn't available*/
+	public SecureOutputStream(OutputStream outputStream, SecureHandshake handshake, int chunkSize) throws IOException
+	{
+		if((chunkSize <= 0) || (chunkSize > SecureHandshake.MAX_CHUNK_SIZE)){//if the chunk size is out of range
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize);//except that the chunk size is invalid
+		}
+		output = outputStream;//set the underlying output-stream
+		key = handshake.takeSendKey();//set the sending key
+		try{//try to create the cipher
+			cipher = Cipher.getInstance("AES/GCM/NoPadding");//create the cipher
+		} catch(GeneralSecurityException generalSecurityException){//if AES-GCM isn't available
+			throw new IOException("AES-GCM unavailable", generalSecurityException);//except that the cipher couldn't be created
+		}
+		plaintext = new byte[chunkSize];//allocate the plaintext buffer
+		sealed = new byte[4 + chunkSize + SecureHandshake.TAG_LENGTH];//allocate the chunk buffer
+	}
+
+	/**Write a single byte to the stream, sealing a chunk if it fills up
+	 * @param b An integer whose first 8 bits are taken as a byte and output
+	 * @throws IOException If a chunk couldn't be sealed or written*/
+	public void write(int b) throws IOException
+	{
+		ensureOpen();//make sure the stream is open
+		plaintext[count++] = (byte)b;//buffer the byte
+		if(count == plaintext.length){//if the buffer is full
+			seal(plaintext, 0, count, false);//seal it into a chunk
+			count = 0;//empty the buffer
+		}
+	}
+
+	/**Write a range of bytes to the stream, sealing chunks as they fill up. Once the buffer is empty any whole chunks
+	 * are sealed straight from the array without being copied
+	 * @param b The array holding the bytes
+	 * @param off The index of the first byte to write
+	 * @param len How many bytes to write
+	 * @throws IOException If a chunk couldn't be sealed or written*/
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		ensureOpen();//make sure the stream is open
+		if((off < 0) || (len < 0) || (len > b.length - off)){//if the range is outside the array
+			throw new IndexOutOfBoundsException();//except that the range is invalid
+		}
+		if(count > 0){//if there's already data buffered
+			int copied = Math.min(len, plaintext.length - count);//calculate how much fits in the buffer
+			System.arraycopy(b, off, plaintext, count, copied);//top up the buffer
+			count += copied;
+			off += copied;
+			len -= copied;
+			if(count < plaintext.length){//if the buffer still isn't full
+				return;//there's nothing to seal yet
+			}
+			seal(plaintext, 0, count, false);//seal the full buffer
+			count = 0;//empty the buffer
+		}
+		while(len >= plaintext.length){//while there's at least a whole chunk left
+			seal(b, off, plaintext.length, false);//seal it straight from the array
+			off += plaintext.length;
+			len -= plaintext.length;
+		}
+		System.arraycopy(b, off, plaintext, 0, len);//buffer whatever's left
+		count = len;
+	}
+
+	/**Seals whatever's buffered into a chunk and flushes the underlying output-stream
+	 * @throws IOException If the chunk couldn't be sealed or written*/
+	public void flush() throws IOException
+	{
+		ensureOpen();//make sure the stream is open
+		if(count > 0){//if there's data buffered
+			seal(plaintext, 0, count, false);//seal it into a chunk
+			count = 0;//empty the buffer
+		}
+		output.flush();//flush the underlying output-stream
+	}
+
+	/**Seals whatever's buffered as the stream's last chunk and closes the underlying output-stream
+	 * @throws IOException If the last chunk couldn't be written or the underlying output-stream couldn't be closed*/
+	public void close() throws IOException
+	{
+		if(closed){//if the stream was already closed
+			return;
+		}
+		try{//try to write the last chunk
+			seal(plaintext, 0, count, true);//seal what's left as the last chunk, even if it's empty
+			count = 0;//empty the buffer
+			output.flush();//flush the last chunk
+		} finally{//ensure the underlying output-stream gets closed
+			closed = true;//mark the stream as closed
+			output.close();//close the underlying output-stream
+		}
+	}
+
+	/**Encrypts a range of bytes into a chunk and writes it
+	 * @param data The array holding the bytes
+	 * @param offset The index of the first byte to seal
+	 * @param length How many bytes to seal
+	 * @param last Whether this is the stream's last chunk
+	 * @throws IOException If the chunk couldn't be sealed or written*/
+	private void seal(byte[] data, int offset, int length, boolean last) throws IOException
+	{
+		if(chunkNumber < 0){//if every nonce has been used
+			throw new IOException("Secure stream exhausted it's nonces");//except rather than reuse a nonce
+		}
+		int header = (length + SecureHandshake.TAG_LENGTH) | (last? SecureHandshake.FINAL_CHUNK : 0);//create the chunk's header
+		SecureHandshake.writeInt(sealed, 0, header);//write the header
+		SecureHandshake.writeNonce(nonce, chunkNumber++);//create the chunk's nonce
+		try{//try to encrypt the chunk
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(SecureHandshake.TAG_LENGTH * 8, nonce));//prepare the cipher for the chunk
+			cipher.updateAAD(sealed, 0, 4);//authenticate the header along with the chunk
+			int sealedLength = cipher.doFinal(data, offset, length, sealed, 4);//encrypt the chunk after the header
+			output.write(sealed, 0, 4 + sealedLength);//write the chunk
+		} catch(GeneralSecurityException generalSecurityException){//if the chunk couldn't be encrypted
+			throw new IOException("Failed to encrypt chunk", generalSecurityException);//except that the chunk couldn't be encrypted
+		}
+	}
+
+	/**Checks that the stream hasn't been closed
+	 * @throws IOException If the stream was closed*/
+	private void ensureOpen() throws IOException
 	{
-		
+		if(closed){//if the stream was closed
+			throw new IOException("Stream closed");//except that the stream is closed
+		}
 	}
 }
@@ -0,0 +1,123 @@
+package net.insertcreativity.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Random;
+
+/**Measures the throughput of the secure streams against plain streams, by pushing the same data through both in
+ * memory so only the cost of encrypting and decrypting shows. Run with the number of megabytes to push through and the
+ * size of each write, which default to 512 and 64KB*/
+public class SecureStreamBenchmark
+{
+	/**Runs the benchmark
+	 * @param args The number of megabytes to push through, and the size of each write in bytes
+	 * @throws Exception If the streams failed*/
+	public static void main(String args[]) throws Exception
+	{
+		int megabytes = ((args.length > 0)? Integer.parseInt(args[0]) : 512);//store how much data to push through
+		int writeSize = ((args.length > 1)? Integer.parseInt(args[1]) : 64 * 1024);//store how large each write is
+		byte[] data = new byte[writeSize];//allocate the data to write
+		new Random(0).nextBytes(data);//fill it with random bytes
+		long total = (long)megabytes * 1024 * 1024;//calculate how many bytes to push through
+
+		for(int round = 0; round < 3; round++){//run a few rounds so the JIT warms up
+			long plainWrite = timeWrites(new DiscardingOutputStream(), data, total);//time writing plain data
+			long secureWrite = timeWrites(new SecureOutputStream(new DiscardingOutputStream(), handshake()[0]), data, total);//time writing encrypted data with fresh keys
+
+			SecureHandshake[] handshakes = handshake();//exchange fresh keys for the read test, since keys are single-use
+
+			int sampleSize = 64 * 1024 * 1024;//only keep 64MB in memory for the read test
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(sampleSize + sampleSize / 64);//create a stream for the ciphertext
+			timeWrites(new SecureOutputStream(byteArrayOutputStream, handshakes[0]), data, sampleSize);//encrypt the sample
+			byte[] ciphertext = byteArrayOutputStream.toByteArray();//store the ciphertext
+			long plainRead = timeReads(new ByteArrayInputStream(new byte[sampleSize]), writeSize);//time reading plain data
+			long secureRead = timeReads(new SecureInputStream(new ByteArrayInputStream(ciphertext), handshakes[1]), writeSize);//time reading encrypted data
+
+			System.out.println("Round " + round + ": write plain " + rate(total, plainWrite) + "MB/s, secure " + rate(total, secureWrite) + "MB/s; read plain " + rate(sampleSize, plainRead) + "MB/s, secure " + rate(sampleSize, secureRead) + "MB/s; size overhead " + String.format("%.3f", 100.0 * (ciphertext.length - sampleSize) / sampleSize) + "%");//print the round's results
+		}
+	}
+
+	/**Exchanges keys between two ends joined by pipes
+	 * @return The initiator's handshake followed by the responder's
+	 * @throws Exception If the exchange failed*/
+	private static SecureHandshake[] handshake() throws Exception
+	{
+		final PipedInputStream initiatorInput = new PipedInputStream();//create the initiator's end
+		final PipedOutputStream responderOutput = new PipedOutputStream(initiatorInput);
+		PipedInputStream responderInput = new PipedInputStream();//create the responder's end
+		final PipedOutputStream initiatorOutput = new PipedOutputStream(responderInput);
+		final SecureHandshake[] handshakes = new SecureHandshake[2];//allocate space for both results
+		Thread initiator = new Thread(new Runnable(){//create a thread for the initiator's side
+			public void run()
+			{
+				try{//try to perform the initiator's side
+					handshakes[0] = SecureHandshake.perform(initiatorInput, initiatorOutput, true, null);//exchange keys
+				} catch(IOException ioException){//if the exchange failed
+					ioException.printStackTrace();//print the exception
+				}
+			}
+		});
+		initiator.start();//start the initiator
+		handshakes[1] = SecureHandshake.perform(responderInput, responderOutput, false, null);//perform the responder's side
+		initiator.join();//wait for the initiator to finish
+		return handshakes;//return both results
+	}
+
+	/**Times writing data to a stream until a number of bytes have been written, then closes it
+	 * @param output The stream to write to
+	 * @param data The data to write over and over
+	 * @param total How many bytes to write
+	 * @return How many nanoseconds it took
+	 * @throws IOException If the stream failed*/
+	private static long timeWrites(OutputStream output, byte[] data, long total) throws IOException
+	{
+		long start = System.nanoTime();//store the start time
+		for(long written = 0; written < total; written += data.length){//write until enough has been written
+			output.write(data, 0, (int)Math.min(data.length, total - written));//write the data
+		}
+		output.close();//close the stream, flushing anything left
+		return System.nanoTime() - start;//return how long it took
+	}
+
+	/**Times reading a stream until it ends
+	 * @param input The stream to read
+	 * @param readSize How many bytes to ask for in each read
+	 * @return How many nanoseconds it took
+	 * @throws IOException If the stream failed*/
+	private static long timeReads(InputStream input, int readSize) throws IOException
+	{
+		byte[] buffer = new byte[readSize];//allocate a buffer to read into
+		long start = System.nanoTime();//store the start time
+		while(input.read(buffer, 0, buffer.length) != -1){}//read until the stream ends
+		input.close();//close the stream
+		return System.nanoTime() - start;//return how long it took
+	}
+
+	/**Calculates a throughput
+	 * @param bytes How many bytes were moved
+	 * @param nanoseconds How long it took
+	 * @return The throughput in megabytes per second*/
+	private static long rate(long bytes, long nanoseconds)
+	{
+		return (bytes * 1000000000L) / (Math.max(1, nanoseconds) * 1024 * 1024);//return the throughput
+	}
+
+	/**Output-stream that discards everything written to it*/
+	private static class DiscardingOutputStream extends OutputStream
+	{
+		/**Discards a byte
+		 * @param b The byte*/
+		public void write(int b){}
+
+		/**Discards a range of bytes
+		 * @param b The array holding the bytes
+		 * @param off The index of the first byte
+		 * @param len How many bytes*/
+		public void write(byte[] b, int off, int len){}
+	}
+}
@@ -0,0 +1,350 @@
+package net.insertcreativity.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**Implements a first in, first out queue of strings that can grow far beyond what fits on the heap. The oldest elements
+ * are kept in memory, and once the in-memory head is full every newer element is appended to memory-mapped segment
+ * files instead. A background thread loads segments back into memory ahead of the consumer, deleting each segment's
+ * file once it's been loaded, so heap use stays bounded by the size of the head plus the segments being prefetched*/
+public class SpillingQueue implements Closeable
+{
+	/**Extension given to segment files*/
+	private static final String EXTENSION = ".spill";
+	/**Reference to the log printer that the queue should log it's activity to*/
+	private final LogPrinter log;
+	/**Reference to the directory that segment files are stored in*/
+	private final File directory;
+	/**The most elements that can be held in the in-memory head*/
+	private final int memoryLimit;
+	/**How many bytes each segment file is mapped with*/
+	private final int segmentBytes;
+	/**How many segments can be loaded into memory ahead of the consumer*/
+	private final int prefetchDepth;
+	/**Queue of the oldest elements, which are kept in memory, guarded by this*/
+	private final ArrayDeque<String> memory = new ArrayDeque<String>();
+	/**Queue of the segments that have been loaded back into memory in order, guarded by this*/
+	private final ArrayDeque<ArrayDeque<String>> loaded = new ArrayDeque<ArrayDeque<String>>();
+	/**Queue of the full segments waiting to be loaded in order, guarded by this*/
+	private final ArrayDeque<Segment> sealed = new ArrayDeque<Segment>();
+	/**The segment elements are currently being appended to, null if there isn't one, guarded by this*/
+	private Segment writing = null;
+	/**Whether the prefetch thread is loading a segment right now, guarded by this*/
+	private boolean loading = false;
+	/**The exception the prefetch thread failed to load the next segment with, which is thrown to the consumer, null if it
+	 * hasn't failed; the segment is left at the head of the sealed segments to be loaded again, guarded by this*/
+	private IOException failure = null;
+	/**Whether elements are currently being spilled to disk, once spilling starts it continues until every spilled
+	 * element has been consumed so that the queue stays in order, guarded by this*/
+	private boolean spilling = false;
+	/**How many elements are in the queue, guarded by this*/
+	private long size = 0;
+	/**Counter for numbering segment files*/
+	private long segmentCounter = 0;
+	/**Reference to the thread that loads segments ahead of the consumer*/
+	private final Thread prefetcher;
+	/**Flag for whether or not the queue is still open*/
+	private volatile boolean open = true;
+
+	/**Creates a new spilling queue and starts it's prefetch thread
+	 * @param logPrinter The log printer that the queue should log it's activity to
+	 * @param spillDirectory The directory to store segment files in
+	 * @param memoryElements The most elements to hold in memory before spilling to disk
+	 * @param segmentSize How many bytes each segment file should hold
+	 * @param prefetchSegments How many segments to load into memory ahead of the consumer
+	 * @throws IOException If the spill directory couldn't be created*/
+	public SpillingQueue(LogPrinter logPrinter, File spillDirectory, int memoryElements, int segmentSize, int prefetchSegments) throws IOException
+	{
+		log = logPrinter;//set the queue's log
+		directory = spillDirectory;//set the queue's directory
+		memoryLimit = memoryElements;//set the in-memory limit
+		segmentBytes = segmentSize;//set the segment size
+		prefetchDepth = Math.max(1, prefetchSegments);//set the prefetch depth, always prefetching at least one segment
+		if(!directory.isDirectory() && !directory.mkdirs()){//if the spill directory doesn't exist and couldn't be created
+			throw new IOException("Failed to create spill directory: " + directory.getAbsolutePath());//except that the directory couldn't be created
+		}
+		prefetcher = new Thread(new Runnable(){//create the prefetch thread
+			public void run()
+			{
+				prefetchLoop();//run the prefetch loop
+			}
+		}, "SpillingQueue-Prefetcher");
+		prefetcher.setDaemon(true);//don't let the prefetcher keep the JVM alive
+		prefetcher.start();//start the prefetch thread
+	}
+
+	/**Adds an element to the tail of the queue, spilling it to disk if the in-memory head is full
+	 * @param element The element to add, which cannot be null
+	 * @throws IOException If the element needed to be spilled and the segment file couldn't be written*/
+	public synchronized void offer(String element) throws IOException
+	{
+		if(!open){//if the queue has been closed
+			throw new IOException("Queue has been closed");//except that nothing more can be added
+		}
+		if(!spilling && (memory.size() < memoryLimit)){//if the element fits in memory
+			memory.add(element);//add the element to the in-memory head
+		} else{//if the element has to be spilled
+			spilling = true;//keep spilling until the spilled elements are consumed
+			byte[] data = element.getBytes(StandardCharsets.UTF_8);//encode the element
+			if((writing != null) && !writing.fits(data.length)){//if the current segment is full
+				seal();//seal the current segment
+			}
+			if(writing == null){//if there isn't a segment to append to
+				writing = new Segment(new File(directory, (segmentCounter++) + EXTENSION), Math.max(segmentBytes, data.length + 4));//start a new segment
+			}
+			writing.append(data);//append the element to the segment
+		}
+		size++;//count the element
+		notifyAll();//wake up anything waiting for an element
+	}
+
+	/**Removes and returns the element at the head of the queue, this only waits if the next element is on a segment
+	 * that's in the middle of being loaded
+	 * @return The head element, or null if the queue is empty
+	 * @throws IOException If a spilled segment couldn't be read, in which case the segment is kept and loading it is
+	 *         tried again on the next call*/
+	public synchronized String poll() throws IOException
+	{
+		boolean interrupted = false;//flag for whether the thread was interrupted while waiting on the prefetcher
+		try{//wrapper to ensure the interrupt status is restored
+			while(true){//loop until an element is found or the queue is found empty
+				if(!memory.isEmpty()){//if there are elements in the in-memory head
+					size--;//uncount the element
+					return memory.poll();//return the head element
+				}
+				if(!loaded.isEmpty()){//if there's a segment loaded into memory
+					ArrayDeque<String> segment = loaded.peek();//get the oldest loaded segment
+					String element = segment.poll();//take the segment's first element
+					if(segment.isEmpty()){//if the segment has been fully consumed
+						loaded.poll();//discard the segment
+					}
+					size--;//uncount the element
+					notifyAll();//let the prefetcher know there's room for another segment
+					return element;//return the element
+				}
+				if(failure != null){//if the prefetcher couldn't load the next segment
+					IOException ioException = failure;//store the failure
+					failure = null;//have the segment loaded again on the next call
+					throw ioException;//pass the failure on
+				}
+				if(loading){//if the prefetcher is loading the next segment
+					try{//try to wait for the prefetcher
+						wait();//wait for the segment to be loaded
+					} catch(InterruptedException interruptedException){//if the thread was interrupted
+						interrupted = true;//remember the interrupt but keep waiting, the element must be returned in order
+					}
+					continue;
+				}
+				if(!sealed.isEmpty()){//if the prefetcher fell behind
+					loaded.add(sealed.peek().load());//load the next segment directly
+					sealed.poll();//only remove the segment once it's loaded, so a failed load loses nothing
+					continue;
+				}
+				spilling = false;//everything left is in the segment being written, so new elements can go back into memory
+				if((writing == null) || (writing.count == 0)){//if there's nothing spilled
+					return null;//return that the queue is empty
+				}
+				writing.drainInto(memory);//move the segment's elements into memory, keeping the segment to be reused
+			}
+		} finally{//ensure the interrupt status is restored
+			if(interrupted){//if the thread was interrupted while waiting
+				Thread.currentThread().interrupt();//restore the interrupt
+			}
+		}
+	}
+
+	/**Removes and returns the element at the head of the queue, waiting for one if the queue is empty
+	 * @return The head element
+	 * @throws IOException If a spilled segment couldn't be read
+	 * @throws InterruptedException If the thread was interrupted while waiting*/
+	public synchronized String take() throws IOException, InterruptedException
+	{
+		String element;//reference for the removed element
+		while((element = poll()) == null){//while there's no element to remove
+			if(!open){//if the queue has been closed
+				throw new IOException("Queue has been closed");//except that no more elements will arrive
+			}
+			wait();//wait for an element to be added
+		}
+		return element;//return the element
+	}
+
+	/**Retrieves the number of elements in the queue, including the spilled elements
+	 * @return How many elements are in the queue*/
+	public synchronized long size()
+	{
+		return size;//return how many elements are in the queue
+	}
+
+	/**Seals the segment currently being written so it can be loaded, must be called while holding this*/
+	private void seal()
+	{
+		writing.seal();//release the segment's mapping
+		sealed.add(writing);//queue the segment to be loaded
+		writing = null;//the next spilled element starts a new segment
+		notifyAll();//wake up the prefetcher
+	}
+
+	/**Loop run by the prefetch thread, which loads sealed segments into memory until the prefetch depth is reached*/
+	private void prefetchLoop()
+	{
+		while(open){//while the queue is open
+			Segment segment;//reference for the segment to load
+			synchronized(this){//lock this
+				while(open && (sealed.isEmpty() || (loaded.size() >= prefetchDepth) || (failure != null))){//while there's nothing to prefetch, or the last failure hasn't reached the consumer
+					try{//try to wait for a segment
+						wait();//wait until there's something to prefetch
+					} catch(InterruptedException interruptedException){}//if the thread was interrupted, check whether the queue closed
+				}
+				if(!open){//if the queue was closed
+					return;
+				}
+				segment = sealed.poll();//take the next segment
+				loading = true;//mark that a segment is being loaded so the consumer waits for it rather than skipping ahead
+			}//release this
+			ArrayDeque<String> elements = null;//reference for the loaded elements
+			IOException loadFailure = null;//reference for why the segment couldn't be loaded
+			try{//try to load the segment
+				elements = segment.load();//read the segment's elements
+			} catch(IOException ioException){//if the segment couldn't be read
+				loadFailure = ioException;//store the failure
+				log.log("Failed to load spilled segment: " + segment.file.getName());//log that the segment couldn't be loaded
+				ioException.printStackTrace(log);//log the exception
+			} finally{//ensure the consumer is woken up
+				synchronized(this){//lock this
+					if(elements != null){//if the segment was loaded
+						if(!elements.isEmpty()){//if the segment held anything
+							loaded.add(elements);//queue the segment's elements for the consumer
+						}
+					} else{//if the segment couldn't be loaded
+						sealed.addFirst(segment);//put the segment back so it's loaded again
+						failure = (loadFailure != null)? loadFailure : new IOException("Failed to load spilled segment: " + segment.file.getName());//pass the failure on to the consumer
+					}
+					loading = false;//mark that the segment is finished loading
+					notifyAll();//wake up the consumer
+				}//release this
+			}
+		}
+	}
+
+	/**Closes the queue, stopping the prefetcher and deleting every segment file*/
+	public void close()
+	{
+		synchronized(this){//lock this
+			open = false;//mark the queue as closed
+			notifyAll();//wake up the prefetcher and any waiting consumers
+		}//release this
+		try{//try to wait for the prefetcher
+			prefetcher.join();//wait for the prefetcher to stop
+		} catch(InterruptedException interruptedException){//if the thread was interrupted
+			Thread.currentThread().interrupt();//restore the interrupt
+		}
+		synchronized(this){//lock this
+			if(writing != null){//if there's a segment being written
+				writing.seal();//release it's mapping
+				sealed.add(writing);//add it to be deleted
+				writing = null;
+			}
+			for(Segment segment : sealed){//iterate through the unloaded segments
+				segment.file.delete();//delete the segment's file
+			}
+			sealed.clear();//clear the segments
+			loaded.clear();//clear the loaded elements
+			memory.clear();//clear the in-memory head
+			size = 0;//the queue is now empty
+		}//release this
+	}
+
+	/**Class representing a single segment file of spilled elements, each stored as it's length followed by it's UTF-8
+	 * bytes*/
+	private static class Segment
+	{
+		/**Reference to the segment's file*/
+		private final File file;
+		/**Buffer mapped onto the segment's file, null once the segment is sealed*/
+		private MappedByteBuffer buffer;
+		/**How many elements are in the segment*/
+		private int count = 0;
+		/**How many bytes of the segment have been written*/
+		private int length = 0;
+
+		/**Creates a new segment file and maps it into memory
+		 * @param segmentFile The file to store the segment in
+		 * @param capacity How many bytes the segment can hold
+		 * @throws IOException If the file couldn't be created or mapped*/
+		private Segment(File segmentFile, int capacity) throws IOException
+		{
+			file = segmentFile;//set the segment's file
+			try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")){//open the segment's file, the mapping stays valid once it's closed
+				buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);//map the file into memory
+			}
+		}
+
+		/**Returns whether an element of the specified size fits in the rest of the segment
+		 * @param dataLength The length of the element's encoded bytes
+		 * @return True if the element fits*/
+		private boolean fits(int dataLength)
+		{
+			return buffer.remaining() >= dataLength + 4;//return whether there's room for the element and it's length
+		}
+
+		/**Appends an element to the segment
+		 * @param data The element's encoded bytes*/
+		private void append(byte[] data)
+		{
+			buffer.putInt(data.length);//write the element's length
+			buffer.put(data);//write the element
+			length = buffer.position();//update the written length
+			count++;//count the element
+		}
+
+		/**Moves every element in the segment into a queue and empties the segment so it can be written again, this is
+		 * used when the consumer catches up with the segment being written so it isn't sealed while almost empty
+		 * @param elements The queue to add the segment's elements to*/
+		private void drainInto(ArrayDeque<String> elements)
+		{
+			buffer.flip();//switch the buffer to reading what's been written
+			for(int counter = 0; counter < count; counter++){//iterate through the segment's elements
+				byte[] data = new byte[buffer.getInt()];//allocate space for the element
+				buffer.get(data);//read the element
+				elements.add(new String(data, StandardCharsets.UTF_8));//decode the element
+			}
+			buffer.clear();//reset the buffer to be written from the start
+			count = 0;//the segment is now empty
+			length = 0;
+		}
+
+		/**Seals the segment, releasing it's mapping; the data stays in the page cache until it's loaded*/
+		private void seal()
+		{
+			buffer = null;//drop the mapping so it can be unmapped
+		}
+
+		/**Reads every element in the segment back into memory and deletes the segment's file, which is kept if it
+		 * couldn't be read so loading it can be tried again
+		 * @return Queue of the segment's elements in order
+		 * @throws IOException If the file couldn't be read*/
+		private ArrayDeque<String> load() throws IOException
+		{
+			ArrayDeque<String> elements = new ArrayDeque<String>(count);//create a queue for the segment's elements
+			try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")){//open the segment's file
+				MappedByteBuffer input = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);//map the written part of the file
+				for(int counter = 0; counter < count; counter++){//iterate through the segment's elements
+					byte[] data = new byte[input.getInt()];//allocate space for the element
+					input.get(data);//read the element
+					elements.add(new String(data, StandardCharsets.UTF_8));//decode the element
+				}
+			} catch(RuntimeException runtimeException){//if the file was truncated or garbled underneath the mapping
+				throw new IOException("Corrupt spilled segment: " + file.getName(), runtimeException);//except that the segment couldn't be read
+			}
+			file.delete();//delete the segment's file now that it's been consumed
+			return elements;//return the segment's elements
+		}
+	}
+}